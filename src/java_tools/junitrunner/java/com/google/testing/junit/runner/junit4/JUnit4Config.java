@@ -28,12 +28,18 @@ import java.util.Properties;
 class JUnit4Config {
   @VisibleForTesting
   static final String JUNIT_API_VERSION_PROPERTY = "com.google.testing.junit.runner.apiVersion";
+  @VisibleForTesting
+  static final String PARALLELISM_PROPERTY = "com.google.testing.junit.runner.parallelism";
+  @VisibleForTesting
+  static final String PARALLEL_METHODS_PROPERTY = "com.google.testing.junit.runner.parallelMethods";
 
   private final String testIncludeFilterRegexp;
   private final String testExcludeFilterRegexp;
   private final Optional<Path> xmlOutputPath;
   private final String junitApiVersion;
   private final boolean shouldInstallSecurityManager;
+  private final int parallelism;
+  private final boolean parallelMethods;
 
   private static final String XML_OUTPUT_FILE_ENV_VAR = "XML_OUTPUT_FILE";
 
@@ -59,6 +65,22 @@ class JUnit4Config {
     this.xmlOutputPath = xmlOutputPath;
     junitApiVersion = systemProperties.getProperty(JUNIT_API_VERSION_PROPERTY, "1").trim();
     shouldInstallSecurityManager = systemProperties.getProperty("java.security.manager") == null;
+    parallelism = parseParallelism(systemProperties.getProperty(PARALLELISM_PROPERTY, "1"));
+    parallelMethods =
+        Boolean.parseBoolean(systemProperties.getProperty(PARALLEL_METHODS_PROPERTY, "false"));
+  }
+
+  private static int parseParallelism(String value) {
+    value = value.trim();
+    if (value.equals("auto")) {
+      return Runtime.getRuntime().availableProcessors();
+    }
+    try {
+      return Math.max(Integer.parseInt(value), 1);
+    } catch (NumberFormatException e) {
+      throw new IllegalStateException(
+          "Invalid value for " + PARALLELISM_PROPERTY + ": \"" + value + "\"", e);
+    }
   }
 
   /**
@@ -68,6 +90,20 @@ class JUnit4Config {
     return shouldInstallSecurityManager;
   }
 
+  /**
+   * Returns the number of threads to run tests on, 1 for running them all on the main thread.
+   */
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Returns whether the methods of each test class run in parallel, rather than the classes.
+   */
+  public boolean shouldRunMethodsInParallel() {
+    return parallelMethods;
+  }
+
   /**
    * Returns the XML output path, or null if not specified.
    */
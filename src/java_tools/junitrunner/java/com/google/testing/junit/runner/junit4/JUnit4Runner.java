@@ -17,6 +17,7 @@ package com.google.testing.junit.runner.junit4;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Supplier;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.testing.junit.junit4.runner.SuiteTrimmingFilter;
 import com.google.testing.junit.runner.internal.Stdout;
 import com.google.testing.junit.runner.model.TestSuiteModel;
@@ -37,12 +38,20 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 /**
  * Main entry point for running JUnit4 tests.<p>
+ *
+ * By default, all tests run on the calling thread. With the system property
+ * {@code com.google.testing.junit.runner.parallelism} set to a number of threads (or
+ * {@code auto}), test classes run in parallel; with
+ * {@code com.google.testing.junit.runner.parallelMethods=true} in addition, the methods of each
+ * class do instead. The XML output does not depend on the order in which tests run.
  */
 public class JUnit4Runner {
   private final Request request;
@@ -103,6 +112,19 @@ public class JUnit4Runner {
       core.addListener(runListener);
     }
 
+    ExecutorService executor = null;
+    PerTestOutputBuffering outputBuffering = null;
+    if (config.getParallelism() > 1) {
+      executor = Executors.newFixedThreadPool(config.getParallelism(),
+          new ThreadFactoryBuilder().setNameFormat("junit-runner-%d").setDaemon(true).build());
+      ParallelScheduling.apply(filteredRequest.getRunner(), executor,
+          config.shouldRunMethodsInParallel()
+              ? ParallelScheduling.Granularity.METHODS
+              : ParallelScheduling.Granularity.CLASSES);
+      outputBuffering = new PerTestOutputBuffering();
+      core.addListener(outputBuffering);
+    }
+
     File exitFile = getExitFile();
     exitFileActive(exitFile);
     try {
@@ -110,12 +132,21 @@ public class JUnit4Runner {
         if (config.shouldInstallSecurityManager()) {
           installSecurityManager();
         }
+        if (outputBuffering != null) {
+          outputBuffering.install();
+        }
         Request cancellableRequest = requestFactory.createRequest(filteredRequest);
         return core.run(cancellableRequest);
       } finally {
+        if (outputBuffering != null) {
+          outputBuffering.uninstall();
+        }
         disableSecurityManager();
       }
     } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
       exitFileInactive(exitFile);
     }
   }
@@ -0,0 +1,162 @@
+// Copyright 2016 The Bazel Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.junit.runner.junit4;
+
+import com.google.common.base.Throwables;
+
+import org.junit.runner.Runner;
+import org.junit.runners.ParentRunner;
+import org.junit.runners.model.RunnerScheduler;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Makes runners run their children on a thread pool.
+ *
+ * <p>Only one level of the runner tree is scheduled in parallel: either the runners of the test
+ * classes, or the test methods of each class. Runners above that level still run their children
+ * one after the other, so no task on the pool ever waits for other tasks on the pool, and a pool
+ * of any size makes progress.
+ */
+final class ParallelScheduling {
+
+  /** The granularity of parallel execution. */
+  enum Granularity {
+    /** The test classes of a suite run in parallel; the methods of a class run serially. */
+    CLASSES,
+    /** The methods of a test class run in parallel; the classes run serially. */
+    METHODS
+  }
+
+  private ParallelScheduling() {
+  }
+
+  /**
+   * Makes the runners at the level of {@code granularity} below {@code runner} run their children
+   * on {@code executor}. Runners that don't expose their children are left alone.
+   */
+  static void apply(Runner runner, ExecutorService executor, Granularity granularity) {
+    if (!(runner instanceof ParentRunner)) {
+      return;
+    }
+    ParentRunner<?> parent = (ParentRunner<?>) runner;
+    List<?> children = getChildren(parent);
+    boolean hasChildRunners = false;
+    boolean allChildrenAreClasses = true;
+    for (Object child : children) {
+      if (child instanceof Runner) {
+        hasChildRunners = true;
+        allChildrenAreClasses &= isClassRunner((Runner) child);
+      }
+    }
+
+    if (!hasChildRunners) {
+      // The children are test methods.
+      if (granularity == Granularity.METHODS && !children.isEmpty()) {
+        parent.setScheduler(new Scheduler(executor));
+      }
+    } else if (granularity == Granularity.CLASSES && allChildrenAreClasses) {
+      parent.setScheduler(new Scheduler(executor));
+    } else {
+      for (Object child : children) {
+        if (child instanceof Runner) {
+          apply((Runner) child, executor, granularity);
+        }
+      }
+    }
+  }
+
+  private static boolean isClassRunner(Runner runner) {
+    if (!(runner instanceof ParentRunner)) {
+      return false;
+    }
+    for (Object child : getChildren((ParentRunner<?>) runner)) {
+      if (child instanceof Runner) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the children of {@code runner}, which JUnit only exposes to subclasses. */
+  private static List<?> getChildren(ParentRunner<?> runner) {
+    try {
+      Method getChildren = ParentRunner.class.getDeclaredMethod("getChildren");
+      getChildren.setAccessible(true);
+      return (List<?>) getChildren.invoke(runner);
+    } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException
+        | SecurityException e) {
+      return Collections.emptyList();
+    }
+  }
+
+  /**
+   * Runs the children of one runner on a shared executor. {@link #finished} waits for all of them
+   * and rethrows the first unchecked exception they threw; test failures are reported through
+   * the notifier as usual.
+   */
+  private static final class Scheduler implements RunnerScheduler {
+    private final ExecutorService executor;
+    private final List<Future<?>> futures = new ArrayList<>();
+
+    Scheduler(ExecutorService executor) {
+      this.executor = executor;
+    }
+
+    @Override
+    public synchronized void schedule(Runnable childStatement) {
+      futures.add(executor.submit(childStatement));
+    }
+
+    @Override
+    public void finished() {
+      List<Future<?>> scheduled;
+      synchronized (this) {
+        scheduled = new ArrayList<>(futures);
+        futures.clear();
+      }
+      Throwable firstFailure = null;
+      boolean interrupted = false;
+      for (Future<?> future : scheduled) {
+        while (true) {
+          try {
+            future.get();
+            break;
+          } catch (InterruptedException e) {
+            interrupted = true;
+          } catch (ExecutionException e) {
+            if (firstFailure == null) {
+              firstFailure = e.getCause();
+            }
+            break;
+          }
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (firstFailure != null) {
+        throw Throwables.propagate(firstFailure);
+      }
+    }
+  }
+}
@@ -0,0 +1,133 @@
+// Copyright 2016 The Bazel Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.junit.runner.junit4;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.RunListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Keeps the output of tests that run in parallel apart. While a test runs, everything its thread
+ * writes to {@code System.out} and {@code System.err} is buffered; when the test finishes, the
+ * buffered output is written in one piece. The test log then reads as if the tests had run one
+ * after the other, except for output of threads that the tests start themselves.
+ */
+final class PerTestOutputBuffering extends RunListener {
+  private final PrintStream originalOut;
+  private final PrintStream originalErr;
+  private final BufferingOutputStream out;
+  private final BufferingOutputStream err;
+
+  PerTestOutputBuffering() {
+    originalOut = System.out;
+    originalErr = System.err;
+    // Both streams write to the original streams under the same lock, so that the output of a
+    // test on stdout and stderr is not interleaved with that of other tests either.
+    Object lock = new Object();
+    out = new BufferingOutputStream(originalOut, lock);
+    err = new BufferingOutputStream(originalErr, lock);
+  }
+
+  /** Redirects {@code System.out} and {@code System.err} through the buffers. */
+  void install() {
+    System.setOut(new PrintStream(out, true));
+    System.setErr(new PrintStream(err, true));
+  }
+
+  /** Restores the streams that were in place when this object was created. */
+  void uninstall() {
+    System.out.flush();
+    System.err.flush();
+    System.setOut(originalOut);
+    System.setErr(originalErr);
+  }
+
+  @Override
+  public void testStarted(Description description) {
+    out.startBuffering();
+    err.startBuffering();
+  }
+
+  @Override
+  public void testFinished(Description description) throws IOException {
+    System.out.flush();
+    System.err.flush();
+    out.stopBuffering();
+    err.stopBuffering();
+  }
+
+  private static final class BufferingOutputStream extends OutputStream {
+    private final PrintStream delegate;
+    private final Object lock;
+    private final ThreadLocal<ByteArrayOutputStream> buffer = new ThreadLocal<>();
+
+    BufferingOutputStream(PrintStream delegate, Object lock) {
+      this.delegate = delegate;
+      this.lock = lock;
+    }
+
+    void startBuffering() {
+      buffer.set(new ByteArrayOutputStream());
+    }
+
+    void stopBuffering() throws IOException {
+      ByteArrayOutputStream buffered = buffer.get();
+      buffer.remove();
+      if (buffered != null && buffered.size() > 0) {
+        synchronized (lock) {
+          buffered.writeTo(delegate);
+          delegate.flush();
+        }
+      }
+    }
+
+    @Override
+    public void write(int b) {
+      ByteArrayOutputStream buffered = buffer.get();
+      if (buffered != null) {
+        buffered.write(b);
+      } else {
+        synchronized (lock) {
+          delegate.write(b);
+        }
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      ByteArrayOutputStream buffered = buffer.get();
+      if (buffered != null) {
+        buffered.write(b, off, len);
+      } else {
+        synchronized (lock) {
+          delegate.write(b, off, len);
+        }
+      }
+    }
+
+    @Override
+    public void flush() {
+      if (buffer.get() == null) {
+        synchronized (lock) {
+          delegate.flush();
+        }
+      }
+    }
+  }
+}
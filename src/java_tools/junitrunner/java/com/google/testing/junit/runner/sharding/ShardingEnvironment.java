@@ -66,6 +66,15 @@ public class ShardingEnvironment {
     return totalShards == null ? 1 : Integer.parseInt(totalShards);
   }
 
+  /**
+   * Returns the file with the durations of the tests in earlier runs, if the build tool provided
+   * one, or null.
+   */
+  public File getTestDurationsFile() {
+    String durationsPath = System.getenv("TEST_DURATIONS_FILE");
+    return durationsPath == null ? null : new File(durationsPath);
+  }
+
   /**
    * Creates the shard file that is used to indicate that tests are
    * being sharded.
@@ -19,6 +19,8 @@ import com.google.testing.junit.runner.sharding.api.ShardingFilterFactory;
 import org.junit.runner.Description;
 import org.junit.runner.manipulation.Filter;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
 
 import javax.inject.Inject;
@@ -82,9 +84,25 @@ public class ShardingFilters {
 
   /**
    * Creates a sharding filter according to strategy specified by the
-   * sharding environment.
+   * sharding environment. Without an explicit strategy, tests are balanced
+   * by their earlier durations if the build tool provided them.
+   *
+   * <p>All shards of a test are given the same durations file. A shard that
+   * cannot read it fails instead of falling back to another strategy, as it
+   * would then run a different set of tests than the other shards expect.
    */
   public Filter createShardingFilter(Collection<Description> descriptions) {
+    File durationsFile = shardingEnvironment.getTestDurationsFile();
+    if (shardingEnvironment.getTestShardingStrategy() == null && durationsFile != null) {
+      TestDurationsWeightStrategy weightStrategy;
+      try {
+        weightStrategy = TestDurationsWeightStrategy.fromFile(durationsFile);
+      } catch (IOException e) {
+        throw new RuntimeException("Could not read test durations from " + durationsFile, e);
+      }
+      return new WeightedShardingFilter(descriptions, weightStrategy,
+          shardingEnvironment.getShardIndex(), shardingEnvironment.getTotalShards());
+    }
     ShardingFilterFactory factory = getShardingFilterFactory();
     return factory.createFilter(descriptions, shardingEnvironment.getShardIndex(),
         shardingEnvironment.getTotalShards());
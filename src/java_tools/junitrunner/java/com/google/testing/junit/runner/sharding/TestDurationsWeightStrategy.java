@@ -0,0 +1,72 @@
+// Copyright 2016 The Bazel Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.junit.runner.sharding;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import com.google.testing.junit.runner.sharding.api.WeightStrategy;
+
+import org.junit.runner.Description;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Weighs tests by their duration in earlier runs, as recorded by the build tool.
+ *
+ * <p>The durations file has one line per test, holding the duration in milliseconds and the
+ * display name of the test, separated by a tab. Tests without a recorded duration weigh as much
+ * as the average recorded test.
+ */
+final class TestDurationsWeightStrategy implements WeightStrategy {
+  private final Map<String, Integer> durations;
+  private final int defaultDuration;
+
+  TestDurationsWeightStrategy(Map<String, Integer> durations) {
+    this.durations = ImmutableMap.copyOf(durations);
+    long total = 0;
+    for (int duration : durations.values()) {
+      total += duration;
+    }
+    this.defaultDuration = durations.isEmpty() ? 1 : (int) Math.max(total / durations.size(), 1);
+  }
+
+  /** Reads the durations from {@code file}, skipping malformed lines. */
+  static TestDurationsWeightStrategy fromFile(File file) throws IOException {
+    Map<String, Integer> durations = new HashMap<>();
+    for (String line : Files.readLines(file, StandardCharsets.UTF_8)) {
+      int tab = line.indexOf('\t');
+      if (tab <= 0) {
+        continue;
+      }
+      try {
+        long millis = Long.parseLong(line.substring(0, tab));
+        durations.put(line.substring(tab + 1), (int) Math.min(millis, Integer.MAX_VALUE));
+      } catch (NumberFormatException e) {
+        // Skip the line.
+      }
+    }
+    return new TestDurationsWeightStrategy(durations);
+  }
+
+  @Override
+  public int getDescriptionWeight(Description description) {
+    Integer duration = durations.get(description.getDisplayName());
+    return duration != null ? duration : defaultDuration;
+  }
+}
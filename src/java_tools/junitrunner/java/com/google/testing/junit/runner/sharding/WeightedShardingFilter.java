@@ -0,0 +1,110 @@
+// Copyright 2016 The Bazel Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.junit.runner.sharding;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.testing.junit.runner.sharding.api.WeightStrategy;
+
+import org.junit.runner.Description;
+import org.junit.runner.manipulation.Filter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implements a sharding strategy that balances the total weight of the tests on each shard.
+ *
+ * <p>Tests are assigned heaviest first, each to the shard with the lowest total weight so far,
+ * ties being broken by shard index. With weights that reflect the durations of the tests, all
+ * shards take about as long, instead of the slowest shard determining the duration of the whole
+ * test.
+ *
+ * <p>The assignment only depends on the test descriptions and their weights, so all shards agree
+ * on it as long as they see the same weights.
+ */
+public final class WeightedShardingFilter extends Filter {
+  @VisibleForTesting
+  final Map<Description, Integer> testToShardMap;
+  private final int shardIndex;
+
+  public WeightedShardingFilter(Collection<Description> testDescriptions,
+      WeightStrategy weightStrategy, int shardIndex, int totalShards) {
+    Preconditions.checkArgument(shardIndex >= 0);
+    Preconditions.checkArgument(totalShards > shardIndex);
+    this.testToShardMap = buildTestToShardMap(testDescriptions, weightStrategy, totalShards);
+    this.shardIndex = shardIndex;
+  }
+
+  private static Map<Description, Integer> buildTestToShardMap(
+      Collection<Description> testDescriptions, final WeightStrategy weightStrategy,
+      int totalShards) {
+    final Map<Description, Integer> weights = new HashMap<>();
+    for (Description description : testDescriptions) {
+      Preconditions.checkArgument(description.isTest(),
+          "Test suite should not be included in the set of tests to shard: %s",
+          description.getDisplayName());
+      weights.put(description, weightStrategy.getDescriptionWeight(description));
+    }
+
+    // As for round-robin sharding, the order must not depend on the order of the descriptions.
+    List<Description> sortedDescriptions = new ArrayList<>(weights.keySet());
+    Collections.sort(sortedDescriptions, new Comparator<Description>() {
+      @Override
+      public int compare(Description d1, Description d2) {
+        int result = Integer.compare(weights.get(d2), weights.get(d1));
+        return result != 0 ? result : d1.getDisplayName().compareTo(d2.getDisplayName());
+      }
+    });
+
+    Map<Description, Integer> map = new HashMap<>();
+    long[] shardWeights = new long[totalShards];
+    for (Description description : sortedDescriptions) {
+      int lightest = 0;
+      for (int i = 1; i < totalShards; i++) {
+        if (shardWeights[i] < shardWeights[lightest]) {
+          lightest = i;
+        }
+      }
+      shardWeights[lightest] += Math.max(weights.get(description), 1);
+      map.put(description, lightest);
+    }
+    return Collections.unmodifiableMap(map);
+  }
+
+  @Override
+  public boolean shouldRun(Description description) {
+    if (description.isSuite()) {
+      return true;
+    }
+    Integer shard = testToShardMap.get(description);
+    if (shard == null) {
+      throw new IllegalArgumentException("This filter keeps a mapping from each test "
+          + "description to a shard, and the given description was not passed in when "
+          + "filter was constructed: " + description);
+    }
+    return shard == shardIndex;
+  }
+
+  @Override
+  public String describe() {
+    return "weighted sharding filter";
+  }
+}
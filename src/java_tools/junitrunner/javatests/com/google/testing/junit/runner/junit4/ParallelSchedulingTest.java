@@ -0,0 +1,254 @@
+// Copyright 2016 The Bazel Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.junit.runner.junit4;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.testing.junit.runner.junit4.ParallelScheduling.Granularity;
+import com.google.testing.junit.runner.model.AntXmlResultWriter;
+import com.google.testing.junit.runner.model.TestSuiteModel;
+import com.google.testing.junit.runner.sharding.ShardingEnvironment;
+import com.google.testing.junit.runner.sharding.ShardingFilters;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runner.Runner;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests for {@link ParallelScheduling}.
+ */
+@RunWith(JUnit4.class)
+public class ParallelSchedulingTest {
+  private static final long TIMEOUT_SECONDS = 10;
+
+  // Shared with the sample tests below, which only pass when run by these tests.
+  private static CyclicBarrier barrier;
+  private static CountDownLatch latch;
+  private static final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+  private ExecutorService executor;
+
+  @Before
+  public void createExecutor() {
+    executor = Executors.newFixedThreadPool(4);
+    events.clear();
+  }
+
+  @After
+  public void shutDownExecutor() {
+    executor.shutdownNow();
+    barrier = null;
+    latch = null;
+  }
+
+  /** Passes only if the test of {@link MeetingB} runs at the same time. */
+  public static class MeetingA {
+    @Test
+    public void meet() throws Exception {
+      barrier.await(TIMEOUT_SECONDS, SECONDS);
+    }
+  }
+
+  /** Passes only if the test of {@link MeetingA} runs at the same time. */
+  public static class MeetingB {
+    @Test
+    public void meet() throws Exception {
+      barrier.await(TIMEOUT_SECONDS, SECONDS);
+    }
+  }
+
+  /** Passes only if both methods run at the same time. */
+  public static class MeetingMethods {
+    @Test
+    public void first() throws Exception {
+      barrier.await(TIMEOUT_SECONDS, SECONDS);
+    }
+
+    @Test
+    public void second() throws Exception {
+      barrier.await(TIMEOUT_SECONDS, SECONDS);
+    }
+  }
+
+  /** Records when its methods start and end. */
+  public static class RecordingA {
+    @Test
+    public void first() throws Exception {
+      record("A");
+    }
+
+    @Test
+    public void second() throws Exception {
+      record("A");
+    }
+  }
+
+  /** Records when its methods start and end. */
+  public static class RecordingB {
+    @Test
+    public void first() throws Exception {
+      record("B");
+    }
+
+    @Test
+    public void second() throws Exception {
+      record("B");
+    }
+  }
+
+  private static void record(String testClass) throws InterruptedException {
+    events.add(testClass + " started");
+    Thread.sleep(50);
+    events.add(testClass + " finished");
+  }
+
+  /** Finishes only after {@link Second} was reported as finished. */
+  public static class First {
+    @Test
+    public void waitForSecond() throws Exception {
+      assertThat(latch.await(TIMEOUT_SECONDS, SECONDS)).isTrue();
+    }
+  }
+
+  /** Fails. */
+  public static class Second {
+    @Test
+    public void fail() {
+      throw new AssertionError("expected");
+    }
+  }
+
+  private Result run(Request request, Granularity granularity, RunListener... listeners) {
+    Runner runner = request.getRunner();
+    ParallelScheduling.apply(runner, executor, granularity);
+    JUnitCore core = new JUnitCore();
+    for (RunListener listener : listeners) {
+      core.addListener(listener);
+    }
+    return core.run(Request.runner(runner));
+  }
+
+  @Test
+  public void testClassesRunInParallel() {
+    barrier = new CyclicBarrier(2);
+    Result result = run(Request.classes(MeetingA.class, MeetingB.class), Granularity.CLASSES);
+    assertThat(result.getFailures()).isEmpty();
+    assertThat(result.getRunCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testMethodsRunInParallel() {
+    barrier = new CyclicBarrier(2);
+    Result result = run(Request.classes(MeetingMethods.class), Granularity.METHODS);
+    assertThat(result.getFailures()).isEmpty();
+    assertThat(result.getRunCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testMethodsOfAClassRunInParallelOnlyWithMethodGranularity() {
+    Result result =
+        run(Request.classes(RecordingA.class, RecordingB.class), Granularity.CLASSES);
+    assertThat(result.getFailures()).isEmpty();
+    for (String testClass : ImmutableList.of("A", "B")) {
+      List<String> classEvents = new ArrayList<>();
+      for (String event : events) {
+        if (event.startsWith(testClass)) {
+          classEvents.add(event);
+        }
+      }
+      assertThat(classEvents).containsExactly(testClass + " started", testClass + " finished",
+          testClass + " started", testClass + " finished").inOrder();
+    }
+  }
+
+  @Test
+  public void testClassesRunSeriallyWithMethodGranularity() {
+    Result result =
+        run(Request.classes(RecordingA.class, RecordingB.class), Granularity.METHODS);
+    assertThat(result.getFailures()).isEmpty();
+    assertThat(events.subList(0, 4)).containsExactly("A started", "A started", "A finished",
+        "A finished");
+    assertThat(events.subList(4, 8)).containsExactly("B started", "B started", "B finished",
+        "B finished");
+  }
+
+  @Test
+  public void testReportsResultsInDeclarationOrder() throws Exception {
+    latch = new CountDownLatch(1);
+    Request request = Request.classes(First.class, Second.class);
+    Runner runner = request.getRunner();
+    final TestSuiteModel model = new TestSuiteModel.Builder(Ticker.systemTicker(),
+        new ShardingFilters(new ShardingEnvironment()), new ShardingEnvironment(),
+        new AntXmlResultWriter()).build("suite", runner.getDescription());
+    final List<Description> finished = Collections.synchronizedList(new ArrayList<Description>());
+    RunListener listener = new RunListener() {
+      @Override
+      public void testStarted(Description description) {
+        model.testStarted(description);
+      }
+
+      @Override
+      public void testFailure(Failure failure) {
+        model.testFailure(failure.getDescription(), failure.getException());
+      }
+
+      @Override
+      public void testFinished(Description description) {
+        model.testFinished(description);
+        finished.add(description);
+        if (description.getTestClass() == Second.class) {
+          latch.countDown();
+        }
+      }
+    };
+
+    Result result = run(Request.runner(runner), Granularity.CLASSES, listener);
+    assertThat(result.getRunCount()).isEqualTo(2);
+    assertThat(result.getFailures()).hasSize(1);
+    assertThat(result.getFailures().get(0).getDescription().getTestClass())
+        .isEqualTo(Second.class);
+    assertThat(finished).containsExactly(
+        Description.createTestDescription(Second.class, "fail"),
+        Description.createTestDescription(First.class, "waitForSecond")).inOrder();
+
+    ByteArrayOutputStream xml = new ByteArrayOutputStream();
+    model.writeAsXml(xml);
+    String report = new String(xml.toByteArray(), StandardCharsets.UTF_8);
+    assertThat(report).contains("waitForSecond");
+    assertThat(report.indexOf("waitForSecond")).isLessThan(report.indexOf("name='fail'"));
+  }
+}
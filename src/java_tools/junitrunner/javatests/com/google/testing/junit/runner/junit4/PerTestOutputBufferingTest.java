@@ -0,0 +1,176 @@
+// Copyright 2016 The Bazel Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.junit.runner.junit4;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.testing.junit.runner.junit4.ParallelScheduling.Granularity;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runner.Runner;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests for {@link PerTestOutputBuffering}.
+ */
+@RunWith(JUnit4.class)
+public class PerTestOutputBufferingTest {
+  private static final long TIMEOUT_SECONDS = 10;
+
+  // Shared with the sample test below, which only passes when run by these tests.
+  private static CyclicBarrier barrier;
+
+  private PrintStream realOut;
+  private PrintStream realErr;
+  private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+  private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+  private PerTestOutputBuffering buffering;
+
+  @Before
+  public void installBuffering() {
+    realOut = System.out;
+    realErr = System.err;
+    System.setOut(new PrintStream(out, true));
+    System.setErr(new PrintStream(err, true));
+    buffering = new PerTestOutputBuffering();
+    buffering.install();
+  }
+
+  @After
+  public void restoreStreams() {
+    buffering.uninstall();
+    System.setOut(realOut);
+    System.setErr(realErr);
+    barrier = null;
+  }
+
+  private static String contents(ByteArrayOutputStream stream) {
+    synchronized (stream) {
+      return new String(stream.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
+  /** Writes its output in two parts while the other method runs. */
+  public static class Interleaving {
+    @Test
+    public void first() throws Exception {
+      write("first");
+    }
+
+    @Test
+    public void second() throws Exception {
+      write("second");
+    }
+
+    private static void write(String name) throws Exception {
+      System.out.println(name + " out 1");
+      System.err.println(name + " err 1");
+      barrier.await(TIMEOUT_SECONDS, SECONDS);
+      System.out.println(name + " out 2");
+      barrier.await(TIMEOUT_SECONDS, SECONDS);
+      System.err.println(name + " err 2");
+    }
+  }
+
+  @Test
+  public void testOutputIsWrittenWhenTestFinishes() throws Exception {
+    Description test = Description.createTestDescription(PerTestOutputBufferingTest.class, "t");
+    buffering.testStarted(test);
+    System.out.print("out");
+    System.err.print("err");
+    assertThat(contents(out)).isEmpty();
+    assertThat(contents(err)).isEmpty();
+
+    buffering.testFinished(test);
+    assertThat(contents(out)).isEqualTo("out");
+    assertThat(contents(err)).isEqualTo("err");
+  }
+
+  @Test
+  public void testOutputOutsideOfTestsIsNotBuffered() {
+    System.out.print("out");
+    System.err.print("err");
+    assertThat(contents(out)).isEqualTo("out");
+    assertThat(contents(err)).isEqualTo("err");
+  }
+
+  @Test
+  public void testOutputOfOtherThreadsIsNotBuffered() throws Exception {
+    Description test = Description.createTestDescription(PerTestOutputBufferingTest.class, "t");
+    buffering.testStarted(test);
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        System.out.print("thread");
+      }
+    };
+    thread.start();
+    thread.join();
+    System.out.print("test");
+    assertThat(contents(out)).isEqualTo("thread");
+
+    buffering.testFinished(test);
+    assertThat(contents(out)).isEqualTo("threadtest");
+  }
+
+  @Test
+  public void testOutputOfParallelTestsIsKeptApart() throws Exception {
+    barrier = new CyclicBarrier(2);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Runner runner = Request.aClass(Interleaving.class).getRunner();
+      ParallelScheduling.apply(runner, executor, Granularity.METHODS);
+      JUnitCore core = new JUnitCore();
+      core.addListener(buffering);
+      Result result = core.run(Request.runner(runner));
+      assertThat(result.getFailures()).isEmpty();
+    } finally {
+      executor.shutdownNow();
+    }
+
+    String stdout = contents(out).replace(System.lineSeparator(), "\n");
+    assertThat(stdout).contains("first out 1\nfirst out 2\n");
+    assertThat(stdout).contains("second out 1\nsecond out 2\n");
+    assertThat(stdout.length()).isEqualTo(
+        "first out 1\nfirst out 2\nsecond out 1\nsecond out 2\n".length());
+    String stderr = contents(err).replace(System.lineSeparator(), "\n");
+    assertThat(stderr).contains("first err 1\nfirst err 2\n");
+    assertThat(stderr).contains("second err 1\nsecond err 2\n");
+  }
+
+  @Test
+  public void testUninstallRestoresStreams() {
+    PrintStream bufferedOut = System.out;
+    buffering.uninstall();
+    assertThat(System.out).isNotSameAs(bufferedOut);
+    System.out.print("out");
+    assertThat(contents(out)).isEqualTo("out");
+  }
+}
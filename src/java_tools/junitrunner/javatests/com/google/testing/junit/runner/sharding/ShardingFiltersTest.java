@@ -0,0 +1,171 @@
+// Copyright 2016 The Bazel Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.junit.runner.sharding;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.testing.junit.runner.sharding.testing.ShardingFilterTestCase;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link ShardingFilters}.
+ */
+@RunWith(JUnit4.class)
+public class ShardingFiltersTest {
+  private static final List<Description> DESCRIPTIONS =
+      ShardingFilterTestCase.createGenericTestCaseDescriptions(10);
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static ShardingEnvironment shard(final int shardIndex, final int totalShards,
+      final File durationsFile, final String strategy) {
+    return new ShardingEnvironment() {
+      @Override
+      public boolean isShardingEnabled() {
+        return true;
+      }
+
+      @Override
+      public int getShardIndex() {
+        return shardIndex;
+      }
+
+      @Override
+      public int getTotalShards() {
+        return totalShards;
+      }
+
+      @Override
+      public File getTestDurationsFile() {
+        return durationsFile;
+      }
+
+      @Override
+      public String getTestShardingStrategy() {
+        return strategy;
+      }
+    };
+  }
+
+  private static List<Filter> createFilters(int totalShards, File durationsFile,
+      String strategy) {
+    List<Filter> filters = new ArrayList<>();
+    for (int i = 0; i < totalShards; i++) {
+      filters.add(new ShardingFilters(shard(i, totalShards, durationsFile, strategy))
+          .createShardingFilter(DESCRIPTIONS));
+    }
+    return filters;
+  }
+
+  /** Returns the tests run by all shards together, once for each time a shard runs it. */
+  private static List<Description> runAll(List<Filter> filters) {
+    List<Description> run = new ArrayList<>();
+    for (Filter filter : filters) {
+      for (Description description : DESCRIPTIONS) {
+        if (filter.shouldRun(description)) {
+          run.add(description);
+        }
+      }
+    }
+    return run;
+  }
+
+  private File durationsFile(String... lines) throws Exception {
+    File file = tmp.newFile();
+    StringBuilder content = new StringBuilder();
+    for (String line : lines) {
+      content.append(line).append('\n');
+    }
+    Files.write(content, file, StandardCharsets.UTF_8);
+    return file;
+  }
+
+  @Test
+  public void testDurationsFileSelectsWeightedSharding() throws Exception {
+    File durations = durationsFile("100\t" + DESCRIPTIONS.get(4).getDisplayName());
+    List<Filter> filters = createFilters(3, durations, null);
+    for (Filter filter : filters) {
+      assertThat(filter).isInstanceOf(WeightedShardingFilter.class);
+    }
+    assertThat(runAll(filters)).containsExactlyElementsIn(DESCRIPTIONS);
+  }
+
+  @Test
+  public void testEveryTestRunsOnceWithPartialDurations() throws Exception {
+    File durations = durationsFile(
+        "100\t" + DESCRIPTIONS.get(4).getDisplayName(),
+        "7\t" + DESCRIPTIONS.get(0).getDisplayName(),
+        "garbage",
+        "30\tremovedTest(" + Test.class.getName() + ")");
+    for (int totalShards = 1; totalShards <= DESCRIPTIONS.size() + 1; totalShards++) {
+      assertThat(runAll(createFilters(totalShards, durations, null)))
+          .containsExactlyElementsIn(DESCRIPTIONS);
+    }
+  }
+
+  @Test
+  public void testEveryTestRunsOnceWithEmptyDurations() throws Exception {
+    File durations = durationsFile();
+    for (int totalShards = 1; totalShards <= DESCRIPTIONS.size() + 1; totalShards++) {
+      assertThat(runAll(createFilters(totalShards, durations, null)))
+          .containsExactlyElementsIn(DESCRIPTIONS);
+    }
+  }
+
+  @Test
+  public void testNoDurationsFileUsesDefaultStrategy() {
+    List<Filter> filters = createFilters(3, null, null);
+    for (Filter filter : filters) {
+      assertThat(filter).isInstanceOf(RoundRobinShardingFilter.class);
+    }
+    assertThat(runAll(filters)).containsExactlyElementsIn(DESCRIPTIONS);
+  }
+
+  @Test
+  public void testExplicitStrategyIgnoresDurations() throws Exception {
+    File durations = durationsFile("100\t" + DESCRIPTIONS.get(4).getDisplayName());
+    assertThat(createFilters(2, durations, "hash").get(0))
+        .isInstanceOf(HashBackedShardingFilter.class);
+  }
+
+  @Test
+  public void testUnreadableDurationsFileFailsTheShard() {
+    File missing = new File(tmp.getRoot(), "missing");
+    for (int shardIndex : ImmutableList.of(0, 1)) {
+      try {
+        new ShardingFilters(shard(shardIndex, 2, missing, null))
+            .createShardingFilter(DESCRIPTIONS);
+        fail("expected RuntimeException");
+      } catch (RuntimeException expected) {
+        assertThat(expected).hasMessage("Could not read test durations from " + missing);
+      }
+    }
+  }
+}
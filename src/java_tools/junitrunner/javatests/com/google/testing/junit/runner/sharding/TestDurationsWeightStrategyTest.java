@@ -0,0 +1,102 @@
+// Copyright 2016 The Bazel Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.junit.runner.sharding;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for {@link TestDurationsWeightStrategy}.
+ */
+@RunWith(JUnit4.class)
+public class TestDurationsWeightStrategyTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static Description test(String name) {
+    return Description.createTestDescription(TestDurationsWeightStrategyTest.class, name);
+  }
+
+  private static String displayName(String name) {
+    return test(name).getDisplayName();
+  }
+
+  @Test
+  public void testRecordedDurations() {
+    TestDurationsWeightStrategy strategy = new TestDurationsWeightStrategy(
+        ImmutableMap.of(displayName("a"), 30, displayName("b"), 10));
+    assertThat(strategy.getDescriptionWeight(test("a"))).isEqualTo(30);
+    assertThat(strategy.getDescriptionWeight(test("b"))).isEqualTo(10);
+  }
+
+  @Test
+  public void testTestsWithoutDurationWeighAsMuchAsTheAverage() {
+    TestDurationsWeightStrategy strategy = new TestDurationsWeightStrategy(
+        ImmutableMap.of(displayName("a"), 30, displayName("b"), 10));
+    assertThat(strategy.getDescriptionWeight(test("new"))).isEqualTo(20);
+  }
+
+  @Test
+  public void testNoDurations() {
+    TestDurationsWeightStrategy strategy =
+        new TestDurationsWeightStrategy(ImmutableMap.<String, Integer>of());
+    assertThat(strategy.getDescriptionWeight(test("a"))).isEqualTo(1);
+  }
+
+  @Test
+  public void testZeroDurationsGiveNonZeroDefault() {
+    TestDurationsWeightStrategy strategy =
+        new TestDurationsWeightStrategy(ImmutableMap.of(displayName("a"), 0));
+    assertThat(strategy.getDescriptionWeight(test("a"))).isEqualTo(0);
+    assertThat(strategy.getDescriptionWeight(test("new"))).isEqualTo(1);
+  }
+
+  @Test
+  public void testFromFile() throws Exception {
+    File file = tmp.newFile("durations");
+    Files.write(
+        "30\t" + displayName("a") + "\n"
+            + "not a number\t" + displayName("b") + "\n"
+            + "no tab\n"
+            + "\n"
+            + "99999999999\t" + displayName("c") + "\n",
+        file, StandardCharsets.UTF_8);
+
+    TestDurationsWeightStrategy strategy = TestDurationsWeightStrategy.fromFile(file);
+    assertThat(strategy.getDescriptionWeight(test("a"))).isEqualTo(30);
+    assertThat(strategy.getDescriptionWeight(test("c"))).isEqualTo(Integer.MAX_VALUE);
+    // Malformed lines are skipped, so "b" gets the default weight.
+    assertThat(strategy.getDescriptionWeight(test("b")))
+        .isEqualTo((int) ((30L + Integer.MAX_VALUE) / 2));
+  }
+
+  @Test
+  public void testFromEmptyFile() throws Exception {
+    TestDurationsWeightStrategy strategy =
+        TestDurationsWeightStrategy.fromFile(tmp.newFile("durations"));
+    assertThat(strategy.getDescriptionWeight(test("a"))).isEqualTo(1);
+  }
+}
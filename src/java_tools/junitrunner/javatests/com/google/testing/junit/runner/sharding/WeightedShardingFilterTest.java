@@ -0,0 +1,121 @@
+// Copyright 2016 The Bazel Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.junit.runner.sharding;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ListMultimap;
+import com.google.testing.junit.runner.sharding.api.ShardingFilterFactory;
+import com.google.testing.junit.runner.sharding.api.WeightStrategy;
+import com.google.testing.junit.runner.sharding.testing.ShardingFilterTestCase;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.manipulation.Filter;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for {@link WeightedShardingFilter}.
+ */
+public class WeightedShardingFilterTest extends ShardingFilterTestCase {
+
+  private static final List<Description> DESCRIPTIONS = createGenericTestCaseDescriptions(8);
+
+  /** Durations for some of the generic test cases, as the runner reads them. */
+  private static final Map<String, Integer> PARTIAL_DURATIONS = ImmutableMap.of(
+      DESCRIPTIONS.get(0).getDisplayName(), 100,
+      DESCRIPTIONS.get(3).getDisplayName(), 5,
+      DESCRIPTIONS.get(5).getDisplayName(), 40);
+
+  private static ShardingFilterFactory factory(final WeightStrategy weightStrategy) {
+    return new ShardingFilterFactory() {
+      @Override
+      public Filter createFilter(Collection<Description> testDescriptions, int shardIndex,
+          int totalShards) {
+        return new WeightedShardingFilter(
+            testDescriptions, weightStrategy, shardIndex, totalShards);
+      }
+    };
+  }
+
+  @Override
+  protected ShardingFilterFactory createShardingFilterFactory() {
+    return factory(new TestDurationsWeightStrategy(PARTIAL_DURATIONS));
+  }
+
+  public void testShardingIsCompleteAndPartitioned_partialDurations() {
+    for (int shards = 1; shards <= DESCRIPTIONS.size() + 1; shards++) {
+      assertShardingIsCompleteAndPartitioned(createFilters(DESCRIPTIONS, shards), DESCRIPTIONS);
+      assertShardingIsStable(createFilters(DESCRIPTIONS, shards), DESCRIPTIONS);
+    }
+  }
+
+  public void testShardingIsCompleteAndPartitioned_noDurations() {
+    ShardingFilterFactory factory =
+        factory(new TestDurationsWeightStrategy(ImmutableMap.<String, Integer>of()));
+    for (int shards = 1; shards <= DESCRIPTIONS.size() + 1; shards++) {
+      assertShardingIsCompleteAndPartitioned(
+          createFilters(DESCRIPTIONS, shards, factory), DESCRIPTIONS);
+    }
+  }
+
+  public void testShardingIsCompleteAndPartitioned_durationsOfUnknownTests() {
+    ShardingFilterFactory factory = factory(new TestDurationsWeightStrategy(ImmutableMap.of(
+        "removedTest(" + Test.class.getName() + ")", 1000,
+        DESCRIPTIONS.get(2).getDisplayName(), 7)));
+    assertShardingIsCompleteAndPartitioned(createFilters(DESCRIPTIONS, 3, factory), DESCRIPTIONS);
+  }
+
+  public void testShardingDoesNotDependOnOrderOfDescriptions() {
+    List<Filter> filters = createFilters(DESCRIPTIONS, 3);
+    List<Filter> reversedFilters = createFilters(reverse(DESCRIPTIONS), 3);
+    for (int i = 0; i < 3; i++) {
+      for (Description description : DESCRIPTIONS) {
+        assertEquals(filters.get(i).shouldRun(description),
+            reversedFilters.get(i).shouldRun(description));
+      }
+    }
+  }
+
+  public void testHeaviestTestsAreSpreadOverShards() {
+    ImmutableMap.Builder<String, Integer> durations = ImmutableMap.builder();
+    int[] weights = {50, 40, 30, 20, 10, 10, 10, 10};
+    for (int i = 0; i < DESCRIPTIONS.size(); i++) {
+      durations.put(DESCRIPTIONS.get(i).getDisplayName(), weights[i]);
+    }
+    List<Filter> filters =
+        createFilters(DESCRIPTIONS, 2, factory(new TestDurationsWeightStrategy(durations.build())));
+
+    ListMultimap<Filter, Description> run = simulateTestRun(filters, DESCRIPTIONS);
+    // 50 + 20 + 10 + 10 on one shard, 40 + 30 + 10 + 10 on the other.
+    assertThat(run.get(filters.get(0))).containsExactly(DESCRIPTIONS.get(0), DESCRIPTIONS.get(3),
+        DESCRIPTIONS.get(4), DESCRIPTIONS.get(6));
+    assertThat(run.get(filters.get(1))).containsExactly(DESCRIPTIONS.get(1), DESCRIPTIONS.get(2),
+        DESCRIPTIONS.get(5), DESCRIPTIONS.get(7));
+  }
+
+  public void testUnknownDescription() {
+    assertThrowsExceptionForUnknownDescription(createFilters(DESCRIPTIONS, 2).get(0));
+  }
+
+  private static ImmutableList<Description> reverse(List<Description> descriptions) {
+    return ImmutableList.copyOf(descriptions).reverse();
+  }
+}
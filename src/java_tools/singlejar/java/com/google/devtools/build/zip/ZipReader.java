@@ -135,17 +135,13 @@ public class ZipReader implements Closeable, AutoCloseable {
    * <p>Closing this ZIP file will, in turn, close all input streams that have been returned by
    * invocations of this method.
    *
-   * @param entry the ZIP file entry
+   * @param entry the ZIP file entry, which may come from another reader of the same file
    * @return the input stream for reading the contents of the specified zip file entry
    * @throws ZipException if a ZIP format error has occurred
    * @throws IOException if an I/O error has occurred
    */
   public InputStream getInputStream(ZipFileEntry entry) throws IOException {
-    if (!zipData.getEntry(entry.getName()).equals(entry)) {
-      throw new ZipException(String.format(
-          "Zip file '%s' does not contain the requested entry '%s'.", file.getName(),
-          entry.getName()));
-    }
+    checkEntry(entry);
     return new ZipEntryInputStream(this, entry, /* raw */ false);
   }
 
@@ -158,18 +154,29 @@ public class ZipReader implements Closeable, AutoCloseable {
    * <p>Closing this ZIP file will, in turn, close all input streams that have been returned by
    * invocations of this method.
    *
-   * @param entry the ZIP file entry
+   * @param entry the ZIP file entry, which may come from another reader of the same file
    * @return the input stream for reading the contents of the specified zip file entry
    * @throws ZipException if a ZIP format error has occurred
    * @throws IOException if an I/O error has occurred
    */
   public InputStream getRawInputStream(ZipFileEntry entry) throws IOException {
-    if (!zipData.getEntry(entry.getName()).equals(entry)) {
+    checkEntry(entry);
+    return new ZipEntryInputStream(this, entry, /* raw */ true);
+  }
+
+  /**
+   * Checks that the ZIP file has {@code entry}. Entries are identified by their name and the
+   * location of their data, so that entries of other readers of the same file are accepted.
+   *
+   * @throws ZipException if the ZIP file does not contain the entry
+   */
+  private void checkEntry(ZipFileEntry entry) throws ZipException {
+    ZipFileEntry found = zipData.getEntry(entry.getName());
+    if (found == null || found.getLocalHeaderOffset() != entry.getLocalHeaderOffset()) {
       throw new ZipException(String.format(
           "Zip file '%s' does not contain the requested entry '%s'.", file.getName(),
           entry.getName()));
     }
-    return new ZipEntryInputStream(this, entry, /* raw */ true);
   }
 
   /**
@@ -385,6 +385,30 @@ public class ZipReaderTest {
     }
   }
 
+  @Test public void testEntryOfOtherReader() throws IOException {
+    try (ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(test))) {
+      zout.putNextEntry(new ZipEntry("foo"));
+      zout.write("foo".getBytes(UTF_8));
+      zout.closeEntry();
+      zout.putNextEntry(new ZipEntry("bar"));
+      zout.write("bar".getBytes(UTF_8));
+      zout.closeEntry();
+    }
+
+    try (ZipReader reader = new ZipReader(test, UTF_8);
+        ZipReader otherReader = new ZipReader(test, UTF_8)) {
+      ZipFileEntry barEntry = reader.getEntry("bar");
+      assertThat(ByteStreams.toByteArray(otherReader.getInputStream(barEntry)))
+          .isEqualTo("bar".getBytes(UTF_8));
+
+      ZipFileEntry misplacedEntry = new ZipFileEntry(barEntry);
+      misplacedEntry.setName("foo");
+      thrown.expect(ZipException.class);
+      thrown.expectMessage("does not contain the requested entry 'foo'");
+      otherReader.getInputStream(misplacedEntry);
+    }
+  }
+
   @Test public void testSlowRead() throws IOException {
     byte[] expectedFooData = "This is file foo. It contains a foo.".getBytes(UTF_8);
     byte[] expectedBarData = "This is a different file bar. It contains only a bar."
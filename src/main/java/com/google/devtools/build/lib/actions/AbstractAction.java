@@ -83,7 +83,9 @@ public abstract class AbstractAction implements Action, SkylarkValue {
   private final RunfilesSupplier runfilesSupplier;
   private final ImmutableSet<Artifact> outputs;
 
-  private String cachedKey;
+  // Computed lazily. Keys are pure functions of the action, so racing threads compute equal keys
+  // and need not hold a lock while doing so.
+  private volatile String cachedKey;
 
   /**
    * Construct an abstract action with the specified inputs and outputs;
@@ -238,11 +240,13 @@ public abstract class AbstractAction implements Action, SkylarkValue {
   protected abstract String computeKey();
 
   @Override
-  public final synchronized String getKey() {
-    if (cachedKey == null) {
-      cachedKey = computeKey();
+  public final String getKey() {
+    String key = cachedKey;
+    if (key == null) {
+      key = computeKey();
+      cachedKey = key;
     }
-    return cachedKey;
+    return key;
   }
 
   @Override
@@ -15,13 +15,13 @@ package com.google.devtools.build.lib.actions;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.actions.ActionAnalysisMetadata.MiddlemanType;
 import com.google.devtools.build.lib.actions.cache.ActionCache;
 import com.google.devtools.build.lib.actions.cache.ActionCache.Entry;
 import com.google.devtools.build.lib.actions.cache.Digest;
 import com.google.devtools.build.lib.actions.cache.Metadata;
 import com.google.devtools.build.lib.actions.cache.MetadataHandler;
+import com.google.devtools.build.lib.collect.nestedset.NestedSet;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.events.EventKind;
@@ -30,9 +30,9 @@ import com.google.devtools.build.lib.vfs.PathFragment;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -103,14 +103,25 @@ public class ActionCacheChecker {
    */
   private boolean validateArtifacts(Entry entry, Action action,
       Iterable<Artifact> actionInputs, MetadataHandler metadataHandler, boolean checkOutput) {
-    Iterable<Artifact> artifacts = checkOutput
-        ? Iterables.concat(action.getOutputs(), actionInputs)
-        : actionInputs;
-    Map<String, Metadata> mdMap = new HashMap<>();
-    for (Artifact artifact : artifacts) {
-      mdMap.put(artifact.getExecPathString(), metadataHandler.getMetadataMaybe(artifact));
+    // The digest is computed incrementally, which is equivalent to Digest.fromMetadata() as long as
+    // no artifact is added twice. Outputs can never be inputs of the same action (that would be a
+    // cycle), and nested sets and sets are duplicate-free, so only other input collections have to
+    // be deduplicated. This keeps the common, cache-hit path free of per-artifact allocations.
+    Digest.Builder digest = new Digest.Builder();
+    if (checkOutput) {
+      for (Artifact output : action.getOutputs()) {
+        digest.add(output.getExecPathString(), metadataHandler.getMetadataMaybe(output));
+      }
+    }
+    Set<Artifact> seen = (actionInputs instanceof NestedSet || actionInputs instanceof Set)
+        ? null
+        : new HashSet<Artifact>();
+    for (Artifact input : actionInputs) {
+      if (seen == null || seen.add(input)) {
+        digest.add(input.getExecPathString(), metadataHandler.getMetadataMaybe(input));
+      }
     }
-    return !Digest.fromMetadata(mdMap).equals(entry.getFileDigest());
+    return !digest.build().equals(entry.getFileDigest());
   }
 
   private void reportCommand(EventHandler handler, Action action) {
@@ -207,7 +218,6 @@ public class ActionCacheChecker {
       return true; // must execute -- action key is different
     }
 
-    entry.getFileDigest();
     return false; // cache hit
   }
 
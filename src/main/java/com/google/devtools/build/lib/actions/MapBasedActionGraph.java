@@ -14,6 +14,7 @@
 
 package com.google.devtools.build.lib.actions;
 
+import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.util.Preconditions;
 
 import javax.annotation.Nullable;
@@ -33,15 +34,24 @@ public final class MapBasedActionGraph implements MutableActionGraph {
     return generatingActionMap.get(artifact);
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>If the action conflicts with a registered action, none of its outputs are registered.
+   */
   @Override
   public void registerAction(ActionAnalysisMetadata action) throws ActionConflictException {
+    int registered = 0;
     for (Artifact artifact : action.getOutputs()) {
       ActionAnalysisMetadata previousAction = generatingActionMap.putAndGet(artifact, action);
       if (previousAction != null && previousAction != action
           && !Actions.canBeShared(action, previousAction)) {
-        generatingActionMap.remove(artifact, action);
+        for (Artifact registeredArtifact : Iterables.limit(action.getOutputs(), registered + 1)) {
+          generatingActionMap.remove(registeredArtifact, action);
+        }
         throw new ActionConflictException(artifact, previousAction, action);
       }
+      registered++;
     }
   }
 
@@ -79,14 +79,32 @@ public class Digest {
    *         (path, metadata) pairs.
    */
   public static Digest fromMetadata(Map<String, Metadata> mdMap) {
-    byte[] result = new byte[MD5_SIZE];
+    Builder builder = new Builder();
+    for (Map.Entry<String, Metadata> entry : mdMap.entrySet()) {
+      builder.add(entry.getKey(), entry.getValue());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Incrementally computes the same digest as {@link #fromMetadata} without materializing the
+   * map. The caller is responsible for adding each path at most once.
+   */
+  public static final class Builder {
+    private final byte[] result = new byte[MD5_SIZE];
     // Profiling showed that MD5 engine instantiation was a hotspot, so create one instance for
     // this computation to amortize its cost.
-    Fingerprint fp = new Fingerprint();
-    for (Map.Entry<String, Metadata> entry : mdMap.entrySet()) {
-      xorWith(result, getDigest(fp, entry.getKey(), entry.getValue()));
+    private final Fingerprint fp = new Fingerprint();
+
+    /** Adds a (path, metadata) pair. The metadata may be null. */
+    public Builder add(String execPath, Metadata md) {
+      xorWith(result, getDigest(fp, execPath, md));
+      return this;
+    }
+
+    public Digest build() {
+      return new Digest(result.clone());
     }
-    return new Digest(result);
   }
 
   /**
@@ -19,12 +19,20 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.actions.Artifact.ArtifactExpander;
 import com.google.devtools.build.lib.collect.CollectionUtils;
+import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.util.Preconditions;
 
+import java.io.IOException;
+
 /**
  * A representation of a command line to be executed by a SpawnAction.
  */
 public abstract class CommandLine {
+  /** Receives the arguments of a command line one at a time. See {@link #forEachArgument}. */
+  public interface ArgumentConsumer {
+    void accept(String argument) throws IOException;
+  }
+
   /**
    * Returns the command line.
    */
@@ -42,6 +50,32 @@ public abstract class CommandLine {
     return arguments();
   }
 
+  /**
+   * Passes the arguments returned by {@link #arguments(ArtifactExpander)} to {@code consumer}, in
+   * order.
+   *
+   * <p>By default, this method iterates over {@link #arguments(ArtifactExpander)}. Subclasses that
+   * can produce their arguments one at a time should override it, so that large command lines can
+   * be written out without being held in memory as a whole.
+   */
+  public void forEachArgument(ArtifactExpander artifactExpander, ArgumentConsumer consumer)
+      throws IOException {
+    for (String argument : arguments(artifactExpander)) {
+      consumer.accept(argument);
+    }
+  }
+
+  /**
+   * Adds this command line to the fingerprint of an action key. Command lines that produce
+   * different arguments must add different data.
+   *
+   * <p>By default, this method adds the arguments returned by {@link #arguments()}. Subclasses
+   * whose arguments are expensive to evaluate may add a cheaper representation of themselves.
+   */
+  public void addToFingerprint(Fingerprint fingerprint) {
+    fingerprint.addStrings(arguments());
+  }
+
   /**
    * Returns whether the command line represents a shell command with the given shell executable.
    * This is used to give better error messages.
@@ -106,6 +140,21 @@ public abstract class CommandLine {
         return Iterables.concat(executableArgs, commandLine.arguments(artifactExpander));
       }
 
+      @Override
+      public void forEachArgument(ArtifactExpander artifactExpander, ArgumentConsumer consumer)
+          throws IOException {
+        for (String argument : executableArgs) {
+          consumer.accept(argument);
+        }
+        commandLine.forEachArgument(artifactExpander, consumer);
+      }
+
+      @Override
+      public void addToFingerprint(Fingerprint fingerprint) {
+        fingerprint.addStrings(executableArgs);
+        commandLine.addToFingerprint(fingerprint);
+      }
+
       @Override
       public boolean isShellCommand() {
         return isShellCommand;
@@ -16,18 +16,24 @@ package com.google.devtools.build.lib.analysis.actions;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.Artifact.ArtifactExpander;
 import com.google.devtools.build.lib.actions.Artifact.TreeFileArtifact;
 import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.collect.CollectionUtils;
 import com.google.devtools.build.lib.collect.nestedset.NestedSet;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetFingerprintCache;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
+import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.util.Preconditions;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -44,6 +50,29 @@ public final class CustomCommandLine extends CommandLine {
 
   private abstract static class ArgvFragment {
     abstract void eval(ImmutableList.Builder<String> builder);
+
+    /**
+     * Passes the arguments of this fragment to {@code consumer}. The default implementation
+     * evaluates them with {@link #eval} first; fragments that may hold large nested sets pass them
+     * on one at a time instead.
+     */
+    void forEach(ArgumentConsumer consumer) throws IOException {
+      ImmutableList.Builder<String> builder = ImmutableList.builder();
+      eval(builder);
+      for (String argument : builder.build()) {
+        consumer.accept(argument);
+      }
+    }
+
+    /**
+     * Adds this argument fragment to an action key. The default implementation adds the evaluated
+     * arguments; fragments that may hold large nested sets add the structure instead.
+     */
+    void addToFingerprint(Fingerprint fingerprint) {
+      ImmutableList.Builder<String> builder = ImmutableList.builder();
+      eval(builder);
+      fingerprint.addStrings(builder.build());
+    }
   }
 
   /**
@@ -117,6 +146,12 @@ public final class CustomCommandLine extends CommandLine {
     void eval(ImmutableList.Builder<String> builder) {
       builder.add(Artifact.joinExecPaths(delimiter, artifacts));
     }
+
+    @Override
+    void addToFingerprint(Fingerprint fingerprint) {
+      fingerprint.addString(delimiter);
+      addSequence(fingerprint, artifacts, /*execPaths=*/ true);
+    }
   }
 
   private static final class JoinExpandedTreeArtifactExecPathsArg
@@ -244,6 +279,12 @@ public final class CustomCommandLine extends CommandLine {
     void eval(ImmutableList.Builder<String> builder) {
       builder.add(Joiner.on(delimiter).join(paths));
     }
+
+    @Override
+    void addToFingerprint(Fingerprint fingerprint) {
+      fingerprint.addString(delimiter);
+      addSequence(fingerprint, paths, /*execPaths=*/ false);
+    }
   }
 
   private static final class JoinStringsArg extends ArgvFragment {
@@ -260,6 +301,12 @@ public final class CustomCommandLine extends CommandLine {
     void eval(ImmutableList.Builder<String> builder) {
       builder.add(Joiner.on(delimiter).join(strings));
     }
+
+    @Override
+    void addToFingerprint(Fingerprint fingerprint) {
+      fingerprint.addString(delimiter);
+      addSequence(fingerprint, strings, /*execPaths=*/ false);
+    }
   }
 
   /**
@@ -278,6 +325,8 @@ public final class CustomCommandLine extends CommandLine {
    */
   private static final class InterspersingArgs extends ArgvFragment {
     private final Iterable<?> sequence;
+    // Whether sequence holds artifacts that are to be rendered as their exec paths.
+    private final boolean execPaths;
     private final String beforeEach;
     private final String formatEach;
 
@@ -285,8 +334,10 @@ public final class CustomCommandLine extends CommandLine {
      * Do not call from outside this class because this does not guarantee that {@code sequence} is
      * immutable.
      */
-    private InterspersingArgs(Iterable<?> sequence, String beforeEach, String formatEach) {
+    private InterspersingArgs(
+        Iterable<?> sequence, boolean execPaths, String beforeEach, String formatEach) {
       this.sequence = sequence;
+      this.execPaths = execPaths;
       this.beforeEach = beforeEach;
       this.formatEach = formatEach;
     }
@@ -294,18 +345,18 @@ public final class CustomCommandLine extends CommandLine {
     static InterspersingArgs fromStrings(
         Iterable<?> sequence, String beforeEach, String formatEach) {
       return new InterspersingArgs(
-          CollectionUtils.makeImmutable(sequence), beforeEach, formatEach);
+          CollectionUtils.makeImmutable(sequence), /*execPaths=*/ false, beforeEach, formatEach);
     }
 
     static InterspersingArgs fromExecPaths(
         Iterable<Artifact> sequence, String beforeEach, String formatEach) {
       return new InterspersingArgs(
-          Artifact.toExecPaths(CollectionUtils.makeImmutable(sequence)), beforeEach, formatEach);
+          CollectionUtils.makeImmutable(sequence), /*execPaths=*/ true, beforeEach, formatEach);
     }
 
     @Override
     void eval(ImmutableList.Builder<String> builder) {
-      for (Object item : sequence) {
+      for (Object item : render(sequence, execPaths)) {
         if (item == null) {
           continue;
         }
@@ -313,13 +364,79 @@ public final class CustomCommandLine extends CommandLine {
         if (beforeEach != null) {
           builder.add(beforeEach);
         }
-        String arg = item.toString();
-        if (formatEach != null) {
-          arg = String.format(formatEach, arg);
+        builder.add(format(item));
+      }
+    }
+
+    @Override
+    void forEach(ArgumentConsumer consumer) throws IOException {
+      for (Object item : render(sequence, execPaths)) {
+        if (item == null) {
+          continue;
+        }
+
+        if (beforeEach != null) {
+          consumer.accept(beforeEach);
         }
-        builder.add(arg);
+        consumer.accept(format(item));
       }
     }
+
+    private String format(Object item) {
+      String arg = item.toString();
+      return formatEach == null ? arg : String.format(formatEach, arg);
+    }
+
+    @Override
+    void addToFingerprint(Fingerprint fingerprint) {
+      fingerprint.addNullableString(beforeEach);
+      fingerprint.addNullableString(formatEach);
+      addSequence(fingerprint, sequence, execPaths);
+    }
+  }
+
+  /**
+   * Digests of the nested sets referenced by command lines, separately for sets rendered as strings
+   * and as exec paths. Nested sets such as transitive classpaths are shared by the command lines of
+   * many actions, so each one is only digested once.
+   */
+  private static final NestedSetFingerprintCache<Object> STRING_DIGESTS =
+      new NestedSetFingerprintCache<>(Functions.toStringFunction());
+  private static final NestedSetFingerprintCache<Artifact> EXEC_PATH_DIGESTS =
+      new NestedSetFingerprintCache<>(new Function<Artifact, String>() {
+        @Override
+        public String apply(Artifact artifact) {
+          // Like Artifact.toExecPaths(), which skips middlemen.
+          return artifact.isMiddlemanArtifact() ? null : artifact.getExecPathString();
+        }
+      });
+
+  @SuppressWarnings("unchecked")
+  private static Iterable<?> render(Iterable<?> sequence, boolean execPaths) {
+    return execPaths ? Artifact.toExecPaths((Iterable<Artifact>) sequence) : sequence;
+  }
+
+  /**
+   * Adds the elements of {@code sequence}, rendered as they are on the command line, to {@code
+   * fingerprint}. Nested sets are added by their memoized digest.
+   */
+  @SuppressWarnings("unchecked")
+  private static void addSequence(Fingerprint fingerprint, Iterable<?> sequence,
+      boolean execPaths) {
+    if (!(sequence instanceof NestedSet)) {
+      fingerprint.addInt(Iterables.size(sequence));
+      addElements(fingerprint, render(sequence, execPaths));
+      return;
+    }
+    fingerprint.addBytes(execPaths
+        ? EXEC_PATH_DIGESTS.getDigest((NestedSet<Artifact>) sequence)
+        : STRING_DIGESTS.getDigest((NestedSet<?>) sequence));
+  }
+
+  private static void addElements(Fingerprint fingerprint, Iterable<?> elements) {
+    for (Object element : elements) {
+      fingerprint.addNullableString(element == null ? null : element.toString());
+    }
   }
 
 
@@ -632,6 +749,47 @@ public final class CustomCommandLine extends CommandLine {
     return builder.build();
   }
 
+  @Override
+  public void forEachArgument(ArtifactExpander artifactExpander, ArgumentConsumer consumer)
+      throws IOException {
+    Preconditions.checkNotNull(artifactExpander);
+    for (Object arg : arguments) {
+      Object substitutedArg = substituteTreeFileArtifactArgvFragment(arg);
+      if (substitutedArg instanceof TreeArtifactExpansionArgvFragment) {
+        ImmutableList.Builder<String> builder = ImmutableList.builder();
+        ((TreeArtifactExpansionArgvFragment) substitutedArg).eval(builder, artifactExpander);
+        for (String argument : builder.build()) {
+          consumer.accept(argument);
+        }
+      } else if (substitutedArg instanceof ArgvFragment) {
+        ((ArgvFragment) substitutedArg).forEach(consumer);
+      } else {
+        consumer.accept(substitutedArg.toString());
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Instead of the evaluated arguments, this adds the structure of the command line, with nested
+   * sets represented by digests that are computed once per nested set.
+   */
+  @Override
+  public void addToFingerprint(Fingerprint fingerprint) {
+    fingerprint.addInt(arguments.size());
+    for (Object arg : arguments) {
+      Object substitutedArg = substituteTreeFileArtifactArgvFragment(arg);
+      if (substitutedArg instanceof ArgvFragment) {
+        fingerprint.addString(substitutedArg.getClass().getName());
+        ((ArgvFragment) substitutedArg).addToFingerprint(fingerprint);
+      } else {
+        fingerprint.addString("");
+        fingerprint.addString(substitutedArg.toString());
+      }
+    }
+  }
+
   /**
    * If the given arg is a {@link TreeFileArtifactArgvFragment} and we have its associated
    * TreeArtifact substitution map, returns another argument object that has its enclosing
@@ -20,4 +20,11 @@ package com.google.devtools.build.lib.analysis.actions;
 public class ExecutionRequirements {
   /** If an action would not successfully run other than on Darwin. */
   public static final String REQUIRES_DARWIN = "requires-darwin";
+
+  /**
+   * The exec path of an output that the action reads itself once its command has run. A strategy
+   * that leaves the outputs of cached commands on a remote server must still write this one to the
+   * local output tree.
+   */
+  public static final String LOCAL_OUTPUT = "local-output";
 }
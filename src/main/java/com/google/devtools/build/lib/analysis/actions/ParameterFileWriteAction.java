@@ -23,6 +23,7 @@ import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.Artifact.ArtifactExpander;
 import com.google.devtools.build.lib.actions.ParameterFile.ParameterFileType;
 import com.google.devtools.build.lib.analysis.actions.AbstractFileWriteAction.DeterministicWriter;
+import com.google.devtools.build.lib.analysis.actions.CommandLine.ArgumentConsumer;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.util.Preconditions;
@@ -31,6 +32,7 @@ import com.google.devtools.build.lib.util.ShellEscaper;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
 
 /**
@@ -113,45 +115,30 @@ public final class ParameterFileWriteAction extends AbstractFileWriteAction {
     }
 
     @Override
-    public void writeOutputFile(OutputStream out) throws IOException {
-      Iterable<String> arguments = commandLine.arguments(artifactExpander);
-
+    public void writeOutputFile(OutputStream outputStream) throws IOException {
+      final boolean quoted;
       switch (type) {
         case SHELL_QUOTED :
-          writeContentQuoted(out, arguments);
+          quoted = true;
           break;
         case UNQUOTED :
-          writeContentUnquoted(out, arguments);
+          quoted = false;
           break;
         default :
           throw new AssertionError();
       }
-    }
 
-    /**
-     * Writes the arguments from the list into the parameter file.
-     */
-    private void writeContentUnquoted(OutputStream outputStream, Iterable<String> arguments)
-        throws IOException {
-      OutputStreamWriter out = new OutputStreamWriter(outputStream, charset);
-      for (String line : arguments) {
-        out.write(line);
-        out.write('\n');
-      }
-      out.flush();
-    }
-
-    /**
-     * Writes the arguments from the list into the parameter file with shell
-     * quoting (if required).
-     */
-    private void writeContentQuoted(OutputStream outputStream, Iterable<String> arguments)
-        throws IOException {
-      OutputStreamWriter out = new OutputStreamWriter(outputStream, charset);
-      for (String line : ShellEscaper.escapeAll(arguments)) {
-        out.write(line);
-        out.write('\n');
-      }
+      // The arguments are encoded as they are produced, so that the arguments of large command
+      // lines are never all in memory at once.
+      final Writer out = new OutputStreamWriter(outputStream, charset);
+      commandLine.forEachArgument(artifactExpander, new ArgumentConsumer() {
+        @Override
+        public void accept(String argument) throws IOException {
+          // Shell quoting is only applied if required.
+          out.write(quoted ? ShellEscaper.escapeString(argument) : argument);
+          out.write('\n');
+        }
+      });
       out.flush();
     }
   }
@@ -161,7 +148,7 @@ public final class ParameterFileWriteAction extends AbstractFileWriteAction {
     Fingerprint f = new Fingerprint();
     f.addString(GUID);
     f.addString(String.valueOf(makeExecutable));
-    f.addStrings(commandLine.arguments());
+    commandLine.addToFingerprint(f);
     return f.hexDigestAndReset();
   }
 }
@@ -14,6 +14,7 @@
 
 package com.google.devtools.build.lib.bazel;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.analysis.ConfiguredRuleClassProvider;
@@ -28,6 +29,9 @@ import com.google.devtools.build.lib.bazel.repository.MavenServerFunction;
 import com.google.devtools.build.lib.bazel.repository.MavenServerRepositoryFunction;
 import com.google.devtools.build.lib.bazel.repository.NewGitRepositoryFunction;
 import com.google.devtools.build.lib.bazel.repository.NewHttpArchiveFunction;
+import com.google.devtools.build.lib.bazel.repository.RepositoryOptions;
+import com.google.devtools.build.lib.bazel.repository.RepositoryPrefetcher;
+import com.google.devtools.build.lib.bazel.repository.downloader.RepositoryCache;
 import com.google.devtools.build.lib.bazel.repository.skylark.SkylarkRepositoryFunction;
 import com.google.devtools.build.lib.bazel.repository.skylark.SkylarkRepositoryModule;
 import com.google.devtools.build.lib.bazel.rules.android.AndroidNdkRepositoryFunction;
@@ -42,6 +46,7 @@ import com.google.devtools.build.lib.bazel.rules.workspace.MavenJarRule;
 import com.google.devtools.build.lib.bazel.rules.workspace.MavenServerRule;
 import com.google.devtools.build.lib.bazel.rules.workspace.NewGitRepositoryRule;
 import com.google.devtools.build.lib.bazel.rules.workspace.NewHttpArchiveRule;
+import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.pkgcache.PackageCacheOptions;
 import com.google.devtools.build.lib.rules.repository.LocalRepositoryFunction;
 import com.google.devtools.build.lib.rules.repository.LocalRepositoryRule;
@@ -60,8 +65,10 @@ import com.google.devtools.build.lib.skyframe.SkyFunctions;
 import com.google.devtools.build.lib.skyframe.SkyValueDirtinessChecker;
 import com.google.devtools.build.lib.util.AbruptExitException;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
+import com.google.devtools.common.options.OptionsBase;
 import com.google.devtools.common.options.OptionsProvider;
 
 import java.util.Map.Entry;
@@ -80,6 +87,9 @@ public class BazelRepositoryModule extends BlazeModule {
   private final SkylarkRepositoryFunction skylarkRepositoryFunction =
       new SkylarkRepositoryFunction();
   private final RepositoryDelegatorFunction delegator;
+  private CommandEnvironment env;
+  @Nullable private RepositoryCache repositoryCache;
+  @Nullable private RepositoryPrefetcher repositoryPrefetcher;
 
   public BazelRepositoryModule() {
     this.repositoryHandlers =
@@ -163,11 +173,56 @@ public class BazelRepositoryModule extends BlazeModule {
   public void handleOptions(OptionsProvider optionsProvider) {
     PackageCacheOptions pkgOptions = optionsProvider.getOptions(PackageCacheOptions.class);
     isFetch.set(pkgOptions != null && pkgOptions.fetch);
+
+    RepositoryOptions repositoryOptions = optionsProvider.getOptions(RepositoryOptions.class);
+    PathFragment cacheDirectory =
+        repositoryOptions != null ? repositoryOptions.experimentalRepositoryCache : null;
+    repositoryCache = cacheDirectory != null
+        ? new RepositoryCache(env.getDirectories().getWorkspace().getRelative(cacheDirectory))
+        : null;
+    int prefetchJobs =
+        repositoryOptions != null ? repositoryOptions.experimentalRepositoryPrefetchJobs : 0;
+    if (prefetchJobs > 0 && repositoryCache == null) {
+      env.getReporter().handle(Event.warn("--experimental_repository_prefetch_jobs has no effect "
+          + "without --experimental_repository_cache"));
+    } else if (prefetchJobs > 0) {
+      repositoryPrefetcher = new RepositoryPrefetcher(prefetchJobs, repositoryCache,
+          env.getOutputBase().getRelative("repository_prefetch"), env.getReporter(),
+          env.getClientEnv());
+    }
+    for (RepositoryFunction handler : repositoryHandlers.values()) {
+      if (handler instanceof HttpArchiveFunction) {
+        ((HttpArchiveFunction) handler).setRepositoryCache(repositoryCache);
+        ((HttpArchiveFunction) handler).setRepositoryPrefetcher(repositoryPrefetcher);
+      }
+    }
+  }
+
+  @Override
+  public Iterable<Class<? extends OptionsBase>> getCommandOptions(Command command) {
+    return "build".equals(command.name()) || FetchCommand.NAME.equals(command.name())
+        ? ImmutableList.<Class<? extends OptionsBase>>of(RepositoryOptions.class)
+        : ImmutableList.<Class<? extends OptionsBase>>of();
   }
 
   @Override
   public void beforeCommand(Command command, CommandEnvironment env) throws AbruptExitException {
     delegator.setClientEnvironment(env.getClientEnv());
     skylarkRepositoryFunction.setCommandEnvironment(env);
+    this.env = env;
+  }
+
+  @Override
+  public void afterCommand() {
+    if (repositoryPrefetcher != null) {
+      repositoryPrefetcher.shutdown();
+      repositoryPrefetcher = null;
+    }
+    if (repositoryCache != null && repositoryCache.wasUsed()) {
+      env.getReporter().handle(
+          Event.info("Repository cache: " + repositoryCache.getStatistics()));
+    }
+    repositoryCache = null;
+    env = null;
   }
 }
@@ -15,6 +15,7 @@
 package com.google.devtools.build.lib.bazel.repository;
 
 import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
 import com.google.devtools.build.lib.bazel.repository.DecompressorValue.Decompressor;
 import com.google.devtools.build.lib.rules.repository.RepositoryFunction.RepositoryFunctionException;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
@@ -25,6 +26,7 @@ import com.google.devtools.build.skyframe.SkyFunctionException.Transience;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
@@ -32,6 +34,9 @@ import java.nio.file.StandardCopyOption;
 
 /**
  * Common code for unarchiving a compressed TAR file.
+ *
+ * <p>The archive is decompressed on the calling thread, and its entries are written on an
+ * {@link ExtractionPool}.
  */
 public abstract class CompressedTarFunction implements Decompressor {
   protected abstract InputStream getDecompressorStream(DecompressorDescriptor descriptor)
@@ -42,8 +47,9 @@ public abstract class CompressedTarFunction implements Decompressor {
     Optional<String> prefix = descriptor.prefix();
     boolean foundPrefix = false;
 
-    try (InputStream decompressorStream = getDecompressorStream(descriptor)) {
-      TarArchiveInputStream tarStream = new TarArchiveInputStream(decompressorStream);
+    try (InputStream decompressorStream = getDecompressorStream(descriptor);
+        ExtractionPool pool = new ExtractionPool()) {
+      final TarArchiveInputStream tarStream = new TarArchiveInputStream(decompressorStream);
       TarArchiveEntry entry;
       while ((entry = tarStream.getNextTarEntry()) != null) {
         StripPrefixedPath entryPath = StripPrefixedPath.maybeDeprefix(entry.getName(), prefix);
@@ -52,25 +58,52 @@ public abstract class CompressedTarFunction implements Decompressor {
           continue;
         }
 
-        Path filename = descriptor.repositoryPath().getRelative(entryPath.getPathFragment());
-        FileSystemUtils.createDirectoryAndParents(filename.getParentDirectory());
+        final Path filename = descriptor.repositoryPath().getRelative(entryPath.getPathFragment());
         if (entry.isDirectory()) {
-          FileSystemUtils.createDirectoryAndParents(filename);
-        } else {
-          if (entry.isSymbolicLink()) {
-            PathFragment linkName = new PathFragment(entry.getLinkName());
-            if (linkName.isAbsolute()) {
-              linkName = linkName.relativeTo(PathFragment.ROOT_DIR);
-              linkName = descriptor.repositoryPath().getRelative(linkName).asFragment();
+          pool.submit(filename, new ExtractionPool.Write() {
+            @Override
+            public void run() throws IOException {
+              FileSystemUtils.createDirectoryAndParents(filename);
+            }
+          });
+        } else if (entry.isSymbolicLink()) {
+          PathFragment linkName = new PathFragment(entry.getLinkName());
+          if (linkName.isAbsolute()) {
+            linkName = linkName.relativeTo(PathFragment.ROOT_DIR);
+            linkName = descriptor.repositoryPath().getRelative(linkName).asFragment();
+          }
+          final PathFragment target = linkName;
+          pool.submitSymbolicLink(filename, new ExtractionPool.Write() {
+            @Override
+            public void run() throws IOException {
+              FileSystemUtils.createDirectoryAndParents(filename.getParentDirectory());
+              FileSystemUtils.ensureSymbolicLink(filename, target);
             }
-            FileSystemUtils.ensureSymbolicLink(filename, linkName);
+          });
+        } else {
+          final int mode = entry.getMode();
+          if (entry.getSize() <= ExtractionPool.MAX_BUFFERED_SIZE) {
+            // The stream can only be read on this thread, so small files are read into memory
+            // and written on the pool.
+            final byte[] content = new byte[(int) entry.getSize()];
+            ByteStreams.readFully(tarStream, content);
+            pool.submit(filename, new ExtractionPool.Write() {
+              @Override
+              public void run() throws IOException {
+                writeFile(new ByteArrayInputStream(content), filename, mode);
+              }
+            });
           } else {
-            Files.copy(
-                tarStream, filename.getPathFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
-            filename.chmod(entry.getMode());
+            pool.run(filename, new ExtractionPool.Write() {
+              @Override
+              public void run() throws IOException {
+                writeFile(tarStream, filename, mode);
+              }
+            });
           }
         }
       }
+      pool.awaitCompletion();
     } catch (IOException e) {
       throw new RepositoryFunctionException(e, Transience.TRANSIENT);
     }
@@ -83,4 +116,10 @@ public abstract class CompressedTarFunction implements Decompressor {
 
     return descriptor.repositoryPath();
   }
+
+  private static void writeFile(InputStream content, Path filename, int mode) throws IOException {
+    FileSystemUtils.createDirectoryAndParents(filename.getParentDirectory());
+    Files.copy(content, filename.getPathFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+    filename.chmod(mode);
+  }
 }
@@ -0,0 +1,151 @@
+// Copyright 2014 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.bazel.repository;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the entries of an archive on a bounded pool of threads, while the archive is read on the
+ * calling thread.
+ *
+ * <p>Writes are independent unless they create the same path, or one of them creates a path below
+ * a symbolic link that an earlier one created. In these cases the pool finishes all earlier
+ * writes before it starts the later one, so the result is the same as that of extracting the
+ * entries one after the other in archive order. When the queue of the pool is full, the calling
+ * thread does the write itself, which bounds the memory held by entries waiting to be written.
+ *
+ * <p>Only the thread that created the pool may submit writes to it.
+ */
+final class ExtractionPool implements AutoCloseable {
+  /** The size of the largest file whose contents should be buffered for writing on the pool. */
+  static final int MAX_BUFFERED_SIZE = 1 << 20;
+
+  private static final int MAX_THREADS = 8;
+  private static final int QUEUE_SIZE = 32;
+
+  /** Creates, or replaces, one path of the extracted tree. */
+  interface Write {
+    void run() throws IOException;
+  }
+
+  private final ThreadPoolExecutor executor;
+  private final List<Future<Void>> pending = new ArrayList<>();
+  private final Set<Path> written = new HashSet<>();
+  private final Set<Path> symlinks = new HashSet<>();
+  private volatile IOException firstFailure;
+
+  ExtractionPool() {
+    int threads = Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors());
+    executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+        new ThreadFactoryBuilder().setNameFormat("Archive Extractor %d").setDaemon(true).build(),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  /** Schedules {@code write}, which creates {@code path}. */
+  void submit(Path path, Write write) throws IOException {
+    waitForDependencies(path);
+    schedule(write);
+  }
+
+  /** Schedules {@code write}, which creates a symbolic link at {@code path}. */
+  void submitSymbolicLink(Path path, Write write) throws IOException {
+    waitForDependencies(path);
+    symlinks.add(path);
+    schedule(write);
+  }
+
+  /**
+   * Does {@code write}, which creates {@code path}, on the calling thread. This is for entries
+   * that can only be read on the calling thread and are too large to buffer.
+   */
+  void run(Path path, Write write) throws IOException {
+    waitForDependencies(path);
+    write.run();
+  }
+
+  /** Waits for all scheduled writes, and throws the first exception one of them threw. */
+  void awaitCompletion() throws IOException {
+    try {
+      for (Future<Void> future : pending) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while extracting archive");
+    } catch (ExecutionException e) {
+      // Writes only throw IOExceptions and unchecked exceptions.
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      pending.clear();
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  private void schedule(final Write write) {
+    pending.add(executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        try {
+          write.run();
+        } catch (IOException e) {
+          firstFailure = e;
+          throw e;
+        }
+        return null;
+      }
+    }));
+  }
+
+  private void waitForDependencies(Path path) throws IOException {
+    if (firstFailure != null) {
+      // There is no point in reading the rest of the archive.
+      awaitCompletion();
+    }
+    boolean dependsOnEarlierWrite = !written.add(path);
+    if (!dependsOnEarlierWrite && !symlinks.isEmpty()) {
+      for (Path dir = path.getParentDirectory(); dir != null; dir = dir.getParentDirectory()) {
+        if (symlinks.contains(dir)) {
+          dependsOnEarlierWrite = true;
+          break;
+        }
+      }
+    }
+    if (dependsOnEarlierWrite) {
+      awaitCompletion();
+    }
+  }
+}
@@ -17,6 +17,7 @@ package com.google.devtools.build.lib.bazel.repository;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.analysis.RuleDefinition;
 import com.google.devtools.build.lib.bazel.repository.downloader.HttpDownloader;
+import com.google.devtools.build.lib.bazel.repository.downloader.RepositoryCache;
 import com.google.devtools.build.lib.bazel.rules.workspace.HttpArchiveRule;
 import com.google.devtools.build.lib.packages.AggregatingAttributeMapper;
 import com.google.devtools.build.lib.packages.Rule;
@@ -31,10 +32,24 @@ import com.google.devtools.build.skyframe.SkyValue;
 
 import java.io.IOException;
 
+import javax.annotation.Nullable;
+
 /**
  * Downloads a file over HTTP.
  */
 public class HttpArchiveFunction extends RepositoryFunction {
+  @Nullable protected RepositoryCache repositoryCache;
+  @Nullable private RepositoryPrefetcher repositoryPrefetcher;
+
+  /** Sets the cache that downloads are looked up in and added to, or null for none. */
+  public void setRepositoryCache(@Nullable RepositoryCache repositoryCache) {
+    this.repositoryCache = repositoryCache;
+  }
+
+  /** Sets the prefetcher to start when the first repository is downloaded, or null for none. */
+  public void setRepositoryPrefetcher(@Nullable RepositoryPrefetcher repositoryPrefetcher) {
+    this.repositoryPrefetcher = repositoryPrefetcher;
+  }
 
   @Override
   public boolean isLocal(Rule rule) {
@@ -62,13 +77,27 @@ public class HttpArchiveFunction extends RepositoryFunction {
     //
     // This would download png.tar.gz to .external-repository/png/png.tar.gz.
     createDirectory(outputDirectory);
-    Path downloadedPath = HttpDownloader.download(
-        rule, outputDirectory, env.getListener(), clientEnvironment);
+    Path downloadedPath = download(rule, outputDirectory, env);
 
     DecompressorValue.decompress(getDescriptor(rule, downloadedPath, outputDirectory));
     return RepositoryDirectoryValue.create(outputDirectory);
   }
 
+  /**
+   * Downloads the file of {@code rule} to {@code outputDirectory}. If a prefetcher is set, starts
+   * it, and waits for it in case it is already downloading the file.
+   */
+  protected Path download(Rule rule, Path outputDirectory, Environment env)
+      throws RepositoryFunctionException, InterruptedException {
+    RepositoryPrefetcher prefetcher = repositoryPrefetcher;
+    if (prefetcher != null) {
+      prefetcher.start(rule.getPackage());
+      prefetcher.await(AggregatingAttributeMapper.of(rule).get("sha256", Type.STRING));
+    }
+    return HttpDownloader.download(
+        rule, outputDirectory, env.getListener(), clientEnvironment, repositoryCache);
+  }
+
   protected DecompressorDescriptor getDescriptor(Rule rule, Path downloadPath, Path outputDirectory)
       throws RepositoryFunctionException {
     DecompressorDescriptor.Builder builder = DecompressorDescriptor.builder()
@@ -0,0 +1,49 @@
+// Copyright 2014 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.bazel.repository;
+
+import com.google.devtools.build.lib.util.OptionsUtils;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.common.options.Option;
+import com.google.devtools.common.options.OptionsBase;
+
+/**
+ * Options for fetching external repositories.
+ */
+public class RepositoryOptions extends OptionsBase {
+
+  @Option(
+    name = "experimental_repository_cache",
+    defaultValue = "null",
+    category = "strategy",
+    converter = OptionsUtils.PathFragmentConverter.class,
+    help =
+        "Specifies the directory of a cache of downloaded files, keyed by their SHA-256. Files of "
+            + "repository rules that give a SHA-256 are taken from the cache if possible, and "
+            + "added to it otherwise. The cache may be shared by several workspaces."
+  )
+  public PathFragment experimentalRepositoryCache;
+
+  @Option(
+    name = "experimental_repository_prefetch_jobs",
+    defaultValue = "0",
+    category = "strategy",
+    help =
+        "If positive, the files of all HTTP repositories in the WORKSPACE file that give a "
+            + "SHA-256 are downloaded into the repository cache this many at a time, as soon as "
+            + "the first repository has to be fetched. Requires --experimental_repository_cache."
+  )
+  public int experimentalRepositoryPrefetchJobs;
+}
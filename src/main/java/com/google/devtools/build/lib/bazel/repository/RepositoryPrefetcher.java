@@ -0,0 +1,200 @@
+// Copyright 2014 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.bazel.repository;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.bazel.repository.downloader.HttpDownloader;
+import com.google.devtools.build.lib.bazel.repository.downloader.RepositoryCache;
+import com.google.devtools.build.lib.bazel.rules.workspace.HttpArchiveRule;
+import com.google.devtools.build.lib.bazel.rules.workspace.HttpFileRule;
+import com.google.devtools.build.lib.bazel.rules.workspace.HttpJarRule;
+import com.google.devtools.build.lib.bazel.rules.workspace.NewHttpArchiveRule;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.events.EventHandler;
+import com.google.devtools.build.lib.packages.AggregatingAttributeMapper;
+import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.packages.Rule;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.rules.repository.RepositoryFunction.RepositoryFunctionException;
+import com.google.devtools.build.lib.syntax.Type;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Downloads the files of the HTTP repositories of the WORKSPACE file into the repository cache,
+ * several at a time.
+ *
+ * <p>Repositories are otherwise only fetched once loading reaches a package that needs them, so
+ * on a fresh machine the downloads trickle in one after the other. Which repositories a build
+ * needs is only known once loading is done, so the prefetcher downloads the files of all HTTP
+ * repositories that give a SHA-256 and are missing from the cache, starting when the first one
+ * has to be fetched. The repository functions then find their files in the cache.
+ */
+@ThreadSafe
+public class RepositoryPrefetcher {
+  private static final Logger LOG = Logger.getLogger(RepositoryPrefetcher.class.getName());
+
+  private static final ImmutableSet<String> RULE_CLASSES = ImmutableSet.of(
+      HttpArchiveRule.NAME, NewHttpArchiveRule.NAME, HttpJarRule.NAME, HttpFileRule.NAME);
+
+  private final RepositoryCache repositoryCache;
+  private final Path downloadDirectory;
+  private final EventHandler eventHandler;
+  private final Map<String, String> clientEnv;
+  private final ExecutorService executor;
+
+  // Keyed by SHA-256; guarded by this.
+  private final Map<String, Prefetch> downloads = new HashMap<>();
+  private boolean started = false;
+
+  /**
+   * Creates a prefetcher that runs {@code jobs} downloads at a time, and keeps partial downloads
+   * in {@code downloadDirectory}.
+   */
+  public RepositoryPrefetcher(int jobs, RepositoryCache repositoryCache, Path downloadDirectory,
+      EventHandler eventHandler, Map<String, String> clientEnv) {
+    this.repositoryCache = repositoryCache;
+    this.downloadDirectory = downloadDirectory;
+    this.eventHandler = eventHandler;
+    this.clientEnv = clientEnv;
+    this.executor = Executors.newFixedThreadPool(jobs,
+        new ThreadFactoryBuilder().setNameFormat("Repository Prefetcher %d").setDaemon(true)
+            .build());
+  }
+
+  /**
+   * Starts downloading the files of the HTTP repositories in {@code externalPackage} that are not
+   * in the repository cache, unless that was done before.
+   */
+  synchronized void start(Package externalPackage) {
+    if (started) {
+      return;
+    }
+    started = true;
+    for (Target target : externalPackage.getTargets()) {
+      if (!(target instanceof Rule) || !RULE_CLASSES.contains(((Rule) target).getRuleClass())) {
+        continue;
+      }
+      AggregatingAttributeMapper mapper = AggregatingAttributeMapper.of((Rule) target);
+      start(mapper.get("url", Type.STRING), mapper.get("sha256", Type.STRING));
+    }
+  }
+
+  /**
+   * Starts downloading the file at {@code url} with the given SHA-256, unless it is in the
+   * repository cache or is being downloaded already.
+   */
+  @VisibleForTesting
+  synchronized void start(String url, String sha256) {
+    if (url.isEmpty() || sha256.isEmpty() || downloads.containsKey(sha256)
+        || repositoryCache.contains(sha256)) {
+      return;
+    }
+    Prefetch prefetch = new Prefetch(url, sha256);
+    downloads.put(sha256, prefetch);
+    executor.execute(prefetch);
+  }
+
+  /**
+   * Waits for the prefetch of the file with the given SHA-256 if it is running, and cancels it if
+   * it has not started yet; in that case the caller had better download the file itself than wait
+   * for other downloads.
+   */
+  void await(String sha256) throws InterruptedException {
+    Prefetch download;
+    synchronized (this) {
+      download = downloads.get(sha256);
+    }
+    if (download == null || download.claim()) {
+      return;
+    }
+    // If the download fails, the caller downloads the file again, and reports errors.
+    download.done.await();
+  }
+
+  /** Stops all downloads. */
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Downloads the file and adds it to the repository cache. The download does not go through the
+   * cache, so that the statistics of the cache only count the lookups of the repository
+   * functions.
+   */
+  private void prefetch(String url, String sha256) {
+    Path output = downloadDirectory.getChild(sha256);
+    try {
+      FileSystemUtils.createDirectoryAndParents(downloadDirectory);
+      // The downloader checks the SHA-256 before it returns.
+      HttpDownloader.download(url, sha256, null, output, eventHandler, clientEnv);
+      repositoryCache.put(sha256, output);
+    } catch (IOException | RepositoryFunctionException e) {
+      LOG.info("Could not prefetch " + url + ": " + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      try {
+        output.delete();
+      } catch (IOException e) {
+        // Left for the next prefetch to overwrite.
+      }
+    }
+  }
+
+  /**
+   * The prefetch of one file. Either the pool or a waiting repository function claims it; a
+   * {@link java.util.concurrent.Future} can't tell a task that runs from one that waits.
+   */
+  private final class Prefetch implements Runnable {
+    private final String url;
+    private final String sha256;
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    Prefetch(String url, String sha256) {
+      this.url = url;
+      this.sha256 = sha256;
+    }
+
+    /** Returns whether the caller claimed the prefetch, that is, it had not started yet. */
+    boolean claim() {
+      return claimed.compareAndSet(false, true);
+    }
+
+    @Override
+    public void run() {
+      if (!claim()) {
+        return;
+      }
+      try {
+        prefetch(url, sha256);
+      } finally {
+        done.countDown();
+      }
+    }
+  }
+}
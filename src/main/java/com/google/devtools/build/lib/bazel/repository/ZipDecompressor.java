@@ -26,13 +26,17 @@ import com.google.devtools.build.skyframe.SkyFunctionException.Transience;
 import com.google.devtools.build.zip.ZipFileEntry;
 import com.google.devtools.build.zip.ZipReader;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
@@ -76,7 +80,10 @@ public class ZipDecompressor implements Decompressor {
     Path destinationDirectory = descriptor.archivePath().getParentDirectory();
     Optional<String> prefix = descriptor.prefix();
     boolean foundPrefix = false;
-    try (ZipReader reader = new ZipReader(descriptor.archivePath().getPathFile())) {
+    File archiveFile = descriptor.archivePath().getPathFile();
+    try (ZipReader reader = new ZipReader(archiveFile);
+        ReaderPerThread readers = new ReaderPerThread(archiveFile, reader);
+        ExtractionPool pool = new ExtractionPool()) {
       Collection<ZipFileEntry> entries = reader.entries();
       for (ZipFileEntry entry : entries) {
         StripPrefixedPath entryPath = StripPrefixedPath.maybeDeprefix(entry.getName(), prefix);
@@ -84,8 +91,10 @@ public class ZipDecompressor implements Decompressor {
         if (entryPath.skip()) {
           continue;
         }
-        extractZipEntry(reader, entry, destinationDirectory, entryPath.getPathFragment());
+        extractZipEntry(
+            reader, readers, pool, entry, destinationDirectory, entryPath.getPathFragment());
       }
+      pool.awaitCompletion();
     } catch (IOException e) {
       throw new RepositoryFunctionException(new IOException(
           String.format("Error extracting %s to %s: %s",
@@ -102,9 +111,16 @@ public class ZipDecompressor implements Decompressor {
     return destinationDirectory;
   }
 
+  /**
+   * Schedules the extraction of {@code entry} on {@code pool}. Directories and symbolic links are
+   * cheap to read on the calling thread; files are read by the threads of the pool, each through
+   * a reader of its own, since the entries of a zip can be found through its central directory.
+   */
   private void extractZipEntry(
       ZipReader reader,
-      ZipFileEntry entry,
+      final ReaderPerThread readers,
+      ExtractionPool pool,
+      final ZipFileEntry entry,
       Path destinationDirectory,
       PathFragment strippedRelativePath)
       throws IOException {
@@ -113,13 +129,17 @@ public class ZipDecompressor implements Decompressor {
           String.format(
               "Failed to extract %s, zipped paths cannot be absolute", strippedRelativePath));
     }
-    Path outputPath = destinationDirectory.getRelative(strippedRelativePath);
-    int permissions = getPermissions(entry.getExternalAttributes(), entry.getName());
-    FileSystemUtils.createDirectoryAndParents(outputPath.getParentDirectory());
+    final Path outputPath = destinationDirectory.getRelative(strippedRelativePath);
+    final int permissions = getPermissions(entry.getExternalAttributes(), entry.getName());
     boolean isDirectory = (permissions & S_IFDIR) == S_IFDIR;
     boolean isSymlink = (permissions & S_IFLNK) == S_IFLNK;
     if (isDirectory) {
-      FileSystemUtils.createDirectoryAndParents(outputPath);
+      pool.submit(outputPath, new ExtractionPool.Write() {
+        @Override
+        public void run() throws IOException {
+          FileSystemUtils.createDirectoryAndParents(outputPath);
+        }
+      });
     } else if (isSymlink) {
       Preconditions.checkState(entry.getSize() < MAX_PATH_LENGTH);
       byte buffer[] = new byte[(int) entry.getSize()];
@@ -136,17 +156,68 @@ public class ZipDecompressor implements Decompressor {
         target = target.relativeTo(PathFragment.ROOT_DIR);
         target = destinationDirectory.getRelative(target).asFragment();
       }
-      outputPath.createSymbolicLink(target);
+      final PathFragment linkTarget = target;
+      pool.submitSymbolicLink(outputPath, new ExtractionPool.Write() {
+        @Override
+        public void run() throws IOException {
+          FileSystemUtils.createDirectoryAndParents(outputPath.getParentDirectory());
+          outputPath.createSymbolicLink(linkTarget);
+        }
+      });
     } else {
       // TODO(kchodorow): should be able to be removed when issue #236 is resolved, but for now
       // this delete+rewrite is required or the build will error out if outputPath exists here.
       // The zip file is not re-unzipped when the WORKSPACE file is changed (because it is assumed
       // to be immutable) but is on server restart (which is a bug).
-      File outputFile = outputPath.getPathFile();
-      try (InputStream input = reader.getInputStream(entry)) {
-        Files.copy(input, outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      pool.submit(outputPath, new ExtractionPool.Write() {
+        @Override
+        public void run() throws IOException {
+          FileSystemUtils.createDirectoryAndParents(outputPath.getParentDirectory());
+          File outputFile = outputPath.getPathFile();
+          try (InputStream input = readers.get().getInputStream(entry)) {
+            Files.copy(input, outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+          }
+          outputPath.chmod(permissions);
+        }
+      });
+    }
+  }
+
+  /**
+   * Opens a reader of the zip file for each thread that asks for one. A {@link ZipReader} reads
+   * through a single file pointer, so threads can't share one.
+   */
+  private static final class ReaderPerThread implements Closeable {
+    private final File file;
+    private final ThreadLocal<ZipReader> reader = new ThreadLocal<>();
+    private final List<ZipReader> opened = Collections.synchronizedList(new ArrayList<ZipReader>());
+
+    /**
+     * The calling thread uses {@code reader}, a reader of {@code file} that the caller remains
+     * responsible for.
+     */
+    ReaderPerThread(File file, ZipReader reader) {
+      this.file = file;
+      this.reader.set(reader);
+    }
+
+    ZipReader get() throws IOException {
+      ZipReader threadReader = reader.get();
+      if (threadReader == null) {
+        threadReader = new ZipReader(file);
+        opened.add(threadReader);
+        reader.set(threadReader);
+      }
+      return threadReader;
+    }
+
+    @Override
+    public void close() throws IOException {
+      synchronized (opened) {
+        for (ZipReader openedReader : opened) {
+          openedReader.close();
+        }
       }
-      outputPath.chmod(permissions);
     }
   }
 
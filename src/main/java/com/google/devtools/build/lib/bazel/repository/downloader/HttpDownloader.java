@@ -55,10 +55,11 @@ public class HttpDownloader {
   private final EventHandler eventHandler;
   private final ScheduledExecutorService scheduler;
   private final Map<String, String> clientEnv;
+  @Nullable private final RepositoryCache repositoryCache;
 
   private HttpDownloader(
       EventHandler eventHandler, String urlString, String sha256, Path outputDirectory,
-      String type, Map<String, String> clientEnv) {
+      String type, Map<String, String> clientEnv, @Nullable RepositoryCache repositoryCache) {
     this.urlString = urlString;
     this.sha256 = sha256;
     this.outputDirectory = outputDirectory;
@@ -66,11 +67,18 @@ public class HttpDownloader {
     this.scheduler = Executors.newScheduledThreadPool(1);
     this.type = type;
     this.clientEnv = clientEnv;
+    this.repositoryCache = repositoryCache;
   }
 
+  /**
+   * Downloads the file given by the "url" attribute of {@code rule}. If {@code repositoryCache}
+   * is not null and the rule gives a SHA-256, the file is taken from the cache if possible, and
+   * added to it otherwise.
+   */
   @Nullable
   public static Path download(
-      Rule rule, Path outputDirectory, EventHandler eventHandler, Map<String, String> clientEnv)
+      Rule rule, Path outputDirectory, EventHandler eventHandler, Map<String, String> clientEnv,
+      @Nullable RepositoryCache repositoryCache)
       throws RepositoryFunctionException, InterruptedException {
     AggregatingAttributeMapper mapper = AggregatingAttributeMapper.of(rule);
     String url = mapper.get("url", Type.STRING);
@@ -78,7 +86,8 @@ public class HttpDownloader {
     String type = mapper.has("type", Type.STRING) ? mapper.get("type", Type.STRING) : "";
 
     try {
-      return new HttpDownloader(eventHandler, url, sha256, outputDirectory, type, clientEnv)
+      return new HttpDownloader(
+          eventHandler, url, sha256, outputDirectory, type, clientEnv, repositoryCache)
           .download();
     } catch (IOException e) {
       throw new RepositoryFunctionException(new IOException("Error downloading from "
@@ -92,8 +101,22 @@ public class HttpDownloader {
       String url, String sha256, String type, Path output, EventHandler eventHandler, Map<String,
       String> clientEnv)
       throws RepositoryFunctionException, InterruptedException {
+    return download(url, sha256, type, output, eventHandler, clientEnv, null);
+  }
+
+  /**
+   * Downloads {@code url} to {@code output}. If {@code repositoryCache} is not null and
+   * {@code sha256} is not empty, the file is taken from the cache if possible, and added to it
+   * otherwise.
+   */
+  @Nullable
+  public static Path download(
+      String url, String sha256, String type, Path output, EventHandler eventHandler,
+      Map<String, String> clientEnv, @Nullable RepositoryCache repositoryCache)
+      throws RepositoryFunctionException, InterruptedException {
     try {
-      return new HttpDownloader(eventHandler, url, sha256, output, type, clientEnv).download();
+      return new HttpDownloader(eventHandler, url, sha256, output, type, clientEnv, repositoryCache)
+          .download();
     } catch (IOException e) {
       throw new RepositoryFunctionException(
           new IOException(
@@ -132,8 +155,17 @@ public class HttpDownloader {
       }
     }
 
+    if (repositoryCache != null && !sha256.isEmpty()
+        && repositoryCache.get(sha256, destination)) {
+      eventHandler.handle(Event.progress("Fetched " + urlString + " from the repository cache"));
+      return destination;
+    }
+
     AtomicInteger totalBytes = new AtomicInteger(0);
     final ScheduledFuture<?> loggerHandle = getLoggerHandle(totalBytes);
+    // The file may be a hard link into the repository cache, which must not be written to.
+    destination.delete();
+    Hasher hasher = Hashing.sha256().newHasher();
 
     try (OutputStream out = destination.getOutputStream();
          HttpConnection connection = HttpConnection.createAndConnect(url, this.clientEnv)) {
@@ -143,6 +175,7 @@ public class HttpDownloader {
       while ((read = inputStream.read(buf)) > 0) {
         totalBytes.addAndGet(read);
         out.write(buf, 0, read);
+        hasher.putBytes(buf, 0, read);
         if (Thread.interrupted()) {
           throw new InterruptedException("Download interrupted");
         }
@@ -164,22 +197,25 @@ public class HttpDownloader {
       }, 0, TimeUnit.SECONDS);
     }
 
-    compareHashes(destination);
+    compareHashes(destination, hasher.hash().toString());
+    if (repositoryCache != null && !sha256.isEmpty()) {
+      try {
+        repositoryCache.put(sha256, destination);
+      } catch (IOException e) {
+        eventHandler.handle(Event.warn(
+            "Could not add " + destination + " to the repository cache: " + e.getMessage()));
+      }
+    }
     return destination;
   }
 
-  private void compareHashes(Path destination) throws IOException {
+  /**
+   * Checks the SHA-256 of the downloaded file, which was computed while it was being written.
+   */
+  private void compareHashes(Path destination, String downloadedSha256) throws IOException {
     if (sha256.isEmpty()) {
       return;
     }
-    String downloadedSha256;
-    try {
-      downloadedSha256 = getHash(Hashing.sha256().newHasher(), destination);
-    } catch (IOException e) {
-      throw new IOException(
-          "Could not hash file " + destination + ": " + e.getMessage() + ", expected SHA-256 of "
-              + sha256 + ")");
-    }
     if (!downloadedSha256.equals(sha256)) {
       throw new IOException(
           "Downloaded file at " + destination + " has SHA-256 of " + downloadedSha256
@@ -0,0 +1,117 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.bazel.repository.downloader;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * A cache of downloaded files, keyed by the SHA-256 of their contents. The cache lives outside of
+ * any output base, so it survives {@code clean --expunge} and is shared by all workspaces that
+ * use it.
+ *
+ * <p>Files are only added after their checksum was verified, and are made read-only. They are
+ * handed out as hard links where the file system allows it, and copied otherwise.
+ */
+@ThreadSafe
+public class RepositoryCache {
+  private static final Pattern SHA256 = Pattern.compile("[0-9a-f]{64}");
+
+  private final Path root;
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+
+  public RepositoryCache(Path root) {
+    this.root = root;
+  }
+
+  /**
+   * Places the file with the given SHA-256 at {@code destination}, replacing any file there, and
+   * returns true; returns false if the cache has no such file.
+   */
+  public boolean get(String sha256, Path destination) throws IOException {
+    if (!isValid(sha256)) {
+      return false;
+    }
+    Path entry = getEntry(sha256);
+    if (!entry.isFile()) {
+      misses.incrementAndGet();
+      return false;
+    }
+    destination.delete();
+    try {
+      destination.createHardLink(entry);
+    } catch (UnsupportedOperationException | IOException e) {
+      // Different devices, or no hard links at all.
+      FileSystemUtils.copyFile(entry, destination);
+    }
+    hits.incrementAndGet();
+    return true;
+  }
+
+  /** Returns whether the cache has the file with the given SHA-256, without counting a lookup. */
+  public boolean contains(String sha256) {
+    return isValid(sha256) && getEntry(sha256).isFile();
+  }
+
+  /**
+   * Adds a copy of {@code source}, whose SHA-256 must have been verified to be {@code sha256}, to
+   * the cache.
+   */
+  public void put(String sha256, Path source) throws IOException {
+    if (!isValid(sha256)) {
+      return;
+    }
+    Path entry = getEntry(sha256);
+    if (entry.exists()) {
+      return;
+    }
+    Path dir = entry.getParentDirectory();
+    FileSystemUtils.createDirectoryAndParents(dir);
+    // Concurrent servers may add the same file; each one writes a file of its own first.
+    Path tmp = dir.getChild("file.tmp-" + UUID.randomUUID());
+    try {
+      FileSystemUtils.copyFile(source, tmp);
+      tmp.setWritable(false);
+      tmp.renameTo(entry);
+    } finally {
+      tmp.delete();
+    }
+  }
+
+  /** Returns the number of files found in and missing from the cache so far. */
+  public String getStatistics() {
+    return hits.get() + " hits, " + misses.get() + " misses";
+  }
+
+  /** Returns whether the cache was consulted at all. */
+  public boolean wasUsed() {
+    return hits.get() + misses.get() > 0;
+  }
+
+  private Path getEntry(String sha256) {
+    return root.getRelative("content_addressable/sha256").getChild(sha256).getChild("file");
+  }
+
+  private static boolean isValid(String sha256) {
+    return SHA256.matcher(sha256).matches();
+  }
+}
@@ -42,12 +42,13 @@ public class BazelCppSemantics implements CppSemantics {
   @Override
   public void finalizeCompileActionBuilder(
       RuleContext ruleContext, CppCompileActionBuilder actionBuilder) {
-    actionBuilder.setCppConfiguration(ruleContext.getFragment(CppConfiguration.class));
+    CppConfiguration cppConfiguration = ruleContext.getFragment(CppConfiguration.class);
+    actionBuilder.setCppConfiguration(cppConfiguration);
     actionBuilder.setActionContext(CppCompileActionContext.class);
-    // Because Bazel does not support include scanning, we need the entire crosstool filegroup,
-    // including header files, as opposed to just the "compile" filegroup.
+    // The include scanner does not follow system headers, so we need the entire crosstool
+    // filegroup, including header files, as opposed to just the "compile" filegroup.
     actionBuilder.addTransitiveMandatoryInputs(CppHelper.getToolchain(ruleContext).getCrosstool());
-    actionBuilder.setShouldScanIncludes(false);
+    actionBuilder.setShouldScanIncludes(cppConfiguration.useBuiltinIncludeScanning());
   }
 
   @Override
@@ -0,0 +1,70 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.util.Preconditions;
+
+/**
+ * Computes and memoizes digests of the contents of nested sets.
+ *
+ * <p>The digest of a set is a function of its elements, each rendered as a string by the function
+ * given at construction time, in iteration order. It is stable across server restarts, so it can
+ * be part of persistent keys such as action keys. Each set is only flattened and digested once as
+ * long as it is reachable; sets are compared by identity and weakly referenced.
+ *
+ * <p>This class is thread-safe.
+ */
+public final class NestedSetFingerprintCache<E> {
+
+  private final Function<? super E, String> renderer;
+  private final Cache<NestedSet<? extends E>, byte[]> digests =
+      CacheBuilder.newBuilder().weakKeys().build();
+
+  /**
+   * Creates a cache for digests of sets rendered by {@code renderer}. Elements for which the
+   * renderer returns null do not contribute to the digest.
+   */
+  public NestedSetFingerprintCache(Function<? super E, String> renderer) {
+    this.renderer = Preconditions.checkNotNull(renderer);
+  }
+
+  /**
+   * Returns the MD5 digest of the rendered elements of {@code set}, as computed by
+   * {@link Fingerprint}. The caller owns the returned array.
+   */
+  public byte[] getDigest(NestedSet<? extends E> set) {
+    byte[] digest = digests.getIfPresent(set);
+    if (digest == null) {
+      // Racing threads compute the same digest; there is no need to block one on the other.
+      digest = computeDigest(set);
+      digests.put(set, digest);
+    }
+    return digest.clone();
+  }
+
+  private byte[] computeDigest(NestedSet<? extends E> set) {
+    Fingerprint fingerprint = new Fingerprint();
+    for (E element : set) {
+      String rendered = renderer.apply(element);
+      if (rendered != null) {
+        fingerprint.addString(rendered);
+      }
+    }
+    return fingerprint.digestAndReset();
+  }
+}
@@ -0,0 +1,238 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.events;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.io.OutErr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An event handler that passes events on to another handler on a thread of its own, so that the
+ * threads that report events don't wait for the terminal.
+ *
+ * <p>Events are queued in the order in which they arrive, so each thread's events reach the
+ * delegate in the order in which the thread reported them. The dispatch thread passes on all
+ * queued events, and only then writes what the delegate wrote, in one write per stream. At most
+ * a fixed number of events are queued; threads that report more wait for the dispatch thread to
+ * catch up.
+ *
+ * <p>{@link Reporter#removeHandler} waits until the handler has written all queued events, so
+ * output that is written directly after the handler was removed follows its output.
+ */
+@ThreadSafe
+public final class AsynchronousEventHandler implements EventHandler {
+  private static final Logger LOG = Logger.getLogger(AsynchronousEventHandler.class.getName());
+
+  /** The largest number of events passed on without writing the output. */
+  private static final int MAX_BATCH_SIZE = 1000;
+
+  private final EventHandler delegate;
+  private final ImmutableList<BatchingOutputStream> streams;
+  private final Queue<Event> queue = new ConcurrentLinkedQueue<>();
+  private final Semaphore capacity;
+  private final Thread dispatcher;
+
+  private final AtomicLong queued = new AtomicLong();
+  private final Object writtenLock = new Object();
+  // The number of events whose output was written; guarded by writtenLock.
+  private long written = 0;
+  private volatile boolean closed = false;
+
+  /**
+   * Creates a handler that passes events on to the handler created by {@code delegateFactory}
+   * for a buffered version of {@code outErr}, and queues up to {@code capacity} events.
+   */
+  public static AsynchronousEventHandler create(
+      OutErr outErr, Function<OutErr, EventHandler> delegateFactory, int capacity) {
+    BatchingOutputStream out = new BatchingOutputStream(outErr.getOutputStream());
+    BatchingOutputStream err = new BatchingOutputStream(outErr.getErrorStream());
+    EventHandler delegate = delegateFactory.apply(OutErr.create(out, err));
+    return new AsynchronousEventHandler(delegate, ImmutableList.of(out, err), capacity);
+  }
+
+  private AsynchronousEventHandler(
+      EventHandler delegate, ImmutableList<BatchingOutputStream> streams, int capacity) {
+    this.delegate = delegate;
+    this.streams = streams;
+    this.capacity = new Semaphore(capacity);
+    this.dispatcher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        dispatch();
+      }
+    }, "event-dispatcher");
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  /** Returns the handler that events are passed on to. */
+  public EventHandler getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public void handle(Event event) {
+    if (closed) {
+      synchronized (writtenLock) {
+        delegate.handle(event);
+        writeBatch();
+      }
+      return;
+    }
+    capacity.acquireUninterruptibly();
+    queue.add(event);
+    queued.incrementAndGet();
+    LockSupport.unpark(dispatcher);
+  }
+
+  /** Waits until the output of all events handled so far is written. */
+  public void awaitDelivery() {
+    long target = queued.get();
+    boolean interrupted = false;
+    synchronized (writtenLock) {
+      while (written < target && dispatcher.isAlive()) {
+        try {
+          writtenLock.wait(100);
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Writes the output of all queued events and stops the dispatch thread. Events handled later
+   * are passed on synchronously. The handler should be removed from its reporter first.
+   */
+  public void close() {
+    closed = true;
+    LockSupport.unpark(dispatcher);
+    boolean interrupted = false;
+    while (dispatcher.isAlive()) {
+      try {
+        dispatcher.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    // Events of threads that saw the handler open, but queued them after the dispatch thread
+    // was done.
+    synchronized (writtenLock) {
+      Event event;
+      while ((event = queue.poll()) != null) {
+        delegate.handle(event);
+        capacity.release();
+      }
+      writeBatch();
+    }
+  }
+
+  private void dispatch() {
+    long passedOn = 0;
+    int batchSize = 0;
+    while (true) {
+      Event event = queue.poll();
+      if (event != null) {
+        try {
+          delegate.handle(event);
+        } catch (RuntimeException e) {
+          LOG.log(Level.SEVERE, "Event handler failed", e);
+        }
+        capacity.release();
+        passedOn++;
+        if (++batchSize < MAX_BATCH_SIZE) {
+          continue;
+        }
+      }
+      if (batchSize > 0) {
+        synchronized (writtenLock) {
+          writeBatch();
+          written = passedOn;
+          writtenLock.notifyAll();
+        }
+        batchSize = 0;
+      } else if (closed) {
+        // Events are only queued before the handler is closed, so the queue stays empty.
+        if (queue.isEmpty()) {
+          return;
+        }
+      } else {
+        LockSupport.park(this);
+      }
+    }
+  }
+
+  private void writeBatch() {
+    for (BatchingOutputStream stream : streams) {
+      try {
+        stream.writeBatch();
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Could not write event output", e);
+      }
+    }
+  }
+
+  /**
+   * Collects what is written to it until {@link #writeBatch} is called. Flushing does nothing,
+   * since event handlers tend to flush after every event.
+   */
+  private static final class BatchingOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    BatchingOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+      buffer.write(b);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+      buffer.write(b, off, len);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    synchronized void writeBatch() throws IOException {
+      if (buffer.size() > 0) {
+        buffer.writeTo(out);
+        buffer.reset();
+        out.flush();
+      }
+    }
+  }
+}
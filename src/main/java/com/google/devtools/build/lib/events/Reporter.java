@@ -92,10 +92,14 @@ public final class Reporter implements EventHandler, ExceptionListener {
   }
 
   /**
-   * Removes handler from this reporter.
+   * Removes handler from this reporter. If the handler passes events on asynchronously, waits
+   * until it has passed on all events reported so far.
    */
   public synchronized void removeHandler(EventHandler handler) {
      handlers.remove(handler);
+     if (handler instanceof AsynchronousEventHandler) {
+       ((AsynchronousEventHandler) handler).awaitDelivery();
+     }
   }
 
   /**
@@ -152,6 +152,23 @@ public class ExecutionOptions extends OptionsBase {
         + "to use its default timeouts for that category.")
   public Map<TestTimeout, Integer> testTimeout;
 
+  @Option(name = "experimental_test_result_cache_size",
+      defaultValue = "0",
+      category = "testing",
+      help = "If positive, the results of passing tests are also kept in a cache next to the "
+          + "execution root, keyed by the contents of their runfiles, their arguments and their "
+          + "environment, and reused after changes of build options that don't affect the tests. "
+          + "The value is the maximum size of the cache in megabytes.")
+  public int testResultCacheSizeMb;
+
+  @Option(name = "experimental_balance_test_shards",
+      defaultValue = "false",
+      category = "testing",
+      help = "If true, the durations of the test cases of sharded tests are recorded, and test "
+          + "runners that support it split up the test cases of later runs so that all shards "
+          + "take about the same time, instead of splitting them up by count.")
+  public boolean balanceTestShards;
+
   @Option(name = "resource_autosense",
       defaultValue = "false",
       category = "strategy",
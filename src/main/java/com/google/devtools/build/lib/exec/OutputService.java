@@ -15,6 +15,7 @@
 package com.google.devtools.build.lib.exec;
 
 import com.google.devtools.build.lib.actions.Action;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
 import com.google.devtools.build.lib.actions.BuildFailedException;
 import com.google.devtools.build.lib.actions.EnvironmentalExecException;
 import com.google.devtools.build.lib.actions.ExecException;
@@ -74,6 +75,14 @@ public interface OutputService {
    */
   void finalizeBuild(boolean buildSuccessful) throws BuildFailedException, AbruptExitException;
 
+  /**
+   * Notify the output service that {@code action} is about to be executed. The output service
+   * must make sure that the inputs the action reads locally exist in the output tree, even if they
+   * only live on a remote server.
+   */
+  void prepareAction(Action action, ActionExecutionContext actionExecutionContext)
+      throws IOException, InterruptedException;
+
   /** Notify the output service of a completed action. */
   void finalizeAction(Action action, MetadataHandler metadataHandler)
       throws IOException, EnvironmentalExecException;
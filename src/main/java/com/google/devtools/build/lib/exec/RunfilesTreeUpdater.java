@@ -0,0 +1,266 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.concurrent.ExecutorUtil;
+import com.google.devtools.build.lib.concurrent.Sharder;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
+
+/**
+ * Updates a runfiles tree in place, by applying the difference between the manifest the tree was
+ * last built from and a new manifest, so that the cost is proportional to the change rather than
+ * to the size of the tree. The tree is assumed to be in the state described by its {@code
+ * MANIFEST} file, which build-runfiles writes last, and which this class removes before touching
+ * the tree and writes back when done.
+ *
+ * <p>Only runfiles trees with absolute symlink targets are supported; the manifests of fileset
+ * trees, which carry metadata lines and relative targets, must be handled by build-runfiles.
+ */
+final class RunfilesTreeUpdater {
+
+  /** The name of the copy of the manifest the runfiles tree was built from. */
+  @VisibleForTesting
+  static final String OUTPUT_MANIFEST = "MANIFEST";
+
+  /** Updates with fewer changes than this are applied by the calling thread. */
+  private static final int MIN_PARALLEL_CHANGES = 1000;
+  private static final int MAX_THREADS = 8;
+
+  private RunfilesTreeUpdater() {
+  }
+
+  /**
+   * Brings the runfiles tree at {@code treeRoot} up to date with {@code inputManifest}.
+   *
+   * <p>Returns false without changing anything if the tree cannot be updated incrementally,
+   * because it was never built or either manifest is not a valid runfiles manifest; the caller
+   * must then build the tree from scratch. If this method throws, the tree is left without an
+   * output manifest, so the next update is a full one.
+   */
+  static boolean update(Path inputManifest, Path treeRoot)
+      throws IOException, InterruptedException {
+    Path outputManifest = treeRoot.getChild(OUTPUT_MANIFEST);
+    if (!outputManifest.isFile()) {
+      return false;
+    }
+    Map<String, String> oldEntries = readManifest(outputManifest);
+    Map<String, String> newEntries = readManifest(inputManifest);
+    if (oldEntries == null || newEntries == null) {
+      return false;
+    }
+
+    List<String> removed = new ArrayList<>();
+    for (Map.Entry<String, String> entry : oldEntries.entrySet()) {
+      if (!entry.getValue().equals(newEntries.get(entry.getKey()))) {
+        removed.add(entry.getKey());
+      }
+    }
+    List<String> added = new ArrayList<>();
+    for (Map.Entry<String, String> entry : newEntries.entrySet()) {
+      if (!entry.getValue().equals(oldEntries.get(entry.getKey()))) {
+        added.add(entry.getKey());
+      }
+    }
+
+    outputManifest.delete();
+    if (!removed.isEmpty()) {
+      apply(new Deleter(treeRoot), removed);
+      pruneEmptyDirectories(treeRoot, removed);
+    }
+    if (!added.isEmpty()) {
+      apply(new Creator(treeRoot, newEntries), added);
+    }
+
+    Path tempManifest = treeRoot.getChild(OUTPUT_MANIFEST + ".tmp");
+    FileSystemUtils.copyFile(inputManifest, tempManifest);
+    tempManifest.renameTo(outputManifest);
+    return true;
+  }
+
+  /**
+   * Parses a runfiles manifest into a map from link paths to symlink targets, where the empty
+   * string stands for an empty file. Returns null if the manifest is malformed.
+   */
+  @Nullable
+  @VisibleForTesting
+  static Map<String, String> readManifest(Path manifest) throws IOException {
+    Map<String, String> entries = new HashMap<>();
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(manifest.getInputStream(), StandardCharsets.ISO_8859_1))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int space = line.indexOf(' ');
+        if (space <= 0 || line.startsWith("/") || line.indexOf(' ', space + 1) != -1) {
+          return null;
+        }
+        String target = line.substring(space + 1);
+        if (!target.isEmpty() && !target.startsWith("/")) {
+          return null;
+        }
+        entries.put(line.substring(0, space), target);
+      }
+    }
+    return entries;
+  }
+
+  /** Applies an operation to links of the tree. */
+  private interface LinkOperation {
+    void apply(String link) throws IOException;
+  }
+
+  private static final class Deleter implements LinkOperation {
+    private final Path treeRoot;
+
+    private Deleter(Path treeRoot) {
+      this.treeRoot = treeRoot;
+    }
+
+    @Override
+    public void apply(String link) throws IOException {
+      Path path = treeRoot.getRelative(link);
+      if (path.isDirectory(Symlinks.NOFOLLOW)) {
+        // Not what the old manifest says; the tree was modified behind our back.
+        FileSystemUtils.deleteTree(path);
+      } else {
+        path.delete();
+      }
+    }
+  }
+
+  private static final class Creator implements LinkOperation {
+    private final Path treeRoot;
+    private final Map<String, String> entries;
+
+    private Creator(Path treeRoot, Map<String, String> entries) {
+      this.treeRoot = treeRoot;
+      this.entries = entries;
+    }
+
+    @Override
+    public void apply(String link) throws IOException {
+      Path path = treeRoot.getRelative(link);
+      FileSystemUtils.createDirectoryAndParents(path.getParentDirectory());
+      if (path.exists(Symlinks.NOFOLLOW)) {
+        // A leftover of an earlier file type of this path.
+        FileSystemUtils.deleteTree(path);
+      }
+      String target = entries.get(link);
+      if (target.isEmpty()) {
+        FileSystemUtils.createEmptyFile(path);
+      } else {
+        path.createSymbolicLink(new PathFragment(target));
+      }
+    }
+  }
+
+  /**
+   * Applies {@code operation} to all {@code links}, in parallel if there are many. The links must
+   * be distinct and none may be an ancestor of another, so that the operations are independent.
+   */
+  private static void apply(final LinkOperation operation, List<String> links)
+      throws IOException, InterruptedException {
+    if (links.size() < MIN_PARALLEL_CHANGES) {
+      for (String link : links) {
+        operation.apply(link);
+      }
+      return;
+    }
+
+    int numThreads = Math.min(MAX_THREADS, links.size() / (MIN_PARALLEL_CHANGES / MAX_THREADS));
+    Sharder<String> shards = new Sharder<>(numThreads, links.size());
+    for (String link : links) {
+      shards.add(link);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+        new ThreadFactoryBuilder().setNameFormat("Runfiles Tree Updater %d").build());
+    List<Future<Void>> futures = new ArrayList<>();
+    for (final List<String> shard : shards) {
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          for (String link : shard) {
+            operation.apply(link);
+          }
+          return null;
+        }
+      }));
+    }
+    if (ExecutorUtil.interruptibleShutdown(executor)) {
+      throw new InterruptedException();
+    }
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Removes the directories that contained {@code removedLinks} and are now empty, deepest first,
+   * like build-runfiles does for directories not mentioned in the manifest.
+   */
+  private static void pruneEmptyDirectories(Path treeRoot, List<String> removedLinks)
+      throws IOException {
+    Set<PathFragment> directories = new LinkedHashSet<>();
+    for (String link : removedLinks) {
+      for (PathFragment dir = new PathFragment(link).getParentDirectory();
+          dir != null && dir.segmentCount() > 0 && directories.add(dir);
+          dir = dir.getParentDirectory()) {
+      }
+    }
+    List<PathFragment> deepestFirst = new ArrayList<>(directories);
+    Collections.sort(deepestFirst, new Comparator<PathFragment>() {
+      @Override
+      public int compare(PathFragment a, PathFragment b) {
+        return b.segmentCount() - a.segmentCount();
+      }
+    });
+    for (PathFragment dir : deepestFirst) {
+      Path path = treeRoot.getRelative(dir);
+      if (path.isDirectory(Symlinks.NOFOLLOW) && path.getDirectoryEntries().isEmpty()) {
+        path.delete();
+      }
+    }
+  }
+}
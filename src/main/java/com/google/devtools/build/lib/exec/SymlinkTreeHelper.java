@@ -37,13 +37,18 @@ import com.google.devtools.build.lib.vfs.UnixFileSystem;
 import com.google.devtools.build.lib.vfs.UnixFileSystem.SymlinkStrategy;
 import com.google.devtools.build.lib.vfs.WindowsFileSystem;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Helper class responsible for the symlink tree creation.
  * Used to generate runfiles and fileset symlink farms.
  */
 public final class SymlinkTreeHelper {
+  private static final Logger LOG = Logger.getLogger(SymlinkTreeHelper.class.getName());
+
   @VisibleForTesting
   public static final String BUILD_RUNFILES = "build-runfiles" + OsUtils.executableExtension();
 
@@ -101,8 +106,9 @@ public final class SymlinkTreeHelper {
   }
 
   /**
-   * Creates symlink tree using appropriate method. At this time tree
-   * always created using build-runfiles helper application.
+   * Creates symlink tree using appropriate method. Runfiles trees that were built before are
+   * updated in place by {@link RunfilesTreeUpdater}; otherwise the tree is created using the
+   * build-runfiles helper application.
    *
    * Note: method may try to acquire resources - meaning that it would
    * block for undetermined period of time. If it is interrupted during
@@ -121,6 +127,20 @@ public final class SymlinkTreeHelper {
       ImmutableMap<String, String> shellEnvironment,
       boolean enableRunfiles)
       throws ExecException, InterruptedException {
+    Path execRoot = actionExecutionContext.getExecutor().getExecRoot();
+    if (canUpdateIncrementally(execRoot, enableRunfiles)) {
+      try (ResourceHandle handle =
+          ResourceManager.instance().acquireResources(action, RESOURCE_SET)) {
+        if (RunfilesTreeUpdater.update(
+            execRoot.getRelative(inputManifest), execRoot.getRelative(symlinkTreeRoot))) {
+          return;
+        }
+      } catch (IOException e) {
+        // build-runfiles starts from scratch, and will report the error if it persists.
+        LOG.log(Level.WARNING, "Failed to update runfiles tree " + symlinkTreeRoot
+            + " incrementally, rebuilding it", e);
+      }
+    }
     List<String> args =
         getSpawnArgumentList(
             actionExecutionContext.getExecutor().getExecRoot(),
@@ -135,6 +155,20 @@ public final class SymlinkTreeHelper {
     }
   }
 
+  /**
+   * Returns whether the tree can be updated by {@link RunfilesTreeUpdater}. It only supports
+   * runfiles trees made of symlinks, which is what build-runfiles creates unless it is asked for a
+   * fileset tree, a manifest only or a Windows-compatible tree.
+   */
+  private boolean canUpdateIncrementally(Path execRoot, boolean enableRunfiles) {
+    if (filesetTree || !enableRunfiles || OS.getCurrent() == OS.WINDOWS) {
+      return false;
+    }
+    FileSystem fs = execRoot.getFileSystem();
+    return !(fs instanceof UnixFileSystem
+        && ((UnixFileSystem) fs).getSymlinkStrategy() == SymlinkStrategy.WINDOWS_COMPATIBLE);
+  }
+
   /**
    * Returns the complete argument list build-runfiles has to be called with.
    */
@@ -47,6 +47,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nullable;
 
@@ -776,6 +777,15 @@ public class Package {
      */
     private Map<String, OutputFile> outputFilePrefixes = new HashMap<>();
 
+    /**
+     * The attribute values of the rules of this package that are shared between rules, keyed by
+     * themselves. Like {@link #outputFilePrefixes}, this is only needed while the package is
+     * loaded. Rules of a package may be created on several threads at once, see {@link
+     * ParallelBuildFileEvaluator}.
+     */
+    private final ConcurrentHashMap<Object, Object> sharedAttributeValues =
+        new ConcurrentHashMap<>();
+
     private boolean alreadyBuilt = false;
 
     private EventHandler builderEventHandler = new EventHandler() {
@@ -1016,6 +1026,37 @@ public class Package {
       return new Rule(pkg, label, ruleClass, location, attributeContainer);
     }
 
+    /**
+     * Returns a value equal to {@code value} that all rules of this package that have such a value
+     * share, if {@code value} is known to be immutable: a string, or an immutable list of strings
+     * and labels. Otherwise returns {@code value} itself.
+     *
+     * <p>Generated rules tend to repeat the same lists, for example of {@code deps}, {@code copts}
+     * or {@code visibility}, so this saves a copy of each list per rule.
+     */
+    Object shareAttributeValue(Object value) {
+      if (!isShareable(value)) {
+        return value;
+      }
+      Object shared = sharedAttributeValues.putIfAbsent(value, value);
+      return shared == null ? value : shared;
+    }
+
+    private static boolean isShareable(Object value) {
+      if (value instanceof String) {
+        return true;
+      }
+      if (!(value instanceof ImmutableList<?>)) {
+        return false;
+      }
+      for (Object element : (ImmutableList<?>) value) {
+        if (!(element instanceof String) && !(element instanceof Label)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
     /**
      * Called by the parser when a "mocksubinclude" is encountered, to record the
      * mappings from labels to absolute paths upon which that the validity of
@@ -1237,6 +1278,55 @@ public class Package {
       addRuleUnchecked(rule);
     }
 
+    /**
+     * Returns whether {@link #addRule} would accept each of {@code rules} in turn. Unlike {@link
+     * #addRule}, this does not change the package, even if one of the rules conflicts.
+     */
+    boolean canAddRules(List<Rule> rules) {
+      Map<String, Target> added = new HashMap<>();
+      Map<String, OutputFile> addedPrefixes = new HashMap<>();
+      for (Rule rule : rules) {
+        if (getTarget(rule.getName(), added) != null) {
+          return false;
+        }
+        Map<String, OutputFile> outputFiles = new HashMap<>();
+        for (OutputFile outputFile : rule.getOutputFiles()) {
+          String outputFileName = outputFile.getName();
+          if (outputFiles.put(outputFileName, outputFile) != null
+              || getTarget(outputFileName, added) != null
+              || outputFilePrefixes.containsKey(outputFileName)
+              || addedPrefixes.containsKey(outputFileName)) {
+            return false;
+          }
+          PathFragment outputFileFragment = new PathFragment(outputFileName);
+          for (int i = 1; i < outputFileFragment.segmentCount(); i++) {
+            String prefix = outputFileFragment.subFragment(0, i).toString();
+            if (outputFiles.containsKey(prefix)
+                || getTarget(prefix, added) instanceof OutputFile) {
+              return false;
+            }
+            if (!outputFilePrefixes.containsKey(prefix)) {
+              addedPrefixes.put(prefix, outputFile);
+            }
+          }
+        }
+        try {
+          checkForInputOutputConflicts(rule, outputFiles.keySet());
+        } catch (NameConflictException e) {
+          return false;
+        }
+        added.put(rule.getName(), rule);
+        added.putAll(outputFiles);
+      }
+      return true;
+    }
+
+    @Nullable
+    private Target getTarget(String name, Map<String, Target> added) {
+      Target target = targets.get(name);
+      return target != null ? target : added.get(name);
+    }
+
     private Builder beforeBuild() {
       Preconditions.checkNotNull(pkg);
       Preconditions.checkNotNull(filename);
@@ -1331,6 +1421,8 @@ public class Package {
       // Build the package.
       pkg.finishInit(this);
       alreadyBuilt = true;
+      // The builder may be kept around after the package is built.
+      sharedAttributeValues.clear();
       return pkg;
     }
 
@@ -72,6 +72,7 @@ import com.google.devtools.build.lib.vfs.UnixGlob;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -327,6 +328,8 @@ public final class PackageFactory {
   private Preprocessor.Factory preprocessorFactory = Preprocessor.Factory.NullFactory.INSTANCE;
 
   private final ThreadPoolExecutor threadPool;
+  private final ThreadPoolExecutor evaluationThreadPool;
+  private int buildFileEvaluationThreads = 1;
   private Map<String, String> platformSetRegexps;
 
   private final ImmutableList<EnvironmentExtension> environmentExtensions;
@@ -395,6 +398,10 @@ public final class PackageFactory {
         new ThreadFactoryBuilder().setNameFormat("Legacy globber %d").build());
     // Do not consume threads when not in use.
     threadPool.allowCoreThreadTimeOut(true);
+    evaluationThreadPool = new ThreadPoolExecutor(1, 1, 15L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactoryBuilder().setNameFormat("BUILD file evaluator %d").build());
+    evaluationThreadPool.allowCoreThreadTimeOut(true);
     this.environmentExtensions = ImmutableList.copyOf(environmentExtensions);
     this.packageArguments = createPackageArguments();
     this.nativeModule = newNativeModule();
@@ -424,6 +431,23 @@ public final class PackageFactory {
     threadPool.setMaximumPoolSize(globbingThreads);
   }
 
+  /**
+   * Sets the number of threads on which the independent statements of a BUILD file are evaluated
+   * (see {@link ParallelBuildFileEvaluator}), including the thread that loads the package. With
+   * one thread, the statements are executed one after the other.
+   */
+  public void setBuildFileEvaluationThreads(int threads) {
+    buildFileEvaluationThreads = threads;
+    int poolSize = Math.max(threads - 1, 1);
+    if (poolSize > evaluationThreadPool.getMaximumPoolSize()) {
+      evaluationThreadPool.setMaximumPoolSize(poolSize);
+      evaluationThreadPool.setCorePoolSize(poolSize);
+    } else {
+      evaluationThreadPool.setCorePoolSize(poolSize);
+      evaluationThreadPool.setMaximumPoolSize(poolSize);
+    }
+  }
+
 
   /**
    * Returns the immutable, unordered set of names of all the known rule
@@ -553,6 +577,7 @@ public final class PackageFactory {
       context = getContext(env, ast);
     } else {
       context = originalContext;
+      context.checkNotSpeculative(ast.getLocation());
     }
 
     List<String> includes = Type.STRING_LIST.convert(include, "'glob' argument");
@@ -619,7 +644,8 @@ public final class PackageFactory {
         public BuiltinFunction create(final PackageContext context) {
           return new BuiltinFunction("mocksubinclude", this) {
             public Runtime.NoneType invoke(Object labelO, String pathString,
-                Location loc) throws ConversionException {
+                Location loc) throws EvalException, ConversionException {
+              context.checkNotSpeculative(loc);
               Label label = BuildType.LABEL.convert(labelO, "'mocksubinclude' argument",
                   context.pkgBuilder.getBuildFileLabel());
               Path path = pathString.isEmpty()
@@ -675,6 +701,7 @@ public final class PackageFactory {
             public Runtime.NoneType invoke(
                 String name, SkylarkList environmentsList, SkylarkList defaultsList,
                 Location loc) throws EvalException, ConversionException {
+              context.checkNotSpeculative(loc);
               List<Label> environments = BuildType.LABEL_LIST.convert(environmentsList,
                   "'environment_group argument'", context.pkgBuilder.getBuildFileLabel());
               List<Label> defaults = BuildType.LABEL_LIST.convert(defaultsList,
@@ -796,7 +823,9 @@ public final class PackageFactory {
       new BuiltinFunction.Factory("licenses") {
         public BuiltinFunction create(final PackageContext context) {
           return new BuiltinFunction("licenses", this) {
-            public Runtime.NoneType invoke(SkylarkList licensesList, Location loc) {
+            public Runtime.NoneType invoke(SkylarkList licensesList, Location loc)
+                throws EvalException {
+              context.checkNotSpeculative(loc);
               try {
                 License license = BuildType.LICENSE.convert(licensesList, "'licenses' operand");
                 context.pkgBuilder.setDefaultLicense(license);
@@ -828,7 +857,8 @@ public final class PackageFactory {
       new BuiltinFunction.Factory("distribs") {
         public BuiltinFunction create(final PackageContext context) {
           return new BuiltinFunction("distribs", this) {
-            public Runtime.NoneType invoke(Object object, Location loc) {
+            public Runtime.NoneType invoke(Object object, Location loc) throws EvalException {
+              context.checkNotSpeculative(loc);
               try {
                 Set<DistributionType> distribs = BuildType.DISTRIBUTIONS.convert(object,
                     "'distribs' operand");
@@ -1174,6 +1204,17 @@ public final class PackageFactory {
    */
   public static PackageContext getContext(Environment env, FuncallExpression ast)
       throws EvalException {
+    PackageContext context = lookupContext(env, ast);
+    context.checkNotSpeculative(ast.getLocation());
+    return context;
+  }
+
+  /**
+   * Like {@link #getContext}, but also returns speculative contexts, for functions that only
+   * create rules.
+   */
+  private static PackageContext lookupContext(Environment env, FuncallExpression ast)
+      throws EvalException {
     try {
       return (PackageContext) env.lookup(PKG_CONTEXT);
     } catch (NoSuchVariableException e) {
@@ -1198,7 +1239,7 @@ public final class PackageFactory {
           throws EvalException, InterruptedException {
         env.checkLoadingOrWorkspacePhase(ruleClass, ast.getLocation());
         try {
-          addRule(ruleFactory, ruleClass, getContext(env, ast), kwargs, ast, env);
+          addRule(ruleFactory, ruleClass, lookupContext(env, ast), kwargs, ast, env);
         } catch (RuleFactory.InvalidRuleException | Package.NameConflictException e) {
           throw new EvalException(ast.getLocation(), e.getMessage());
         }
@@ -1445,6 +1486,8 @@ public final class PackageFactory {
     final Globber globber;
     final EventHandler eventHandler;
     private final Function<RuleClass, AttributeContainer> attributeContainerFactory;
+    // The rules created in this context, if it is speculative; see ParallelBuildFileEvaluator.
+    @Nullable private final List<Rule> speculativeRules;
 
     @VisibleForTesting
     public PackageContext(
@@ -1452,10 +1495,59 @@ public final class PackageFactory {
         Globber globber,
         EventHandler eventHandler,
         Function<RuleClass, AttributeContainer> attributeContainerFactory) {
+      this(pkgBuilder, globber, eventHandler, attributeContainerFactory, null);
+    }
+
+    private PackageContext(
+        Package.Builder pkgBuilder,
+        Globber globber,
+        EventHandler eventHandler,
+        Function<RuleClass, AttributeContainer> attributeContainerFactory,
+        @Nullable List<Rule> speculativeRules) {
       this.pkgBuilder = pkgBuilder;
       this.eventHandler = eventHandler;
       this.globber = globber;
       this.attributeContainerFactory = attributeContainerFactory;
+      this.speculativeRules = speculativeRules;
+    }
+
+    /**
+     * Returns a context for the same package in which a statement is evaluated speculatively,
+     * while other statements are evaluated on other threads. The rules created in it are added
+     * to {@code rules} instead of the package; anything else that reads or changes the package
+     * fails (see {@link #checkNotSpeculative}).
+     */
+    PackageContext createSpeculativeContext(EventHandler eventHandler, List<Rule> rules) {
+      return new PackageContext(pkgBuilder, globber, eventHandler, attributeContainerFactory,
+          Preconditions.checkNotNull(rules));
+    }
+
+    /** Returns whether this context was created by {@link #createSpeculativeContext}. */
+    boolean isSpeculative() {
+      return speculativeRules != null;
+    }
+
+    /**
+     * Throws an {@link EvalException} if this context is speculative. Functions that do anything
+     * with the package other than creating rules call this, so that the statements that call
+     * them are evaluated again, in order.
+     */
+    void checkNotSpeculative(Location loc) throws EvalException {
+      if (isSpeculative()) {
+        throw new EvalException(loc, "cannot be evaluated speculatively");
+      }
+    }
+
+    /**
+     * Adds a rule created in this context to the package, or to the rules of the statement that
+     * is evaluated if this context is speculative.
+     */
+    void addRule(Rule rule) throws Package.NameConflictException {
+      if (isSpeculative()) {
+        speculativeRules.add(rule);
+      } else {
+        pkgBuilder.addRule(rule);
+      }
     }
 
     /**
@@ -1520,14 +1612,12 @@ public final class PackageFactory {
     // (that shares a backing ImmutableMap for the bindings?)
     pkgEnv
         .setup("native", nativeModule)
-        .setup("distribs", newDistribsFunction.apply(context))
-        .setup("glob", newGlobFunction.apply(context, /*async=*/false))
-        .setup("mocksubinclude", newMockSubincludeFunction.apply(context))
-        .setup("licenses", newLicensesFunction.apply(context))
         .setup("exports_files", newExportsFilesFunction.apply())
         .setup("package_group", newPackageGroupFunction.apply())
-        .setup("package", newPackageFunction(packageArguments))
-        .setup("environment_group", newEnvironmentGroupFunction.apply(context));
+        .setup("package", newPackageFunction(packageArguments));
+    for (Map.Entry<String, BaseFunction> function : newContextFunctions(context).entrySet()) {
+      pkgEnv.setup(function.getKey(), function.getValue());
+    }
 
     for (String ruleClass : ruleFactory.getRuleClassNames()) {
       BaseFunction ruleFunction = newRuleFunction(ruleFactory, ruleClass);
@@ -1539,6 +1629,63 @@ public final class PackageFactory {
     }
   }
 
+  /** Returns the functions that close over {@code context}, by name. */
+  private static ImmutableMap<String, BaseFunction> newContextFunctions(PackageContext context) {
+    return ImmutableMap.<String, BaseFunction>builder()
+        .put("distribs", newDistribsFunction.apply(context))
+        .put("glob", newGlobFunction.apply(context, /*async=*/false))
+        .put("mocksubinclude", newMockSubincludeFunction.apply(context))
+        .put("licenses", newLicensesFunction.apply(context))
+        .put("environment_group", newEnvironmentGroupFunction.apply(context))
+        .build();
+  }
+
+  private static void setupDynamicBindings(
+      Environment env, PackageContext context, PackageIdentifier packageId) {
+    env.setupDynamic(PKG_CONTEXT, context);
+    env.setupDynamic(Runtime.PKG_NAME, packageId.getPackageFragment().getPathString());
+    env.setupDynamic(Runtime.REPOSITORY_NAME, packageId.getRepository().toString());
+  }
+
+  /**
+   * Returns an environment in which statements of the package whose environment is {@code
+   * pkgEnv} are evaluated speculatively (see {@link ParallelBuildFileEvaluator}). It has the
+   * current global bindings of {@code pkgEnv}, except that the functions that close over the
+   * package context close over a speculative one, which adds the rules it creates to {@code
+   * rules}.
+   */
+  private Environment createSpeculativeEnvironment(
+      Environment pkgEnv,
+      PackageContext context,
+      PackageIdentifier packageId,
+      Map<String, Extension> imports,
+      Mutability mutability,
+      EventHandler eventHandler,
+      List<Rule> rules) {
+    PackageContext speculativeContext = context.createSpeculativeContext(eventHandler, rules);
+    Environment env = Environment.builder(mutability)
+        .setGlobals(Environment.BUILD)
+        .setEventHandler(eventHandler)
+        .setImportedExtensions(imports)
+        .setToolsRepository(ruleClassProvider.getToolsRepository())
+        .setPhase(Phase.LOADING)
+        .build();
+    // The BUILD file may also have assigned these functions to other variables.
+    Environment.Frame globals = pkgEnv.getGlobals();
+    Map<Object, BaseFunction> replacements = new IdentityHashMap<>();
+    for (Map.Entry<String, BaseFunction> function :
+        newContextFunctions(speculativeContext).entrySet()) {
+      replacements.put(globals.get(function.getKey()), function.getValue());
+    }
+    for (String name : globals.getDirectVariableNames()) {
+      Object value = globals.get(name);
+      BaseFunction replacement = replacements.get(value);
+      env.setupOverride(name, replacement != null ? replacement : value);
+    }
+    setupDynamicBindings(env, speculativeContext, packageId);
+    return env;
+  }
+
   /**
    * Called by a caller of {@link #createPackageFromPreprocessingAst} after this caller has fully
    * loaded the package.
@@ -1584,7 +1731,7 @@ public final class PackageFactory {
     StoredEventHandler eventHandler = new StoredEventHandler();
 
     try (Mutability mutability = Mutability.create("package %s", packageId)) {
-      Environment pkgEnv = Environment.builder(mutability)
+      final Environment pkgEnv = Environment.builder(mutability)
           .setGlobals(Environment.BUILD)
           .setEventHandler(eventHandler)
           .setImportedExtensions(imports)
@@ -1604,13 +1751,11 @@ public final class PackageFactory {
       Event.replayEventsOn(eventHandler, pastEvents);
 
       // Stuff that closes over the package context:
-      PackageContext context =
+      final PackageContext context =
           new PackageContext(
               pkgBuilder, globber, eventHandler, ruleFactory.getAttributeContainerFactory());
       buildPkgEnv(pkgEnv, context, ruleFactory);
-      pkgEnv.setupDynamic(PKG_CONTEXT, context);
-      pkgEnv.setupDynamic(Runtime.PKG_NAME, packageId.getPackageFragment().getPathString());
-      pkgEnv.setupDynamic(Runtime.REPOSITORY_NAME, packageId.getRepository().toString());
+      setupDynamicBindings(pkgEnv, context, packageId);
 
       if (containsError) {
         pkgBuilder.setContainsErrors();
@@ -1620,7 +1765,8 @@ public final class PackageFactory {
         pkgBuilder.setContainsErrors();
       }
 
-      if (!validateAssignmentStatements(pkgEnv, buildFileAST, eventHandler)) {
+      boolean assignmentsValid = validateAssignmentStatements(pkgEnv, buildFileAST, eventHandler);
+      if (!assignmentsValid) {
         pkgBuilder.setContainsErrors();
       }
 
@@ -1632,7 +1778,30 @@ public final class PackageFactory {
       // as containing errors" is strewn all over this class.  Refactor to use an
       // event sensor--and see if we can simplify the calling code in
       // createPackage().
-      if (!buildFileAST.exec(pkgEnv, eventHandler)) {
+      boolean ok;
+      // Speculative environments only replace the functions of the package context if the BUILD
+      // file did not redefine them.
+      if (buildFileEvaluationThreads > 1 && assignmentsValid) {
+        ok = new ParallelBuildFileEvaluator(
+            evaluationThreadPool,
+            buildFileEvaluationThreads,
+            ruleFactory.getRuleClassNames(),
+            buildFileAST,
+            pkgEnv,
+            pkgBuilder,
+            eventHandler,
+            new ParallelBuildFileEvaluator.SpeculativeEnvironmentFactory() {
+              @Override
+              public Environment create(
+                  Mutability mutability, EventHandler eventHandler, List<Rule> rules) {
+                return createSpeculativeEnvironment(
+                    pkgEnv, context, packageId, imports, mutability, eventHandler, rules);
+              }
+            }).exec();
+      } else {
+        ok = buildFileAST.exec(pkgEnv, eventHandler);
+      }
+      if (!ok) {
         pkgBuilder.setContainsErrors();
       }
     }
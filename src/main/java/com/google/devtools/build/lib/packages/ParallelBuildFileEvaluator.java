@@ -0,0 +1,274 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.events.EventHandler;
+import com.google.devtools.build.lib.events.StoredEventHandler;
+import com.google.devtools.build.lib.syntax.BuildFileAST;
+import com.google.devtools.build.lib.syntax.Environment;
+import com.google.devtools.build.lib.syntax.Expression;
+import com.google.devtools.build.lib.syntax.ExpressionStatement;
+import com.google.devtools.build.lib.syntax.FuncallExpression;
+import com.google.devtools.build.lib.syntax.Mutability;
+import com.google.devtools.build.lib.syntax.Statement;
+import com.google.devtools.build.lib.syntax.UserDefinedFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Executes the statements of a BUILD file like {@link BuildFileAST#exec} does, but evaluates
+ * runs of independent statements on several threads.
+ *
+ * <p>A top-level call of a macro or of a rule is independent of the calls around it: it
+ * binds no variables, the macro closes over the frozen globals of the .bzl file it was loaded
+ * from (BUILD files cannot define functions), and it can only change the package through the
+ * package context. Consecutive calls are therefore evaluated speculatively, each thread in an
+ * environment of its own whose package context collects the created rules instead of adding them
+ * to the package. The speculative evaluation of a statement fails if it does anything else with
+ * the package, such as globbing, reading rules or setting package defaults, or if it mutates a
+ * value of the BUILD file, which belongs to another environment. The calling thread evaluates
+ * statements as well, so that it does not wait for threads of the shared pool that are busy with
+ * other packages.
+ *
+ * <p>The results are then merged in the order of the statements: the events of each statement
+ * are reported and its rules are added to the package. A statement whose speculative evaluation
+ * failed, or whose rules conflict with the targets of the package, is executed again in the
+ * package's environment. As that may change what the statements after it see, those are
+ * evaluated again. If the statement succeeds this time, it depends on the package, and calls of
+ * the same function are no longer evaluated speculatively. Either way, the package is the same
+ * as if the statements had been executed one after the other.
+ */
+final class ParallelBuildFileEvaluator {
+
+  /**
+   * The smallest number of consecutive calls that are evaluated speculatively. Fewer are
+   * executed faster than the environments of the other threads are set up.
+   */
+  private static final int MIN_SPECULATIVE_STATEMENTS = 8;
+
+  /** Creates the environments in which statements are evaluated speculatively. */
+  interface SpeculativeEnvironmentFactory {
+    /**
+     * Returns an environment with the current global bindings of the package's environment, whose
+     * package context adds the rules it creates to {@code rules}, and which reports events to
+     * {@code eventHandler}.
+     */
+    Environment create(Mutability mutability, EventHandler eventHandler, List<Rule> rules);
+  }
+
+  private final ExecutorService executor;
+  private final int threads;
+  private final Set<String> ruleClassNames;
+  private final BuildFileAST buildFileAST;
+  private final Environment pkgEnv;
+  private final Package.Builder pkgBuilder;
+  private final EventHandler eventHandler;
+  private final SpeculativeEnvironmentFactory environmentFactory;
+
+  // The functions whose calls failed to be evaluated speculatively.
+  private final Set<Object> dependentFunctions = Sets.newIdentityHashSet();
+  private boolean ok = true;
+
+  ParallelBuildFileEvaluator(
+      ExecutorService executor,
+      int threads,
+      Set<String> ruleClassNames,
+      BuildFileAST buildFileAST,
+      Environment pkgEnv,
+      Package.Builder pkgBuilder,
+      EventHandler eventHandler,
+      SpeculativeEnvironmentFactory environmentFactory) {
+    this.executor = executor;
+    this.threads = threads;
+    this.ruleClassNames = ruleClassNames;
+    this.buildFileAST = buildFileAST;
+    this.pkgEnv = pkgEnv;
+    this.pkgBuilder = pkgBuilder;
+    this.eventHandler = eventHandler;
+    this.environmentFactory = environmentFactory;
+  }
+
+  /**
+   * Executes the statements of the BUILD file.
+   *
+   * @return true if no error occurred during execution
+   */
+  boolean exec() throws InterruptedException {
+    List<Statement> statements = buildFileAST.getStatements();
+    int next = 0;
+    while (next < statements.size()) {
+      int end = next;
+      while (end < statements.size() && getSpeculativeFunction(statements.get(end)) != null) {
+        end++;
+      }
+      if (end - next >= MIN_SPECULATIVE_STATEMENTS) {
+        next += evaluateSpeculatively(statements.subList(next, end));
+      } else {
+        for (; next < end; next++) {
+          execInOrder(statements.get(next));
+        }
+        if (next < statements.size()) {
+          execInOrder(statements.get(next++));
+        }
+      }
+    }
+    return ok;
+  }
+
+  /**
+   * Returns the function that {@code stmt} calls if it may be evaluated speculatively, or null
+   * otherwise.
+   */
+  @Nullable
+  private Object getSpeculativeFunction(Statement stmt) {
+    if (!(stmt instanceof ExpressionStatement)) {
+      return null;
+    }
+    Expression expr = ((ExpressionStatement) stmt).getExpression();
+    if (!(expr instanceof FuncallExpression) || ((FuncallExpression) expr).getObject() != null) {
+      return null;
+    }
+    String name = ((FuncallExpression) expr).getFunction().getName();
+    Object function = pkgEnv.lookup(name, null);
+    if (function == null || dependentFunctions.contains(function)) {
+      return null;
+    }
+    return function instanceof UserDefinedFunction
+        || function instanceof RuleFunction
+        || ruleClassNames.contains(name)
+        ? function
+        : null;
+  }
+
+  private boolean execInOrder(Statement stmt) throws InterruptedException {
+    if (!buildFileAST.execTopLevelStatement(stmt, pkgEnv, eventHandler)) {
+      ok = false;
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Evaluates {@code statements} speculatively, and merges the results up to the first one that
+   * has to be executed again, which it executes.
+   *
+   * @return the number of statements that were merged or executed
+   */
+  private int evaluateSpeculatively(final List<Statement> statements)
+      throws InterruptedException {
+    final SpeculativeResult[] results = new SpeculativeResult[statements.size()];
+    final AtomicInteger nextIndex = new AtomicInteger();
+    final AtomicInteger firstFailure = new AtomicInteger(statements.size());
+    List<Future<Void>> futures = new ArrayList<>();
+    try {
+      for (int i = Math.min(threads, statements.size()) - 1; i > 0; i--) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws InterruptedException {
+            evaluateSpeculatively(statements, results, nextIndex, firstFailure);
+            return null;
+          }
+        }));
+      }
+      evaluateSpeculatively(statements, results, nextIndex, firstFailure);
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), InterruptedException.class);
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      for (Future<Void> future : futures) {
+        future.cancel(true);
+      }
+    }
+
+    for (int i = 0; i < statements.size(); i++) {
+      SpeculativeResult result = results[i];
+      if (result == null || !result.ok || !pkgBuilder.canAddRules(result.rules)) {
+        Statement stmt = statements.get(i);
+        Object function = getSpeculativeFunction(stmt);
+        // If the statement fails again, it has an error of its own, and other calls of the
+        // function may well be independent.
+        if (execInOrder(stmt)) {
+          dependentFunctions.add(function);
+        }
+        return i + 1;
+      }
+      Event.replayEventsOn(eventHandler, result.events);
+      for (Rule rule : result.rules) {
+        try {
+          pkgBuilder.addRule(rule);
+        } catch (Package.NameConflictException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    }
+    return statements.size();
+  }
+
+  /**
+   * Evaluates the statements whose indices it takes from {@code nextIndex} in an environment of
+   * its own, until it takes an index that is past a statement whose evaluation failed.
+   */
+  private void evaluateSpeculatively(List<Statement> statements, SpeculativeResult[] results,
+      AtomicInteger nextIndex, AtomicInteger firstFailure) throws InterruptedException {
+    StoredEventHandler events = new StoredEventHandler();
+    List<Rule> rules = new ArrayList<>();
+    try (Mutability mutability = Mutability.create(
+        "speculative evaluation of package %s", pkgBuilder.getPackageIdentifier())) {
+      Environment env = environmentFactory.create(mutability, events, rules);
+      for (int i = nextIndex.getAndIncrement(); i < firstFailure.get();
+          i = nextIndex.getAndIncrement()) {
+        boolean statementOk = buildFileAST.execTopLevelStatement(statements.get(i), env, events);
+        results[i] =
+            new SpeculativeResult(statementOk, events.getEvents(), ImmutableList.copyOf(rules));
+        events.clear();
+        rules.clear();
+        if (!statementOk) {
+          int failure = firstFailure.get();
+          while (i < failure && !firstFailure.compareAndSet(failure, i)) {
+            failure = firstFailure.get();
+          }
+        }
+      }
+    }
+  }
+
+  /** The events and rules of a statement that was evaluated speculatively. */
+  private static final class SpeculativeResult {
+    final boolean ok;
+    final ImmutableList<Event> events;
+    final ImmutableList<Rule> rules;
+
+    SpeculativeResult(boolean ok, ImmutableList<Event> events, ImmutableList<Rule> rules) {
+      this.ok = ok;
+      this.events = events;
+      this.rules = rules;
+    }
+  }
+}
@@ -1387,7 +1387,7 @@ public final class RuleClass {
       AttributeValuesMap attributeValues,
       EventHandler eventHandler) {
     BitSet definedAttrIndices =
-        populateDefinedRuleAttributeValues(rule, attributeValues, eventHandler);
+        populateDefinedRuleAttributeValues(rule, pkgBuilder, attributeValues, eventHandler);
     populateDefaultRuleAttributeValues(rule, pkgBuilder, definedAttrIndices, eventHandler);
     // Now that all attributes are bound to values, collect and store configurable attribute keys.
     populateConfigDependenciesAttribute(rule);
@@ -1398,14 +1398,18 @@ public final class RuleClass {
    * attributeValues} map.
    *
    * <p>Handles the special cases of the attribute named {@code "name"} and attributes with value
-   * {@link Runtime#NONE}.
+   * {@link Runtime#NONE}. Values that are known to be immutable are shared with the other rules of
+   * the package that have equal values (see {@link Package.Builder#shareAttributeValue}).
    *
    * <p>Returns a bitset {@code b} where {@code b.get(i)} is {@code true} if this method set a
    * value for the attribute with index {@code i} in this {@link RuleClass}. Errors are reported
    * on {@code eventHandler}.
    */
   private BitSet populateDefinedRuleAttributeValues(
-      Rule rule, AttributeValuesMap attributeValues, EventHandler eventHandler) {
+      Rule rule,
+      Package.Builder pkgBuilder,
+      AttributeValuesMap attributeValues,
+      EventHandler eventHandler) {
     BitSet definedAttrIndices = new BitSet();
     for (String attributeName : attributeValues.getAttributeNames()) {
       // The attribute named "name" was handled in a special way already.
@@ -1442,6 +1446,7 @@ public final class RuleClass {
       } else {
         nativeAttributeValue = attributeValue;
       }
+      nativeAttributeValue = pkgBuilder.shareAttributeValue(nativeAttributeValue);
 
       boolean explicit = attributeValues.isAttributeExplicitlySpecified(attributeName);
       setRuleAttributeValue(rule, eventHandler, attr, nativeAttributeValue, explicit);
@@ -187,7 +187,9 @@ public class RuleFactory {
   }
 
   /**
-   * Creates a {@link Rule} instance, adds it to the {@link Package.Builder} and returns it.
+   * Creates a {@link Rule} instance, adds it to the {@link Package.Builder} and returns it. If the
+   * context is speculative, the rule is only added to its rules (see {@link
+   * PackageContext#createSpeculativeContext}).
    *
    * @param context the package-building context in which this rule was declared
    * @param ruleClass the {@link RuleClass} of the rule
@@ -214,15 +216,18 @@ public class RuleFactory {
       @Nullable Environment env,
       AttributeContainer attributeContainer)
       throws InvalidRuleException, NameConflictException, InterruptedException {
-    return createAndAddRule(
-        context.pkgBuilder,
-        ruleClass,
-        attributeValues,
-        context.eventHandler,
-        ast,
-        ast.getLocation(),
-        env,
-        attributeContainer);
+    Rule rule =
+        createRule(
+            context.pkgBuilder,
+            ruleClass,
+            attributeValues,
+            context.eventHandler,
+            ast,
+            ast.getLocation(),
+            env,
+            attributeContainer);
+    context.addRule(rule);
+    return rule;
   }
 
   /**
@@ -0,0 +1,23 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+/**
+ * Marker interface for the functions of rule classes that are defined outside this package, such
+ * as Skylark rules. A call of such a function does nothing with the package but add a rule to the
+ * package context it looks up, through {@link RuleFactory#createAndAddRule}, so it may be
+ * evaluated speculatively (see {@link ParallelBuildFileEvaluator}).
+ */
+public interface RuleFunction {
+}
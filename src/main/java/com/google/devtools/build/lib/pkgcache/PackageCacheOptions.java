@@ -111,6 +111,14 @@ public class PackageCacheOptions extends OptionsBase {
       help = "Number of threads to use for glob evaluation.")
   public int globbingThreads;
 
+  @Option(name = "experimental_build_file_evaluation_threads",
+      defaultValue = "1",
+      category = "undocumented",
+      help = "Number of threads on which the independent top-level macro and rule calls of a "
+          + "BUILD file are evaluated. With 1, the statements of a BUILD file are evaluated one "
+          + "after the other.")
+  public int buildFileEvaluationThreads;
+
   @Option(name = "min_pkg_count_for_ct_node_eviction",
       defaultValue = "3700",
       // Why is the default value 3700? As of December 2013, a medium target loads about this many
@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Semaphore;
 
@@ -110,19 +111,24 @@ public final class MemcacheActionCache implements RemoteActionCache {
     }
   }
 
-  private boolean containsFile(String key) {
+  @Override
+  public boolean containsFile(String key) {
     return cache.containsKey(key);
   }
 
   @Override
-  public void writeActionOutput(String key, Path execRoot)
-      throws IOException, CacheNotFoundException {
+  public List<FileEntry> getActionOutput(String key) throws IOException, CacheNotFoundException {
     byte[] data = cache.get(key);
     if (data == null) {
       throw new CacheNotFoundException("Action output cannot be found with key: " + key);
     }
-    CacheEntry cacheEntry = CacheEntry.parseFrom(data);
-    for (FileEntry file : cacheEntry.getFilesList()) {
+    return CacheEntry.parseFrom(data).getFilesList();
+  }
+
+  @Override
+  public void writeActionOutput(String key, Path execRoot)
+      throws IOException, CacheNotFoundException {
+    for (FileEntry file : getActionOutput(key)) {
       writeFile(file.getContentKey(), execRoot.getRelative(file.getPath()), file.getExecutable());
     }
   }
@@ -164,6 +170,7 @@ public final class MemcacheActionCache implements RemoteActionCache {
         .addFilesBuilder()
         .setPath(execPathString)
         .setContentKey(contentKey)
-        .setExecutable(file.isExecutable());
+        .setExecutable(file.isExecutable())
+        .setSize(file.getFileSize());
   }
 }
@@ -17,10 +17,12 @@ package com.google.devtools.build.lib.remote;
 import com.google.devtools.build.lib.actions.ActionInput;
 import com.google.devtools.build.lib.actions.ActionInputFileCache;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadCompatible;
+import com.google.devtools.build.lib.remote.RemoteProtocol.FileEntry;
 import com.google.devtools.build.lib.vfs.Path;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * A cache for storing artifacts (input and output) as well as the output of running an action.
@@ -49,6 +51,19 @@ interface RemoteActionCache {
   void writeFile(String key, Path dest, boolean executable)
       throws IOException, CacheNotFoundException;
 
+  /**
+   * Returns true if the cache holds the content of the file identified by key.
+   */
+  boolean containsFile(String key);
+
+  /**
+   * Returns the entries of the action output files identified by the key, without writing them to
+   * the file system.
+   *
+   * @throws CacheNotFoundException if action output is not found in cache.
+   */
+  List<FileEntry> getActionOutput(String key) throws IOException, CacheNotFoundException;
+
   /**
    * Write the action output files identified by the key to the file system. The key must uniquely
    * identify the action and the content of action inputs.
@@ -17,22 +17,29 @@ package com.google.devtools.build.lib.remote;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
 import com.google.devtools.build.lib.actions.ActionContextProvider;
+import com.google.devtools.build.lib.actions.ActionGraph;
+import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.Executor.ActionContext;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
 
+import javax.annotation.Nullable;
+
 /**
  * Provide a remote execution context.
  */
 final class RemoteActionContextProvider extends ActionContextProvider {
   private final ImmutableList<ActionContext> strategies;
+  @Nullable private final RemoteOutputService outputService;
 
   RemoteActionContextProvider(
       CommandEnvironment env,
       BuildRequest buildRequest,
       RemoteActionCache actionCache,
-      RemoteWorkExecutor workExecutor) {
+      RemoteWorkExecutor workExecutor,
+      @Nullable RemoteOutputService outputService) {
     boolean verboseFailures = buildRequest.getOptions(ExecutionOptions.class).verboseFailures;
     Builder<ActionContext> strategiesBuilder = ImmutableList.builder();
     strategiesBuilder.add(
@@ -43,8 +50,20 @@ final class RemoteActionContextProvider extends ActionContextProvider {
             verboseFailures,
             actionCache,
             workExecutor,
+            outputService,
             env.getRuntime().getProductName()));
     this.strategies = strategiesBuilder.build();
+    this.outputService = outputService;
+  }
+
+  @Override
+  public void executionPhaseStarting(
+      ActionInputFileCache actionInputFileCache,
+      ActionGraph actionGraph,
+      Iterable<Artifact> topLevelArtifacts) {
+    if (outputService != null) {
+      outputService.setTopLevelArtifacts(actionGraph, topLevelArtifacts);
+    }
   }
 
   @Override
@@ -20,9 +20,11 @@ import com.google.devtools.build.lib.actions.ActionContextProvider;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.buildtool.buildevent.BuildStartingEvent;
 import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.exec.OutputService;
 import com.google.devtools.build.lib.runtime.BlazeModule;
 import com.google.devtools.build.lib.runtime.Command;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
+import com.google.devtools.build.lib.runtime.GotOptionsEvent;
 import com.google.devtools.common.options.OptionsBase;
 
 import java.net.URI;
@@ -36,13 +38,35 @@ public final class RemoteModule extends BlazeModule {
   private BuildRequest buildRequest;
   private RemoteActionCache actionCache;
   private RemoteWorkExecutor workExecutor;
+  // Kept across commands: it remembers which outputs only live in the remote cache.
+  private RemoteOutputService outputService;
+  private boolean metadataOnlyOutputs;
 
   public RemoteModule() {}
 
   @Override
   public Iterable<ActionContextProvider> getActionContextProviders() {
     return ImmutableList.<ActionContextProvider>of(
-        new RemoteActionContextProvider(env, buildRequest, actionCache, workExecutor));
+        new RemoteActionContextProvider(
+            env, buildRequest, actionCache, workExecutor,
+            metadataOnlyOutputs ? outputService : null));
+  }
+
+  @Override
+  public OutputService getOutputService() {
+    if (!metadataOnlyOutputs) {
+      return null;
+    }
+    if (outputService == null) {
+      outputService =
+          new RemoteOutputService(
+              env.getDirectories().getExecRoot(),
+              env.getDirectories().getOutputPath(),
+              env.getBlazeWorkspace().getOutputBaseFilesystemTypeName(),
+              env.getWorkspaceName());
+      outputService.setActionCache(actionCache);
+    }
+    return outputService;
   }
 
   @Override
@@ -55,6 +79,15 @@ public final class RemoteModule extends BlazeModule {
   public void afterCommand() {
     this.env = null;
     this.buildRequest = null;
+    this.metadataOnlyOutputs = false;
+  }
+
+  @Subscribe
+  public void gotOptions(GotOptionsEvent event) {
+    RemoteOptions options = event.getOptions().getOptions(RemoteOptions.class);
+    // The outputs can only be fetched on demand from a remote cache.
+    metadataOnlyOutputs =
+        options != null && options.remoteMetadataOnlyOutputs && options.hazelcastNode != null;
   }
 
   @Subscribe
@@ -70,6 +103,9 @@ public final class RemoteModule extends BlazeModule {
               options,
               HazelcastCacheFactory.create(options));
       actionCache = cache;
+      if (outputService != null) {
+        outputService.setActionCache(cache);
+      }
       if (workExecutor == null && options.remoteWorker != null) {
         try {
           URI uri = new URI("dummy://" + options.remoteWorker);
@@ -48,4 +48,15 @@ public final class RemoteOptions extends OptionsBase {
             + "For client mode only."
   )
   public String remoteWorker;
+
+  @Option(
+    name = "experimental_remote_metadata_only_outputs",
+    defaultValue = "false",
+    category = "remote",
+    help =
+        "If true, the outputs of actions found in the remote cache are not downloaded; only their"
+            + " digests and sizes are recorded. They are fetched when an action executed locally"
+            + " reads them and when they are top-level outputs of the build."
+  )
+  public boolean remoteMetadataOnlyOutputs;
 }
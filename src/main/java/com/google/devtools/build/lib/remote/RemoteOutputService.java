@@ -0,0 +1,472 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.remote;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Longs;
+import com.google.devtools.build.lib.actions.Action;
+import com.google.devtools.build.lib.actions.ActionAnalysisMetadata;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.ActionGraph;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputHelper;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.Artifact.ArtifactExpander;
+import com.google.devtools.build.lib.actions.BuildFailedException;
+import com.google.devtools.build.lib.actions.RunfilesSupplier;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.cache.MetadataHandler;
+import com.google.devtools.build.lib.analysis.SymlinkTreeAction;
+import com.google.devtools.build.lib.analysis.actions.ExecutionInfoSpecifier;
+import com.google.devtools.build.lib.analysis.actions.ExecutionRequirements;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.exec.OutputService;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.remote.RemoteProtocol.FileEntry;
+import com.google.devtools.build.lib.vfs.BatchStat;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigestAdapter;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.ModifiedFileSet;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * An {@link OutputService} that keeps the outputs of actions found in the remote cache on the
+ * remote server. Only their digests and sizes are injected into the metadata of the build; the
+ * files are written to the output tree when something local needs them:
+ *
+ * <ul>
+ *   <li>before an action that is not executed by the {@link RemoteSpawnStrategy} (or that reads
+ *       its inputs in-process) is executed, see {@link #prepareAction},
+ *   <li>before the {@link RemoteSpawnStrategy} runs a spawn locally, see {@link #fetchInputs},
+ *   <li>and at the end of the build for the top-level outputs, including their runfiles.
+ * </ul>
+ *
+ * <p>The inputs of an action include its runfiles, so that tests and tools find the targets of
+ * their runfiles symlinks. The symlink trees themselves are created by the local strategy.
+ *
+ * <p>The records of outputs that were not fetched are kept across builds. The batch statter
+ * reports them with the status they were injected with, so that Skyframe does not consider
+ * them modified because they are missing from the output tree.
+ */
+@ThreadSafe
+final class RemoteOutputService implements OutputService {
+  private final Path execRoot;
+  private final Path outputPath;
+  private final String filesystemName;
+  private final String workspaceName;
+
+  private final ConcurrentMap<Path, RemoteFile> remoteFiles = new ConcurrentHashMap<>();
+  private volatile RemoteActionCache actionCache;
+  private volatile ImmutableSet<Path> topLevelFiles = ImmutableSet.of();
+
+  RemoteOutputService(
+      Path execRoot, Path outputPath, String filesystemName, String workspaceName) {
+    this.execRoot = execRoot;
+    this.outputPath = outputPath;
+    this.filesystemName = filesystemName;
+    this.workspaceName = workspaceName;
+  }
+
+  void setActionCache(RemoteActionCache actionCache) {
+    this.actionCache = actionCache;
+  }
+
+  /**
+   * Records the outputs of the cached action identified by key, and injects their metadata into
+   * {@code metadataHandler} instead of writing them to the file system. Outputs whose size is not
+   * known, and the output named by {@link ExecutionRequirements#LOCAL_OUTPUT}, are written.
+   *
+   * @throws CacheNotFoundException if the action output or the content of one of its files is
+   *     not found in cache.
+   */
+  void injectActionOutput(String key, Spawn spawn, MetadataHandler metadataHandler)
+      throws IOException, CacheNotFoundException {
+    Map<String, ActionInput> outputs = new HashMap<>();
+    for (ActionInput output : spawn.getOutputFiles()) {
+      outputs.put(output.getExecPathString(), output);
+    }
+    String localOutput = spawn.getExecutionInfo().get(ExecutionRequirements.LOCAL_OUTPUT);
+
+    List<FileEntry> files = actionCache.getActionOutput(key);
+    Map<ActionInput, RemoteFile> injected = new HashMap<>();
+    for (FileEntry file : files) {
+      ActionInput output = outputs.get(file.getPath());
+      byte[] digest = parseDigest(file.getContentKey());
+      if (output == null || file.getSize() == 0 || digest == null
+          || file.getPath().equals(localOutput)) {
+        actionCache.writeFile(
+            file.getContentKey(), execRoot.getRelative(file.getPath()), file.getExecutable());
+        continue;
+      }
+      // The content may have been evicted since the action output was stored. Treat that like
+      // a cache miss rather than failing when the file is needed later.
+      if (!actionCache.containsFile(file.getContentKey())) {
+        throw new CacheNotFoundException(
+            "File content cannot be found with key: " + file.getContentKey());
+      }
+      injected.put(output, new RemoteFile(
+          file.getContentKey(), digest, file.getSize(), file.getExecutable()));
+    }
+
+    for (Map.Entry<ActionInput, RemoteFile> entry : injected.entrySet()) {
+      RemoteFile remoteFile = entry.getValue();
+      remoteFiles.put(execRoot.getRelative(entry.getKey().getExecPathString()), remoteFile);
+      metadataHandler.injectDigest(entry.getKey(), remoteFile, remoteFile.digest);
+    }
+  }
+
+  /** Returns the MD5 digest a content key stands for, or null if it is not an MD5 digest. */
+  @Nullable
+  private static byte[] parseDigest(String contentKey) {
+    if (contentKey.length() != 32) {
+      return null;
+    }
+    try {
+      return BaseEncoding.base16().lowerCase().decode(contentKey);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Writes those of {@code inputs} and of the artifacts of {@code runfiles} that only live in the
+   * remote cache to the output tree. Middlemen and tree artifacts are expanded.
+   */
+  void fetchInputs(Iterable<? extends ActionInput> inputs, RunfilesSupplier runfiles,
+      ArtifactExpander artifactExpander) throws IOException {
+    if (remoteFiles.isEmpty()) {
+      return;
+    }
+    fetchRemoteFiles(ActionInputHelper.expandArtifacts(
+        Iterables.<ActionInput>concat(inputs, runfiles.getArtifacts()), artifactExpander));
+  }
+
+  /**
+   * Writes those of {@code inputs} that only live in the remote cache to the output tree.
+   */
+  void fetchRemoteFiles(Iterable<? extends ActionInput> inputs) throws IOException {
+    if (remoteFiles.isEmpty()) {
+      return;
+    }
+    for (ActionInput input : inputs) {
+      Path path = execRoot.getRelative(input.getExecPathString());
+      RemoteFile remoteFile = remoteFiles.get(path);
+      if (remoteFile != null) {
+        fetch(path, remoteFile);
+      }
+    }
+  }
+
+  private void fetch(Path path, RemoteFile remoteFile) throws IOException {
+    synchronized (remoteFile) {
+      if (remoteFile.fetched) {
+        return;
+      }
+      try {
+        FileSystemUtils.createDirectoryAndParents(path.getParentDirectory());
+        path.delete();
+        actionCache.writeFile(remoteFile.contentKey, path, remoteFile.executable);
+      } catch (CacheNotFoundException e) {
+        remoteFiles.remove(path, remoteFile);
+        throw new IOException(
+            path.relativeTo(execRoot) + " is no longer in the remote cache: " + e.getMessage(), e);
+      }
+      // Output files are read-only, like the ones of actions executed locally.
+      path.chmod(remoteFile.executable ? 0555 : 0444);
+      remoteFile.setFetched(path.stat(Symlinks.NOFOLLOW));
+    }
+  }
+
+  /**
+   * Returns the status of the file at path: the status it was injected with if it was not
+   * modified since, or its status in the file system otherwise.
+   */
+  @Nullable
+  private FileStatus statIfFound(Path path, Symlinks symlinks) throws IOException {
+    FileStatus stat = path.statIfFound(symlinks);
+    RemoteFile remoteFile = remoteFiles.get(path);
+    if (remoteFile == null) {
+      return stat;
+    }
+    if (remoteFile.isUnchanged(stat)) {
+      return remoteFile;
+    }
+    remoteFiles.remove(path, remoteFile);
+    return stat;
+  }
+
+  /**
+   * Remembers the files the build is asked for, so that the ones that are only in the remote
+   * cache are fetched when the build finishes. The inputs of middlemen, such as runfiles, are
+   * included.
+   */
+  void setTopLevelArtifacts(ActionGraph actionGraph, Iterable<Artifact> topLevelArtifacts) {
+    ImmutableSet.Builder<Path> files = ImmutableSet.builder();
+    Set<Artifact> visited = new HashSet<>();
+    List<Artifact> toVisit = new ArrayList<>();
+    for (Artifact artifact : topLevelArtifacts) {
+      toVisit.add(artifact);
+    }
+    while (!toVisit.isEmpty()) {
+      Artifact artifact = toVisit.remove(toVisit.size() - 1);
+      if (artifact.isSourceArtifact() || !visited.add(artifact)) {
+        continue;
+      }
+      if (artifact.isMiddlemanArtifact()) {
+        ActionAnalysisMetadata middlemanAction = actionGraph.getGeneratingAction(artifact);
+        if (middlemanAction != null) {
+          for (Artifact input : middlemanAction.getInputs()) {
+            toVisit.add(input);
+          }
+        }
+      } else {
+        files.add(artifact.getPath());
+      }
+    }
+    topLevelFiles = files.build();
+  }
+
+  @Override
+  public String getFilesSystemName() {
+    return filesystemName;
+  }
+
+  @Override
+  public boolean usesFuse() {
+    return false;
+  }
+
+  @Override
+  public String getName() {
+    return "remote";
+  }
+
+  @Override
+  public ModifiedFileSet startBuild(UUID buildId, boolean finalizeActions) {
+    return ModifiedFileSet.EVERYTHING_MODIFIED;
+  }
+
+  @Override
+  public void finalizeBuild(boolean buildSuccessful) throws BuildFailedException {
+    try {
+      for (Path path : topLevelFiles) {
+        RemoteFile remoteFile = remoteFiles.get(path);
+        if (remoteFile != null) {
+          fetch(path, remoteFile);
+        }
+      }
+    } catch (IOException e) {
+      throw new BuildFailedException(
+          "failed to fetch top-level outputs from the remote cache: " + e.getMessage());
+    } finally {
+      topLevelFiles = ImmutableSet.of();
+    }
+  }
+
+  @Override
+  public void prepareAction(Action action, ActionExecutionContext actionExecutionContext)
+      throws IOException {
+    // The outputs are about to be recreated.
+    for (Artifact output : action.getOutputs()) {
+      remoteFiles.remove(output.getPath());
+    }
+    if (remoteFiles.isEmpty() || action instanceof SymlinkTreeAction) {
+      return;
+    }
+    // The remote strategy fetches the inputs of spawns it runs locally. Actions that are not
+    // ExecutionInfoSpecifiers may read their inputs in-process.
+    if (action instanceof ExecutionInfoSpecifier
+        && actionExecutionContext.getExecutor().getSpawnActionContext(action.getMnemonic())
+            instanceof RemoteSpawnStrategy) {
+      return;
+    }
+    fetchInputs(action.getInputs(), action.getRunfilesSupplier(),
+        actionExecutionContext.getArtifactExpander());
+  }
+
+  @Override
+  public void finalizeAction(Action action, MetadataHandler metadataHandler) {}
+
+  @Override
+  public Path stageTool(Target tool) {
+    return tool.getPackage().getPackageDirectory().getRelative(tool.getName());
+  }
+
+  @Override
+  public String getWorkspace() {
+    return workspaceName;
+  }
+
+  @Override
+  public BatchStat getBatchStatter() {
+    return new BatchStat() {
+      @Override
+      public List<FileStatusWithDigest> batchStat(boolean includeDigest, boolean includeLinks,
+          Iterable<PathFragment> paths) throws IOException, InterruptedException {
+        Symlinks symlinks = includeLinks ? Symlinks.NOFOLLOW : Symlinks.FOLLOW;
+        List<FileStatusWithDigest> stats = new ArrayList<>();
+        for (PathFragment path : paths) {
+          if (Thread.interrupted()) {
+            throw new InterruptedException();
+          }
+          FileStatus stat = statIfFound(execRoot.getRelative(path), symlinks);
+          stats.add(stat == null ? null : FileStatusWithDigestAdapter.adapt(stat));
+        }
+        return stats;
+      }
+    };
+  }
+
+  /**
+   * Returns false: symlink trees are created by the local strategy, and the files they point to
+   * are fetched by {@link #prepareAction} of the actions that read them.
+   */
+  @Override
+  public boolean canCreateSymlinkTree() {
+    return false;
+  }
+
+  @Override
+  public void createSymlinkTree(Path inputPath, Path outputPath, boolean filesetTree,
+      PathFragment symlinkTreeRoot) {
+    throw new IllegalStateException(
+        "symlink trees are not created by the remote output service: " + outputPath);
+  }
+
+  @Override
+  public void clean() {
+    remoteFiles.clear();
+  }
+
+  @Override
+  public boolean isRemoteFile(Path file) {
+    RemoteFile remoteFile = remoteFiles.get(file);
+    return remoteFile != null && !remoteFile.isFetched();
+  }
+
+  @Override
+  public boolean resolvedPathUnderTree(Path path) {
+    return path.startsWith(outputPath);
+  }
+
+  /**
+   * A file in the remote cache. Its status is the one injected into the metadata of the build;
+   * the node id stands for its content. Once it is fetched, the local status of the file is
+   * remembered to tell whether it was modified since.
+   */
+  private static final class RemoteFile implements FileStatus {
+    private final String contentKey;
+    private final byte[] digest;
+    private final long size;
+    private final boolean executable;
+
+    private boolean fetched;
+    private long localSize;
+    private long localLastModifiedTime;
+    private long localNodeId;
+
+    RemoteFile(String contentKey, byte[] digest, long size, boolean executable) {
+      this.contentKey = contentKey;
+      this.digest = digest;
+      this.size = size;
+      this.executable = executable;
+    }
+
+    synchronized boolean isFetched() {
+      return fetched;
+    }
+
+    synchronized void setFetched(FileStatus stat) throws IOException {
+      localSize = stat.getSize();
+      localLastModifiedTime = stat.getLastModifiedTime();
+      localNodeId = stat.getNodeId();
+      fetched = true;
+    }
+
+    /**
+     * Returns true if {@code stat}, the current status of the file, shows that the file was not
+     * modified since it was injected or fetched.
+     */
+    synchronized boolean isUnchanged(@Nullable FileStatus stat) throws IOException {
+      if (!fetched) {
+        return stat == null;
+      }
+      return stat != null
+          && stat.isFile()
+          && stat.getSize() == localSize
+          && stat.getLastModifiedTime() == localLastModifiedTime
+          && stat.getNodeId() == localNodeId;
+    }
+
+    @Override
+    public boolean isFile() {
+      return true;
+    }
+
+    @Override
+    public boolean isDirectory() {
+      return false;
+    }
+
+    @Override
+    public boolean isSymbolicLink() {
+      return false;
+    }
+
+    @Override
+    public boolean isSpecialFile() {
+      return false;
+    }
+
+    @Override
+    public long getSize() {
+      return size;
+    }
+
+    @Override
+    public long getLastModifiedTime() {
+      return 0;
+    }
+
+    @Override
+    public long getLastChangeTime() {
+      return 0;
+    }
+
+    @Override
+    public long getNodeId() {
+      return Longs.fromByteArray(digest);
+    }
+  }
+}
@@ -23,12 +23,15 @@ import com.google.devtools.build.lib.actions.ActionExecutionMetadata;
 import com.google.devtools.build.lib.actions.ActionInput;
 import com.google.devtools.build.lib.actions.ActionInputFileCache;
 import com.google.devtools.build.lib.actions.ActionInputHelper;
+import com.google.devtools.build.lib.actions.EnvironmentalExecException;
 import com.google.devtools.build.lib.actions.ExecException;
 import com.google.devtools.build.lib.actions.ExecutionStrategy;
 import com.google.devtools.build.lib.actions.Executor;
 import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
 import com.google.devtools.build.lib.actions.UserExecException;
+import com.google.devtools.build.lib.actions.cache.MetadataHandler;
+import com.google.devtools.build.lib.analysis.actions.ExecutionInfoSpecifier;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.remote.RemoteProtocol.RemoteWorkResponse;
@@ -46,6 +49,8 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import javax.annotation.Nullable;
+
 /**
  * Strategy that uses a distributed cache for sharing action input and output files.
  * Optionally this strategy also support offloading the work to a remote worker.
@@ -59,6 +64,7 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
   private final StandaloneSpawnStrategy standaloneStrategy;
   private final RemoteActionCache remoteActionCache;
   private final RemoteWorkExecutor remoteWorkExecutor;
+  @Nullable private final RemoteOutputService outputService;
 
   RemoteSpawnStrategy(
       Map<String, String> clientEnv,
@@ -67,11 +73,13 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
       boolean verboseFailures,
       RemoteActionCache actionCache,
       RemoteWorkExecutor workExecutor,
+      @Nullable RemoteOutputService outputService,
       String productName) {
     this.execRoot = execRoot;
     this.standaloneStrategy = new StandaloneSpawnStrategy(execRoot, verboseFailures, productName);
     this.remoteActionCache = actionCache;
     this.remoteWorkExecutor = workExecutor;
+    this.outputService = outputService;
   }
 
   /**
@@ -81,7 +89,7 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
   public void exec(Spawn spawn, ActionExecutionContext actionExecutionContext)
       throws ExecException {
     if (!spawn.isRemotable()) {
-      standaloneStrategy.exec(spawn, actionExecutionContext);
+      execLocally(spawn, actionExecutionContext);
       return;
     }
 
@@ -94,7 +102,7 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
       eventHandler.handle(
           Event.warn(
               spawn.getMnemonic() + " Cannot instantiate remote action cache. Running locally."));
-      standaloneStrategy.exec(spawn, actionExecutionContext);
+      execLocally(spawn, actionExecutionContext);
       return;
     }
 
@@ -140,14 +148,15 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
 
     try {
       // Look up action cache using |actionOutputKey|. Reuse the action output if it is found.
-      if (writeActionOutput(spawn.getMnemonic(), actionOutputKey, eventHandler, true)) {
+      if (writeActionOutput(spawn, actionExecutionContext, actionOutputKey, true)) {
         return;
       }
 
       FileOutErr outErr = actionExecutionContext.getFileOutErr();
       if (executeWorkRemotely(
           inputFileCache,
-          spawn.getMnemonic(),
+          spawn,
+          actionExecutionContext,
           actionOutputKey,
           spawn.getArguments(),
           inputs,
@@ -160,6 +169,10 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
       }
 
       // If nothing works then run spawn locally.
+      if (outputService != null) {
+        outputService.fetchInputs(spawn.getInputFiles(), spawn.getRunfilesSupplier(),
+            actionExecutionContext.getArtifactExpander());
+      }
       standaloneStrategy.exec(spawn, actionExecutionContext);
       if (remoteActionCache != null) {
         remoteActionCache.putActionOutput(actionOutputKey, spawn.getOutputFiles());
@@ -179,7 +192,8 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
    */
   private boolean executeWorkRemotely(
       ActionInputFileCache actionCache,
-      String mnemonic,
+      Spawn spawn,
+      ActionExecutionContext actionExecutionContext,
       String actionOutputKey,
       List<String> arguments,
       List<ActionInput> inputs,
@@ -192,6 +206,7 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
     if (remoteWorkExecutor == null) {
       return false;
     }
+    String mnemonic = spawn.getMnemonic();
     try {
       ListenableFuture<RemoteWorkResponse> future =
           remoteWorkExecutor.executeRemotely(
@@ -232,23 +247,32 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
       eventHandler.handle(Event.warn(mnemonic + " cannot be run remotely (" + e + ")"));
       return false;
     }
-    return writeActionOutput(mnemonic, actionOutputKey, eventHandler, false);
+    return writeActionOutput(spawn, actionExecutionContext, actionOutputKey, false);
   }
 
   /**
    * Saves the action output from cache. Returns true if all action outputs are found.
    */
   private boolean writeActionOutput(
-      String mnemonic,
+      Spawn spawn,
+      ActionExecutionContext actionExecutionContext,
       String actionOutputKey,
-      EventHandler eventHandler,
       boolean ignoreCacheNotFound)
       throws IOException {
     if (remoteActionCache == null) {
       return false;
     }
+    String mnemonic = spawn.getMnemonic();
+    EventHandler eventHandler = actionExecutionContext.getExecutor().getEventHandler();
     try {
-      remoteActionCache.writeActionOutput(actionOutputKey, execRoot);
+      // Only actions that run the spawn and nothing else may leave their outputs in the cache;
+      // others, such as tests, read them in-process.
+      if (outputService != null && spawn.getResourceOwner() instanceof ExecutionInfoSpecifier) {
+        MetadataHandler metadataHandler = actionExecutionContext.getMetadataHandler();
+        outputService.injectActionOutput(actionOutputKey, spawn, metadataHandler);
+      } else {
+        remoteActionCache.writeActionOutput(actionOutputKey, execRoot);
+      }
       Event.info(mnemonic + " reuse action outputs from cache");
       return true;
     } catch (CacheNotFoundException e) {
@@ -260,6 +284,23 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
     return false;
   }
 
+  /**
+   * Runs the spawn with the standalone strategy, after fetching the inputs and runfiles that only
+   * live in the remote cache.
+   */
+  private void execLocally(Spawn spawn, ActionExecutionContext actionExecutionContext)
+      throws ExecException {
+    if (outputService != null) {
+      try {
+        outputService.fetchInputs(spawn.getInputFiles(), spawn.getRunfilesSupplier(),
+            actionExecutionContext.getArtifactExpander());
+      } catch (IOException e) {
+        throw new EnvironmentalExecException("Failed to fetch remote inputs.", e);
+      }
+    }
+    standaloneStrategy.exec(spawn, actionExecutionContext);
+  }
+
   @Override
   public boolean willExecuteRemotely(boolean remotable) {
     // Returning true here just helps to estimate the cost of this computation is zero.
@@ -463,7 +463,8 @@ public class SkylarkRuleClassFunctions {
 
 
   /** The implementation for the magic function "rule" that creates Skylark rule classes */
-  public static final class RuleFunction extends BaseFunction {
+  public static final class RuleFunction extends BaseFunction
+      implements com.google.devtools.build.lib.packages.RuleFunction {
     private RuleClass.Builder builder;
 
     private RuleClass ruleClass;
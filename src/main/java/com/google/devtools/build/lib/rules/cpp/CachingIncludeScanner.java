@@ -0,0 +1,345 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.rules.cpp;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.ArtifactResolver;
+import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.actions.UserExecException;
+import com.google.devtools.build.lib.concurrent.AbstractQueueVisitor;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.rules.cpp.IncludeParser.Inclusion;
+import com.google.devtools.build.lib.util.Pair;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.IORuntimeException;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
+
+/**
+ * An {@link IncludeScanner} that follows the {@code #include} directives found by
+ * {@link IncludeParser} through the include paths given at construction time, the way the
+ * preprocessor does.
+ *
+ * <p>The inclusions of a file are cached by the digest of the file, which the action input file
+ * cache usually knows already, so unchanged files are only parsed once per server. Files are
+ * parsed and their inclusions resolved in parallel.
+ *
+ * <p>The results are a superset of the files read by the preprocessor, except for inclusions of
+ * macros, which cannot be followed; {@link #process} throws a {@link ComputedInclusionException}
+ * when it meets one. Generated headers are scanned as they are found on disk, which may be the
+ * output of an earlier build if they are not built before the scan, and not scanned at all if they
+ * have not been built yet; callers must not rely on the inclusions found below such headers.
+ */
+@ThreadSafe
+public class CachingIncludeScanner implements IncludeScanner {
+
+  /**
+   * Supplies {@link CachingIncludeScanner}s. A supplier caches the existence of files below the
+   * execution root, so a new one must be created for each build. The cache of parsed inclusions
+   * may be shared between builds.
+   */
+  @ThreadSafe
+  public static final class Supplier implements IncludeScannerSupplier {
+    private final Path execRoot;
+    private final InclusionCache inclusionCache;
+    private final ExecutorService executorService;
+    private final ConcurrentMap<PathFragment, Boolean> fileExistenceCache =
+        new ConcurrentHashMap<>();
+    private final ConcurrentMap<Pair<List<PathFragment>, List<PathFragment>>,
+        CachingIncludeScanner> scanners = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a supplier for scanners that run their parallel work on {@code executorService}.
+     * The executor service is not shut down by the scanners.
+     */
+    public Supplier(Path execRoot, InclusionCache inclusionCache,
+        ExecutorService executorService) {
+      this.execRoot = execRoot;
+      this.inclusionCache = inclusionCache;
+      this.executorService = executorService;
+    }
+
+    @Override
+    public CachingIncludeScanner scannerFor(List<PathFragment> quoteIncludePaths,
+        List<PathFragment> includePaths) {
+      Pair<List<PathFragment>, List<PathFragment>> key = Pair.of(
+          (List<PathFragment>) ImmutableList.copyOf(quoteIncludePaths),
+          (List<PathFragment>) ImmutableList.copyOf(includePaths));
+      CachingIncludeScanner scanner = scanners.get(key);
+      if (scanner == null) {
+        scanner = new CachingIncludeScanner(key.first, key.second, this);
+        CachingIncludeScanner existing = scanners.putIfAbsent(key, scanner);
+        if (existing != null) {
+          scanner = existing;
+        }
+      }
+      return scanner;
+    }
+
+    private boolean isFile(PathFragment execPath) {
+      Boolean result = fileExistenceCache.get(execPath);
+      if (result == null) {
+        result = execRoot.getRelative(execPath).isFile();
+        fileExistenceCache.put(execPath, result);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * A cache of the inclusions of files, keyed by the digest of their contents. Entries are softly
+   * referenced, so the cache gives way to memory pressure.
+   */
+  @ThreadSafe
+  public static final class InclusionCache {
+    private final Cache<ByteString, ImmutableList<Inclusion>> inclusions =
+        CacheBuilder.newBuilder().softValues().build();
+
+    @Nullable
+    private ImmutableList<Inclusion> get(ByteString digest) {
+      return inclusions.getIfPresent(digest);
+    }
+
+    private void put(ByteString digest, ImmutableList<Inclusion> fileInclusions) {
+      inclusions.put(digest, fileInclusions);
+    }
+  }
+
+  /**
+   * Thrown by {@link #process} if one of the scanned files includes a macro, so that the set of
+   * files included by the sources is not known.
+   */
+  public static final class ComputedInclusionException extends UserExecException {
+    private static final long serialVersionUID = 1L;
+
+    private ComputedInclusionException(Artifact includingFile) {
+      super(includingFile.prettyPrint() + " includes a macro, which cannot be followed by the "
+          + "include scanner");
+    }
+  }
+
+  /** The search path index of files that were not looked up on the search path. */
+  private static final int NOT_SEARCHED = -2;
+
+  /** The search path index of files that were found in the directory of the including file. */
+  private static final int INCLUDING_DIRECTORY = -1;
+
+  /** The quote include paths followed by the include paths, like the preprocessor searches them. */
+  private final List<PathFragment> searchPath;
+  /** The index in {@link #searchPath} at which the search for {@code #include <...>} starts. */
+  private final int angleSearchStart;
+  private final Supplier supplier;
+
+  private CachingIncludeScanner(List<PathFragment> quoteIncludePaths,
+      List<PathFragment> includePaths, Supplier supplier) {
+    this.searchPath = ImmutableList.<PathFragment>builder()
+        .addAll(quoteIncludePaths).addAll(includePaths).build();
+    this.angleSearchStart = quoteIncludePaths.size();
+    this.supplier = supplier;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The include paths given at construction time are used; the include directory arguments
+   * are ignored.
+   */
+  @Override
+  public void process(Artifact mainSource, Collection<Artifact> sources,
+      Map<Artifact, Artifact> legalOutputPaths, List<PathFragment> includeDirs,
+      List<PathFragment> quoteIncludeDirs, List<String> cmdlineIncludes,
+      Set<Artifact> includes, ActionExecutionContext actionExecutionContext)
+      throws IOException, ExecException, InterruptedException {
+    Map<PathFragment, Artifact> generatedHeaders = new HashMap<>();
+    for (Artifact header : legalOutputPaths.keySet()) {
+      generatedHeaders.put(header.getExecPath(), header);
+    }
+    ArtifactResolver artifactResolver = actionExecutionContext.getExecutor()
+        .getContext(IncludeScanningContext.class).getArtifactResolver();
+    Visitor visitor = new Visitor(includes, generatedHeaders, artifactResolver,
+        actionExecutionContext.getActionInputFileCache());
+
+    for (Artifact source : sources) {
+      visitor.visit(source, NOT_SEARCHED);
+    }
+    if (mainSource != null) {
+      visitor.visit(mainSource, NOT_SEARCHED);
+      // The preprocessor looks for files given with -include like for #include "...".
+      PathFragment mainSourceDir = mainSource.getExecPath().getParentDirectory();
+      for (String cmdlineInclude : cmdlineIncludes) {
+        Pair<Artifact, Integer> found = visitor.locate(
+            new Inclusion(cmdlineInclude, Inclusion.Kind.QUOTE), mainSourceDir, NOT_SEARCHED);
+        if (found != null) {
+          visitor.visit(found.first, found.second);
+        }
+      }
+    }
+    try {
+      visitor.awaitQuiescence(/*interruptWorkers=*/ true);
+    } catch (IORuntimeException e) {
+      throw e.getCauseIOException();
+    }
+    Artifact computedInclusionFile = visitor.computedInclusionFile.get();
+    if (computedInclusionFile != null) {
+      throw new ComputedInclusionException(computedInclusionFile);
+    }
+  }
+
+  /** Visits the files transitively included by the sources of one call to {@link #process}. */
+  private final class Visitor extends AbstractQueueVisitor {
+    private final Set<Artifact> includes;
+    /**
+     * The visited files with the search path index at which they were found. The inclusions of a
+     * file are followed once for each index, as its {@code #include_next} directives depend on it.
+     */
+    private final Set<Pair<Artifact, Integer>> visited = Sets.newConcurrentHashSet();
+    private final Map<PathFragment, Artifact> generatedHeaders;
+    private final ArtifactResolver artifactResolver;
+    private final ActionInputFileCache fileCache;
+    /** A visited file that includes a macro, if any. */
+    private final AtomicReference<Artifact> computedInclusionFile = new AtomicReference<>();
+
+    private Visitor(Set<Artifact> includes, Map<PathFragment, Artifact> generatedHeaders,
+        ArtifactResolver artifactResolver, ActionInputFileCache fileCache) {
+      super(supplier.executorService, /*shutdownOnCompletion=*/ false,
+          /*failFastOnException=*/ true);
+      this.includes = includes;
+      this.generatedHeaders = generatedHeaders;
+      this.artifactResolver = artifactResolver;
+      this.fileCache = fileCache;
+    }
+
+    /**
+     * Adds {@code file}, which was found at {@code searchIndex} of the search path, to the results
+     * and schedules its inclusions to be followed.
+     */
+    private void visit(final Artifact file, final int searchIndex) {
+      if (!visited.add(Pair.of(file, searchIndex))) {
+        return;
+      }
+      includes.add(file);
+      execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            PathFragment dir = file.getExecPath().getParentDirectory();
+            for (Inclusion inclusion : getInclusions(file)) {
+              if (inclusion.kind == Inclusion.Kind.COMPUTED) {
+                computedInclusionFile.compareAndSet(null, file);
+                continue;
+              }
+              Pair<Artifact, Integer> found = locate(inclusion, dir, searchIndex);
+              if (found != null) {
+                visit(found.first, found.second);
+              }
+            }
+          } catch (IOException e) {
+            throw new IORuntimeException(e);
+          }
+        }
+      });
+    }
+
+    private ImmutableList<Inclusion> getInclusions(Artifact file) throws IOException {
+      if (!file.isSourceArtifact() && !file.getPath().exists()) {
+        // A generated header that has not been built; we cannot look into it.
+        return ImmutableList.of();
+      }
+      ByteString digest = fileCache.getDigest(file);
+      ImmutableList<Inclusion> inclusions =
+          digest == null ? null : supplier.inclusionCache.get(digest);
+      if (inclusions == null) {
+        inclusions = IncludeParser.extractInclusions(FileSystemUtils.readContent(file.getPath()));
+        if (digest != null) {
+          supplier.inclusionCache.put(digest, inclusions);
+        }
+      }
+      return inclusions;
+    }
+
+    /**
+     * Returns the file that the preprocessor would use for {@code inclusion} in a file in
+     * {@code dir} that was found at {@code includingIndex} of the search path, together with the
+     * index at which it was found, or null if there is no such file that can be an input of the
+     * action.
+     *
+     * <p>Like in the preprocessor, {@code #include_next} continues the search after the index at
+     * which the including file was found, and behaves like {@code #include} in files that were not
+     * looked up on the search path.
+     */
+    @Nullable
+    private Pair<Artifact, Integer> locate(Inclusion inclusion, PathFragment dir,
+        int includingIndex) {
+      if (inclusion.pathFragment.isAbsolute()) {
+        // Outside of the execution root; system headers are not inputs.
+        return null;
+      }
+      int start;
+      if (inclusion.kind.isNext() && includingIndex != NOT_SEARCHED) {
+        start = includingIndex + 1;
+      } else if (inclusion.kind.isQuote()) {
+        PathFragment candidate = dir.getRelative(inclusion.pathFragment).normalize();
+        if (exists(candidate)) {
+          return resolve(candidate, INCLUDING_DIRECTORY);
+        }
+        start = 0;
+      } else {
+        start = angleSearchStart;
+      }
+      for (int i = start; i < searchPath.size(); i++) {
+        PathFragment candidate = searchPath.get(i).getRelative(inclusion.pathFragment).normalize();
+        if (exists(candidate)) {
+          return resolve(candidate, i);
+        }
+      }
+      return null;
+    }
+
+    private boolean exists(PathFragment execPath) {
+      return generatedHeaders.containsKey(execPath) || supplier.isFile(execPath);
+    }
+
+    @Nullable
+    private Pair<Artifact, Integer> resolve(PathFragment execPath, int searchIndex) {
+      Artifact artifact = generatedHeaders.get(execPath);
+      if (artifact == null) {
+        // The preprocessor stops here; if the file is not a source file we know of, it is not
+        // something that can be shipped with the action.
+        artifact = artifactResolver.resolveSourceArtifact(execPath);
+      }
+      return artifact == null ? null : Pair.of(artifact, searchIndex);
+    }
+  }
+}
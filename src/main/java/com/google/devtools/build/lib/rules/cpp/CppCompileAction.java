@@ -117,6 +117,8 @@ public class CppCompileAction extends AbstractAction
   private static final int VALIDATION_DEBUG = 0;  // 0==none, 1==warns/errors, 2==all
   private static final boolean VALIDATION_DEBUG_WARN = VALIDATION_DEBUG >= 1;
 
+  private static volatile DependencySet.PathCache dotdPathCache;
+
   /**
    * A string constant for the c compilation action.
    */
@@ -900,11 +902,24 @@ public class CppCompileAction extends AbstractAction
     }
   }
 
+  /**
+   * Returns the cache of dependency paths shared by the .d file parsing of all actions. Most
+   * headers appear in many .d files, and the cached paths stay valid across builds.
+   */
+  private static DependencySet.PathCache getDotdPathCache(Path execRoot) {
+    DependencySet.PathCache cache = dotdPathCache;
+    if (cache == null || !cache.getRoot().equals(execRoot)) {
+      cache = new DependencySet.PathCache(execRoot);
+      dotdPathCache = cache;
+    }
+    return cache;
+  }
+
   private DependencySet processDepset(Path execRoot, CppCompileActionContext.Reply reply)
       throws IOException {
     DotdFile dotdFile = getDotdFile();
     Preconditions.checkNotNull(dotdFile);
-    DependencySet depSet = new DependencySet(execRoot);
+    DependencySet depSet = new DependencySet(getDotdPathCache(execRoot));
     // artifact() is null if we are using in-memory .d files. We also want to prepare for the
     // case where we expected an in-memory .d file, but we did not get an appropriate response.
     // Perhaps we produced the file locally.
@@ -1177,7 +1192,8 @@ public class CppCompileAction extends AbstractAction
     // become incorrect.
     //
     // Note that this effectively disables post-execute "include scanning" in Bazel, because
-    // hdrs_check is forced to "strict" and "include scanning" is forced to off.
+    // hdrs_check is forced to "strict" and "include scanning" is off unless
+    // --experimental_builtin_include_scanning is given.
     boolean usesStrictHdrsChecks = context.getDeclaredIncludeDirs().isEmpty()
         && context.getDeclaredIncludeWarnDirs().isEmpty();
     if (shouldScanIncludes() || !usesStrictHdrsChecks) {
@@ -1734,6 +1734,13 @@ public class CppConfiguration extends BuildConfiguration.Fragment {
     return cppOptions.inmemoryDotdFiles;
   }
 
+  /**
+   * Returns whether the inputs of C++ compile actions are found by the built-in include scanner.
+   */
+  public boolean useBuiltinIncludeScanning() {
+    return cppOptions.builtinIncludeScanning;
+  }
+
   public LibcTop getLibcTop() {
     return cppOptions.libcTop;
   }
@@ -547,6 +547,16 @@ public class CppOptions extends FragmentOptions {
   )
   public boolean inmemoryDotdFiles;
 
+  @Option(
+    name = "experimental_builtin_include_scanning",
+    defaultValue = "false",
+    category = "experimental",
+    help =
+        "If enabled, the headers included by C++ sources are found by scanning them before "
+            + "compilation, and only those headers are inputs of the compile actions."
+  )
+  public boolean builtinIncludeScanning;
+
   @Option(
     name = "experimental_omitfp",
     defaultValue = "false",
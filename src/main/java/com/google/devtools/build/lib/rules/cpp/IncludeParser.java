@@ -0,0 +1,251 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.rules.cpp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Extracts the {@code #include}, {@code #include_next} and {@code #import} directives from the
+ * contents of C/C++/Objective-C source files.
+ *
+ * <p>The parser works on raw bytes and looks at nothing but the start of each line: lines that
+ * don't start with {@code #}, possibly after whitespace, are skipped without being examined
+ * further. It does not track comments or conditional compilation, so it may report inclusions
+ * that the preprocessor would not see; this is safe for computing the set of files a compilation
+ * may read. Inclusions of macros ("computed includes") are reported with the text of the macro
+ * expression, as it is not known which file they include. Directives may be split
+ * across lines with backslash-newline sequences, which the preprocessor removes before it looks
+ * at them.
+ */
+@ThreadSafe
+public final class IncludeParser {
+
+  private IncludeParser() {
+  }
+
+  /** An inclusion directive in a source file. */
+  @Immutable
+  public static final class Inclusion {
+    /** The kind of an inclusion directive. */
+    public enum Kind {
+      /** {@code #include "path"} or {@code #import "path"}. */
+      QUOTE,
+      /** {@code #include <path>} or {@code #import <path>}. */
+      ANGLE,
+      /** {@code #include_next "path"}. */
+      NEXT_QUOTE,
+      /** {@code #include_next <path>}. */
+      NEXT_ANGLE,
+      /** {@code #include MACRO}, {@code #include_next MACRO} or {@code #import MACRO}. */
+      COMPUTED;
+
+      /** Returns whether the search starts at the directory of the including file. */
+      public boolean isQuote() {
+        return this == QUOTE || this == NEXT_QUOTE;
+      }
+
+      /** Returns whether this is an {@code #include_next} directive. */
+      public boolean isNext() {
+        return this == NEXT_QUOTE || this == NEXT_ANGLE;
+      }
+    }
+
+    public final PathFragment pathFragment;
+    public final Kind kind;
+
+    public Inclusion(PathFragment pathFragment, Kind kind) {
+      this.pathFragment = Preconditions.checkNotNull(pathFragment);
+      this.kind = Preconditions.checkNotNull(kind);
+    }
+
+    public Inclusion(String path, Kind kind) {
+      this(new PathFragment(path), kind);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Inclusion)) {
+        return false;
+      }
+      Inclusion that = (Inclusion) other;
+      return kind == that.kind && pathFragment.equals(that.pathFragment);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(pathFragment, kind);
+    }
+
+    @Override
+    public String toString() {
+      switch (kind) {
+        case QUOTE:
+          return "\"" + pathFragment + "\"";
+        case ANGLE:
+          return "<" + pathFragment + ">";
+        case NEXT_QUOTE:
+          return "next \"" + pathFragment + "\"";
+        case COMPUTED:
+          return "computed " + pathFragment;
+        default:
+          return "next <" + pathFragment + ">";
+      }
+    }
+  }
+
+  private static final byte[] INCLUDE = "include".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] INCLUDE_NEXT = "include_next".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] IMPORT = "import".getBytes(StandardCharsets.US_ASCII);
+
+  /** Returns the inclusions in {@code content}, in the order in which they appear. */
+  public static ImmutableList<Inclusion> extractInclusions(byte[] content) {
+    ImmutableList.Builder<Inclusion> inclusions = ImmutableList.builder();
+    int pos = 0;
+    int end = content.length;
+    while (pos < end) {
+      pos = skipHorizontalWhitespace(content, pos, end);
+      if (pos < end && content[pos] == '#') {
+        pos = parseDirective(content, pos + 1, end, inclusions);
+      }
+      pos = skipLine(content, pos, end);
+    }
+    return inclusions.build();
+  }
+
+  /**
+   * Parses the directive after the '#' at {@code pos}, adding it to {@code inclusions} if it is an
+   * inclusion. Returns a position on the same line.
+   */
+  private static int parseDirective(byte[] content, int pos, int end,
+      ImmutableList.Builder<Inclusion> inclusions) {
+    pos = skipHorizontalWhitespace(content, pos, end);
+    boolean next;
+    int afterKeyword;
+    if ((afterKeyword = skipWord(content, pos, end, INCLUDE_NEXT)) >= 0) {
+      next = true;
+    } else if ((afterKeyword = skipWord(content, pos, end, INCLUDE)) >= 0) {
+      next = false;
+    } else if ((afterKeyword = skipWord(content, pos, end, IMPORT)) >= 0) {
+      next = false;
+    } else {
+      return pos;
+    }
+    pos = skipHorizontalWhitespace(content, afterKeyword, end);
+    if (pos >= end) {
+      return pos;
+    }
+    byte terminator;
+    Inclusion.Kind kind;
+    if (content[pos] == '"') {
+      terminator = '"';
+      kind = next ? Inclusion.Kind.NEXT_QUOTE : Inclusion.Kind.QUOTE;
+    } else if (content[pos] == '<') {
+      terminator = '>';
+      kind = next ? Inclusion.Kind.NEXT_ANGLE : Inclusion.Kind.ANGLE;
+    } else if (pos == afterKeyword || content[pos] == '\n' || content[pos] == '\r') {
+      // Another directive, such as "#includefoo", or nothing to include.
+      return pos;
+    } else {
+      return parseComputedInclusion(content, pos, end, inclusions);
+    }
+    StringBuilder path = new StringBuilder();
+    for (pos = skipLineSplices(content, pos + 1, end);
+        pos < end && content[pos] != terminator;
+        pos = skipLineSplices(content, pos + 1, end)) {
+      if (content[pos] == '\n') {
+        return pos;  // Unterminated.
+      }
+      // Latin-1, like file names elsewhere in the build tool.
+      path.append((char) (content[pos] & 0xff));
+    }
+    if (path.length() > 0 && pos < end) {
+      inclusions.add(new Inclusion(path.toString(), kind));
+    }
+    return pos;
+  }
+
+  /**
+   * Adds the inclusion of the macro expression at {@code pos} to {@code inclusions}. Returns a
+   * position on the same line.
+   */
+  private static int parseComputedInclusion(byte[] content, int pos, int end,
+      ImmutableList.Builder<Inclusion> inclusions) {
+    StringBuilder macro = new StringBuilder();
+    for (; pos < end && content[pos] != '\n'; pos = skipLineSplices(content, pos + 1, end)) {
+      if (content[pos] == '/' && pos + 1 < end
+          && (content[pos + 1] == '/' || content[pos + 1] == '*')) {
+        break;  // A comment.
+      }
+      macro.append((char) (content[pos] & 0xff));
+    }
+    inclusions.add(new Inclusion(macro.toString().trim(), Inclusion.Kind.COMPUTED));
+    return pos;
+  }
+
+  /**
+   * Returns the position after {@code word} if the content at {@code pos} is {@code word}, possibly
+   * split by backslash-newline sequences, or -1 if it is not.
+   */
+  private static int skipWord(byte[] content, int pos, int end, byte[] word) {
+    for (byte b : word) {
+      pos = skipLineSplices(content, pos, end);
+      if (pos >= end || content[pos] != b) {
+        return -1;
+      }
+      pos++;
+    }
+    return pos;
+  }
+
+  /** Returns the position after the backslash-newline sequences at {@code pos}, if any. */
+  private static int skipLineSplices(byte[] content, int pos, int end) {
+    while (pos < end && content[pos] == '\\') {
+      if (pos + 1 < end && content[pos + 1] == '\n') {
+        pos += 2;
+      } else if (pos + 2 < end && content[pos + 1] == '\r' && content[pos + 2] == '\n') {
+        pos += 3;
+      } else {
+        break;
+      }
+    }
+    return pos;
+  }
+
+  private static int skipHorizontalWhitespace(byte[] content, int pos, int end) {
+    pos = skipLineSplices(content, pos, end);
+    while (pos < end && (content[pos] == ' ' || content[pos] == '\t')) {
+      pos = skipLineSplices(content, pos + 1, end);
+    }
+    return pos;
+  }
+
+  /** Returns the position after the next line terminator at or after {@code pos}. */
+  private static int skipLine(byte[] content, int pos, int end) {
+    while (pos < end && content[pos] != '\n') {
+      pos++;
+    }
+    return pos + 1;
+  }
+}
@@ -14,7 +14,10 @@
 
 package com.google.devtools.build.lib.rules.cpp;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.devtools.build.lib.actions.ActionExecutionContext;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.BaseSpawn;
@@ -24,28 +27,87 @@ import com.google.devtools.build.lib.actions.Executor;
 import com.google.devtools.build.lib.actions.ResourceSet;
 import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.analysis.actions.ExecutionRequirements;
+import com.google.devtools.build.lib.collect.nestedset.NestedSet;
+import com.google.devtools.build.lib.rules.cpp.CachingIncludeScanner.ComputedInclusionException;
+import com.google.devtools.build.lib.rules.cpp.IncludeScanner.IncludeScannerSupplier;
+import com.google.devtools.build.lib.rules.cpp.IncludeScanner.IncludeScanningPreparer;
 
 import java.util.Collection;
+import java.util.Map;
+
+import javax.annotation.Nullable;
 
 /**
  * A cpp strategy that simply passes everything through to the default spawn action strategy.
+ *
+ * <p>If it is given an {@link IncludeScannerSupplier}, the inputs of actions that should scan
+ * includes are found by scanning their sources before execution. Where the scan cannot be trusted,
+ * because it reached a generated header that is not built before the scan or a file that includes
+ * a macro, all declared headers are used instead.
  */
 @ExecutionStrategy(
   contextType = CppCompileActionContext.class,
   name = {"spawn"}
 )
 public class SpawnGccStrategy implements CppCompileActionContext {
+  @Nullable private final IncludeScannerSupplier includeScannerSupplier;
+
+  public SpawnGccStrategy() {
+    this(null);
+  }
+
+  public SpawnGccStrategy(@Nullable IncludeScannerSupplier includeScannerSupplier) {
+    this.includeScannerSupplier = includeScannerSupplier;
+  }
 
   @Override
   public boolean needsIncludeScanning() {
-    return false;
+    return includeScannerSupplier != null;
   }
 
   @Override
   public Collection<Artifact> findAdditionalInputs(
       CppCompileAction action, ActionExecutionContext actionExecutionContext)
       throws ExecException, InterruptedException {
-    return null;
+    if (includeScannerSupplier == null || !action.shouldScanIncludes()) {
+      return null;
+    }
+    Collection<Artifact> includes;
+    try {
+      includes = IncludeScanningPreparer.scanForIncludedInputs(
+          action, includeScannerSupplier, actionExecutionContext,
+          action.getSourceFile().getExecPathString());
+    } catch (ComputedInclusionException e) {
+      return action.getDeclaredIncludeSrcs().toCollection();
+    }
+    return selectInputs(includes, action.getMandatoryInputs(), action.getDeclaredIncludeSrcs());
+  }
+
+  /**
+   * Returns the scanned {@code includes} if they can be trusted, or else all
+   * {@code declaredIncludeSrcs}.
+   *
+   * <p>The mandatory inputs of an action are built before its includes are scanned, but other
+   * generated headers are not: the scan saw them as an earlier build left them, or not at all,
+   * so the headers they include now are not known.
+   */
+  @VisibleForTesting
+  static Collection<Artifact> selectInputs(Collection<Artifact> includes,
+      Iterable<Artifact> mandatoryInputs, NestedSet<Artifact> declaredIncludeSrcs) {
+    ImmutableSet<Artifact> builtInputs = null;
+    for (Artifact include : includes) {
+      if (include.isSourceArtifact()) {
+        continue;
+      }
+      if (builtInputs == null) {
+        builtInputs = ImmutableSet.copyOf(mandatoryInputs);
+      }
+      if (!builtInputs.contains(include)) {
+        return declaredIncludeSrcs.toCollection();
+      }
+    }
+    return includes;
   }
 
   @Override
@@ -54,11 +116,20 @@ public class SpawnGccStrategy implements CppCompileActionContext {
       throws ExecException, InterruptedException {
     Executor executor = actionExecutionContext.getExecutor();
     SpawnActionContext spawnActionContext = executor.getSpawnActionContext(action.getMnemonic());
+    Map<String, String> executionInfo = action.getExecutionInfo();
+    Artifact dotdFile = action.getDotdFile() == null ? null : action.getDotdFile().artifact();
+    if (dotdFile != null) {
+      // The action reads the .d file itself once the compiler has run.
+      executionInfo = ImmutableMap.<String, String>builder()
+          .putAll(executionInfo)
+          .put(ExecutionRequirements.LOCAL_OUTPUT, dotdFile.getExecPathString())
+          .build();
+    }
     Spawn spawn =
         new BaseSpawn(
             action.getArgv(),
             action.getEnvironment(),
-            action.getExecutionInfo(),
+            executionInfo,
             action,
             estimateResourceConsumption(action));
     spawnActionContext.exec(spawn, actionExecutionContext);
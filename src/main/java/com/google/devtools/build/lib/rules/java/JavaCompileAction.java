@@ -46,6 +46,7 @@ import com.google.devtools.build.lib.analysis.actions.CommandLine;
 import com.google.devtools.build.lib.analysis.actions.CustomCommandLine;
 import com.google.devtools.build.lib.analysis.actions.CustomCommandLine.CustomArgv;
 import com.google.devtools.build.lib.analysis.actions.CustomCommandLine.CustomMultiArgv;
+import com.google.devtools.build.lib.analysis.actions.ExecutionInfoSpecifier;
 import com.google.devtools.build.lib.analysis.actions.ParameterFileWriteAction;
 import com.google.devtools.build.lib.analysis.config.BuildConfiguration;
 import com.google.devtools.build.lib.cmdline.Label;
@@ -75,7 +76,7 @@ import java.util.Set;
  * Action that represents a Java compilation.
  */
 @ThreadCompatible @Immutable
-public final class JavaCompileAction extends AbstractAction {
+public final class JavaCompileAction extends AbstractAction implements ExecutionInfoSpecifier {
   private static final String GUID = "786e174d-ed97-4e79-9f61-ae74430714cf";
 
   private static final ResourceSet LOCAL_RESOURCES =
@@ -296,7 +297,7 @@ public final class JavaCompileAction extends AbstractAction {
     return javacOpts;
   }
 
-  @VisibleForTesting
+  @Override
   public ImmutableMap<String, String> getExecutionInfo() {
     return executionInfo;
   }
@@ -388,7 +389,7 @@ public final class JavaCompileAction extends AbstractAction {
   protected String computeKey() {
     Fingerprint f = new Fingerprint();
     f.addString(GUID);
-    f.addStrings(commandLine.arguments());
+    commandLine.addToFingerprint(f);
     return f.hexDigestAndReset();
   }
 
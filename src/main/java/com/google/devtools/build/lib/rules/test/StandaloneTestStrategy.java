@@ -32,6 +32,7 @@ import com.google.devtools.build.lib.analysis.RunfilesSupplierImpl;
 import com.google.devtools.build.lib.analysis.config.BinTools;
 import com.google.devtools.build.lib.analysis.config.BuildConfiguration;
 import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.events.EventKind;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.util.io.FileOutErr;
@@ -45,9 +46,12 @@ import com.google.devtools.common.options.OptionsClassProvider;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 /**
  * Runs TestRunnerAction actions.
  */
@@ -56,6 +60,8 @@ public class StandaloneTestStrategy extends TestStrategy {
   // TODO(bazel-team) - add tests for this strategy.
 
   private final Path workspace;
+  private TestResultCache testResultCache;
+  private TestCaseDurations testCaseDurations;
 
   public StandaloneTestStrategy(
       OptionsClassProvider requestOptions,
@@ -92,6 +98,49 @@ public class StandaloneTestStrategy extends TestStrategy {
     TestRunnerAction.ResolvedPaths resolvedPaths = action.resolve(execRoot);
     Map<String, String> env = getEnv(action, runfilesDir, testTmpDir, resolvedPaths);
 
+    TestCaseDurations durations = getTestCaseDurations(action, execRoot);
+    if (durations != null) {
+      try {
+        String runfilesKey = TestResultCache.computeRunfilesKey(
+            action, actionExecutionContext.getActionInputFileCache());
+        if (runfilesKey != null) {
+          Path snapshot = durations.getSnapshot(
+              action.getExecutionSettings().getExecutable().getExecPath(), runfilesKey);
+          env.put("TEST_DURATIONS_FILE", snapshot.getPathString());
+        } else {
+          durations = null;
+        }
+      } catch (IOException e) {
+        // All shards must see the same durations, so we can't just go on without them.
+        throw new EnvironmentalExecException("could not prepare test case durations", e);
+      }
+    }
+
+    TestResultCache resultCache = getTestResultCache(action, execRoot);
+    String resultKey = null;
+    if (resultCache != null) {
+      try {
+        resultKey = TestResultCache.computeKey(
+            action, env, execRoot, actionExecutionContext.getActionInputFileCache());
+      } catch (IOException e) {
+        // The test is run as if there was no cache.
+      }
+    }
+    if (resultKey != null) {
+      TestResultData cachedData = resultCache.restore(
+          resultKey, action.getTestLog().getPath(), resolvedPaths.getXmlOutputPath());
+      if (cachedData != null) {
+        try {
+          finalizeTest(actionExecutionContext, action, cachedData, /*cached=*/ true);
+        } catch (IOException e) {
+          actionExecutionContext.getExecutor().getEventHandler()
+              .handle(Event.error("Caught I/O exception: " + e));
+          throw new EnvironmentalExecException("unexpected I/O exception", e);
+        }
+        return;
+      }
+    }
+
     Map<String, String> info = new HashMap<>();
 
     // This key is only understood by StandaloneSpawnStrategy.
@@ -130,6 +179,7 @@ public class StandaloneTestStrategy extends TestStrategy {
       ResourceSet resources =
           action.getTestProperties().getLocalResourceUsage(executionOptions.usingLocalTestJobs());
 
+      TestResultData data;
       try (FileOutErr fileOutErr =
               new FileOutErr(
                   action.getTestLog().getPath(),
@@ -137,10 +187,16 @@ public class StandaloneTestStrategy extends TestStrategy {
                       .resolve(actionExecutionContext.getExecutor().getExecRoot())
                       .getTestStderr());
           ResourceHandle handle = ResourceManager.instance().acquireResources(action, resources)) {
-        TestResultData data =
-            execute(actionExecutionContext.withFileOutErr(fileOutErr), spawn, action);
+        data = execute(actionExecutionContext.withFileOutErr(fileOutErr), spawn, action);
         appendStderr(fileOutErr.getOutputPath(), fileOutErr.getErrorPath());
-        finalizeTest(actionExecutionContext, action, data);
+        finalizeTest(actionExecutionContext, action, data, /*cached=*/ false);
+      }
+      if (resultKey != null) {
+        resultCache.store(
+            resultKey, data, action.getTestLog().getPath(), resolvedPaths.getXmlOutputPath());
+      }
+      if (durations != null) {
+        recordTestCaseDurations(durations, action, resolvedPaths.getXmlOutputPath());
       }
     } catch (IOException e) {
       executor.getEventHandler().handle(Event.error("Caught I/O exception: " + e));
@@ -148,6 +204,68 @@ public class StandaloneTestStrategy extends TestStrategy {
     }
   }
 
+  /**
+   * Returns the cache of test results by input digest if it is enabled and may be used for
+   * {@code action}, or null. Coverage runs are never cached, as their outputs are not kept.
+   */
+  @Nullable
+  private synchronized TestResultCache getTestResultCache(TestRunnerAction action,
+      Path execRoot) {
+    if (executionOptions.testResultCacheSizeMb <= 0 || isCoverageMode(action)
+        || !action.mayReuseResults()) {
+      return null;
+    }
+    if (testResultCache == null) {
+      testResultCache = new TestResultCache(
+          execRoot.getParentDirectory().getChild("test_result_cache"),
+          executionOptions.testResultCacheSizeMb * 1024L * 1024L);
+    }
+    return testResultCache;
+  }
+
+  /**
+   * Returns the store of test case durations if shards are to be balanced and {@code action} is
+   * a shard, or null.
+   */
+  @Nullable
+  private synchronized TestCaseDurations getTestCaseDurations(TestRunnerAction action,
+      Path execRoot) {
+    if (!executionOptions.balanceTestShards || !action.isSharded()) {
+      return null;
+    }
+    if (testCaseDurations == null) {
+      testCaseDurations =
+          new TestCaseDurations(execRoot.getParentDirectory().getChild("test_durations"));
+    }
+    return testCaseDurations;
+  }
+
+  private static void recordTestCaseDurations(TestCaseDurations durations,
+      TestRunnerAction action, Path xmlOutput) throws IOException {
+    if (!xmlOutput.exists()) {
+      return;
+    }
+    TestCase result;
+    try (InputStream in = xmlOutput.getInputStream()) {
+      result = new TestXmlOutputParser().parseXmlIntoTestResult(in);
+    } catch (TestXmlOutputParserException e) {
+      // The test runner did not write the usual format; there is nothing to learn from it.
+      return;
+    }
+    durations.record(action.getExecutionSettings().getExecutable().getExecPath(), result);
+  }
+
+  /**
+   * Reports the hits and misses of the cache of test results by input digest, if it was used
+   * since this strategy was created.
+   */
+  public synchronized void reportTestResultCacheStatistics(EventHandler eventHandler) {
+    if (testResultCache != null && testResultCache.wasUsed()) {
+      eventHandler.handle(
+          Event.info("Test result cache: " + testResultCache.getStatistics()));
+    }
+  }
+
   private Map<String, String> getEnv(
       TestRunnerAction action,
       Path runfilesDir,
@@ -260,8 +378,9 @@ public class StandaloneTestStrategy extends TestStrategy {
   }
 
   private final void finalizeTest(ActionExecutionContext actionExecutionContext,
-      TestRunnerAction action, TestResultData data) throws IOException, ExecException {
-    TestResult result = new TestResult(action, data, false);
+      TestRunnerAction action, TestResultData data, boolean cached)
+      throws IOException, ExecException {
+    TestResult result = new TestResult(action, data, cached);
     postTestResult(actionExecutionContext.getExecutor(), result);
 
     processTestOutput(actionExecutionContext.getExecutor(),
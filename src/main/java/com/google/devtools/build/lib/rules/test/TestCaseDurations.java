@@ -0,0 +1,180 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.rules.test;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.build.lib.view.test.TestStatus.TestCase;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Records how long the test cases of sharded tests took, so that the test runner can balance the
+ * shards of later runs. The test runner finds the durations through the
+ * {@code TEST_DURATIONS_FILE} environment variable.
+ *
+ * <p>All shards of a test must split up the test cases the same way, even if only some of them
+ * run again while the results of the others come from a cache. Therefore the durations given to
+ * a test are not the latest ones, but a snapshot taken when a test with the same runfiles first
+ * ran. As long as the runfiles stay the same, so does the split; after a change, all shards run
+ * again anyway.
+ *
+ * <p>Only a few snapshots are kept per test. The name of a snapshot contains the digest of its
+ * contents, and snapshots are never changed, so a snapshot taken again after the old one was
+ * pruned has a new name. As the name is part of the environment of the test, shards that were
+ * split by different snapshots never share entries in the {@link TestResultCache}. The snapshots
+ * are kept per test executable, that is per test and configuration, like the entries of the
+ * action cache, which only hold the results of the last run of each shard.
+ */
+@ThreadSafe
+final class TestCaseDurations {
+  /** The number of snapshots kept per test, for switching back and forth between versions. */
+  private static final int MAX_SNAPSHOTS = 8;
+
+  private static final String LATEST = "latest";
+
+  private final Path root;
+
+  TestCaseDurations(Path root) {
+    this.root = root;
+  }
+
+  /**
+   * Returns the durations file for a run of the test with the executable {@code testExecutable},
+   * whose runfiles have the digest {@code runfilesKey}. The file may be empty, if no durations
+   * were recorded for the test before its runfiles changed last.
+   */
+  synchronized Path getSnapshot(PathFragment testExecutable, String runfilesKey)
+      throws IOException {
+    Path dir = getDirectory(testExecutable);
+    Path snapshot = findSnapshot(dir, runfilesKey);
+    if (snapshot != null) {
+      snapshot.setLastModifiedTime(-1L);
+      return snapshot;
+    }
+    FileSystemUtils.createDirectoryAndParents(dir);
+    Path latest = dir.getChild(LATEST);
+    byte[] content = latest.exists() ? FileSystemUtils.readContent(latest) : new byte[0];
+    snapshot = dir.getChild(
+        runfilesKey + "-" + new Fingerprint().addBytes(content).hexDigestAndReset());
+    FileSystemUtils.writeContent(snapshot, content);
+    pruneSnapshots(dir);
+    return snapshot;
+  }
+
+  /**
+   * Adds the durations of the test cases in {@code result}, the parsed XML output of a run of
+   * the test with the executable {@code testExecutable}, to the latest durations of the test.
+   */
+  synchronized void record(PathFragment testExecutable, TestCase result) throws IOException {
+    Path dir = getDirectory(testExecutable);
+    Path latest = dir.getChild(LATEST);
+    Map<String, Long> durations = latest.exists() ? read(latest) : new TreeMap<String, Long>();
+    collect(result, durations);
+
+    StringBuilder content = new StringBuilder();
+    for (Map.Entry<String, Long> entry : durations.entrySet()) {
+      content.append(entry.getValue()).append('\t').append(entry.getKey()).append('\n');
+    }
+    FileSystemUtils.createDirectoryAndParents(dir);
+    Path tmp = dir.getChild(LATEST + ".tmp");
+    FileSystemUtils.writeContent(tmp, StandardCharsets.UTF_8, content.toString());
+    tmp.renameTo(latest);
+  }
+
+  private Path getDirectory(PathFragment testExecutable) {
+    return root.getChild(Fingerprint.md5Digest(testExecutable.getPathString()));
+  }
+
+  @Nullable
+  private static Path findSnapshot(Path dir, String runfilesKey) throws IOException {
+    if (!dir.exists()) {
+      return null;
+    }
+    for (Path file : dir.getDirectoryEntries()) {
+      if (file.getBaseName().startsWith(runfilesKey + "-")) {
+        return file;
+      }
+    }
+    return null;
+  }
+
+  /** Adds the test cases below {@code testCase}, by their JUnit display name. */
+  private static void collect(TestCase testCase, Map<String, Long> durations) {
+    if (testCase.getType() == TestCase.Type.TEST_CASE) {
+      if (testCase.getRun() && testCase.hasName() && testCase.hasClassName()) {
+        durations.put(testCase.getName() + "(" + testCase.getClassName() + ")",
+            testCase.getRunDurationMillis());
+      }
+      return;
+    }
+    for (TestCase child : testCase.getChildList()) {
+      collect(child, durations);
+    }
+  }
+
+  private static Map<String, Long> read(Path file) throws IOException {
+    Map<String, Long> durations = new TreeMap<>();
+    for (String line : FileSystemUtils.readLines(file, StandardCharsets.UTF_8)) {
+      int tab = line.indexOf('\t');
+      if (tab > 0) {
+        try {
+          durations.put(line.substring(tab + 1), Long.parseLong(line.substring(0, tab)));
+        } catch (NumberFormatException e) {
+          // Skip the line.
+        }
+      }
+    }
+    return durations;
+  }
+
+  private static void pruneSnapshots(Path dir) throws IOException {
+    List<Path> snapshots = new ArrayList<>();
+    for (Path file : dir.getDirectoryEntries()) {
+      if (!file.getBaseName().startsWith(LATEST)) {
+        snapshots.add(file);
+      }
+    }
+    if (snapshots.size() <= MAX_SNAPSHOTS) {
+      return;
+    }
+    final Map<Path, Long> lastUsed = new TreeMap<>();
+    for (Path snapshot : snapshots) {
+      lastUsed.put(snapshot, snapshot.getLastModifiedTime(Symlinks.NOFOLLOW));
+    }
+    Collections.sort(snapshots, new Comparator<Path>() {
+      @Override
+      public int compare(Path a, Path b) {
+        return Long.compare(lastUsed.get(b), lastUsed.get(a));
+      }
+    });
+    for (Path snapshot : snapshots.subList(MAX_SNAPSHOTS, snapshots.size())) {
+      snapshot.delete();
+    }
+  }
+}
@@ -0,0 +1,376 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.rules.test;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.analysis.config.RunUnder;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.build.lib.view.test.TestStatus.TestResultData;
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * A cache of the results of passing tests, keyed by what a test can observe: the contents of its
+ * runfiles tree, its arguments and its environment.
+ *
+ * <p>The action cache keys test results on the test action, and thereby on the output directory
+ * of the configuration; changing a build option that has nothing to do with a test therefore
+ * makes it run again. The entries of this cache survive such changes, as long as the files the
+ * test sees stay the same.
+ *
+ * <p>Each entry is a directory named after its key, holding the test log, the XML output, if
+ * any, and the {@link TestResultData} of the run. When the total size of the entries exceeds the
+ * limit given at construction time, the least recently used entries are deleted.
+ */
+@ThreadSafe
+final class TestResultCache {
+  private static final Logger LOG = Logger.getLogger(TestResultCache.class.getName());
+
+  private static final String GUID = "1c4b0b36-8e0d-4a5e-9c1d-5a0e2f3b7d21";
+
+  /**
+   * The environment variables holding paths that are chosen anew for every run of a test, like
+   * {@code TEST_TMPDIR}, which contains a number unique within the Blaze server.
+   */
+  private static final ImmutableSet<String> PER_RUN_VARIABLES =
+      ImmutableSet.of("TEST_SRCDIR", "TEST_TMPDIR", "XML_OUTPUT_FILE");
+
+  private static final String RESULT = "result";
+  private static final String TEST_LOG = "test.log";
+  private static final String TEST_XML = "test.xml";
+
+  private final Path root;
+  private final long maxSizeBytes;
+
+  // The sizes of the entries by key, least recently used first. Loaded from disk on first use.
+  private LinkedHashMap<String, Long> entries;
+  private long totalSizeBytes;
+  private int tmpIndex;
+
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+  private final AtomicInteger stores = new AtomicInteger();
+  private final AtomicInteger evictions = new AtomicInteger();
+
+  TestResultCache(Path root, long maxSizeBytes) {
+    this.root = root;
+    this.maxSizeBytes = maxSizeBytes;
+  }
+
+  /**
+   * Returns the key for the results of {@code action} run in the environment {@code env}, or null
+   * if its inputs cannot be digested, e.g. because its runfiles contain directories.
+   *
+   * <p>The runfiles are keyed by their path in the runfiles tree and their contents, the
+   * executable and the test runtime by their root-relative path.
+   */
+  @Nullable
+  static String computeKey(TestRunnerAction action, Map<String, String> env, Path execRoot,
+      ActionInputFileCache fileCache) throws IOException {
+    String runfilesKey = computeRunfilesKey(action, fileCache);
+    if (runfilesKey == null) {
+      return null;
+    }
+    TestTargetExecutionSettings settings = action.getExecutionSettings();
+    Fingerprint f = new Fingerprint();
+    RunUnder runUnder = settings.getRunUnder();
+    f.addString(runUnder == null ? "" : runUnder.getValue());
+    if (settings.getRunUnderExecutable() != null
+        && !addDigest(f, settings.getRunUnderExecutable(), fileCache)) {
+      return null;
+    }
+
+    f.addStrings(settings.getArgs());
+    f.addString(action.getRunfilesPrefix());
+    f.addPath(action.getShExecutable());
+    f.addInt(action.getShardNum());
+    f.addInt(settings.getTotalShards());
+    f.addInt(action.getRunNumber());
+    f.addBoolean(action.isEnableRunfiles());
+    return computeKey(runfilesKey, f.hexDigestAndReset(), env, execRoot);
+  }
+
+  /**
+   * Returns the key for the results of a test with the runfiles digest {@code runfilesKey}, whose
+   * command line and settings have the digest {@code invocationKey}, run in the environment
+   * {@code env}.
+   *
+   * <p>Environment variables whose values point into the execution root or to the temporary
+   * directory of the test, and the variables in {@link #PER_RUN_VARIABLES}, only contribute their
+   * names: their values contain the output directory of the configuration or differ between runs,
+   * and the test sees the same files through them anyway.
+   */
+  @VisibleForTesting
+  static String computeKey(String runfilesKey, String invocationKey, Map<String, String> env,
+      Path execRoot) {
+    Fingerprint f = new Fingerprint();
+    f.addString(GUID);
+    f.addString(runfilesKey);
+    f.addString(invocationKey);
+
+    List<String> perRunPrefixes = new ArrayList<>();
+    perRunPrefixes.add(execRoot.getPathString());
+    if (env.containsKey("TEST_TMPDIR")) {
+      perRunPrefixes.add(env.get("TEST_TMPDIR"));
+    }
+    Map<String, String> sortedEnv = new TreeMap<>(env);
+    f.addInt(sortedEnv.size());
+    for (Map.Entry<String, String> var : sortedEnv.entrySet()) {
+      f.addString(var.getKey());
+      f.addString(isPerRun(var.getKey(), var.getValue(), perRunPrefixes) ? "" : var.getValue());
+    }
+    return f.hexDigestAndReset();
+  }
+
+  private static boolean isPerRun(String name, String value, List<String> perRunPrefixes) {
+    if (PER_RUN_VARIABLES.contains(name)) {
+      return true;
+    }
+    for (String prefix : perRunPrefixes) {
+      if (value.equals(prefix) || value.startsWith(prefix + "/")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns a digest of the runfiles of {@code action}, including its executable and the test
+   * runtime, or null if they cannot be digested. Unlike {@link #computeKey}, the result is the
+   * same for all shards and runs of a test.
+   */
+  @Nullable
+  static String computeRunfilesKey(TestRunnerAction action, ActionInputFileCache fileCache)
+      throws IOException {
+    Fingerprint f = new Fingerprint();
+    f.addString(GUID);
+    return addRunfiles(f, action, fileCache) ? f.hexDigestAndReset() : null;
+  }
+
+  private static boolean addRunfiles(Fingerprint f, TestRunnerAction action,
+      ActionInputFileCache fileCache) throws IOException {
+    TestTargetExecutionSettings settings = action.getExecutionSettings();
+    Map<PathFragment, Artifact> runfiles =
+        new TreeMap<>(settings.getRunfiles().getRunfilesInputs(null, null));
+    f.addInt(runfiles.size());
+    for (Map.Entry<PathFragment, Artifact> entry : runfiles.entrySet()) {
+      f.addPath(entry.getKey());
+      if (!addDigest(f, entry.getValue(), fileCache)) {
+        return false;
+      }
+    }
+    f.addPath(settings.getExecutable().getRootRelativePath());
+    for (Artifact runtimeArtifact : action.getRuntimeArtifacts()) {
+      f.addPath(runtimeArtifact.getRootRelativePath());
+      if (!addDigest(f, runtimeArtifact, fileCache)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean addDigest(Fingerprint f, @Nullable Artifact artifact,
+      ActionInputFileCache fileCache) throws IOException {
+    if (artifact == null) {
+      // An empty file.
+      f.addInt(0);
+      return true;
+    }
+    if (artifact.getPath().isDirectory()) {
+      return false;
+    }
+    ByteString digest = fileCache.getDigest(artifact);
+    if (digest == null) {
+      return false;
+    }
+    f.addInt(digest.size());
+    f.addBytes(digest.toByteArray());
+    return true;
+  }
+
+  /**
+   * Restores the test log and XML output of the entry for {@code key} to the given paths and
+   * returns its result, or returns null if there is no such entry.
+   */
+  @Nullable
+  TestResultData restore(String key, Path testLog, Path xmlOutput) {
+    Path entry = root.getChild(key);
+    synchronized (this) {
+      loadEntries();
+      if (entries.get(key) == null) {
+        misses.incrementAndGet();
+        return null;
+      }
+    }
+    try {
+      TestResultData data;
+      try (InputStream in = entry.getChild(RESULT).getInputStream()) {
+        data = TestResultData.parseFrom(in);
+      }
+      FileSystemUtils.copyFile(entry.getChild(TEST_LOG), testLog);
+      if (entry.getChild(TEST_XML).exists()) {
+        FileSystemUtils.copyFile(entry.getChild(TEST_XML), xmlOutput);
+      }
+      entry.setLastModifiedTime(-1L);
+      hits.incrementAndGet();
+      return data.toBuilder()
+          .setPassedLog(testLog.getPathString())
+          .build();
+    } catch (IOException e) {
+      // Most likely evicted in the meantime.
+      LOG.warning("Cannot restore test result " + key + ": " + e.getMessage());
+      misses.incrementAndGet();
+      return null;
+    }
+  }
+
+  /**
+   * Adds an entry for {@code key} with the given result and outputs, then evicts entries until the
+   * cache fits into its size limit again. Results of failed tests, and of tests whose results must
+   * not be cached, are not stored. Errors are logged and otherwise ignored.
+   */
+  void store(String key, TestResultData data, Path testLog, Path xmlOutput) {
+    if (!data.getTestPassed() || !data.getCachable()) {
+      return;
+    }
+    Path tmp;
+    synchronized (this) {
+      loadEntries();
+      if (entries.containsKey(key)) {
+        return;
+      }
+      tmp = root.getChild(key + ".tmp" + tmpIndex++);
+    }
+    try {
+      FileSystemUtils.createDirectoryAndParents(tmp);
+      try (OutputStream out = tmp.getChild(RESULT).getOutputStream()) {
+        data.writeTo(out);
+      }
+      FileSystemUtils.copyFile(testLog, tmp.getChild(TEST_LOG));
+      if (xmlOutput.exists()) {
+        FileSystemUtils.copyFile(xmlOutput, tmp.getChild(TEST_XML));
+      }
+      long size = getSize(tmp);
+      synchronized (this) {
+        if (entries.containsKey(key)) {
+          FileSystemUtils.deleteTree(tmp);
+          return;
+        }
+        tmp.renameTo(root.getChild(key));
+        entries.put(key, size);
+        totalSizeBytes += size;
+        stores.incrementAndGet();
+        evict();
+      }
+    } catch (IOException e) {
+      LOG.warning("Cannot store test result " + key + ": " + e.getMessage());
+    }
+  }
+
+  /** Returns a one-line summary of the use of the cache since its creation. */
+  String getStatistics() {
+    synchronized (this) {
+      return String.format("%d hits, %d misses, %d stored, %d evicted; %d entries, %d KB",
+          hits.get(), misses.get(), stores.get(), evictions.get(),
+          entries == null ? 0 : entries.size(), totalSizeBytes / 1024);
+    }
+  }
+
+  /** Returns whether there were lookups in the cache since its creation. */
+  boolean wasUsed() {
+    return hits.get() + misses.get() > 0;
+  }
+
+  private void evict() throws IOException {
+    Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+    // The most recently stored entry is kept even if it alone exceeds the limit.
+    while (totalSizeBytes > maxSizeBytes && entries.size() > 1) {
+      Map.Entry<String, Long> eldest = it.next();
+      FileSystemUtils.deleteTree(root.getChild(eldest.getKey()));
+      totalSizeBytes -= eldest.getValue();
+      it.remove();
+      evictions.incrementAndGet();
+    }
+  }
+
+  /**
+   * Reads the entries on disk, ordered by the time of their last use. Leftovers of interrupted
+   * stores are deleted.
+   */
+  private void loadEntries() {
+    if (entries != null) {
+      return;
+    }
+    entries = new LinkedHashMap<>(16, 0.75f, /*accessOrder=*/ true);
+    totalSizeBytes = 0;
+    try {
+      FileSystemUtils.createDirectoryAndParents(root);
+      List<Path> dirs = new ArrayList<>(root.getDirectoryEntries());
+      final Map<Path, Long> lastUsed = new HashMap<>();
+      for (Path dir : dirs) {
+        lastUsed.put(dir, dir.getLastModifiedTime(Symlinks.NOFOLLOW));
+      }
+      Collections.sort(dirs, new Comparator<Path>() {
+        @Override
+        public int compare(Path a, Path b) {
+          return Long.compare(lastUsed.get(a), lastUsed.get(b));
+        }
+      });
+      for (Path dir : dirs) {
+        if (dir.getBaseName().contains(".tmp")) {
+          FileSystemUtils.deleteTree(dir);
+          continue;
+        }
+        long size = getSize(dir);
+        entries.put(dir.getBaseName(), size);
+        totalSizeBytes += size;
+      }
+    } catch (IOException e) {
+      LOG.warning("Cannot read test result cache " + root + ": " + e.getMessage());
+    }
+  }
+
+  private static long getSize(Path entry) throws IOException {
+    long size = 0;
+    for (Path file : entry.getDirectoryEntries()) {
+      size += file.getFileSize(Symlinks.NOFOLLOW);
+    }
+    return size;
+  }
+}
@@ -247,10 +247,18 @@ public class TestRunnerAction extends AbstractAction implements NotifyOnActionCa
     return null;
   }
 
-  private boolean updateExecuteUnconditionallyFromTestStatus() {
-    if (configuration.cacheTestResults() == TriState.NO || testProperties.isExternal()
+  /**
+   * Returns whether the results of earlier runs of this test may be used instead of running it,
+   * provided that its inputs did not change.
+   */
+  public boolean mayReuseResults() {
+    return !(configuration.cacheTestResults() == TriState.NO || testProperties.isExternal()
         || (configuration.cacheTestResults() == TriState.AUTO
-            && configuration.getRunsPerTestForLabel(getOwner().getLabel()) > 1)) {
+            && configuration.getRunsPerTestForLabel(getOwner().getLabel()) > 1));
+  }
+
+  private boolean updateExecuteUnconditionallyFromTestStatus() {
+    if (!mayReuseResults()) {
       return true;
     }
 
@@ -544,6 +552,11 @@ public class TestRunnerAction extends AbstractAction implements NotifyOnActionCa
     return getOutputs();
   }
 
+  /** Returns the artifacts needed to run any test, like the test setup script. */
+  public NestedSet<Artifact> getRuntimeArtifacts() {
+    return runtime;
+  }
+
   public Artifact getRuntimeArtifact(String basename) throws ExecException {
     for (Artifact runtimeArtifact : runtime) {
       if (runtimeArtifact.getExecPath().getBaseName().equals(basename)) {
@@ -27,6 +27,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
 import com.google.common.io.Flushables;
+import com.google.devtools.build.lib.events.AsynchronousEventHandler;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.events.Reporter;
@@ -85,6 +86,9 @@ public class BlazeCommandDispatcher {
 
   private static final Set<String> ALL_HELP_OPTIONS = ImmutableSet.of("--help", "-help", "-h");
 
+  /** The number of events that may wait for the terminal with asynchronous terminal output. */
+  private static final int MAX_QUEUED_EVENTS = 10000;
+
   /**
    * If the server needs to be shut down and how.
    */
@@ -740,12 +744,26 @@ public class BlazeCommandDispatcher {
    * Returns the event handler to use for this Blaze command.
    */
   private EventHandler createEventHandler(OutErr outErr,
-      BlazeCommandEventHandler.Options eventOptions) {
-    EventHandler eventHandler;
+      final BlazeCommandEventHandler.Options eventOptions) {
     if (eventOptions.experimentalUi) {
       // The experimental event handler is not to be rate limited.
       return new ExperimentalEventHandler(outErr, eventOptions, runtime.getClock());
-    } else if ((eventOptions.useColor() || eventOptions.useCursorControl())) {
+    } else if (eventOptions.asyncTerminalOutput) {
+      return AsynchronousEventHandler.create(outErr, new Function<OutErr, EventHandler>() {
+        @Override
+        public EventHandler apply(OutErr batchedOutErr) {
+          return createTerminalEventHandler(batchedOutErr, eventOptions);
+        }
+      }, MAX_QUEUED_EVENTS);
+    } else {
+      return createTerminalEventHandler(outErr, eventOptions);
+    }
+  }
+
+  private static EventHandler createTerminalEventHandler(OutErr outErr,
+      BlazeCommandEventHandler.Options eventOptions) {
+    EventHandler eventHandler;
+    if ((eventOptions.useColor() || eventOptions.useCursorControl())) {
       eventHandler = new FancyTerminalEventHandler(outErr, eventOptions);
     } else {
       eventHandler = new BlazeCommandEventHandler(outErr, eventOptions);
@@ -758,6 +776,10 @@ public class BlazeCommandDispatcher {
    * Unsets the event handler.
    */
   private void releaseHandler(EventHandler eventHandler) {
+    if (eventHandler instanceof AsynchronousEventHandler) {
+      ((AsynchronousEventHandler) eventHandler).close();
+      eventHandler = ((AsynchronousEventHandler) eventHandler).getDelegate();
+    }
     if (eventHandler instanceof FancyTerminalEventHandler) {
       // Make sure that the terminal state of the old event handler is clear
       // before creating a new one.
@@ -141,6 +141,16 @@ public class BlazeCommandEventHandler implements EventHandler {
         help = "Forces --experimental_external_repositories.")
     public boolean forceExternalRepositories;
 
+    @Option(
+      name = "experimental_async_terminal_output",
+      defaultValue = "false",
+      category = "verbosity",
+      help = "Write messages to the terminal on a thread of its own, in batches, so that the "
+          + "threads reporting them don't wait for the terminal. Has no effect with "
+          + "--experimental_ui."
+    )
+    public boolean asyncTerminalOutput;
+
     @Option(
       name = "experimental_ui",
       defaultValue = "false",
@@ -412,10 +412,10 @@ public final class Command {
   /**
    * Execute this command with given input to stdin; this stream is closed when the process
    * terminates, and exceptions raised when closing this stream are ignored. This call blocks until
-   * the process completes or an error occurs. The caller provides {@link OutputStream} instances
-   * into which the process writes its stdout/stderr output; these streams are <em>not</em> closed
-   * when the process terminates. The given {@link KillableObserver} may also terminate the process
-   * early while running.
+   * the process completes or an error occurs. The process appends its stdout/stderr output to the
+   * given files itself, so no threads are needed to copy it, and it never passes through this
+   * process. The files may be the same. The given {@link KillableObserver} may also terminate the
+   * process early while running.
    *
    * <p>If stdOut or stdErr is {@code null}, it will be redirected to /dev/null.
    */
@@ -439,9 +439,18 @@ public final class Command {
     } else {
       subprocessBuilder.setStderr(stdErr);
     }
-    return doExecute(
-            new ByteArrayInputSource(stdinInput), observer, null, killSubprocessOnInterrupt, false)
-        .get();
+    try {
+      return doExecute(
+              new ByteArrayInputSource(stdinInput),
+              observer,
+              Consumers.createRedirectedConsumers(),
+              killSubprocessOnInterrupt,
+              false)
+          .get();
+    } finally {
+      subprocessBuilder.setStdout(StreamAction.STREAM);
+      subprocessBuilder.setStderr(StreamAction.STREAM);
+    }
   }
 
   /**
@@ -33,6 +33,8 @@ import java.util.logging.Logger;
  * discarding ({@link #createDiscardingConsumers()},
  * accumulating ({@link #createAccumulatingConsumers()},
  * and streaming ({@link #createStreamingConsumers(OutputStream, OutputStream)}).
+ * For processes whose output is redirected to files, there is nothing to
+ * consume ({@link #createRedirectedConsumers()}).
  */
 class Consumers {
 
@@ -60,6 +62,15 @@ class Consumers {
                                new StreamingConsumer(err));
   }
 
+  /**
+   * Returns consumers for a process whose stdout and stderr go to files. They
+   * start no threads; the output never passes through this process.
+   */
+  static OutErrConsumers createRedirectedConsumers() {
+    return new OutErrConsumers(new RedirectedConsumer(),
+                               new RedirectedConsumer());
+  }
+
   static class OutErrConsumers {
 
     private final OutputConsumer out;
@@ -197,6 +208,35 @@ class Consumers {
     }
   }
 
+  /**
+   * This consumer is used when the output is redirected to a file by the
+   * operating system, so the stream it is given is empty. It only closes it.
+   */
+  private static class RedirectedConsumer implements OutputConsumer {
+    @Override
+    public ByteArrayOutputStream getAccumulatedOut() {
+      return CommandResult.NO_OUTPUT_COLLECTED;
+    }
+
+    @Override
+    public void logConsumptionStrategy() {
+      log.finer("Output will be redirected to files");
+    }
+
+    @Override
+    public void registerInput(InputStream in, boolean closeConsumer) {
+      silentClose(in);
+    }
+
+    @Override
+    public void cancel() {
+    }
+
+    @Override
+    public void waitForCompletion() {
+    }
+  }
+
   /**
    * A mixin that makes consumers active - this is where we kick of
    * multithreading ({@link #registerInput(InputStream, boolean)}), cancel actions
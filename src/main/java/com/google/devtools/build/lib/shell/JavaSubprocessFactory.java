@@ -108,8 +108,8 @@ public class JavaSubprocessFactory implements Subprocess.Factory {
   }
 
   /**
-   * Returns a {@link ProcessBuilder.Redirect} appropriate for the parameters. If a file redirected
-   * to exists, deletes the file before redirecting to it.
+   * Returns a {@link ProcessBuilder.Redirect} appropriate for the parameters. Output redirected to
+   * a file that exists is appended to it, as on Windows.
    */
   private Redirect getRedirect(StreamAction action, File file) throws IOException {
     switch (action) {
@@ -120,9 +120,6 @@ public class JavaSubprocessFactory implements Subprocess.Factory {
         // We need to use Redirect.appendTo() here, because on older Linux kernels writes are
         // otherwise not atomic and might result in lost log messages:
         // https://lkml.org/lkml/2014/3/3/308
-        if (file.exists()) {
-          file.delete();
-        }
         return Redirect.appendTo(file);
 
       case STREAM:
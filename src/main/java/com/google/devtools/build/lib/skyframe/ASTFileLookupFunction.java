@@ -14,9 +14,15 @@
 
 package com.google.devtools.build.lib.skyframe;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.events.StoredEventHandler;
 import com.google.devtools.build.lib.packages.BuildFileNotFoundException;
 import com.google.devtools.build.lib.packages.RuleClassProvider;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.syntax.BuildFileAST;
 import com.google.devtools.build.lib.syntax.Mutability;
 import com.google.devtools.build.lib.syntax.Runtime;
@@ -31,6 +37,7 @@ import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import javax.annotation.Nullable;
 
@@ -41,11 +48,19 @@ import javax.annotation.Nullable;
  * ({@link BuildFileAST}). The Label must be absolute, and must not reference the special
  * {@code external} package. If the file (or the package containing it) doesn't exist, the
  * function doesn't fail, but instead returns a specific {@code NO_FILE} {@link ASTFileLookupValue}.
+ *
+ * <p>Skylark files that were parsed without any events are remembered with the MD5 digest of
+ * their content for as long as the server runs, and are not parsed again while their content is
+ * unchanged, e.g. after a touch or a checkout that invalidated their {@link FileValue}.
  */
 public class ASTFileLookupFunction implements SkyFunction {
 
   private final RuleClassProvider ruleClassProvider;
 
+  // Syntax trees are not modified after parsing, so evaluations can share them.
+  private final Cache<Label, ParsedSkylarkFile> skylarkFileCache =
+      CacheBuilder.newBuilder().softValues().build();
+
   public ASTFileLookupFunction(RuleClassProvider ruleClassProvider) {
     this.ruleClassProvider = ruleClassProvider;
   }
@@ -110,18 +125,33 @@ public class ASTFileLookupFunction implements SkyFunction {
     try {
       long astFileSize = fileValue.getSize();
       if (parseAsSkylark) {
+        byte[] digest = path.getMD5Digest();
+        ParsedSkylarkFile parsed = skylarkFileCache.getIfPresent(fileLabel);
+        if (parsed != null && parsed.path.equals(path) && Arrays.equals(parsed.digest, digest)) {
+          return ASTFileLookupValue.withFile(parsed.ast);
+        }
+        StoredEventHandler eventHandler = new StoredEventHandler();
+        Profiler.instance().startTask(ProfilerTask.SKYLARK_FILE_PARSE, fileLabel.toString());
         try (Mutability mutability = Mutability.create("validate")) {
-            ast = BuildFileAST.parseSkylarkFile(path, astFileSize, env.getListener(),
+            ast = BuildFileAST.parseSkylarkFile(path, astFileSize, digest, eventHandler,
                 new ValidationEnvironment(
                     ruleClassProvider.createSkylarkRuleClassEnvironment(
                         fileLabel,
                         mutability,
-                        env.getListener(),
+                        eventHandler,
                         // the two below don't matter for extracting the ValidationEnvironment:
                         /*astFileContentHashCode=*/null,
                         /*importMap=*/null)
                     .setupDynamic(Runtime.PKG_NAME, Runtime.NONE)
                     .setupDynamic(Runtime.REPOSITORY_NAME, Runtime.NONE)));
+        } finally {
+          Profiler.instance().completeTask(ProfilerTask.SKYLARK_FILE_PARSE);
+        }
+        Event.replayEventsOn(env.getListener(), eventHandler.getEvents());
+        // Events are reported by the node that parsed the file, so only a file without events
+        // can be used by another node.
+        if (eventHandler.isEmpty()) {
+          skylarkFileCache.put(fileLabel, new ParsedSkylarkFile(path, digest, ast));
         }
       } else {
         ast = BuildFileAST.parseBuildFile(path, astFileSize, env.getListener(), false);
@@ -140,6 +170,19 @@ public class ASTFileLookupFunction implements SkyFunction {
     return null;
   }
 
+  /** A Skylark file's syntax tree, and the path and MD5 digest of the file it was parsed from. */
+  private static final class ParsedSkylarkFile {
+    private final Path path;
+    private final byte[] digest;
+    private final BuildFileAST ast;
+
+    private ParsedSkylarkFile(Path path, byte[] digest, BuildFileAST ast) {
+      this.path = path;
+      this.digest = digest;
+      this.ast = ast;
+    }
+  }
+
   private static final class ASTLookupFunctionException extends SkyFunctionException {
     private ASTLookupFunctionException(ErrorReadingSkylarkExtensionException e,
         Transience transience) {
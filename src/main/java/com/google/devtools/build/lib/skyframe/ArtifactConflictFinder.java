@@ -0,0 +1,346 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.actions.ActionAnalysisMetadata;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.ArtifactPrefixConflictException;
+import com.google.devtools.build.lib.actions.MapBasedActionGraph;
+import com.google.devtools.build.lib.actions.MutableActionGraph;
+import com.google.devtools.build.lib.actions.MutableActionGraph.ActionConflictException;
+import com.google.devtools.build.lib.concurrent.ExecutorUtil;
+import com.google.devtools.build.lib.concurrent.Sharder;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadCompatible;
+import com.google.devtools.build.lib.concurrent.ThrowableRecordingRunnableWrapper;
+import com.google.devtools.build.lib.skyframe.SkyframeActionExecutor.ConflictException;
+import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.skyframe.SkyKey;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.Nullable;
+
+/**
+ * Finds the conflicts between the artifacts generated by the actions of {@link
+ * ActionLookupValue}s, as described at
+ * {@link SkyframeActionExecutor#findAndStoreArtifactConflicts}.
+ *
+ * <p>The action graph and the map from exec paths to artifacts are kept from one call to the
+ * next, together with the conflicts found. Each call only registers the actions of the values
+ * that are new since the last one, unregisters those of the values that are gone, and checks
+ * the paths that changed against their neighbours in the map. Since the map is sorted, the paths
+ * below a path follow it directly, and the paths above it are found by looking up its ancestors.
+ */
+@ThreadCompatible
+final class ArtifactConflictFinder {
+  /**
+   * If more than this fraction of the paths changed, all paths are checked for prefix conflicts
+   * in one pass over the map, which is faster than looking up the neighbours of each one.
+   */
+  private static final int FULL_CHECK_FRACTION = 8;
+
+  private final MutableActionGraph actionGraph = new MapBasedActionGraph();
+  private final ConcurrentNavigableMap<PathFragment, Artifact> artifactPathMap =
+      new ConcurrentSkipListMap<>();
+  // The values whose actions were registered, or found to be in conflict.
+  private final Map<SkyKey, ActionLookupValue> indexedValues = new HashMap<>();
+  // The actions that were not registered because another action generates one of their outputs.
+  private final ConcurrentMap<ActionAnalysisMetadata, ActionConflictException> actionConflicts =
+      new ConcurrentHashMap<>();
+  // The prefix conflicts of the paths in artifactPathMap.
+  private final Map<PathFragment, ArtifactPrefixConflictException> prefixConflicts =
+      new HashMap<>();
+
+  /**
+   * Brings the index up to date with {@code values}, all the action lookup values in the graph,
+   * and returns the actions that are in conflict.
+   */
+  ImmutableMap<ActionAnalysisMetadata, ConflictException> findConflicts(
+      Map<SkyKey, ActionLookupValue> values) throws InterruptedException {
+    boolean success = false;
+    try {
+      updateIndex(values);
+      success = true;
+    } finally {
+      if (!success) {
+        // The index no longer matches indexedValues.
+        clear();
+      }
+    }
+
+    Map<ActionAnalysisMetadata, ConflictException> badActions = new HashMap<>();
+    for (Map.Entry<PathFragment, ArtifactPrefixConflictException> entry :
+        prefixConflicts.entrySet()) {
+      badActions.put(getGeneratingAction(entry.getKey()), new ConflictException(entry.getValue()));
+    }
+    for (Map.Entry<ActionAnalysisMetadata, ActionConflictException> entry :
+        actionConflicts.entrySet()) {
+      badActions.put(entry.getKey(), new ConflictException(entry.getValue()));
+    }
+    return ImmutableMap.copyOf(badActions);
+  }
+
+  private void updateIndex(Map<SkyKey, ActionLookupValue> values) throws InterruptedException {
+    Map<SkyKey, ActionLookupValue> currentValues = new HashMap<>(values);
+    List<ActionLookupValue> removedValues = new ArrayList<>();
+    for (Iterator<Map.Entry<SkyKey, ActionLookupValue>> it = indexedValues.entrySet().iterator();
+        it.hasNext(); ) {
+      Map.Entry<SkyKey, ActionLookupValue> entry = it.next();
+      if (currentValues.get(entry.getKey()) != entry.getValue()) {
+        removedValues.add(entry.getValue());
+        it.remove();
+      }
+    }
+    List<ActionAnalysisMetadata> addedActions = new ArrayList<>();
+    for (Map.Entry<SkyKey, ActionLookupValue> entry : currentValues.entrySet()) {
+      if (indexedValues.put(entry.getKey(), entry.getValue()) == null) {
+        addedActions.addAll(getActions(entry.getValue()));
+      }
+    }
+
+    Set<PathFragment> changedPaths = new HashSet<>();
+    for (ActionLookupValue value : removedValues) {
+      for (ActionAnalysisMetadata action : getActions(value)) {
+        unregisterAction(action, changedPaths);
+      }
+    }
+    if (!removedValues.isEmpty()) {
+      // The actions that an unregistered action was in conflict with may now be registered.
+      addedActions.addAll(actionConflicts.keySet());
+      actionConflicts.clear();
+    }
+    changedPaths.addAll(registerActions(addedActions));
+
+    if (changedPaths.size() > artifactPathMap.size() / FULL_CHECK_FRACTION) {
+      findAllPrefixConflicts();
+    } else {
+      for (PathFragment path : changedPaths) {
+        findPrefixConflictsAround(path);
+      }
+    }
+  }
+
+  /** Empties the index, so that the next call starts from scratch. */
+  void clear() {
+    actionGraph.clear();
+    artifactPathMap.clear();
+    indexedValues.clear();
+    actionConflicts.clear();
+    prefixConflicts.clear();
+  }
+
+  private static Collection<ActionAnalysisMetadata> getActions(ActionLookupValue value) {
+    return ImmutableSet.copyOf(value.getMapForConsistencyCheck().values());
+  }
+
+  private void unregisterAction(ActionAnalysisMetadata action, Set<PathFragment> changedPaths) {
+    if (actionConflicts.remove(action) != null) {
+      return;
+    }
+    actionGraph.unregisterAction(action);
+    for (Artifact output : action.getOutputs()) {
+      PathFragment path = output.getExecPath();
+      // A shared action may still generate the artifact.
+      if (actionGraph.getGeneratingAction(output) == null) {
+        artifactPathMap.remove(path, output);
+      }
+      changedPaths.add(path);
+    }
+  }
+
+  /**
+   * Registers {@code actions} in a threadpool, like the actions of all values were registered
+   * before the index was kept across builds, and returns the exec paths of their outputs.
+   */
+  private Set<PathFragment> registerActions(List<ActionAnalysisMetadata> actions)
+      throws InterruptedException {
+    Set<PathFragment> changedPaths = ConcurrentHashMap.newKeySet();
+    if (actions.isEmpty()) {
+      return changedPaths;
+    }
+    // Action graph construction is CPU-bound.
+    int numJobs = Runtime.getRuntime().availableProcessors();
+    Sharder<ActionAnalysisMetadata> actionShards = new Sharder<>(numJobs, actions.size());
+    for (ActionAnalysisMetadata action : actions) {
+      actionShards.add(action);
+    }
+
+    ThrowableRecordingRunnableWrapper wrapper = new ThrowableRecordingRunnableWrapper(
+        "ArtifactConflictFinder#registerActions");
+
+    ExecutorService executor = Executors.newFixedThreadPool(
+        numJobs,
+        new ThreadFactoryBuilder().setNameFormat("ActionLookupValue Processor %d").build());
+    for (List<ActionAnalysisMetadata> shard : actionShards) {
+      executor.execute(wrapper.wrap(actionRegistration(shard, changedPaths)));
+    }
+    boolean interrupted = ExecutorUtil.interruptibleShutdown(executor);
+    Throwables.propagateIfPossible(wrapper.getFirstThrownError());
+    if (interrupted) {
+      throw new InterruptedException();
+    }
+    return changedPaths;
+  }
+
+  private Runnable actionRegistration(
+      final List<ActionAnalysisMetadata> actions, final Set<PathFragment> changedPaths) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        for (ActionAnalysisMetadata action : actions) {
+          try {
+            actionGraph.registerAction(action);
+          } catch (ActionConflictException e) {
+            Exception oldException = actionConflicts.put(action, e);
+            Preconditions.checkState(oldException == null,
+                "%s | %s | %s", action, e, oldException);
+            // The action is already in error, so its outputs don't need to be checked for
+            // prefix conflicts.
+            continue;
+          }
+          for (Artifact output : action.getOutputs()) {
+            artifactPathMap.put(output.getExecPath(), output);
+            changedPaths.add(output.getExecPath());
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Checks all paths for prefix conflicts. The paths above the current one are kept on a stack,
+   * which is empty for most paths.
+   */
+  private void findAllPrefixConflicts() {
+    prefixConflicts.clear();
+    List<PathFragment> ancestors = new ArrayList<>();
+    for (PathFragment path : artifactPathMap.keySet()) {
+      while (!ancestors.isEmpty() && !path.startsWith(ancestors.get(ancestors.size() - 1))) {
+        ancestors.remove(ancestors.size() - 1);
+      }
+      ActionAnalysisMetadata action = getGeneratingAction(path);
+      for (PathFragment ancestor : ancestors) {
+        ActionAnalysisMetadata ancestorAction = getGeneratingAction(ancestor);
+        if (ancestorAction.shouldReportPathPrefixConflict(action)) {
+          ArtifactPrefixConflictException exception =
+              newPrefixConflictException(ancestor, ancestorAction, path, action);
+          if (!prefixConflicts.containsKey(path)) {
+            prefixConflicts.put(path, exception);
+          }
+          if (!prefixConflicts.containsKey(ancestor)) {
+            prefixConflicts.put(ancestor, exception);
+          }
+        }
+      }
+      ancestors.add(path);
+    }
+  }
+
+  /** Checks {@code path}, and the paths above and below it, for prefix conflicts. */
+  private void findPrefixConflictsAround(PathFragment path) {
+    for (PathFragment ancestor : getAncestors(path)) {
+      findPrefixConflicts(ancestor);
+    }
+    findPrefixConflicts(path);
+    for (PathFragment descendant : getDescendants(path)) {
+      findPrefixConflicts(descendant);
+    }
+  }
+
+  /**
+   * Records the first prefix conflict of {@code path} that {@link #findAllPrefixConflicts} would
+   * record: with its outermost ancestor, or else with its first descendant.
+   */
+  private void findPrefixConflicts(PathFragment path) {
+    ArtifactPrefixConflictException exception =
+        artifactPathMap.containsKey(path) ? findPrefixConflict(path) : null;
+    if (exception != null) {
+      prefixConflicts.put(path, exception);
+    } else {
+      prefixConflicts.remove(path);
+    }
+  }
+
+  @Nullable
+  private ArtifactPrefixConflictException findPrefixConflict(PathFragment path) {
+    ActionAnalysisMetadata action = getGeneratingAction(path);
+    for (PathFragment ancestor : getAncestors(path)) {
+      ActionAnalysisMetadata ancestorAction = getGeneratingAction(ancestor);
+      if (ancestorAction.shouldReportPathPrefixConflict(action)) {
+        return newPrefixConflictException(ancestor, ancestorAction, path, action);
+      }
+    }
+    for (PathFragment descendant : getDescendants(path)) {
+      ActionAnalysisMetadata descendantAction = getGeneratingAction(descendant);
+      if (action.shouldReportPathPrefixConflict(descendantAction)) {
+        return newPrefixConflictException(path, action, descendant, descendantAction);
+      }
+    }
+    return null;
+  }
+
+  /** Returns the paths in the map that {@code path} is below, outermost first. */
+  private List<PathFragment> getAncestors(PathFragment path) {
+    List<PathFragment> ancestors = new ArrayList<>();
+    for (int i = 1; i < path.segmentCount(); i++) {
+      PathFragment ancestor = path.subFragment(0, i);
+      if (artifactPathMap.containsKey(ancestor)) {
+        ancestors.add(ancestor);
+      }
+    }
+    return ancestors;
+  }
+
+  /** Returns the paths in the map below {@code path}, in order. */
+  private List<PathFragment> getDescendants(PathFragment path) {
+    List<PathFragment> descendants = new ArrayList<>();
+    for (PathFragment descendant : artifactPathMap.tailMap(path, false).keySet()) {
+      if (!descendant.startsWith(path)) {
+        break;
+      }
+      descendants.add(descendant);
+    }
+    return descendants;
+  }
+
+  private ActionAnalysisMetadata getGeneratingAction(PathFragment path) {
+    Artifact artifact = Preconditions.checkNotNull(artifactPathMap.get(path), path);
+    return Preconditions.checkNotNull(actionGraph.getGeneratingAction(artifact), artifact);
+  }
+
+  private static ArtifactPrefixConflictException newPrefixConflictException(
+      PathFragment prefix, ActionAnalysisMetadata prefixAction,
+      PathFragment path, ActionAnalysisMetadata action) {
+    return new ArtifactPrefixConflictException(
+        prefix, path, prefixAction.getOwner().getLabel(), action.getOwner().getLabel());
+  }
+}
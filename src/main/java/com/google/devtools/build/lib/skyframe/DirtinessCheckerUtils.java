@@ -21,6 +21,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.skyframe.ExternalFilesHelper.FileType;
 import com.google.devtools.build.lib.util.Preconditions;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.RootedPath;
 import com.google.devtools.build.skyframe.SkyKey;
@@ -55,6 +56,27 @@ public class DirtinessCheckerUtils {
         return null;
       }
     }
+
+    @Override
+    public DirtyResult checkWithStat(SkyKey key, @Nullable SkyValue oldValue,
+        @Nullable FileStatusWithDigest statNoFollow, @Nullable TimestampGranularityMonitor tsgm) {
+      return checkNewValue(oldValue, createNewValueWithStat(key, statNoFollow, tsgm));
+    }
+
+    /** Like {@link #createNewValue}, but with a previously obtained lstat of the key's path. */
+    @Nullable
+    static SkyValue createNewValueWithStat(SkyKey key,
+        @Nullable FileStatusWithDigest statNoFollow, @Nullable TimestampGranularityMonitor tsgm) {
+      if (statNoFollow == null) {
+        return FileStateValue.NONEXISTENT_FILE_STATE_NODE;
+      }
+      RootedPath rootedPath = (RootedPath) key.argument();
+      try {
+        return FileStateValue.createWithStatNoFollow(rootedPath, statNoFollow, tsgm);
+      } catch (InconsistentFilesystemException | IOException e) {
+        return null;
+      }
+    }
   }
 
   static class DirectoryDirtinessChecker extends SkyValueDirtinessChecker {
@@ -91,6 +113,13 @@ public class DirtinessCheckerUtils {
     public SkyValue createNewValue(SkyKey key, @Nullable TimestampGranularityMonitor tsgm) {
       return checker.createNewValue(key, tsgm);
     }
+
+    @Override
+    @Nullable
+    public DirtyResult checkWithStat(SkyKey key, @Nullable SkyValue oldValue,
+        @Nullable FileStatusWithDigest statNoFollow, @Nullable TimestampGranularityMonitor tsgm) {
+      return fdc.applies(key) ? fdc.checkWithStat(key, oldValue, statNoFollow, tsgm) : null;
+    }
   }
 
   static final class MissingDiffDirtinessChecker extends BasicFilesystemDirtinessChecker {
@@ -136,7 +165,22 @@ public class DirtinessCheckerUtils {
     @Override
     public SkyValueDirtinessChecker.DirtyResult check(
         SkyKey skyKey, SkyValue oldValue, @Nullable TimestampGranularityMonitor tsgm) {
-      SkyValue newValue = super.createNewValue(skyKey, tsgm);
+      return checkExternal(skyKey, oldValue, super.createNewValue(skyKey, tsgm));
+    }
+
+    @Override
+    @Nullable
+    public DirtyResult checkWithStat(SkyKey key, @Nullable SkyValue oldValue,
+        @Nullable FileStatusWithDigest statNoFollow, @Nullable TimestampGranularityMonitor tsgm) {
+      if (!key.functionName().equals(FILE_STATE)) {
+        return null;
+      }
+      return checkExternal(key, oldValue,
+          FileDirtinessChecker.createNewValueWithStat(key, statNoFollow, tsgm));
+    }
+
+    private DirtyResult checkExternal(SkyKey skyKey, SkyValue oldValue,
+        @Nullable SkyValue newValue) {
       if (Objects.equal(newValue, oldValue)) {
         return SkyValueDirtinessChecker.DirtyResult.notDirty(oldValue);
       }
@@ -185,5 +229,13 @@ public class DirtinessCheckerUtils {
         @Nullable TimestampGranularityMonitor tsgm) {
       return Preconditions.checkNotNull(getChecker(key), key).check(key, oldValue, tsgm);
     }
+
+    @Override
+    @Nullable
+    public DirtyResult checkWithStat(SkyKey key, @Nullable SkyValue oldValue,
+        @Nullable FileStatusWithDigest statNoFollow, @Nullable TimestampGranularityMonitor tsgm) {
+      return Preconditions.checkNotNull(getChecker(key), key)
+          .checkWithStat(key, oldValue, statNoFollow, tsgm);
+    }
   }
 }
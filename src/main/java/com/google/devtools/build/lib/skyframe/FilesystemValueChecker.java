@@ -40,6 +40,7 @@ import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
 import com.google.devtools.build.lib.vfs.ModifiedFileSet;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.RootedPath;
 import com.google.devtools.build.skyframe.Differencer;
 import com.google.devtools.build.skyframe.SkyFunctionName;
 import com.google.devtools.build.skyframe.SkyKey;
@@ -47,6 +48,7 @@ import com.google.devtools.build.skyframe.SkyValue;
 import com.google.devtools.build.skyframe.WalkableGraph;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -72,6 +74,8 @@ import javax.annotation.Nullable;
 public class FilesystemValueChecker {
 
   private static final int DIRTINESS_CHECK_THREADS = 200;
+  // Number of file state keys whose paths are stat'ed together when a BatchStat is available.
+  private static final int BATCH_STAT_SIZE = 1000;
   private static final Logger LOG = Logger.getLogger(FilesystemValueChecker.class.getName());
 
   private static final Predicate<SkyKey> ACTION_FILTER =
@@ -80,13 +84,25 @@ public class FilesystemValueChecker {
   private final TimestampGranularityMonitor tsgm;
   @Nullable
   private final Range<Long> lastExecutionTimeRange;
+  @Nullable
+  private final BatchStat fileStateBatchStatter;
   private AtomicInteger modifiedOutputFilesCounter = new AtomicInteger(0);
   private AtomicInteger modifiedOutputFilesIntraBuildCounter = new AtomicInteger(0);
 
   public FilesystemValueChecker(@Nullable TimestampGranularityMonitor tsgm,
       @Nullable Range<Long> lastExecutionTimeRange) {
+    this(tsgm, lastExecutionTimeRange, null);
+  }
+
+  /**
+   * Creates a checker that, if {@code fileStateBatchStatter} is non-null, uses it to stat the
+   * paths of file state values in batches instead of one by one. It is passed absolute paths.
+   */
+  public FilesystemValueChecker(@Nullable TimestampGranularityMonitor tsgm,
+      @Nullable Range<Long> lastExecutionTimeRange, @Nullable BatchStat fileStateBatchStatter) {
     this.tsgm = tsgm;
     this.lastExecutionTimeRange = lastExecutionTimeRange;
+    this.fileStateBatchStatter = fileStateBatchStatter;
   }
 
   /**
@@ -483,6 +499,7 @@ public class FilesystemValueChecker {
         }
     };
     try (AutoProfiler prof = AutoProfiler.create(elapsedTimeReceiver)) {
+      List<Pair<SkyKey, SkyValue>> batch = new ArrayList<>(BATCH_STAT_SIZE);
       for (final SkyKey key : keys) {
         numKeysScanned.incrementAndGet();
         if (!checker.applies(key)) {
@@ -492,6 +509,16 @@ public class FilesystemValueChecker {
         if (!checkMissingValues && value == null) {
           continue;
         }
+        if (fileStateBatchStatter != null
+            && key.functionName().equals(SkyFunctions.FILE_STATE)) {
+          batch.add(Pair.of(key, value));
+          if (batch.size() == BATCH_STAT_SIZE) {
+            executor.execute(wrapper.wrap(
+                batchStatFileStateJob(batch, checker, batchResult, numKeysChecked)));
+            batch = new ArrayList<>(BATCH_STAT_SIZE);
+          }
+          continue;
+        }
         executor.execute(
             wrapper.wrap(
                 new Runnable() {
@@ -505,6 +532,10 @@ public class FilesystemValueChecker {
                   }
                 }));
       }
+      if (!batch.isEmpty()) {
+        executor.execute(wrapper.wrap(
+            batchStatFileStateJob(batch, checker, batchResult, numKeysChecked)));
+      }
 
       boolean interrupted = ExecutorUtil.interruptibleShutdown(executor);
       Throwables.propagateIfPossible(wrapper.getFirstThrownError());
@@ -515,6 +546,52 @@ public class FilesystemValueChecker {
     return batchResult;
   }
 
+  /**
+   * Returns a job that checks the given file state keys with a single call to the
+   * {@link BatchStat}, falling back to individual checks for keys the checker can't check from
+   * the stat, or for all of them if the batch stat fails.
+   */
+  private Runnable batchStatFileStateJob(final List<Pair<SkyKey, SkyValue>> batch,
+      final SkyValueDirtinessChecker checker, final BatchDirtyResult batchResult,
+      final AtomicInteger numKeysChecked) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        List<PathFragment> paths = new ArrayList<>(batch.size());
+        for (Pair<SkyKey, SkyValue> keyAndValue : batch) {
+          paths.add(((RootedPath) keyAndValue.getFirst().argument()).asPath().asFragment());
+        }
+        List<FileStatusWithDigest> stats;
+        try {
+          stats = fileStateBatchStatter.batchStat(/*includeDigest=*/false,
+              /*includeLinks=*/true, paths);
+          Preconditions.checkState(stats.size() == paths.size(),
+              "paths.size() == %s stats.size() == %s", paths.size(), stats.size());
+        } catch (IOException e) {
+          LOG.log(Level.INFO, "Unable to process batch stat, falling back to stat calls", e);
+          stats = null;
+        } catch (InterruptedException e) {
+          // We handle interrupt in the main thread.
+          return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+          SkyKey key = batch.get(i).getFirst();
+          SkyValue value = batch.get(i).getSecond();
+          numKeysChecked.incrementAndGet();
+          DirtyResult result = stats == null
+              ? null
+              : checker.checkWithStat(key, value, stats.get(i), tsgm);
+          if (result == null) {
+            result = checker.check(key, value, tsgm);
+          }
+          if (result.isDirty()) {
+            batchResult.add(key, value, result.getNewValue());
+          }
+        }
+      }
+    };
+  }
+
   /**
    * Result of a batch call to {@link SkyValueDirtinessChecker#check}. Partitions the dirty
    * values based on whether we have a new value available for them or not.
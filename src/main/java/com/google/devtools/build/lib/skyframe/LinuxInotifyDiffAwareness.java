@@ -0,0 +1,110 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.UnixJniLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A {@link DiffAwareness} that uses inotify directly through JNI to watch the filesystem, in lieu
+ * of {@link WatchServiceDiffAwareness}.
+ *
+ * <p>The JDK WatchService for Linux hands out events one directory at a time through a background
+ * thread, and throws the whole watcher away when the kernel event queue overflows. This
+ * implementation drains the kernel queue with a few large reads per {@link #getCurrentView} call,
+ * keeps its watch table in native code, and survives an overflow by reporting that everything was
+ * modified once.
+ */
+public final class LinuxInotifyDiffAwareness extends LocalDiffAwareness {
+
+  private boolean closed;
+
+  // Keep a pointer to a native structure in the JNI code (the inotify descriptor and the table of
+  // watched directories).
+  private long nativePointer;
+
+  /**
+   * Watch changes on the file system under <code>watchRoot</code>.
+   *
+   * @throws IOException if the directories cannot be watched, e.g. because the per-user limit of
+   *     inotify watches is too low for the tree
+   */
+  LinuxInotifyDiffAwareness(String watchRoot) throws IOException {
+    super(watchRoot);
+    create(watchRootPath.toAbsolutePath().toString());
+  }
+
+  /**
+   * Helper function to start the watch of <code>root</code> and all directories below it, called
+   * by the constructor.
+   */
+  private native void create(String root) throws IOException;
+
+  /**
+   * Close this watch service, this service should not be used any longer after closing.
+   */
+  @Override
+  public synchronized void close() {
+    if (!closed) {
+      closed = true;
+      doClose();
+    }
+  }
+
+  /**
+   * JNI code releasing the inotify descriptor and the watch table.
+   */
+  private native void doClose();
+
+  /**
+   * JNI code returning the list of absolute paths modified since last call, or null if some
+   * events were lost.
+   */
+  private native String[] poll() throws IOException;
+
+  static {
+    UnixJniLoader.loadJni();
+  }
+
+  @Override
+  public synchronized View getCurrentView() throws BrokenDiffAwarenessException {
+    Preconditions.checkState(!closed);
+    String[] modifiedPaths;
+    try {
+      modifiedPaths = poll();
+    } catch (IOException e) {
+      close();
+      throw new BrokenDiffAwarenessException(
+          "Error encountered with local file system watcher " + e);
+    }
+    if (isFirstCall()) {
+      // Changes made while the watches were being set up are not a diff to any view.
+      return newView(ImmutableSet.<Path>of());
+    }
+    if (modifiedPaths == null) {
+      return newEverythingModifiedView();
+    }
+    ImmutableSet.Builder<Path> paths = ImmutableSet.builder();
+    for (String path : modifiedPaths) {
+      paths.add(new File(path).toPath());
+    }
+    return newView(paths.build());
+  }
+}
@@ -28,14 +28,17 @@ import java.nio.file.Path;
 import java.nio.file.WatchService;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 /**
  * File system watcher for local filesystems. It's able to provide a list of changed files between
- * two consecutive calls. On Linux, uses the standard Java WatchService, which uses 'inotify' and,
- * on OS X, uses {@link MacOSXFsEventsDiffAwareness}, which use FSEvents.
+ * two consecutive calls. On Linux, uses {@link LinuxInotifyDiffAwareness}, which uses 'inotify'
+ * directly, and falls back to the standard Java WatchService if that is not available; on OS X,
+ * uses {@link MacOSXFsEventsDiffAwareness}, which use FSEvents.
  *
  * <p>
- * This is an abstract class, specialized by {@link MacOSXFsEventsDiffAwareness} and
- * {@link WatchServiceDiffAwareness}.
+ * This is an abstract class, specialized by {@link LinuxInotifyDiffAwareness},
+ * {@link MacOSXFsEventsDiffAwareness} and {@link WatchServiceDiffAwareness}.
  */
 public abstract class LocalDiffAwareness implements DiffAwareness {
 
@@ -72,6 +75,16 @@ public abstract class LocalDiffAwareness implements DiffAwareness {
       if (OS.getCurrent() == OS.DARWIN) {
         return new MacOSXFsEventsDiffAwareness(resolvedPathEntryFragment.toString());
       }
+      // On Linux, the WatchService delivers the events of one directory at a time from a
+      // background thread, and registering a large tree goes through one JNI call per directory.
+      // The native watcher reads all pending events in a few system calls instead.
+      if (OS.getCurrent() == OS.LINUX) {
+        try {
+          return new LinuxInotifyDiffAwareness(resolvedPathEntryFragment.toString());
+        } catch (IOException e) {
+          // E.g. the inotify watch limit is too low; fall back to the WatchService.
+        }
+      }
 
       WatchService watchService;
       try {
@@ -99,7 +112,8 @@ public abstract class LocalDiffAwareness implements DiffAwareness {
   private static class SequentialView implements DiffAwareness.View {
     private final LocalDiffAwareness owner;
     private final int position;
-    private final Set<Path> modifiedAbsolutePaths;
+    // Null if everything is to be considered modified.
+    @Nullable private final Set<Path> modifiedAbsolutePaths;
 
     public SequentialView(LocalDiffAwareness owner, int position, Set<Path> modifiedAbsolutePaths) {
       this.owner = owner;
@@ -135,6 +149,15 @@ public abstract class LocalDiffAwareness implements DiffAwareness {
     return new SequentialView(this, numGetCurrentViewCalls, modifiedAbsolutePaths);
   }
 
+  /**
+   * Create a new view for when the set of modified paths is unknown, e.g. because the watcher lost
+   * events. The diff to this view is {@link ModifiedFileSet#EVERYTHING_MODIFIED}, but the watcher
+   * stays usable for the following views. This will increase the view counter.
+   */
+  protected SequentialView newEverythingModifiedView() throws BrokenDiffAwarenessException {
+    return newView(null);
+  }
+
   @Override
   public ModifiedFileSet getDiff(View oldView, View newView)
       throws IncompatibleViewException, BrokenDiffAwarenessException {
@@ -146,7 +169,8 @@ public abstract class LocalDiffAwareness implements DiffAwareness {
     } catch (ClassCastException e) {
       throw new IncompatibleViewException("Given views are not from LocalDiffAwareness");
     }
-    if (!SequentialView.areInSequence(oldSequentialView, newSequentialView)) {
+    if (!SequentialView.areInSequence(oldSequentialView, newSequentialView)
+        || newSequentialView.modifiedAbsolutePaths == null) {
       return ModifiedFileSet.EVERYTHING_MODIFIED;
     }
     return ModifiedFileSet.builder()
@@ -15,32 +15,102 @@ package com.google.devtools.build.lib.skyframe;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
-import com.google.devtools.build.lib.util.Pair;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableSet;
 import com.google.devtools.build.lib.vfs.Dirent;
 import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.Symlinks;
 import com.google.devtools.build.lib.vfs.UnixGlob;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
 
 /**
- * A per-build cache of filesystem operations for Skyframe invocations of legacy package loading.
+ * A cache of filesystem operations for Skyframe invocations of legacy package loading.
+ *
+ * <p>An instance is used for one build, and its entries are only valid for that build. The cache
+ * of the next build may start with those that are known to be unchanged, through
+ * {@link #carryOverUnchanged}, which skips everything that may have changed according to the diffs
+ * of the package path entries. Entries for paths that are, or are below, a symlink within their
+ * package path entry are never carried over, since changes to the symlink targets are not part
+ * of the diff of the symlink.
+ *
+ * <p>Lookups are keyed by {@link Path} alone, with one cache per {@link Symlinks} mode, so that a
+ * cache hit does not allocate.
  */
 public class PerBuildSyscallCache implements UnixGlob.FilesystemCalls {
 
-  private final LoadingCache<Pair<Path, Symlinks>, FileStatus> statCache;
-  private final LoadingCache<Pair<Path, Symlinks>, Pair<Collection<Dirent>, IOException>>
-      readdirCache;
+  /** The result of a stat call, and whether it may be reused across builds. */
+  private static final class StatEntry {
+    @Nullable private final FileStatus status;
+    private final boolean reusable;
+
+    private StatEntry(@Nullable FileStatus status, boolean reusable) {
+      this.status = status;
+      this.reusable = reusable;
+    }
+  }
 
-  private static final FileStatus NO_STATUS = new FakeFileStatus();
+  /** The result of a readdir call, and whether it may be reused across builds. */
+  private static final class ReaddirEntry {
+    @Nullable private final Collection<Dirent> dirents;
+    @Nullable private final IOException exception;
+    private final boolean reusable;
 
-  private PerBuildSyscallCache(LoadingCache<Pair<Path, Symlinks>, FileStatus> statCache,
-      LoadingCache<Pair<Path, Symlinks>, Pair<Collection<Dirent>, IOException>> readdirCache) {
-    this.statCache = statCache;
-    this.readdirCache = readdirCache;
+    private ReaddirEntry(
+        @Nullable Collection<Dirent> dirents, @Nullable IOException exception, boolean reusable) {
+      this.dirents = dirents;
+      this.exception = exception;
+      this.reusable = reusable;
+    }
+  }
+
+  private final LoadingCache<Path, StatEntry> lstatCache;
+  private final LoadingCache<Path, StatEntry> statCache;
+  private final LoadingCache<Path, ReaddirEntry> readdirNoFollowCache;
+  private final LoadingCache<Path, ReaddirEntry> readdirCache;
+
+  /**
+   * The package path entries given to {@link #carryOverUnchanged}. Symlinks above them don't
+   * matter for the reusability of entries below them.
+   */
+  private volatile ImmutableSet<Path> roots = ImmutableSet.of();
+
+  private PerBuildSyscallCache(CacheBuilder<Object, Object> statCacheBuilder,
+      CacheBuilder<? super Path, ? super ReaddirEntry> readdirCacheBuilder) {
+    this.lstatCache = statCacheBuilder.build(new CacheLoader<Path, StatEntry>() {
+      @Override
+      public StatEntry load(Path path) {
+        return loadLstat(path);
+      }
+    });
+    this.statCache = statCacheBuilder.build(new CacheLoader<Path, StatEntry>() {
+      @Override
+      public StatEntry load(Path path) {
+        return loadStat(path);
+      }
+    });
+    this.readdirNoFollowCache = readdirCacheBuilder.build(new CacheLoader<Path, ReaddirEntry>() {
+      @Override
+      public ReaddirEntry load(Path path) {
+        return loadReaddir(path, Symlinks.NOFOLLOW);
+      }
+    });
+    this.readdirCache = readdirCacheBuilder.build(new CacheLoader<Path, ReaddirEntry>() {
+      @Override
+      public ReaddirEntry load(Path path) {
+        return loadReaddir(path, Symlinks.FOLLOW);
+      }
+    });
   }
 
   public static Builder newBuilder() {
@@ -51,21 +121,27 @@ public class PerBuildSyscallCache implements UnixGlob.FilesystemCalls {
   public static class Builder {
     private static final int UNSET = -1;
     private int maxStats = UNSET;
-    private int maxReaddirs = UNSET;
+    private long maxReaddirEntries = UNSET;
     private int concurrencyLevel = UNSET;
 
     private Builder() {
     }
 
-    /** Sets the upper bound of the 'stat' cache. This cache is unbounded by default. */
+    /**
+     * Sets the upper bound of each of the 'stat' and 'lstat' caches. These caches are unbounded
+     * by default.
+     */
     public Builder setMaxStats(int maxStats) {
       this.maxStats = maxStats;
       return this;
     }
 
-    /** Sets the upper bound of the 'readdir' cache. This cache is unbounded by default. */
-    public Builder setMaxReaddirs(int maxReaddirs) {
-      this.maxReaddirs = maxReaddirs;
+    /**
+     * Sets the upper bound of the total number of directory entries, plus one per directory, in
+     * each of the 'readdir' caches. These caches are unbounded by default.
+     */
+    public Builder setMaxReaddirEntries(long maxReaddirEntries) {
+      this.maxReaddirEntries = maxReaddirEntries;
       return this;
     }
 
@@ -76,116 +152,200 @@ public class PerBuildSyscallCache implements UnixGlob.FilesystemCalls {
     }
 
     public PerBuildSyscallCache build() {
-      CacheBuilder<Object, Object> statCacheBuilder = CacheBuilder.newBuilder();
+      CacheBuilder<Object, Object> statCacheBuilder = CacheBuilder.newBuilder().recordStats();
       if (maxStats != UNSET) {
         statCacheBuilder = statCacheBuilder.maximumSize(maxStats);
       }
-      CacheBuilder<Object, Object> readdirCacheBuilder = CacheBuilder.newBuilder();
-      if (maxReaddirs != UNSET) {
-        readdirCacheBuilder = readdirCacheBuilder.maximumSize(maxStats);
-      }
+      CacheBuilder<Object, Object> readdirCacheBuilder = CacheBuilder.newBuilder().recordStats();
       if (concurrencyLevel != UNSET) {
         statCacheBuilder = statCacheBuilder.concurrencyLevel(concurrencyLevel);
         readdirCacheBuilder = readdirCacheBuilder.concurrencyLevel(concurrencyLevel);
       }
-      return new PerBuildSyscallCache(statCacheBuilder.build(newStatLoader()),
-          readdirCacheBuilder.build(newReaddirLoader()));
+      if (maxReaddirEntries == UNSET) {
+        return new PerBuildSyscallCache(statCacheBuilder, readdirCacheBuilder);
+      }
+      return new PerBuildSyscallCache(statCacheBuilder,
+          readdirCacheBuilder.maximumWeight(maxReaddirEntries).weigher(READDIR_WEIGHER));
     }
   }
 
+  /** Weighs a listing by its number of entries. */
+  private static final Weigher<Path, ReaddirEntry> READDIR_WEIGHER =
+      new Weigher<Path, ReaddirEntry>() {
+        @Override
+        public int weigh(Path path, ReaddirEntry entry) {
+          return entry.dirents == null ? 1 : 1 + entry.dirents.size();
+        }
+      };
+
   @Override
   public Collection<Dirent> readdir(Path path, Symlinks symlinks) throws IOException {
-    Pair<Collection<Dirent>, IOException> result =
-        readdirCache.getUnchecked(Pair.of(path, symlinks));
-    Collection<Dirent> entries = result.getFirst();
-    if (entries != null) {
-      return entries;
+    ReaddirEntry entry = symlinks == Symlinks.FOLLOW
+        ? readdirCache.getUnchecked(path)
+        : readdirNoFollowCache.getUnchecked(path);
+    if (entry.dirents != null) {
+      return entry.dirents;
     }
-    throw result.getSecond();
+    throw entry.exception;
   }
 
   @Override
   public FileStatus statNullable(Path path, Symlinks symlinks) {
-    FileStatus status = statCache.getUnchecked(Pair.of(path, symlinks));
-    return (status == NO_STATUS) ? null : status;
+    return symlinks == Symlinks.FOLLOW
+        ? statCache.getUnchecked(path).status
+        : lstatCache.getUnchecked(path).status;
   }
 
-  // This is used because the cache implementations don't allow null.
-  private static final class FakeFileStatus implements FileStatus {
-    @Override
-    public long getLastChangeTime() {
-      throw new UnsupportedOperationException();
-    }
+  private StatEntry loadLstat(Path path) {
+    FileStatus status = path.statNullable(Symlinks.NOFOLLOW);
+    return new StatEntry(status, !isBelowSymlink(path));
+  }
 
-    @Override
-    public long getNodeId() {
-      throw new UnsupportedOperationException();
+  /** Returns whether some ancestor of {@code path} below its package path entry is a symlink. */
+  private boolean isBelowSymlink(Path path) {
+    Path parent = path.getParentDirectory();
+    if (parent == null || roots.contains(path)) {
+      return false;
     }
+    StatEntry parentEntry = lstatCache.getUnchecked(parent);
+    return !parentEntry.reusable
+        || (parentEntry.status != null && parentEntry.status.isSymbolicLink());
+  }
 
-    @Override
-    public long getLastModifiedTime() {
-      throw new UnsupportedOperationException();
+  private StatEntry loadStat(Path path) {
+    // Most paths aren't symlinks, in which case the lstat result is the answer.
+    StatEntry lstatEntry = lstatCache.getUnchecked(path);
+    if (lstatEntry.status == null || !lstatEntry.status.isSymbolicLink()) {
+      return lstatEntry;
     }
+    return new StatEntry(path.statNullable(Symlinks.FOLLOW), false);
+  }
 
-    @Override
-    public long getSize() {
-      throw new UnsupportedOperationException();
+  private ReaddirEntry loadReaddir(Path path, Symlinks symlinks) {
+    StatEntry lstatEntry = lstatCache.getUnchecked(path);
+    boolean reusable = lstatEntry.reusable
+        && (lstatEntry.status == null || !lstatEntry.status.isSymbolicLink());
+    if (symlinks == Symlinks.FOLLOW) {
+      // Following symlinks only changes the types of the symlink entries; if there are none, the
+      // listing without following them is the answer.
+      ReaddirEntry noFollowEntry = readdirNoFollowCache.getUnchecked(path);
+      if (noFollowEntry.dirents == null || !hasSymlink(noFollowEntry.dirents)) {
+        return noFollowEntry;
+      }
+      reusable = false;
+    }
+    try {
+      // TODO(bazel-team): Consider storing the Collection of Dirent values more compactly
+      // by reusing DirectoryEntryListingStateValue#CompactSortedDirents.
+      return new ReaddirEntry(path.readdir(symlinks), null, reusable);
+    } catch (IOException e) {
+      return new ReaddirEntry(null, e, reusable);
     }
+  }
 
-    @Override
-    public boolean isDirectory() {
-      throw new UnsupportedOperationException();
+  private static boolean hasSymlink(Collection<Dirent> dirents) {
+    for (Dirent dirent : dirents) {
+      if (dirent.getType() == Dirent.Type.SYMLINK) {
+        return true;
+      }
     }
+    return false;
+  }
 
-    @Override
-    public boolean isFile() {
-      throw new UnsupportedOperationException();
+  /**
+   * Starts this cache, which must not have been used yet, with the entries of the cache of the
+   * last build that are below the given package path entries and not affected by the modified
+   * files given for that entry, relative to it. Package path entries without precise diff
+   * information must not be in the map. At most {@code maxStats} entries of each of the 'stat' and
+   * 'lstat' caches and {@code maxReaddirEntries} directory entries, plus one per directory, of
+   * each of the 'readdir' caches are carried over, so that a cache that is kept across builds
+   * stays bounded; within a build, the cache is only bounded as set by its {@link Builder}.
+   */
+  public void carryOverUnchanged(PerBuildSyscallCache lastBuildCache,
+      Map<Path, ? extends Iterable<PathFragment>> modifiedFilesByRoot, int maxStats,
+      long maxReaddirEntries) {
+    Set<Path> modified = new HashSet<>();
+    // A listing changes with the files in it, and a directory is not necessarily reported as
+    // modified when entries are added to or removed from it.
+    Set<Path> modifiedListings = new HashSet<>();
+    for (Map.Entry<Path, ? extends Iterable<PathFragment>> entry :
+        modifiedFilesByRoot.entrySet()) {
+      for (PathFragment modifiedFile : entry.getValue()) {
+        Path path = entry.getKey().getRelative(modifiedFile);
+        modified.add(path);
+        modifiedListings.add(path.getParentDirectory());
+      }
     }
+    roots = ImmutableSet.copyOf(modifiedFilesByRoot.keySet());
+    carryOverStats(lastBuildCache.lstatCache, lstatCache, modified, maxStats);
+    carryOverStats(lastBuildCache.statCache, statCache, modified, maxStats);
+    carryOverReaddirs(lastBuildCache.readdirNoFollowCache, readdirNoFollowCache, modified,
+        modifiedListings, maxReaddirEntries);
+    carryOverReaddirs(lastBuildCache.readdirCache, readdirCache, modified, modifiedListings,
+        maxReaddirEntries);
+  }
 
-    @Override
-    public boolean isSpecialFile() {
-      throw new UnsupportedOperationException();
+  private void carryOverStats(LoadingCache<Path, StatEntry> from, LoadingCache<Path, StatEntry> to,
+      Set<Path> modified, int maxStats) {
+    int carriedOver = 0;
+    for (Map.Entry<Path, StatEntry> entry : from.asMap().entrySet()) {
+      if (carriedOver >= maxStats) {
+        return;
+      }
+      if (entry.getValue().reusable && isUnchanged(entry.getKey(), modified)) {
+        to.put(entry.getKey(), entry.getValue());
+        carriedOver++;
+      }
     }
+  }
 
-    @Override
-    public boolean isSymbolicLink() {
-      throw new UnsupportedOperationException();
+  private void carryOverReaddirs(LoadingCache<Path, ReaddirEntry> from,
+      LoadingCache<Path, ReaddirEntry> to, Set<Path> modified, Set<Path> modifiedListings,
+      long maxReaddirEntries) {
+    long remaining = maxReaddirEntries;
+    for (Map.Entry<Path, ReaddirEntry> entry : from.asMap().entrySet()) {
+      int weight = READDIR_WEIGHER.weigh(entry.getKey(), entry.getValue());
+      if (weight <= remaining
+          && entry.getValue().reusable
+          && !modifiedListings.contains(entry.getKey())
+          && isUnchanged(entry.getKey(), modified)) {
+        to.put(entry.getKey(), entry.getValue());
+        remaining -= weight;
+      }
     }
   }
 
   /**
-   * A {@link CacheLoader} for a cache of stat calls.
-   * Input: (path, following_symlinks)
-   * Output: FileStatus
+   * Returns whether {@code path} is below one of the roots, and neither it nor its ancestors are
+   * modified.
    */
-  private static CacheLoader<Pair<Path, Symlinks>, FileStatus> newStatLoader() {
-    return new CacheLoader<Pair<Path, Symlinks>, FileStatus>() {
-        @Override
-        public FileStatus load(Pair<Path, Symlinks> p) {
-          FileStatus f = p.first.statNullable(p.second);
-          return (f == null) ? NO_STATUS : f;
-        }
-      };
+  private boolean isUnchanged(Path path, Set<Path> modified) {
+    for (Path ancestor = path; ancestor != null; ancestor = ancestor.getParentDirectory()) {
+      if (modified.contains(ancestor)) {
+        return false;
+      }
+      if (roots.contains(ancestor)) {
+        return true;
+      }
+    }
+    return false;
   }
 
-  /**
-   * A {@link CacheLoader} for a cache of readdir calls.
-   * Input: (path, following_symlinks)
-   * Output: A union of (Dirents, IOException).
-   */
-  private static
-  CacheLoader<Pair<Path, Symlinks>, Pair<Collection<Dirent>, IOException>> newReaddirLoader() {
-    return new CacheLoader<Pair<Path, Symlinks>, Pair<Collection<Dirent>, IOException>>() {
-        @Override
-        public Pair<Collection<Dirent>, IOException> load(Pair<Path, Symlinks> p) {
-          try {
-            // TODO(bazel-team): Consider storing the Collection of Dirent values more compactly
-            // by reusing DirectoryEntryListingStateValue#CompactSortedDirents.
-            return Pair.of(p.first.readdir(p.second), null);
-          } catch (IOException e) {
-            return Pair.of(null, e);
-          }
-        }
-      };
+  /** Drops all entries. */
+  public void clear() {
+    lstatCache.invalidateAll();
+    statCache.invalidateAll();
+    readdirNoFollowCache.invalidateAll();
+    readdirCache.invalidateAll();
+  }
+
+  /** Returns the hit, miss and eviction counts of the 'stat' and 'lstat' caches. */
+  public CacheStats getStatStats() {
+    return lstatCache.stats().plus(statCache.stats());
+  }
+
+  /** Returns the hit, miss and eviction counts of the 'readdir' caches. */
+  public CacheStats getReaddirStats() {
+    return readdirNoFollowCache.stats().plus(readdirCache.stats());
   }
 }
@@ -54,6 +54,7 @@ import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
 import com.google.devtools.build.lib.vfs.ModifiedFileSet;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.UnixGlob;
 import com.google.devtools.build.skyframe.BuildDriver;
 import com.google.devtools.build.skyframe.Differencer;
 import com.google.devtools.build.skyframe.InMemoryMemoizingEvaluator;
@@ -70,6 +71,7 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -77,6 +79,8 @@ import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
+
 /**
  * A SkyframeExecutor that implicitly assumes that builds can be done incrementally from the most
  * recent build. In other words, builds are "sequenced".
@@ -85,6 +89,11 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
 
   private static final Logger LOG = Logger.getLogger(SequencedSkyframeExecutor.class.getName());
 
+  // Bounds of the syscall cache entries that are carried over from one build to the next, so that
+  // they stay below about 100MB with typical entry sizes. The cache of a build is not bounded.
+  private static final int SYSCALL_CACHE_MAX_CARRIED_OVER_STATS = 1 << 18;
+  private static final long SYSCALL_CACHE_MAX_CARRIED_OVER_READDIR_ENTRIES = 1 << 19;
+
   /** Lower limit for number of loaded packages to consider clearing CT values. */
   private int valueCacheEvictionLimit = -1;
 
@@ -260,9 +269,11 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
       TimestampGranularityMonitor tsgm)
           throws InterruptedException, AbruptExitException {
     this.valueCacheEvictionLimit = packageCacheOptions.minLoadedPkgCountForCtNodeEviction;
+    UnixGlob.FilesystemCalls lastSyscalls = syscalls.get();
     super.sync(eventHandler, packageCacheOptions, outputBase, workingDirectory,
         defaultsPackageContents, commandId, tsgm);
-    handleDiffs(eventHandler, packageCacheOptions.checkOutputFiles);
+    handleDiffs(eventHandler, packageCacheOptions.checkOutputFiles,
+        lastSyscalls instanceof PerBuildSyscallCache ? (PerBuildSyscallCache) lastSyscalls : null);
   }
 
   /**
@@ -317,11 +328,16 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
    */
   @VisibleForTesting
   public void handleDiffs(EventHandler eventHandler) throws InterruptedException {
-    handleDiffs(eventHandler, /*checkOutputFiles=*/ false);
+    handleDiffs(eventHandler, /*checkOutputFiles=*/ false, /*lastSyscallCache=*/ null);
   }
 
-  private void handleDiffs(EventHandler eventHandler, boolean checkOutputFiles)
-      throws InterruptedException {
+  /**
+   * Uses diff awareness on all the package paths to invalidate changed files. If
+   * {@code lastSyscallCache} is given, its entries that are known to be unchanged are carried over
+   * to the syscall cache of the new build.
+   */
+  private void handleDiffs(EventHandler eventHandler, boolean checkOutputFiles,
+      @Nullable PerBuildSyscallCache lastSyscallCache) throws InterruptedException {
     if (lastAnalysisDiscarded) {
       // Values were cleared last build, but they couldn't be deleted because they were needed for
       // the execution phase. We can delete them now.
@@ -343,11 +359,33 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
         modifiedFilesByPathEntry.put(pathEntry, modifiedFileSet);
       }
     }
+    if (lastSyscallCache != null) {
+      carryOverUnchangedSyscalls(lastSyscallCache, modifiedFilesByPathEntry);
+    }
     handleDiffsWithCompleteDiffInformation(tsgm, modifiedFilesByPathEntry);
     handleDiffsWithMissingDiffInformation(eventHandler, tsgm, pathEntriesWithoutDiffInformation,
         checkOutputFiles);
   }
 
+  private void carryOverUnchangedSyscalls(PerBuildSyscallCache lastSyscallCache,
+      Map<Path, DiffAwarenessManager.ProcessableModifiedFileSet> modifiedFilesByPathEntry) {
+    LOG.info(String.format("Syscall cache of the last build: stat %s, readdir %s",
+        lastSyscallCache.getStatStats(), lastSyscallCache.getReaddirStats()));
+    UnixGlob.FilesystemCalls currentSyscalls = syscalls.get();
+    if (!(currentSyscalls instanceof PerBuildSyscallCache)) {
+      return;
+    }
+    Map<Path, ImmutableSet<PathFragment>> modifiedSourceFilesByPathEntry = new HashMap<>();
+    for (Map.Entry<Path, DiffAwarenessManager.ProcessableModifiedFileSet> entry :
+        modifiedFilesByPathEntry.entrySet()) {
+      modifiedSourceFilesByPathEntry.put(entry.getKey(),
+          entry.getValue().getModifiedFileSet().modifiedSourceFiles());
+    }
+    ((PerBuildSyscallCache) currentSyscalls).carryOverUnchanged(lastSyscallCache,
+        modifiedSourceFilesByPathEntry, SYSCALL_CACHE_MAX_CARRIED_OVER_STATS,
+        SYSCALL_CACHE_MAX_CARRIED_OVER_READDIR_ENTRIES);
+  }
+
   /**
    * Invalidates files under path entries whose corresponding {@link DiffAwareness} gave an exact
    * diff. Removes entries from the given map as they are processed. All of the files need to be
@@ -392,7 +430,8 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
     buildDriver.evaluate(ImmutableList.<SkyKey>of(), false,
         DEFAULT_THREAD_COUNT, eventHandler);
 
-    FilesystemValueChecker fsvc = new FilesystemValueChecker(tsgm, null);
+    FilesystemValueChecker fsvc =
+        new FilesystemValueChecker(tsgm, null, getSourceFileBatchStatter());
     // We need to manually check for changes to known files. This entails finding all dirty file
     // system values under package roots for which we don't have diff information. If at least
     // one path entry doesn't have diff information, then we're going to have to iterate over
@@ -554,6 +593,9 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
   private void discardAnalysisCache(Collection<ConfiguredTarget> topLevelTargets) {
     try (AutoProfiler p = AutoProfiler.logged("discarding analysis cache", LOG)) {
       lastAnalysisDiscarded = true;
+      // The conflicts of this build have been found; the index would keep the actions of the
+      // discarded configured targets alive.
+      clearArtifactConflictIndex();
       for (Map.Entry<SkyKey, SkyValue> entry : memoizingEvaluator.getValues().entrySet()) {
         if (!entry.getKey().functionName().equals(SkyFunctions.CONFIGURED_TARGET)) {
           continue;
@@ -576,6 +618,7 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
   public void dropConfiguredTargets() {
     skyframeBuildView.clearInvalidatedConfiguredTargets();
     skyframeBuildView.clearLegacyData();
+    clearArtifactConflictIndex();
     memoizingEvaluator.delete(
         // We delete any value that can hold an action -- all subclasses of ActionLookupValue -- as
         // well as ActionExecutionValues, since they do not depend on ActionLookupValues.
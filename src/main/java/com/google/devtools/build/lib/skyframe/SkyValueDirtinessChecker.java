@@ -15,6 +15,7 @@ package com.google.devtools.build.lib.skyframe;
 
 import com.google.devtools.build.lib.util.Preconditions;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 
@@ -41,7 +42,26 @@ public abstract class SkyValueDirtinessChecker {
    */
   public DirtyResult check(SkyKey key, @Nullable SkyValue oldValue,
       @Nullable TimestampGranularityMonitor tsgm) {
-    SkyValue newValue = createNewValue(key, tsgm);
+    return checkNewValue(oldValue, createNewValue(key, tsgm));
+  }
+
+  /**
+   * Like {@link #check}, for a {@link SkyFunctions#FILE_STATE} key whose path was already lstat'ed
+   * as part of a {@link com.google.devtools.build.lib.vfs.BatchStat}. {@code statNoFollow} is null
+   * iff the path does not exist.
+   *
+   * <p>Returns null if this checker cannot make use of the stat, in which case callers should
+   * fall back to {@link #check}.
+   */
+  @Nullable
+  public DirtyResult checkWithStat(SkyKey key, @Nullable SkyValue oldValue,
+      @Nullable FileStatusWithDigest statNoFollow, @Nullable TimestampGranularityMonitor tsgm) {
+    return null;
+  }
+
+  /** Compares a freshly computed value, or null if none could be computed, to the old one. */
+  protected static DirtyResult checkNewValue(@Nullable SkyValue oldValue,
+      @Nullable SkyValue newValue) {
     if (newValue == null) {
       return DirtyResult.dirty(oldValue);
     }
@@ -118,6 +118,7 @@ import com.google.devtools.build.lib.vfs.ModifiedFileSet;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.RootedPath;
+import com.google.devtools.build.lib.vfs.UnixBatchStat;
 import com.google.devtools.build.lib.vfs.UnixGlob;
 import com.google.devtools.build.skyframe.BuildDriver;
 import com.google.devtools.build.skyframe.CycleInfo;
@@ -561,11 +562,20 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
    */
   public void resetEvaluator() {
     init();
+    skyframeActionExecutor.clearArtifactConflictIndex();
     emittedEventState.clear();
     skyframeBuildView.clearLegacyData();
     reinjectConstantValuesLazily();
   }
 
+  /**
+   * Drops the index of the actions that artifact conflicts are checked against, so that it does
+   * not keep deleted actions alive.
+   */
+  protected void clearArtifactConflictIndex() {
+    skyframeActionExecutor.clearArtifactConflictIndex();
+  }
+
   protected abstract Differencer evaluatorDiffer();
 
   protected abstract BuildDriver newBuildDriver();
@@ -1035,11 +1045,6 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     return configurationValue.getConfigurationCollection();
   }
 
-  private Iterable<ActionLookupValue> getActionLookupValues() {
-    // This filter keeps subclasses of ActionLookupValue.
-    return Iterables.filter(memoizingEvaluator.getDoneValues().values(), ActionLookupValue.class);
-  }
-
   @SuppressWarnings({"unchecked", "rawtypes"})
   Map<SkyKey, ActionLookupValue> getActionLookupValueMap() {
     return (Map) Maps.filterValues(memoizingEvaluator.getDoneValues(),
@@ -1058,7 +1063,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
       // This operation is somewhat expensive, so we only do it if the graph might have changed in
       // some way -- either we analyzed a new target or we invalidated an old one.
       try (AutoProfiler p = AutoProfiler.logged("discovering artifact conflicts", LOG)) {
-        skyframeActionExecutor.findAndStoreArtifactConflicts(getActionLookupValues());
+        skyframeActionExecutor.findAndStoreArtifactConflicts(getActionLookupValueMap());
         skyframeBuildView.resetEvaluatedConfiguredTargetFlag();
         // The invalidated configured targets flag will be reset later in the evaluate() call.
       }
@@ -1089,8 +1094,8 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     Preconditions.checkState(actionLogBufferPathGenerator != null);
 
     skyframeActionExecutor.prepareForExecution(
-        reporter, executor, keepGoing, explain, actionCacheChecker,
-        finalizeActionsToOutputService ? outputService : null);
+        reporter, executor, keepGoing, explain, actionCacheChecker, outputService,
+        finalizeActionsToOutputService);
 
     resourceManager.resetResourceUsage();
     try {
@@ -1117,7 +1122,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   public void prepareBuildingForTestingOnly(Reporter reporter, Executor executor, boolean keepGoing,
       boolean explain, ActionCacheChecker checker) {
     skyframeActionExecutor.prepareForExecution(reporter, executor, keepGoing, explain, checker,
-        outputService);
+        outputService, /*finalizeActions=*/true);
   }
 
   EvaluationResult<TargetPatternValue> targetPatterns(Iterable<SkyKey> patternSkyKeys,
@@ -1665,6 +1670,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
             workingDirectory),
         packageCacheOptions.defaultVisibility, packageCacheOptions.showLoadingProgress,
         packageCacheOptions.globbingThreads, defaultsPackageContents, commandId, tsgm);
+    pkgFactory.setBuildFileEvaluationThreads(packageCacheOptions.buildFileEvaluationThreads);
     setDeletedPackages(packageCacheOptions.getDeletedPackages());
 
     incrementalBuildMonitor = new SkyframeIncrementalBuildMonitor();
@@ -1714,6 +1720,9 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     FilesystemValueChecker fsvc =
         new FilesystemValueChecker(Preconditions.checkNotNull(tsgm.get()), lastExecutionTimeRange);
     BatchStat batchStatter = outputService == null ? null : outputService.getBatchStatter();
+    if (batchStatter == null) {
+      batchStatter = UnixBatchStat.createIfSupported(directories.getExecRoot());
+    }
     invalidateDirtyActions(fsvc.getDirtyActionValues(memoizingEvaluator.getValues(),
         batchStatter, modifiedOutputFiles));
     modifiedFiles += fsvc.getNumberOfModifiedOutputFiles();
@@ -1724,6 +1733,16 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
 
   protected abstract void invalidateDirtyActions(Iterable<SkyKey> dirtyActionValues);
 
+  /**
+   * Returns a {@link BatchStat} for the absolute paths of source files, used to check them for
+   * changes when no {@link DiffAwareness} is available, or null if the file system has none.
+   */
+  @Nullable
+  protected BatchStat getSourceFileBatchStatter() {
+    return UnixBatchStat.createIfSupported(
+        directories.getExecRoot().getFileSystem().getRootDirectory());
+  }
+
   @VisibleForTesting void maybeInjectEmbeddedArtifacts() throws AbruptExitException {
     // The blaze client already ensures that the contents of the embedded binaries never change,
     // so we just need to make sure that the appropriate artifacts are present in the skyframe
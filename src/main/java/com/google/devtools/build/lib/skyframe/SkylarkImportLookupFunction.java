@@ -31,6 +31,8 @@ import com.google.devtools.build.lib.events.StoredEventHandler;
 import com.google.devtools.build.lib.packages.BuildFileNotFoundException;
 import com.google.devtools.build.lib.packages.PackageFactory;
 import com.google.devtools.build.lib.packages.RuleClassProvider;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.rules.SkylarkRuleClassFunctions;
 import com.google.devtools.build.lib.skyframe.SkylarkImportLookupValue.SkylarkImportLookupKey;
 import com.google.devtools.build.lib.syntax.BuildFileAST;
@@ -362,11 +364,14 @@ public class SkylarkImportLookupFunction implements SkyFunction {
               .createSkylarkRuleClassEnvironment(
                   extensionLabel, mutability, eventHandler, ast.getContentHashCode(), importMap)
               .setupOverride("native", packageFactory.getNativeModule(inWorkspace));
-      ast.exec(extensionEnv, eventHandler);
+      Profiler.instance().startTask(ProfilerTask.SKYLARK_EXTENSION_EVAL, extensionLabel.toString());
       try {
+        ast.exec(extensionEnv, eventHandler);
         SkylarkRuleClassFunctions.exportRuleFunctionsAndAspects(extensionEnv, extensionLabel);
       } catch (EvalException e) {
         eventHandler.handle(Event.error(e.getLocation(), e.getMessage()));
+      } finally {
+        Profiler.instance().completeTask(ProfilerTask.SKYLARK_EXTENSION_EVAL);
       }
 
       Event.replayEventsOn(env.getListener(), eventHandler.getEvents());
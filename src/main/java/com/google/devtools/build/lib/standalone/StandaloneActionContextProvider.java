@@ -15,6 +15,7 @@ package com.google.devtools.build.lib.standalone;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.devtools.build.lib.actions.Action;
 import com.google.devtools.build.lib.actions.ActionContextProvider;
 import com.google.devtools.build.lib.actions.ActionExecutionContext;
@@ -25,16 +26,19 @@ import com.google.devtools.build.lib.actions.Executor.ActionContext;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.exec.FileWriteStrategy;
+import com.google.devtools.build.lib.rules.cpp.CachingIncludeScanner;
+import com.google.devtools.build.lib.rules.cpp.CppOptions;
 import com.google.devtools.build.lib.rules.cpp.IncludeScanningContext;
 import com.google.devtools.build.lib.rules.cpp.SpawnGccStrategy;
 import com.google.devtools.build.lib.rules.cpp.SpawnLinkStrategy;
 import com.google.devtools.build.lib.rules.test.ExclusiveTestStrategy;
 import com.google.devtools.build.lib.rules.test.StandaloneTestStrategy;
-import com.google.devtools.build.lib.rules.test.TestActionContext;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Provide a standalone, local execution context.
@@ -64,13 +68,28 @@ public class StandaloneActionContextProvider extends ActionContextProvider {
   }
 
   private final CommandEnvironment env;
+  private final StandaloneTestStrategy testStrategy;
   private final ImmutableList<ActionContext> strategies;
+  private final ExecutorService includeScanningExecutor;
 
-  public StandaloneActionContextProvider(CommandEnvironment env, BuildRequest buildRequest) {
+  public StandaloneActionContextProvider(CommandEnvironment env, BuildRequest buildRequest,
+      CachingIncludeScanner.InclusionCache inclusionCache) {
     this.env = env;
     boolean verboseFailures = buildRequest.getOptions(ExecutionOptions.class).verboseFailures;
 
-    TestActionContext testStrategy =
+    CppOptions cppOptions = buildRequest.getOptions(CppOptions.class);
+    CachingIncludeScanner.Supplier includeScannerSupplier = null;
+    if (cppOptions != null && cppOptions.builtinIncludeScanning) {
+      includeScanningExecutor = Executors.newFixedThreadPool(
+          Math.max(1, buildRequest.getBuildOptions().jobs),
+          new ThreadFactoryBuilder().setNameFormat("include-scanner %d").build());
+      includeScannerSupplier = new CachingIncludeScanner.Supplier(
+          env.getExecRoot(), inclusionCache, includeScanningExecutor);
+    } else {
+      includeScanningExecutor = null;
+    }
+
+    testStrategy =
         new StandaloneTestStrategy(
             buildRequest, env.getBlazeWorkspace().getBinTools(), env.getClientEnv(),
             env.getWorkspace());
@@ -87,7 +106,7 @@ public class StandaloneActionContextProvider extends ActionContextProvider {
             env.getRuntime().getProductName()),
         new DummyIncludeScanningContext(),
         new SpawnLinkStrategy(),
-        new SpawnGccStrategy(),
+        new SpawnGccStrategy(includeScannerSupplier),
         testStrategy,
         new ExclusiveTestStrategy(testStrategy),
         new FileWriteStrategy());
@@ -99,4 +118,12 @@ public class StandaloneActionContextProvider extends ActionContextProvider {
   public Iterable<ActionContext> getActionContexts() {
     return strategies;
   }
+
+  @Override
+  public void executionPhaseEnding() {
+    testStrategy.reportTestResultCacheStatistics(env.getReporter());
+    if (includeScanningExecutor != null) {
+      includeScanningExecutor.shutdownNow();
+    }
+  }
 }
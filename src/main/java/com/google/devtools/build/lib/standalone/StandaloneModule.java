@@ -18,6 +18,7 @@ import com.google.common.eventbus.Subscribe;
 import com.google.devtools.build.lib.actions.ActionContextProvider;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.buildtool.buildevent.BuildStartingEvent;
+import com.google.devtools.build.lib.rules.cpp.CachingIncludeScanner;
 import com.google.devtools.build.lib.runtime.BlazeModule;
 import com.google.devtools.build.lib.runtime.Command;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
@@ -26,13 +27,16 @@ import com.google.devtools.build.lib.runtime.CommandEnvironment;
  * StandaloneModule provides pluggable functionality for blaze.
  */
 public class StandaloneModule extends BlazeModule {
+  // The inclusions of unchanged files are reused across builds.
+  private final CachingIncludeScanner.InclusionCache inclusionCache =
+      new CachingIncludeScanner.InclusionCache();
   private CommandEnvironment env;
   private BuildRequest buildRequest;
 
   @Override
   public Iterable<ActionContextProvider> getActionContextProviders() {
     return ImmutableList.<ActionContextProvider>of(
-        new StandaloneActionContextProvider(env, buildRequest));
+        new StandaloneActionContextProvider(env, buildRequest, inclusionCache));
   }
 
   @Override
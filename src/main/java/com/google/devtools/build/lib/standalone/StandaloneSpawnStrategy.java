@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.standalone;
 import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.lib.actions.ActionExecutionContext;
 import com.google.devtools.build.lib.actions.ActionStatusMessage;
+import com.google.devtools.build.lib.actions.EnvironmentalExecException;
 import com.google.devtools.build.lib.actions.ExecException;
 import com.google.devtools.build.lib.actions.ExecutionStrategy;
 import com.google.devtools.build.lib.actions.Executor;
@@ -37,6 +38,7 @@ import com.google.devtools.build.lib.util.io.FileOutErr;
 import com.google.devtools.build.lib.vfs.Path;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -100,8 +102,8 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
       args.add(Integer.toString(timeout));
       args.add("5"); /* kill delay: give some time to print stacktraces and whatnot. */
 
-      // TODO(bazel-team): use process-wrapper redirection so we don't have to
-      // pass test logs through the Java heap.
+      // The output is redirected below, where possible. process-wrapper would truncate the files,
+      // which loses the output of earlier spawns of the same action.
       args.add("-"); /* stdout. */
       args.add("-"); /* stderr. */
     }
@@ -113,12 +115,26 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
 
     FileOutErr outErr = actionExecutionContext.getFileOutErr();
     try {
-      cmd.execute(
-          /* stdin */ new byte[] {},
-          Command.NO_OBSERVER,
-          outErr.getOutputStream(),
-          outErr.getErrorStream(),
-          /*killSubprocessOnInterrupt*/ true);
+      if (canRedirect(outErr, executor.getExecRoot())) {
+        // The subprocess writes to the files itself, so its output doesn't pass through the
+        // Java heap and no threads are needed to copy it.
+        outErr.prepareForDirectWrites();
+        cmd.execute(
+            /* stdin */ new byte[] {},
+            Command.NO_OBSERVER,
+            outErr.getOutputPath().getPathFile(),
+            outErr.getErrorPath().getPathFile(),
+            /*killSubprocessOnInterrupt*/ true);
+      } else {
+        cmd.execute(
+            /* stdin */ new byte[] {},
+            Command.NO_OBSERVER,
+            outErr.getOutputStream(),
+            outErr.getErrorStream(),
+            /*killSubprocessOnInterrupt*/ true);
+      }
+    } catch (IOException e) {
+      throw new EnvironmentalExecException("Could not prepare the output files of the action", e);
     } catch (AbnormalTerminationException e) {
       TerminationStatus status = e.getResult().getTerminationStatus();
       boolean timedOut = !status.exited() && (status.getTerminatingSignal() == 14 /* SIGALRM */);
@@ -133,6 +149,19 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
     }
   }
 
+  /**
+   * Returns whether a subprocess can write to the files of {@code outErr} directly, that is,
+   * whether they are real files on the local disk.
+   */
+  private static boolean canRedirect(FileOutErr outErr, Path execRoot) {
+    Path stdout = outErr.getOutputPath();
+    Path stderr = outErr.getErrorPath();
+    return stdout != null
+        && stderr != null
+        && stdout.getFileSystem() == execRoot.getFileSystem()
+        && stderr.getFileSystem() == execRoot.getFileSystem();
+  }
+
   @Override
   public String toString() {
     return "standalone";
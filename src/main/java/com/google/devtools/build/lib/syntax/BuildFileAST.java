@@ -148,27 +148,42 @@ public class BuildFileAST extends ASTNode {
   public boolean exec(Environment env, EventHandler eventHandler) throws InterruptedException {
     boolean ok = true;
     for (Statement stmt : stmts) {
-      try {
-        stmt.exec(env);
-      } catch (EvalException e) {
+      if (!execTopLevelStatement(stmt, env, eventHandler)) {
         ok = false;
-        // Do not report errors caused by a previous parsing error, as it has already been
-        // reported.
-        if (e.isDueToIncompleteAST()) {
-          continue;
-        }
-        // When the exception is raised from another file, report first the location in the
-        // BUILD file (as it is the most probable cause for the error).
-        Location exnLoc = e.getLocation();
-        Location nodeLoc = stmt.getLocation();
-        eventHandler.handle(Event.error(
-            (exnLoc == null || !nodeLoc.getPath().equals(exnLoc.getPath())) ? nodeLoc : exnLoc,
-            e.getMessage()));
       }
     }
     return ok;
   }
 
+  /**
+   * Executes one top-level statement of this build file in a given Environment, like {@link
+   * #exec(Environment, EventHandler)} does, and reports an {@link EvalException} thrown by it
+   * through the reporter.
+   *
+   * @return true if no error occurred during execution.
+   */
+  public boolean execTopLevelStatement(Statement stmt, Environment env, EventHandler eventHandler)
+      throws InterruptedException {
+    try {
+      stmt.exec(env);
+      return true;
+    } catch (EvalException e) {
+      // Do not report errors caused by a previous parsing error, as it has already been
+      // reported.
+      if (e.isDueToIncompleteAST()) {
+        return false;
+      }
+      // When the exception is raised from another file, report first the location in the
+      // BUILD file (as it is the most probable cause for the error).
+      Location exnLoc = e.getLocation();
+      Location nodeLoc = stmt.getLocation();
+      eventHandler.handle(Event.error(
+          (exnLoc == null || !nodeLoc.getPath().equals(exnLoc.getPath())) ? nodeLoc : exnLoc,
+          e.getMessage()));
+      return false;
+    }
+  }
+
   @Override
   public String toString() {
     return "BuildFileAST" + getStatements();
@@ -231,11 +246,21 @@ public class BuildFileAST extends ASTNode {
 
   public static BuildFileAST parseSkylarkFile(Path file, long fileSize, EventHandler eventHandler,
       ValidationEnvironment validationEnvironment) throws IOException {
+    return parseSkylarkFile(file, fileSize, file.getMD5Digest(), eventHandler,
+        validationEnvironment);
+  }
+
+  /**
+   * Like {@link #parseSkylarkFile(Path, long, EventHandler, ValidationEnvironment)}, for a file
+   * whose MD5 digest is known to be {@code md5Digest}.
+   */
+  public static BuildFileAST parseSkylarkFile(Path file, long fileSize, byte[] md5Digest,
+      EventHandler eventHandler, ValidationEnvironment validationEnvironment) throws IOException {
     ParserInputSource input = ParserInputSource.create(file, fileSize);
     Parser.ParseResult result =
         Parser.parseFileForSkylark(input, eventHandler, validationEnvironment);
     return new BuildFileAST(ImmutableList.<Statement>of(), result,
-        HashCode.fromBytes(file.getMD5Digest()).toString());
+        HashCode.fromBytes(md5Digest).toString());
   }
 
   /**
@@ -94,6 +94,10 @@ public final class Lexer {
 
   private boolean parsePython;
 
+  // The identifiers and keywords seen so far, so that each distinct name is allocated once per
+  // file rather than once per occurrence.
+  private final SymbolTable symbols = new SymbolTable(keywordMap.keySet());
+
   /**
    * Constructs a lexer which tokenizes the contents of the specified
    * InputBuffer. Any errors during lexing are reported on "handler".
@@ -543,6 +547,11 @@ public final class Lexer {
     return kind == null ? TokenKind.IDENTIFIER : kind;
   }
 
+  /**
+   * Scans the rest of an identifier or keyword.
+   *
+   * @return the name, which is the same object for all occurrences of the name in the file
+   */
   private String scanIdentifier() {
     int oldPos = pos - 1;
     while (pos < buffer.length) {
@@ -563,10 +572,10 @@ public final class Lexer {
           pos++;
           break;
        default:
-          return bufferSlice(oldPos, pos);
+          return symbols.intern(buffer, oldPos, pos);
       }
     }
-    return bufferSlice(oldPos, pos);
+    return symbols.intern(buffer, oldPos, pos);
   }
 
   /**
@@ -883,4 +892,94 @@ public final class Lexer {
     return new String(this.buffer, start, end - start);
   }
 
+  /**
+   * A set of strings that can be looked up by a slice of a char array, without creating a string
+   * for the slice first. It uses open addressing with linear probing; the hash codes are those of
+   * {@link String#hashCode}, which strings cache.
+   */
+  static final class SymbolTable {
+    private String[] table;
+    private int size;
+
+    SymbolTable(Iterable<String> initialSymbols) {
+      table = new String[128];
+      for (String symbol : initialSymbols) {
+        add(symbol);
+      }
+    }
+
+    /** Returns the symbol with the characters of {@code chars[start, end)}, adding it if new. */
+    String intern(char[] chars, int start, int end) {
+      int hash = 0;
+      for (int i = start; i < end; i++) {
+        hash = 31 * hash + chars[i];
+      }
+      int mask = table.length - 1;
+      for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+        String symbol = table[i];
+        if (symbol == null) {
+          symbol = new String(chars, start, end - start);
+          insert(symbol);
+          return symbol;
+        }
+        if (symbol.hashCode() == hash && matches(symbol, chars, start, end)) {
+          return symbol;
+        }
+      }
+    }
+
+    private void add(String symbol) {
+      int mask = table.length - 1;
+      for (int i = spread(symbol.hashCode()) & mask; table[i] != null; i = (i + 1) & mask) {
+        if (table[i].equals(symbol)) {
+          return;
+        }
+      }
+      insert(symbol);
+    }
+
+    /** Adds a symbol that is known to be absent. */
+    private void insert(String symbol) {
+      if (++size * 2 > table.length) {
+        resize();
+      }
+      place(table, symbol);
+    }
+
+    private static boolean matches(String symbol, char[] chars, int start, int end) {
+      if (symbol.length() != end - start) {
+        return false;
+      }
+      for (int i = start; i < end; i++) {
+        if (symbol.charAt(i - start) != chars[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void resize() {
+      String[] oldTable = table;
+      table = new String[oldTable.length * 2];
+      for (String symbol : oldTable) {
+        if (symbol != null) {
+          place(table, symbol);
+        }
+      }
+    }
+
+    private static void place(String[] table, String symbol) {
+      int mask = table.length - 1;
+      int i = spread(symbol.hashCode()) & mask;
+      while (table[i] != null) {
+        i = (i + 1) & mask;
+      }
+      table[i] = symbol;
+    }
+
+    private static int spread(int hash) {
+      return hash ^ (hash >>> 16);
+    }
+  }
+
 }
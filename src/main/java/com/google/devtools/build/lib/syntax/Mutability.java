@@ -139,11 +139,10 @@ public final class Mutability implements AutoCloseable, Serializable {
     // that closes over some variable v1 bound to list l1. If somehow, via the magic of callbacks,
     // f1 or l1 is passed as argument to some function f2 evaluated in {@link environment} e2
     // while e1 is be mutable, e2, being a different {@link Environment}, should not be
-    // allowed to mutate objects from e1. It's a bug, that shouldn't happen in our current code
-    // base, so we throw an AssertionError. If in the future such situations are allowed to happen,
-    // then we should throw a MutabilityException instead.
+    // allowed to mutate objects from e1. This happens when the statements of a BUILD file are
+    // evaluated speculatively in environments of their own, which then have to fail.
     if (!object.mutability().equals(env.mutability())) {
-      throw new AssertionError("trying to mutate an object from a different context");
+      throw new MutabilityException("trying to mutate an object from a different context");
     }
   }
 
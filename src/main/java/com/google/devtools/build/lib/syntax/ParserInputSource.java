@@ -13,11 +13,11 @@
 // limitations under the License.
 package com.google.devtools.build.lib.syntax;
 
-import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * An abstraction for reading input from a file or taking it as a pre-cooked
@@ -25,6 +25,13 @@ import java.io.IOException;
  */
 public abstract class ParserInputSource {
 
+  private static final ThreadLocal<byte[]> readBuffer = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[16 * 1024];
+    }
+  };
+
   protected ParserInputSource() {}
 
   /**
@@ -48,9 +55,33 @@ public abstract class ParserInputSource {
     return create(path, path.getFileSize());
   }
 
+  /**
+   * Like {@link #create(Path)}, for a file whose size is known to be {@code fileSize}. Fails if
+   * fewer bytes can be read. The file is decoded as it is read, through a buffer that each thread
+   * reuses, so the only array of the size of the file that is allocated is the content.
+   */
   public static ParserInputSource create(Path path, long fileSize) throws IOException {
-    byte[] bytes = FileSystemUtils.readWithKnownFileSize(path, fileSize);
-    char[] content = FileSystemUtils.convertFromLatin1(bytes);
+    if (fileSize > Integer.MAX_VALUE) {
+      throw new IOException("Cannot read file with size larger than 2GB");
+    }
+    char[] content = new char[(int) fileSize];
+    byte[] buffer = readBuffer.get();
+    int length = 0;
+    try (InputStream in = path.getInputStream()) {
+      while (length < content.length) {
+        int read = in.read(buffer, 0, Math.min(buffer.length, content.length - length));
+        if (read < 0) {
+          break;
+        }
+        for (int i = 0; i < read; i++) {
+          content[length++] = (char) (0xff & buffer[i]);
+        }
+      }
+    }
+    if (length < content.length) {
+      throw new IOException("Unexpected short read from file '" + path
+          + "' (expected " + content.length + ", got " + length + " bytes)");
+    }
     return create(content, path.asFragment());
   }
 
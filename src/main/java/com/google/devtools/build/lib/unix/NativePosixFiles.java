@@ -213,6 +213,22 @@ public final class NativePosixFiles {
    */
   public static native ErrnoFileStatus errnoLstat(String path);
 
+  /**
+   * Stats many paths in a single JNI call, using fstatat(2) relative to shared directory file
+   * descriptors. Consecutive paths in the same parent directory share an open descriptor for it,
+   * so callers should pass paths in sorted order.
+   *
+   * @param dir the directory relative paths are resolved against.
+   * @param paths the files to stat; relative to {@code dir} or absolute.
+   * @param followSymlinks whether to stat(2) rather than lstat(2) the paths.
+   * @return an ErrnoFileStatus for each path, in the same order. If there was an error for a
+   *   path, its entry's hasError() method will return true, and all stat information is
+   *   undefined.
+   * @throws IOException if {@code dir} could not be opened.
+   */
+  public static native ErrnoFileStatus[] errnoStatBatch(String dir, String[] paths,
+      boolean followSymlinks) throws IOException;
+
   /**
    * Native wrapper around POSIX utime(2) syscall.
    *
@@ -15,15 +15,20 @@
 package com.google.devtools.build.lib.util;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Representation of a set of file dependencies for a given output file. There
@@ -55,6 +60,7 @@ public final class DependencySet {
   private final Collection<Path> dependencies = new ArrayList<>();
 
   private final Path root;
+  private final PathCache pathCache;
   private String outputFileName;
 
   /**
@@ -72,7 +78,16 @@ public final class DependencySet {
    * Constructs a new empty DependencySet instance.
    */
   public DependencySet(Path root) {
-    this.root = root;
+    this(new PathCache(root));
+  }
+
+  /**
+   * Constructs a new empty DependencySet instance for the root of {@code pathCache}, looking up
+   * the paths of dependencies in that cache.
+   */
+  public DependencySet(PathCache pathCache) {
+    this.root = pathCache.getRoot();
+    this.pathCache = pathCache;
   }
 
   /**
@@ -96,23 +111,29 @@ public final class DependencySet {
   }
 
   /**
-   * Adds a given dependency to this DependencySet instance.
+   * Reads a dotd file into this DependencySet instance.
    */
-  private void addDependency(String dep) {
-    Path depPath = root.getRelative(dep);
-    dependencies.add(depPath);
+  public DependencySet read(Path dotdFile) throws IOException {
+    return read(dotdFile, READ_BUFFER_SIZE);
   }
 
   /**
-   * Reads a dotd file into this DependencySet instance.
+   * Reads a dotd file into this DependencySet instance, {@code bufferSize} bytes at a time.
    */
-  public DependencySet read(Path dotdFile) throws IOException {
-    byte[] content = FileSystemUtils.readContent(dotdFile);
-    try {
-      return process(content);
+  @VisibleForTesting
+  DependencySet read(Path dotdFile, int bufferSize) throws IOException {
+    Parser parser = new Parser();
+    byte[] buffer = new byte[bufferSize];
+    try (InputStream in = dotdFile.getInputStream()) {
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+        parser.process(buffer, n);
+      }
+      parser.finish();
     } catch (IOException e) {
       throw new IOException("Error processing " + dotdFile + ": " + e.getMessage());
     }
+    return this;
   }
 
   /**
@@ -122,93 +143,235 @@ public final class DependencySet {
    * them reach into hundreds of kilobytes.
    */
   public DependencySet process(byte[] content) throws IOException {
-    final int n = content.length;
-    if (n > 0 && content[n - 1] != '\n') {
-      throw new IOException("File does not end in a newline");
-      // From now on, we can safely peek ahead one character when not at a newline.
-    }
-    // Our write position in content[]; we use the prefix as working space to build strings.
-    int w = 0;
+    Parser parser = new Parser();
+    parser.process(content, content.length);
+    parser.finish();
+    return this;
+  }
+
+  private static final int READ_BUFFER_SIZE = 32 * 1024;
+
+  /**
+   * A streaming parser for the contents of a .d file, adding the dependencies to the enclosing
+   * instance. The input can be passed in chunks of any size; file names are collected in a
+   * reusable buffer and only turned into strings if they are not in the {@link PathCache}.
+   */
+  private final class Parser {
+    // States between two input bytes. The characters after ':' and '\\' decide their meaning.
+    private static final int NORMAL = 0;
+    private static final int AFTER_COLON = 1;
+    private static final int AFTER_BACKSLASH = 2;
+    private static final int AFTER_BACKSLASH_CR = 3;
+
+    private final PathCache.Key name = new PathCache.Key();
+    private int state = NORMAL;
     // Have we seen a leading "mumble.o:" on this line yet?  If not, we ignore
     // any dependencies we parse.  This is bug-for-bug compatibility with our
     // MSVC wrapper, which generates invalid .d files :(
-    boolean sawTarget = false;
-    for (int r = 0; r < n; ) {
-      final byte c = content[r++];
-      switch (c) {
-
-        case ' ':
-          // If we haven't yet seen the colon delimiting the target name,
-          // keep scanning.  We do this to cope with "foo.o : \" which is
-          // valid Makefile syntax produced by the cuda compiler.
-          if (sawTarget && w > 0) {
-            addDependency(new String(content, 0, w, StandardCharsets.UTF_8));
-            w = 0;
-          }
-          continue;
-
-        case '\r':
-          // Ignore, should be followed by a \n.
-          continue;
-
-        case '\n':
-          // This closes a filename.
-          // (Arguably if !sawTarget && w > 0 we should report an error,
-          // as that suggests the .d file is malformed.)
-          if (sawTarget && w > 0) {
-            addDependency(new String(content, 0, w, StandardCharsets.UTF_8));
-          }
-          w = 0;
-          sawTarget = false;  // reset for new line
-          continue;
-
-        case ':':
-          // Normally this indicates the target name, but it might be part of a
-          // filename on Windows.  Peek ahead at the next character.
-          switch (content[r]) {
-            case ' ':
-            case '\n':
-            case '\r':
-              if (w > 0) {
-                outputFileName = new String(content, 0, w, StandardCharsets.UTF_8);
-                w = 0;
-                sawTarget = true;
-              }
-              continue;
-            default:
-              content[w++] = c;  // copy a colon to filename
-              continue;
-          }
+    private boolean sawTarget = false;
+    private byte lastByte = '\n';
 
-        case '\\':
-          // Peek ahead at the next character.
-          switch (content[r]) {
-            // Backslashes are taken literally except when followed by whitespace.
-            // See the Windows tests for some of the nonsense we have to tolerate.
-            case ' ':
-              content[w++] = ' ';  // copy a space to the filename
-              ++r;  // skip over the space
-              continue;
-            case '\n':
-              ++r;  // skip over the newline
-              continue;
-            case '\r':
-              // One backslash can escape \r\n, so peek one more character.
-              if (content[++r] == '\n') {
-                ++r;
-              }
-              continue;
-            default:
-              content[w++] = c;  // copy a backlash to the filename
+    void process(byte[] content, int n) {
+      if (n > 0) {
+        lastByte = content[n - 1];
+      }
+      for (int r = 0; r < n; r++) {
+        final byte c = content[r];
+        switch (state) {
+          case AFTER_COLON:
+            state = NORMAL;
+            // Normally a colon indicates the target name, but it might be part of a
+            // filename on Windows.
+            switch (c) {
+              case ' ':
+              case '\n':
+              case '\r':
+                if (name.length > 0) {
+                  outputFileName = name.toString();
+                  name.length = 0;
+                  sawTarget = true;
+                }
+                break;
+              default:
+                name.append((byte) ':');  // copy a colon to filename
+                break;
+            }
+            break;  // Process c below.
+
+          case AFTER_BACKSLASH:
+            state = NORMAL;
+            switch (c) {
+              // Backslashes are taken literally except when followed by whitespace.
+              // See the Windows tests for some of the nonsense we have to tolerate.
+              case ' ':
+                name.append((byte) ' ');  // copy a space to the filename
+                continue;
+              case '\n':
+                continue;
+              case '\r':
+                // One backslash can escape \r\n.
+                state = AFTER_BACKSLASH_CR;
+                continue;
+              default:
+                name.append((byte) '\\');  // copy a backlash to the filename
+                break;  // Process c below.
+            }
+            break;
+
+          case AFTER_BACKSLASH_CR:
+            state = NORMAL;
+            if (c == '\n') {
               continue;
+            }
+            break;  // Process c below.
+
+          default:
+            break;
+        }
+
+        switch (c) {
+          case ' ':
+            // If we haven't yet seen the colon delimiting the target name,
+            // keep scanning.  We do this to cope with "foo.o : \" which is
+            // valid Makefile syntax produced by the cuda compiler.
+            if (sawTarget && name.length > 0) {
+              addDependency();
+            }
+            continue;
+
+          case '\r':
+            // Ignore, should be followed by a \n.
+            continue;
+
+          case '\n':
+            // This closes a filename.
+            // (Arguably if !sawTarget && w > 0 we should report an error,
+            // as that suggests the .d file is malformed.)
+            if (sawTarget && name.length > 0) {
+              addDependency();
+            }
+            name.length = 0;
+            sawTarget = false;  // reset for new line
+            continue;
+
+          case ':':
+            state = AFTER_COLON;
+            continue;
+
+          case '\\':
+            state = AFTER_BACKSLASH;
+            continue;
+
+          default:
+            name.append(c);
+        }
+      }
+    }
+
+    void finish() throws IOException {
+      if (lastByte != '\n') {
+        throw new IOException("File does not end in a newline");
+      }
+    }
+
+    private void addDependency() {
+      dependencies.add(pathCache.getPath(name));
+      name.length = 0;
+    }
+  }
+
+  /**
+   * A cache of the paths of dependencies, keyed by the bytes of their names in .d files. A cache
+   * can be shared by all {@link DependencySet}s with the same root, so that the many headers
+   * common to the .d files of a build are only resolved to {@link Path}s once.
+   */
+  @ThreadSafe
+  public static final class PathCache {
+    private static final int MAX_SIZE = 100000;
+
+    /**
+     * The bytes of a file name. Parsers look up a reused mutable instance; keys stored in the
+     * cache are immutable copies.
+     */
+    private static final class Key {
+      private byte[] bytes;
+      private int length;
+
+      Key() {
+        this.bytes = new byte[256];
+      }
+
+      private Key(byte[] bytes) {
+        this.bytes = bytes;
+        this.length = bytes.length;
+      }
+
+      void append(byte b) {
+        if (length == bytes.length) {
+          bytes = Arrays.copyOf(bytes, length * 2);
+        }
+        bytes[length++] = b;
+      }
+
+      Key copy() {
+        return new Key(Arrays.copyOf(bytes, length));
+      }
+
+      @Override
+      public boolean equals(Object other) {
+        if (!(other instanceof Key)) {
+          return false;
+        }
+        Key that = (Key) other;
+        if (length != that.length) {
+          return false;
+        }
+        for (int i = 0; i < length; i++) {
+          if (bytes[i] != that.bytes[i]) {
+            return false;
           }
+        }
+        return true;
+      }
 
-        default:
-          content[w++] = c;
+      @Override
+      public int hashCode() {
+        int h = 1;
+        for (int i = 0; i < length; i++) {
+          h = 31 * h + bytes[i];
+        }
+        return h;
+      }
 
+      @Override
+      public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
       }
     }
-    return this;
+
+    private final Path root;
+    private final ConcurrentMap<Key, Path> paths = new ConcurrentHashMap<>();
+
+    public PathCache(Path root) {
+      this.root = root;
+    }
+
+    public Path getRoot() {
+      return root;
+    }
+
+    private Path getPath(Key name) {
+      Path path = paths.get(name);
+      if (path == null) {
+        path = root.getRelative(name.toString());
+        if (paths.size() >= MAX_SIZE) {
+          // Crude, but bounds the memory held by a long-lived cache.
+          paths.clear();
+        }
+        paths.put(name.copy(), path);
+      }
+      return path;
+    }
   }
 
   /**
@@ -124,6 +124,16 @@ public class FileOutErr extends OutErr {
     return getFileErrorStream().getFile();
   }
 
+  /**
+   * Prepares the files of this OutErr for a subprocess that appends its output to them directly,
+   * instead of writing it through the streams of this OutErr. Closes the files, and makes later
+   * writes through the streams append to what the subprocess wrote.
+   */
+  public void prepareForDirectWrites() throws IOException {
+    getFileOutputStream().prepareForDirectWrites();
+    getFileErrorStream().prepareForDirectWrites();
+  }
+
   /** Interprets the captured out content as an {@code ISO-8859-1} encoded string. */
   public String outAsLatin1() {
     return getFileOutputStream().getRecordedOutput();
@@ -214,6 +224,11 @@ public class FileOutErr extends OutErr {
      * Closes and delets the output.
      */
     abstract void clear() throws IOException;
+
+    /**
+     * Closes the file, so that others can append to it, and appends to it from now on.
+     */
+    abstract void prepareForDirectWrites() throws IOException;
   }
 
   /**
@@ -254,6 +269,9 @@ public class FileOutErr extends OutErr {
     public void clear() {
     }
 
+    @Override
+    void prepareForDirectWrites() {
+    }
 
     @Override
     public void write(byte[] b, int off, int len) {
@@ -290,6 +308,8 @@ public class FileOutErr extends OutErr {
     private final Path outputFile;
     private OutputStream outputStream;
     private String error;
+    // Whether the file may hold output that was not written through this stream.
+    private boolean append;
 
     protected FileRecordingOutputStream(Path outputFile) {
       this.outputFile = outputFile;
@@ -308,7 +328,7 @@ public class FileOutErr extends OutErr {
     private OutputStream getOutputStream() throws IOException {
       // you should hold the lock before you invoke this method
       if (outputStream == null) {
-        outputStream = outputFile.getOutputStream();
+        outputStream = outputFile.getOutputStream(append);
       }
       return outputStream;
     }
@@ -324,6 +344,17 @@ public class FileOutErr extends OutErr {
       outputFile.delete();
     }
 
+    @Override
+    synchronized void prepareForDirectWrites() throws IOException {
+      if (!append && outputStream == null) {
+        // Opening the stream would have truncated a file left over from before.
+        outputFile.delete();
+      }
+      close();
+      outputStream = null;
+      append = true;
+    }
+
     /**
      * Called whenever the FileRecordingOutputStream finds an error.
      */
@@ -0,0 +1,360 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.lib.util.StringCanonicalizer;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A compact, canonical alternative to {@link PathFragment}. Every instance is a node in a global
+ * prefix trie: it holds only a pointer to its parent directory and its own (interned) base name,
+ * so paths with a common prefix, such as the exec paths of all artifacts under
+ * {@code bazel-out/<config>/bin}, share the storage for that prefix.
+ *
+ * <p>Instances are canonical: for every sequence of segments there is at most one live instance.
+ * Hence {@link #equals} is reference equality, {@link #hashCode} is a field read, and
+ * {@link #startsWith} walks up the parent chain and compares pointers.
+ *
+ * <p>The hash code of an instance is the same as that of the equivalent {@link PathFragment}.
+ * Like {@link PathFragment}, no normalization of "." and ".." segments is performed.
+ */
+@Immutable @ThreadSafe
+public final class CompactPathFragment implements Comparable<CompactPathFragment> {
+
+  private static final ReferenceQueue<CompactPathFragment> REFERENCE_QUEUE =
+      new ReferenceQueue<>();
+
+  private static class WeakReferenceForCleanup extends WeakReference<CompactPathFragment> {
+    final CompactPathFragment parent;
+    final String baseName;
+
+    WeakReferenceForCleanup(CompactPathFragment referent,
+        ReferenceQueue<CompactPathFragment> referenceQueue) {
+      super(referent, referenceQueue);
+      parent = referent.parent;
+      baseName = referent.segment;
+    }
+  }
+
+  private static final Thread CHILD_CACHE_CLEANUP_THREAD =
+      new Thread("CompactPathFragment cache cleanup") {
+        @Override
+        public void run() {
+          while (true) {
+            try {
+              WeakReferenceForCleanup ref = (WeakReferenceForCleanup) REFERENCE_QUEUE.remove();
+              CompactPathFragment parent = ref.parent;
+              synchronized (parent) {
+                // The fragment may have been recreated with a new entry in the map since this
+                // reference was enqueued; only remove the entry if it is still ours.
+                if (parent.children.get(ref.baseName) == ref) {
+                  parent.children.remove(ref.baseName);
+                }
+              }
+            } catch (InterruptedException e) {
+              // Ignored.
+            }
+          }
+        }
+      };
+
+  static {
+    CHILD_CACHE_CLEANUP_THREAD.setDaemon(true);
+    CHILD_CACHE_CLEANUP_THREAD.start();
+  }
+
+  /** The root of all relative fragments; equivalent to {@link PathFragment#EMPTY_FRAGMENT}. */
+  public static final CompactPathFragment EMPTY_FRAGMENT =
+      new CompactPathFragment(null, "", '\0', false);
+
+  /** The root of all absolute fragments without a drive letter. */
+  public static final CompactPathFragment ROOT =
+      new CompactPathFragment(null, "", '\0', true);
+
+  // Roots of absolute Windows paths, keyed by upper case drive letter. Roots are never collected.
+  private static final ConcurrentMap<Character, CompactPathFragment> DRIVE_ROOTS =
+      new ConcurrentHashMap<>();
+
+  // Parent and segment are the only per-path data; depth, hashCode and the two byte-sized root
+  // fields are there so that the common operations need not walk to the root.
+  private final CompactPathFragment parent;
+  private final String segment;
+  private final int depth;
+  private final int hashCode;
+  private final boolean isAbsolute;
+  private final char driveLetter;
+
+  /**
+   * A mapping from a child segment to the weakly referenced node representing it. The strings
+   * must be canonical, hence the IdentityHashMap. Stale references must be treated as absent.
+   * This object must be synchronized while children is being accessed; see {@link Path} for the
+   * rationale of this representation, which is the same.
+   */
+  private volatile IdentityHashMap<String, Reference<CompactPathFragment>> children;
+
+  private CompactPathFragment(CompactPathFragment parent, String segment, char driveLetter,
+      boolean isAbsolute) {
+    this.parent = parent;
+    this.segment = segment;
+    this.driveLetter = driveLetter;
+    this.isAbsolute = isAbsolute;
+    if (parent == null) {
+      this.depth = 0;
+      this.hashCode = isAbsolute ? 1 : 0;
+    } else {
+      this.depth = parent.depth + 1;
+      this.hashCode = parent.hashCode * 31 + segment.hashCode();
+    }
+  }
+
+  private static CompactPathFragment getRoot(char driveLetter, boolean isAbsolute) {
+    if (!isAbsolute) {
+      return EMPTY_FRAGMENT;
+    }
+    if (driveLetter == '\0') {
+      return ROOT;
+    }
+    CompactPathFragment root = DRIVE_ROOTS.get(driveLetter);
+    if (root == null) {
+      DRIVE_ROOTS.putIfAbsent(driveLetter, new CompactPathFragment(null, "", driveLetter, true));
+      root = DRIVE_ROOTS.get(driveLetter);
+    }
+    return root;
+  }
+
+  /** Returns the canonical instance equivalent to {@code fragment}. */
+  public static CompactPathFragment of(PathFragment fragment) {
+    CompactPathFragment result = getRoot(fragment.getDriveLetter(), fragment.isAbsolute());
+    for (String segment : fragment.segments()) {
+      result = result.getCachedChild(segment);
+    }
+    return result;
+  }
+
+  /** Returns the canonical instance for the absolute or relative path string {@code path}. */
+  public static CompactPathFragment of(String path) {
+    return of(new PathFragment(path));
+  }
+
+  /**
+   * Returns the child node named {@code segment}, creating it if it doesn't exist yet. The
+   * segment must be interned.
+   */
+  private CompactPathFragment getCachedChild(String segment) {
+    // Double-checked locking, as in Path.getCachedChildPath: 'children' never goes back to null.
+    if (children == null) {
+      synchronized (this) {
+        if (children == null) {
+          children = new IdentityHashMap<>(1);
+        }
+      }
+    }
+    synchronized (this) {
+      Reference<CompactPathFragment> childRef = children.get(segment);
+      CompactPathFragment child;
+      if (childRef == null || (child = childRef.get()) == null) {
+        child = new CompactPathFragment(this, segment, driveLetter, isAbsolute);
+        children.put(segment, new WeakReferenceForCleanup(child, REFERENCE_QUEUE));
+      }
+      return child;
+    }
+  }
+
+  /**
+   * Returns the fragment formed by appending the single non-special segment {@code baseName} to
+   * this fragment.
+   *
+   * @throws IllegalArgumentException if {@code baseName} is not a valid base name according to
+   *     {@link FileSystemUtils#checkBaseName}
+   */
+  public CompactPathFragment getChild(String baseName) {
+    FileSystemUtils.checkBaseName(baseName);
+    return getCachedChild(StringCanonicalizer.intern(baseName));
+  }
+
+  /**
+   * Returns the fragment formed by appending {@code other} to this fragment. If {@code other} is
+   * absolute, the current fragment is ignored, as in {@link PathFragment#getRelative}.
+   */
+  public CompactPathFragment getRelative(PathFragment other) {
+    if (other.isAbsolute()) {
+      return of(other);
+    }
+    CompactPathFragment result = this;
+    for (String segment : other.segments()) {
+      result = result.getCachedChild(segment);
+    }
+    return result;
+  }
+
+  /** Returns the fragment formed by appending the path string {@code other} to this fragment. */
+  public CompactPathFragment getRelative(String other) {
+    return getRelative(new PathFragment(other));
+  }
+
+  /**
+   * Returns the parent directory of this fragment, or null iff this fragment has no segments.
+   */
+  public CompactPathFragment getParentDirectory() {
+    return parent;
+  }
+
+  /** Returns the last segment of this fragment, or "" if it has no segments. */
+  public String getBaseName() {
+    return segment;
+  }
+
+  public int segmentCount() {
+    return depth;
+  }
+
+  public boolean isAbsolute() {
+    return isAbsolute;
+  }
+
+  /** Returns the drive letter or '\0' if not applicable. */
+  public char getDriveLetter() {
+    return driveLetter;
+  }
+
+  /**
+   * Returns true iff {@code prefix}, considered as a list of path segments, is a prefix of
+   * {@code this}, and that they are both relative or both absolute. This only compares pointers.
+   */
+  public boolean startsWith(CompactPathFragment prefix) {
+    if (depth < prefix.depth) {
+      return false;
+    }
+    CompactPathFragment node = this;
+    for (int i = depth - prefix.depth; i > 0; i--) {
+      node = node.parent;
+    }
+    return node == prefix;
+  }
+
+  /**
+   * Returns the fragment of this fragment relative to {@code ancestor}.
+   *
+   * @throws IllegalArgumentException if this fragment does not start with {@code ancestor}
+   */
+  public CompactPathFragment relativeTo(CompactPathFragment ancestor) {
+    Preconditions.checkArgument(startsWith(ancestor), "%s is not beneath %s", this, ancestor);
+    return getRelative(EMPTY_FRAGMENT, ancestor);
+  }
+
+  // Appends the segments between ancestor (exclusive) and this (inclusive) to base.
+  private CompactPathFragment getRelative(CompactPathFragment base, CompactPathFragment ancestor) {
+    return this == ancestor
+        ? base
+        : parent.getRelative(base, ancestor).getCachedChild(segment);
+  }
+
+  /** Returns the segments of this fragment, from the root down. */
+  private String[] segments() {
+    String[] segments = new String[depth];
+    CompactPathFragment node = this;
+    for (int i = depth - 1; i >= 0; i--) {
+      segments[i] = node.segment;
+      node = node.parent;
+    }
+    return segments;
+  }
+
+  /** Returns an equivalent {@link PathFragment}. */
+  public PathFragment toPathFragment() {
+    return new PathFragment(driveLetter, isAbsolute, segments());
+  }
+
+  /**
+   * Returns the path string using '/' as the name-separator character. The string is not cached,
+   * so callers in hot paths should hold on to the result.
+   */
+  public String getPathString() {
+    return toPathFragment().getPathString();
+  }
+
+  @Override
+  public String toString() {
+    return getPathString();
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    // Instances are canonical.
+    return this == other;
+  }
+
+  /**
+   * Compares two fragments using the same lexicographical order as {@link
+   * PathFragment#compareTo}. Like it, the order ignores drive letters, so it is not consistent with
+   * {@link #equals} for fragments that only differ in their drive letter.
+   */
+  @Override
+  public int compareTo(CompactPathFragment other) {
+    if (this == other) {
+      return 0;
+    }
+    if (isAbsolute != other.isAbsolute) {
+      return isAbsolute ? -1 : 1;
+    }
+    // Bring both nodes to the same depth, then walk up until they share a parent.
+    CompactPathFragment p1 = this;
+    CompactPathFragment p2 = other;
+    while (p1.depth > p2.depth) {
+      p1 = p1.parent;
+    }
+    while (p2.depth > p1.depth) {
+      p2 = p2.parent;
+    }
+    if (p1 == p2) {
+      // One is a prefix of the other.
+      return depth - other.depth;
+    }
+    while (p1.parent != p2.parent) {
+      p1 = p1.parent;
+      p2 = p2.parent;
+    }
+    if (p1.parent == null) {
+      // Different drive roots. PathFragment#compareTo ignores drive letters, so compare the
+      // segments from the root down.
+      return compareSegments(segments(), other.segments());
+    }
+    return p1.segment.compareTo(p2.segment);
+  }
+
+  private static int compareSegments(String[] segments1, String[] segments2) {
+    int n = Math.min(segments1.length, segments2.length);
+    for (int i = 0; i < n; i++) {
+      int result = segments1[i].compareTo(segments2[i]);
+      if (result != 0) {
+        return result;
+      }
+    }
+    return segments1.length - segments2.length;
+  }
+}
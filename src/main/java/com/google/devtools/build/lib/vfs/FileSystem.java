@@ -484,6 +484,19 @@ public abstract class FileSystem {
   protected abstract void createSymbolicLink(Path linkPath, PathFragment targetFragment)
       throws IOException;
 
+  /**
+   * Creates a hard link. See {@link Path#createHardLink(Path)} for
+   * specification.
+   *
+   * <p>Note: the default implementation throws an
+   * {@link UnsupportedOperationException}; file systems that support hard
+   * links override it.
+   */
+  protected void createHardLink(Path linkPath, Path originalPath) throws IOException {
+    throw new UnsupportedOperationException(
+        "Hard links are not supported by " + getClass().getSimpleName());
+  }
+
   /**
    * Returns the target of a symbolic link. See {@link Path#readSymbolicLink}
    * for specification.
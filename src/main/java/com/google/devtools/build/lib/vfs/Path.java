@@ -786,6 +786,21 @@ public class Path implements Comparable<Path>, Serializable {
     fileSystem.createSymbolicLink(this, target.asFragment());
   }
 
+  /**
+   * Creates a hard link with the name of the current path to the existing file
+   * "original", which must be on the same device. Writes through either name
+   * change the contents seen through the other.
+   *
+   * @throws IOException if the creation of the hard link was unsuccessful
+   *         for any reason
+   * @throws UnsupportedOperationException if the file system does not support
+   *         hard links
+   */
+  public void createHardLink(Path original) throws IOException {
+    checkSameFilesystem(original);
+    fileSystem.createHardLink(this, original);
+  }
+
   /**
    * Creates a symbolic link with the name of the current path, following
    * symbolic links. The referent of the created symlink is is the path fragment
@@ -0,0 +1,115 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.unix.ErrnoFileStatus;
+import com.google.devtools.build.lib.unix.NativePosixFiles;
+import com.google.devtools.build.lib.util.OS;
+import com.google.devtools.build.lib.util.Preconditions;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link BatchStat} for paths on a {@link UnixFileSystem} that stats a whole batch of paths in
+ * one JNI call (see {@link NativePosixFiles#errnoStatBatch}).
+ *
+ * <p>Relative paths are resolved against the root given at construction time, usually the exec
+ * root; absolute paths are stat'ed as they are. Digests are never included: the returned
+ * statuses have a null digest, which makes callers compute it on demand.
+ */
+@ThreadSafe
+public final class UnixBatchStat implements BatchStat {
+
+  private static final Profiler profiler = Profiler.instance();
+
+  private final Path root;
+
+  private UnixBatchStat(Path root) {
+    this.root = root;
+  }
+
+  /**
+   * Returns a batch statter for paths relative to {@code root}, or null if the native batch
+   * implementation is not available for the file system of {@code root}.
+   */
+  @Nullable
+  public static UnixBatchStat createIfSupported(Path root) {
+    // Only Linux has a real fstatat(2); the Darwin emulation does not support lstat.
+    if (OS.getCurrent() != OS.LINUX || !(root.getFileSystem() instanceof UnixFileSystem)) {
+      return null;
+    }
+    return new UnixBatchStat(root);
+  }
+
+  @Override
+  public List<FileStatusWithDigest> batchStat(boolean includeDigest, boolean includeLinks,
+      Iterable<PathFragment> paths) throws IOException, InterruptedException {
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    List<PathFragment> pathList = ImmutableList.copyOf(paths);
+    final String[] names = new String[pathList.size()];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = pathList.get(i).getPathString();
+    }
+    // Sort so that paths in the same directory are adjacent and share a directory descriptor.
+    Integer[] order = new Integer[names.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i1, Integer i2) {
+        return names[i1].compareTo(names[i2]);
+      }
+    });
+    String[] sortedNames = new String[names.length];
+    for (int i = 0; i < order.length; i++) {
+      sortedNames[i] = names[order[i]];
+    }
+
+    String rootName = root.getPathString();
+    long startTime = Profiler.nanoTimeMaybe();
+    ErrnoFileStatus[] stats;
+    try {
+      stats = NativePosixFiles.errnoStatBatch(rootName, sortedNames, !includeLinks);
+    } finally {
+      profiler.logSimpleTask(startTime, ProfilerTask.VFS_STAT, rootName);
+    }
+
+    FileStatusWithDigest[] result = new FileStatusWithDigest[names.length];
+    for (int i = 0; i < order.length; i++) {
+      ErrnoFileStatus stat = Preconditions.checkNotNull(stats[i], sortedNames[i]);
+      if (!stat.hasError()) {
+        result[order[i]] =
+            FileStatusWithDigestAdapter.adapt(new UnixFileSystem.UnixFileStatus(stat));
+      } else if (stat.getErrno() != ErrnoFileStatus.ENOENT
+          && stat.getErrno() != ErrnoFileStatus.ENOTDIR) {
+        // Let the caller fall back to individual stat calls, which report proper exceptions.
+        throw new IOException("batch stat failed for " + sortedNames[i] + " (errno "
+            + stat.getErrno() + ")");
+      }
+    }
+    return Arrays.asList(result);
+  }
+}
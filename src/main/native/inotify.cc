@@ -0,0 +1,392 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+// JNI side of LinuxInotifyDiffAwareness: recursively watches a directory
+// tree with inotify(7) and reports the paths changed since the last poll.
+
+#include <dirent.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <jni.h>
+#include <string.h>
+#include <sys/inotify.h>
+#include <sys/stat.h>
+#include <unistd.h>
+
+#include <set>
+#include <string>
+#include <unordered_map>
+#include <vector>
+
+#include "src/main/native/unix_jni.h"
+
+namespace {
+
+const uint32_t kWatchMask = IN_ATTRIB | IN_CREATE | IN_DELETE | IN_MODIFY |
+                            IN_MOVED_FROM | IN_MOVED_TO | IN_DELETE_SELF |
+                            IN_MOVE_SELF | IN_DONT_FOLLOW | IN_EXCL_UNLINK |
+                            IN_ONLYDIR;
+
+// One entry per watch descriptor. Watch descriptors are small integers
+// allocated by the kernel, so the table is a vector indexed by descriptor.
+// Only the base name is stored; full paths are rebuilt from the parent chain,
+// and watches are found by path through the children of their ancestors.
+struct Watch {
+  int parent;        // Watch descriptor of the parent directory, -1 for root.
+  std::string name;  // Base name; the absolute path for the root.
+  bool live;
+  // Watch descriptors of the live subdirectories, by base name.
+  std::unordered_map<std::string, int> children;
+};
+
+struct InotifyState {
+  int fd;
+  int root_wd;
+  std::vector<Watch> watches;
+};
+
+std::string WatchPath(const InotifyState &state, int wd) {
+  const Watch &watch = state.watches[wd];
+  if (watch.parent == -1) {
+    return watch.name;
+  }
+  return WatchPath(state, watch.parent) + "/" + watch.name;
+}
+
+bool IsLive(const InotifyState &state, int wd) {
+  return wd >= 0 && static_cast<size_t>(wd) < state.watches.size() &&
+         state.watches[wd].live;
+}
+
+// Removes a watch that the kernel dropped or that we are about to drop from
+// the children of its parent. Its own parent and name are kept, so that the
+// paths of its subdirectories, which are dropped separately, can still be
+// rebuilt.
+void UnlinkWatch(InotifyState *state, int wd) {
+  Watch &watch = state->watches[wd];
+  if (watch.parent != -1) {
+    auto &siblings = state->watches[watch.parent].children;
+    auto sibling = siblings.find(watch.name);
+    if (sibling != siblings.end() && sibling->second == wd) {
+      siblings.erase(sibling);
+    }
+  }
+  watch.live = false;
+}
+
+// Stops watching the directory with the given watch descriptor and all its
+// watched subdirectories.
+void RemoveWatchesRecursively(InotifyState *state, int wd) {
+  std::vector<int> children;
+  for (const auto &child : state->watches[wd].children) {
+    children.push_back(child.second);
+  }
+  for (int child : children) {
+    RemoveWatchesRecursively(state, child);
+  }
+  inotify_rm_watch(state->fd, wd);
+  UnlinkWatch(state, wd);
+}
+
+// Adds a watch for the directory path, then recursively for its
+// subdirectories. The directory is watched before it is listed, so that
+// entries created concurrently are either listed or reported by an event.
+// All visited paths are appended to visited, if non-null. Returns the errno
+// of the first failure to add a watch, or 0.
+int AddWatchesRecursively(InotifyState *state, int parent,
+                          const std::string &name, const std::string &path,
+                          std::vector<std::string> *visited) {
+  int wd = inotify_add_watch(state->fd, path.c_str(), kWatchMask);
+  if (wd != -1 && IsLive(*state, wd) &&
+      (state->watches[wd].parent != parent ||
+       state->watches[wd].name != name)) {
+    // The directory was moved while events were lost, so the paths recorded
+    // for it and everything below it are stale. Start over with a new watch.
+    RemoveWatchesRecursively(state, wd);
+    wd = inotify_add_watch(state->fd, path.c_str(), kWatchMask);
+  }
+  if (wd == -1) {
+    // ENOENT and ENOTDIR mean the directory vanished or was replaced in the
+    // meantime; the corresponding events are already queued.
+    return (errno == ENOENT || errno == ENOTDIR) ? 0 : errno;
+  }
+  if (static_cast<size_t>(wd) >= state->watches.size()) {
+    state->watches.resize(wd + 1);
+  }
+  Watch &watch = state->watches[wd];
+  if (!watch.live) {
+    watch.parent = parent;
+    watch.name = name;
+    watch.live = true;
+    watch.children.clear();
+    if (parent != -1) {
+      state->watches[parent].children[name] = wd;
+    }
+  }
+  if (visited != NULL) {
+    visited->push_back(path);
+  }
+
+  DIR *dir = opendir(path.c_str());
+  if (dir == NULL) {
+    return 0;
+  }
+  int result = 0;
+  struct dirent *entry;
+  while (result == 0 && (entry = readdir(dir)) != NULL) {
+    if (strcmp(entry->d_name, ".") == 0 || strcmp(entry->d_name, "..") == 0) {
+      continue;
+    }
+    std::string child = path + "/" + entry->d_name;
+    bool is_dir = entry->d_type == DT_DIR;
+    if (entry->d_type == DT_UNKNOWN) {
+      struct stat statbuf;
+      is_dir = lstat(child.c_str(), &statbuf) == 0 && S_ISDIR(statbuf.st_mode);
+    }
+    if (is_dir) {
+      result = AddWatchesRecursively(state, wd, entry->d_name, child, visited);
+    } else if (visited != NULL) {
+      visited->push_back(child);
+    }
+  }
+  closedir(dir);
+  return result;
+}
+
+int FindChildWatch(const InotifyState &state, int parent,
+                   const std::string &name) {
+  const auto &children = state.watches[parent].children;
+  auto child = children.find(name);
+  return child == children.end() ? -1 : child->second;
+}
+
+// Returns the watch descriptor of the directory at the given absolute path,
+// found by following its name segments from the root watch, or -1 if it is
+// not watched.
+int FindWatch(const InotifyState &state, const std::string &path) {
+  const std::string &root = state.watches[state.root_wd].name;
+  if (path.compare(0, root.size(), root) != 0) {
+    return -1;
+  }
+  int wd = state.root_wd;
+  size_t pos = root.size();
+  while (wd != -1 && pos < path.size()) {
+    if (path[pos] != '/') {
+      return -1;
+    }
+    size_t end = path.find('/', pos + 1);
+    if (end == std::string::npos) {
+      end = path.size();
+    }
+    wd = FindChildWatch(state, wd, path.substr(pos + 1, end - pos - 1));
+    pos = end;
+  }
+  return wd;
+}
+
+InotifyState *GetState(JNIEnv *env, jobject object) {
+  jclass clazz = env->GetObjectClass(object);
+  jfieldID fid = env->GetFieldID(clazz, "nativePointer", "J");
+  return reinterpret_cast<InotifyState *>(env->GetLongField(object, fid));
+}
+
+jobjectArray ToJavaStrings(JNIEnv *env, const std::set<std::string> &paths) {
+  jclass string_class = env->FindClass("java/lang/String");
+  jobjectArray result = env->NewObjectArray(paths.size(), string_class, NULL);
+  if (result == NULL) {
+    return NULL;
+  }
+  int i = 0;
+  for (auto it = paths.begin(); it != paths.end(); it++, i++) {
+    jstring path = NewStringLatin1(env, it->c_str());
+    if (path == NULL) {
+      return NULL;
+    }
+    env->SetObjectArrayElement(result, i, path);
+    env->DeleteLocalRef(path);
+  }
+  return result;
+}
+
+}  // namespace
+
+/*
+ * Class:     com.google.devtools.build.lib.skyframe.LinuxInotifyDiffAwareness
+ * Method:    create
+ * Signature: (Ljava/lang/String;)V
+ * Throws:    java.io.IOException
+ */
+extern "C" JNIEXPORT void JNICALL
+Java_com_google_devtools_build_lib_skyframe_LinuxInotifyDiffAwareness_create(
+    JNIEnv *env, jobject object, jstring root) {
+  const char *root_chars = GetStringLatin1Chars(env, root);
+  InotifyState *state = new InotifyState;
+  state->fd = inotify_init1(IN_NONBLOCK | IN_CLOEXEC);
+  if (state->fd == -1) {
+    PostSystemException(env, errno, "inotify_init1");
+    delete state;
+    ReleaseStringLatin1Chars(root_chars);
+    return;
+  }
+  state->root_wd = inotify_add_watch(state->fd, root_chars, kWatchMask);
+  int error = state->root_wd == -1 ? errno : 0;
+  if (error == 0) {
+    // Re-adding the root returns the same watch descriptor; this records it.
+    error = AddWatchesRecursively(state, -1, root_chars, root_chars, NULL);
+  }
+  if (error != 0) {
+    // Typically ENOSPC, if fs.inotify.max_user_watches is too low.
+    PostFileException(env, error, root_chars);
+    close(state->fd);
+    delete state;
+    ReleaseStringLatin1Chars(root_chars);
+    return;
+  }
+  ReleaseStringLatin1Chars(root_chars);
+
+  jclass clazz = env->GetObjectClass(object);
+  jfieldID fid = env->GetFieldID(clazz, "nativePointer", "J");
+  env->SetLongField(object, fid, reinterpret_cast<jlong>(state));
+}
+
+/*
+ * Class:     com.google.devtools.build.lib.skyframe.LinuxInotifyDiffAwareness
+ * Method:    poll
+ * Signature: ()[Ljava/lang/String;
+ * Throws:    java.io.IOException
+ *
+ * Drains the inotify queue and returns the absolute paths changed since the
+ * previous call, or null if the queue overflowed, in which case all
+ * directories are watched again and the caller must assume that everything
+ * changed.
+ */
+extern "C" JNIEXPORT jobjectArray JNICALL
+Java_com_google_devtools_build_lib_skyframe_LinuxInotifyDiffAwareness_poll(
+    JNIEnv *env, jobject object) {
+  InotifyState *state = GetState(env, object);
+  std::set<std::string> changed;
+  std::vector<std::string> created_dirs;
+  bool overflow = false;
+  bool root_gone = false;
+
+  // Events are read in batches as large as the buffer allows.
+  char buffer[64 * 1024]
+      __attribute__((aligned(__alignof__(struct inotify_event))));
+  while (true) {
+    ssize_t len = read(state->fd, buffer, sizeof(buffer));
+    if (len == -1) {
+      if (errno == EINTR) {
+        continue;
+      }
+      if (errno == EAGAIN) {
+        break;
+      }
+      PostSystemException(env, errno, "read from inotify");
+      return NULL;
+    }
+    for (char *p = buffer; p < buffer + len;) {
+      const struct inotify_event *event =
+          reinterpret_cast<const struct inotify_event *>(p);
+      p += sizeof(struct inotify_event) + event->len;
+      if (event->mask & IN_Q_OVERFLOW) {
+        overflow = true;
+        continue;
+      }
+      if (!IsLive(*state, event->wd)) {
+        // Events for a watch we already removed.
+        continue;
+      }
+      if (event->mask & IN_IGNORED) {
+        // The directory was deleted, or its file system unmounted.
+        UnlinkWatch(state, event->wd);
+        continue;
+      }
+      if (event->wd == state->root_wd &&
+          (event->mask & (IN_MOVE_SELF | IN_DELETE_SELF))) {
+        // The paths below the root no longer lead to what is watched.
+        root_gone = true;
+        continue;
+      }
+      if (event->len == 0) {
+        // Events about the watched directory itself are also reported, with
+        // a name, through the parent directory.
+        continue;
+      }
+      std::string path = WatchPath(*state, event->wd) + "/" + event->name;
+      changed.insert(path);
+      if ((event->mask & IN_ISDIR) && (event->mask & IN_MOVED_FROM)) {
+        // The directory and everything below it is now elsewhere.
+        int child = FindChildWatch(*state, event->wd, event->name);
+        if (child != -1) {
+          RemoveWatchesRecursively(state, child);
+        }
+      } else if ((event->mask & IN_ISDIR) &&
+                 (event->mask & (IN_CREATE | IN_MOVED_TO))) {
+        created_dirs.push_back(path);
+      }
+    }
+  }
+
+  if (root_gone || !IsLive(*state, state->root_wd)) {
+    PostException(env, ENOENT,
+                  "Root directory " + state->watches[state->root_wd].name +
+                      " became inaccessible.");
+    return NULL;
+  }
+
+  if (overflow) {
+    // Some events were lost; watch every directory that may have been
+    // created in the meantime. Existing watches are kept as they are.
+    int error = AddWatchesRecursively(state, -1,
+                                      state->watches[state->root_wd].name,
+                                      state->watches[state->root_wd].name,
+                                      NULL);
+    if (error != 0) {
+      PostSystemException(env, error, "inotify_add_watch");
+    }
+    return NULL;
+  }
+
+  // Changes in new directories since their creation have not been watched,
+  // so we report their whole contents as changed.
+  for (const std::string &dir : created_dirs) {
+    const char *slash = strrchr(dir.c_str(), '/');
+    std::string parent_path(dir.c_str(), slash - dir.c_str());
+    int parent = FindWatch(*state, parent_path);
+    if (parent == -1) {
+      continue;  // The parent went away in the meantime.
+    }
+    std::vector<std::string> visited;
+    int error = AddWatchesRecursively(state, parent, slash + 1, dir, &visited);
+    if (error != 0) {
+      PostFileException(env, error, dir.c_str());
+      return NULL;
+    }
+    changed.insert(visited.begin(), visited.end());
+  }
+  return ToJavaStrings(env, changed);
+}
+
+/*
+ * Class:     com.google.devtools.build.lib.skyframe.LinuxInotifyDiffAwareness
+ * Method:    doClose
+ * Signature: ()V
+ */
+extern "C" JNIEXPORT void JNICALL
+Java_com_google_devtools_build_lib_skyframe_LinuxInotifyDiffAwareness_doClose(
+    JNIEnv *env, jobject object) {
+  InotifyState *state = GetState(env, object);
+  close(state->fd);
+  delete state;
+}
@@ -47,10 +47,8 @@ using blaze_util::Md5Digest;
 // Like the Sun JDK in its usual configuration, we assume all UNIX
 // filenames are Latin1 encoded.
 
-/**
- * Returns a new Java String for the specified Latin1 characters.
- */
-static jstring NewStringLatin1(JNIEnv *env, const char *str) {
+// See unix_jni.h.
+jstring NewStringLatin1(JNIEnv *env, const char *str) {
     int len = strlen(str);
     jchar buf[512];
     jchar *str1;
@@ -75,13 +73,8 @@ static jstring NewStringLatin1(JNIEnv *env, const char *str) {
     return result;
 }
 
-/**
- * Returns a nul-terminated Latin1-encoded byte array for the
- * specified Java string, or null on failure.  Unencodable characters
- * are replaced by '?'.  Must be followed by a call to
- * ReleaseStringLatin1Chars.
- */
-static const char *GetStringLatin1Chars(JNIEnv *env, jstring jstr) {
+// See unix_jni.h.
+const char *GetStringLatin1Chars(JNIEnv *env, jstring jstr) {
     jint len = env->GetStringLength(jstr);
     const jchar *str = env->GetStringCritical(jstr, NULL);
     if (str == NULL) {
@@ -105,11 +98,8 @@ static const char *GetStringLatin1Chars(JNIEnv *env, jstring jstr) {
     return result;
 }
 
-/**
- * Release the Latin1 chars returned by a prior call to
- * GetStringLatin1Chars.
- */
-static void ReleaseStringLatin1Chars(const char *s) {
+// See unix_jni.h.
+void ReleaseStringLatin1Chars(const char *s) {
   if (s != NULL) {
     free(const_cast<char *>(s));
   }
@@ -348,7 +338,7 @@ static jobject NewErrnoFileStatus(JNIEnv *env,
   }
 
   if (saved_errno != 0) {
-    return env->NewObject(errno_file_status_class, errorno_ctor, errno);
+    return env->NewObject(errno_file_status_class, errorno_ctor, saved_errno);
   }
   return env->NewObject(
       errno_file_status_class, no_error_ctor, stat_ref.st_mode,
@@ -462,6 +452,98 @@ Java_com_google_devtools_build_lib_unix_NativePosixFiles_errnoLstat(JNIEnv *env,
   return ::StatCommon(env, path, portable_lstat, false);
 }
 
+// Runs fstatat(2) on name relative to dirfd, retrying on EINTR. Returns the
+// errno of the call, or 0 on success.
+static int FstatatNoIntr(int dirfd, char *name, portable_stat_struct *statbuf,
+                         int flags) {
+  int r;
+  while ((r = portable_fstatat(dirfd, name, statbuf, flags)) == -1 &&
+         errno == EINTR) { }
+  return r == -1 ? errno : 0;
+}
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.NativePosixFiles
+ * Method:    errnoStatBatch
+ * Signature: (Ljava/lang/String;[Ljava/lang/String;Z)[Lcom/google/devtools/build/lib/unix/ErrnoFileStatus;
+ * Throws:    java.io.IOException
+ *
+ * Stats each of paths relative to the directory dir, in order. A file
+ * descriptor for dir is opened once and shared by all entries, and a file
+ * descriptor for the parent directory of the previous entry is kept open, so
+ * that consecutive entries in the same directory only resolve their base
+ * name. Absolute entries are resolved independently of dir.
+ */
+extern "C" JNIEXPORT jobjectArray JNICALL
+Java_com_google_devtools_build_lib_unix_NativePosixFiles_errnoStatBatch(
+    JNIEnv *env, jclass clazz, jstring dir, jobjectArray paths,
+    jboolean follow_symlinks) {
+  jclass errno_file_status_class =
+      env->FindClass("com/google/devtools/build/lib/unix/ErrnoFileStatus");
+  CHECK(errno_file_status_class != NULL);
+  jsize count = env->GetArrayLength(paths);
+  jobjectArray result =
+      env->NewObjectArray(count, errno_file_status_class, NULL);
+  if (result == NULL) {
+    return NULL;  // OutOfMemoryError already posted.
+  }
+
+  const char *dir_chars = GetStringLatin1Chars(env, dir);
+  int dirfd = ::open(dir_chars, O_RDONLY | O_DIRECTORY | O_CLOEXEC);
+  if (dirfd == -1) {
+    ::PostFileException(env, errno, dir_chars);
+    ::ReleaseStringLatin1Chars(dir_chars);
+    return NULL;
+  }
+  ::ReleaseStringLatin1Chars(dir_chars);
+
+  int flags = follow_symlinks ? 0 : AT_SYMLINK_NOFOLLOW;
+  std::string parent;
+  int parent_fd = -1;
+  for (jsize i = 0; i < count && !env->ExceptionCheck(); i++) {
+    jstring path = static_cast<jstring>(env->GetObjectArrayElement(paths, i));
+    const char *path_chars = GetStringLatin1Chars(env, path);
+    portable_stat_struct statbuf;
+    int saved_errno;
+    const char *slash = strrchr(path_chars, '/');
+    if (slash == NULL) {
+      saved_errno = FstatatNoIntr(dirfd, const_cast<char *>(path_chars),
+                                  &statbuf, flags);
+    } else {
+      // The parent of "/foo" is "/", not "".
+      std::string path_parent(path_chars,
+                              slash == path_chars ? 1 : slash - path_chars);
+      if (parent_fd == -1 || path_parent != parent) {
+        if (parent_fd != -1) {
+          ::close(parent_fd);
+        }
+        parent = path_parent;
+        parent_fd = ::openat(dirfd, parent.c_str(),
+                             O_RDONLY | O_DIRECTORY | O_CLOEXEC);
+      }
+      // If the parent can't be opened (e.g. it doesn't exist or isn't
+      // readable), stat the whole path so that we report the proper errno.
+      saved_errno = parent_fd == -1
+          ? FstatatNoIntr(dirfd, const_cast<char *>(path_chars), &statbuf,
+                          flags)
+          : FstatatNoIntr(parent_fd, const_cast<char *>(slash + 1), &statbuf,
+                          flags);
+    }
+    if (!PostRuntimeException(env, saved_errno, path_chars)) {
+      jobject status = NewErrnoFileStatus(env, saved_errno, statbuf);
+      env->SetObjectArrayElement(result, i, status);
+      env->DeleteLocalRef(status);
+    }
+    ::ReleaseStringLatin1Chars(path_chars);
+    env->DeleteLocalRef(path);
+  }
+  if (parent_fd != -1) {
+    ::close(parent_fd);
+  }
+  ::close(dirfd);
+  return env->ExceptionCheck() ? NULL : result;
+}
+
 /*
  * Class:     com.google.devtools.build.lib.unix.NativePosixFiles
  * Method:    utime
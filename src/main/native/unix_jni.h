@@ -46,6 +46,19 @@ typedef struct stat64 portable_stat_struct;
 #define ENODATA ENOATTR
 #endif
 
+// Returns a new Java String for the specified Latin1 characters. Like the
+// Sun JDK in its usual configuration, we assume all UNIX filenames are Latin1
+// encoded.
+extern jstring NewStringLatin1(JNIEnv *env, const char *str);
+
+// Returns a nul-terminated Latin1-encoded byte array for the specified Java
+// string, or null on failure.  Unencodable characters are replaced by '?'.
+// Must be followed by a call to ReleaseStringLatin1Chars.
+extern const char *GetStringLatin1Chars(JNIEnv *env, jstring jstr);
+
+// Releases the Latin1 chars returned by a prior call to GetStringLatin1Chars.
+extern void ReleaseStringLatin1Chars(const char *s);
+
 // Posts a JNI exception to the current thread with the specified
 // message; the exception's class is determined by the specified UNIX
 // error number.  See package-info.html for details.
@@ -13,6 +13,9 @@
 // limitations under the License.
 package com.google.devtools.build.lib.actions;
 
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -73,6 +76,31 @@ public class MapBasedActionGraphTest {
     actionGraph.unregisterAction(action);
   }
 
+  @Test
+  public void testConflictingActionLeavesGraphUnchanged() throws Exception {
+    MutableActionGraph actionGraph = new MapBasedActionGraph();
+    FileSystem fileSystem = new InMemoryFileSystem(BlazeClock.instance());
+    Path fooPath = fileSystem.getPath("/root/foo");
+    Artifact foo = new Artifact(fooPath, Root.asDerivedRoot(fooPath));
+    Path barPath = fileSystem.getPath("/root/bar");
+    Artifact bar = new Artifact(barPath, Root.asDerivedRoot(barPath));
+    Action action = new TestAction(TestAction.NO_EFFECT,
+        ImmutableSet.<Artifact>of(), ImmutableSet.of(bar));
+    actionGraph.registerAction(action);
+    Action conflictingAction = new TestAction(TestAction.NO_EFFECT,
+        ImmutableSet.<Artifact>of(), ImmutableSet.of(foo, bar));
+    try {
+      actionGraph.registerAction(conflictingAction);
+      fail();
+    } catch (ActionConflictException e) {
+      // Expected.
+    }
+    assertNull(actionGraph.getGeneratingAction(foo));
+    assertSame(action, actionGraph.getGeneratingAction(bar));
+    actionGraph.unregisterAction(action);
+    actionGraph.registerAction(conflictingAction);
+  }
+
   private class ActionRegisterer extends AbstractQueueVisitor {
     private final MutableActionGraph graph = new MapBasedActionGraph();
     private final Artifact output;
@@ -0,0 +1,56 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.io.BaseEncoding;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class DigestTest {
+
+  private static final Metadata DIGEST_METADATA =
+      new Metadata(BaseEncoding.base16().decode("00112233445566778899AABBCCDDEEFF"));
+
+  @Test
+  public void testBuilderMatchesFromMetadata() throws Exception {
+    Map<String, Metadata> mdMap = new HashMap<>();
+    mdMap.put("a/b", DIGEST_METADATA);
+    mdMap.put("a/c", new Metadata(42));
+    mdMap.put("d", null);
+
+    Digest built = new Digest.Builder()
+        .add("d", null)
+        .add("a/c", new Metadata(42))
+        .add("a/b", DIGEST_METADATA)
+        .build();
+
+    assertThat(built).isEqualTo(Digest.fromMetadata(mdMap));
+  }
+
+  @Test
+  public void testBuilderDependsOnPathAndMetadata() throws Exception {
+    Digest digest = new Digest.Builder().add("a", new Metadata(1)).build();
+    assertThat(new Digest.Builder().add("b", new Metadata(1)).build()).isNotEqualTo(digest);
+    assertThat(new Digest.Builder().add("a", new Metadata(2)).build()).isNotEqualTo(digest);
+    assertThat(new Digest.Builder().build()).isNotEqualTo(digest);
+  }
+}
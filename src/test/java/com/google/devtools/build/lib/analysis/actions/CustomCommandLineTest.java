@@ -18,6 +18,9 @@ import static com.google.common.truth.Truth.assertThat;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.analysis.util.BuildViewTestCase;
+import com.google.devtools.build.lib.collect.nestedset.NestedSet;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
+import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
 import org.junit.Test;
@@ -85,4 +88,52 @@ public class CustomCommandLineTest extends BuildViewTestCase {
         .containsExactly("foo", "bar", "-X'42'", "-X'1011'", "baz")
         .inOrder();
   }
+
+  @Test
+  public void testFingerprintDependsOnArguments() throws Exception {
+    NestedSet<Artifact> libs = NestedSetBuilder.<Artifact>stableOrder()
+        .add(getSourceArtifact("pkg/util.a"))
+        .add(getSourceArtifact("pkg2/extra.a"))
+        .build();
+    NestedSet<Artifact> otherLibs = NestedSetBuilder.<Artifact>stableOrder()
+        .add(getSourceArtifact("pkg/util.a"))
+        .build();
+    NestedSet<String> defines = NestedSetBuilder.<String>stableOrder().add("DEBUG").build();
+
+    String fingerprint = fingerprint(new CustomCommandLine.Builder()
+        .add("foo")
+        .addBeforeEachExecPath("-l", libs)
+        .addFormatEach("-D%s", defines)
+        .build());
+    assertThat(fingerprint(new CustomCommandLine.Builder()
+        .add("foo")
+        .addBeforeEachExecPath("-l", libs)
+        .addFormatEach("-D%s", defines)
+        .build()))
+        .isEqualTo(fingerprint);
+    assertThat(fingerprint(new CustomCommandLine.Builder()
+        .add("foo")
+        .addBeforeEachExecPath("-l", otherLibs)
+        .addFormatEach("-D%s", defines)
+        .build()))
+        .isNotEqualTo(fingerprint);
+    assertThat(fingerprint(new CustomCommandLine.Builder()
+        .add("foo")
+        .addBeforeEachExecPath("-L", libs)
+        .addFormatEach("-D%s", defines)
+        .build()))
+        .isNotEqualTo(fingerprint);
+    assertThat(fingerprint(new CustomCommandLine.Builder()
+        .add("bar")
+        .addBeforeEachExecPath("-l", libs)
+        .addFormatEach("-D%s", defines)
+        .build()))
+        .isNotEqualTo(fingerprint);
+  }
+
+  private static String fingerprint(CommandLine commandLine) {
+    Fingerprint fingerprint = new Fingerprint();
+    commandLine.addToFingerprint(fingerprint);
+    return fingerprint.hexDigestAndReset();
+  }
 }
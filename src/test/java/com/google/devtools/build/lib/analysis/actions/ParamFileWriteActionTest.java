@@ -31,6 +31,8 @@ import com.google.devtools.build.lib.actions.ParameterFile.ParameterFileType;
 import com.google.devtools.build.lib.actions.Root;
 import com.google.devtools.build.lib.actions.util.ActionsTestUtil;
 import com.google.devtools.build.lib.analysis.util.BuildViewTestCase;
+import com.google.devtools.build.lib.collect.nestedset.NestedSet;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
 import com.google.devtools.build.lib.exec.util.TestExecutorBuilder;
 import com.google.devtools.build.lib.util.io.FileOutErr;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
@@ -102,6 +104,24 @@ public class ParamFileWriteActionTest extends BuildViewTestCase {
         content.trim());
   }
 
+  @Test
+  public void testWriteShellQuotedCommandLine() throws Exception {
+    NestedSet<String> values = NestedSetBuilder.<String>stableOrder()
+        .add("plain")
+        .add("with space")
+        .add("it's")
+        .build();
+    Action action = createParameterFileWriteAction(
+        ImmutableList.<Artifact>of(),
+        CustomCommandLine.builder().add("--flag1").addBeforeEach("--value", values).build(),
+        ParameterFileType.SHELL_QUOTED);
+    ActionExecutionContext context = actionExecutionContext();
+    action.execute(context);
+    String content = new String(FileSystemUtils.readContentAsLatin1(outputArtifact.getPath()));
+    assertEquals(
+        "--flag1\n--value\nplain\n--value\n'with space'\n--value\n'it'\\''s'\n", content);
+  }
+
   private Artifact createTreeArtifact(String rootRelativePath) {
     PathFragment relpath = new PathFragment(rootRelativePath);
     return new SpecialArtifact(
@@ -121,12 +141,18 @@ public class ParamFileWriteActionTest extends BuildViewTestCase {
 
   private ParameterFileWriteAction createParameterFileWriteAction(
       Iterable<Artifact> inputTreeArtifacts, CommandLine commandLine) {
+    return createParameterFileWriteAction(
+        inputTreeArtifacts, commandLine, ParameterFileType.UNQUOTED);
+  }
+
+  private ParameterFileWriteAction createParameterFileWriteAction(
+      Iterable<Artifact> inputTreeArtifacts, CommandLine commandLine, ParameterFileType type) {
     return new ParameterFileWriteAction(
         ActionsTestUtil.NULL_ACTION_OWNER,
         inputTreeArtifacts,
         outputArtifact,
         commandLine,
-        ParameterFileType.UNQUOTED,
+        type,
         StandardCharsets.ISO_8859_1);
   }
 
@@ -0,0 +1,113 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.bazel.repository;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for {@link ExtractionPool}.
+ */
+@RunWith(JUnit4.class)
+public class ExtractionPoolTest {
+
+  private FileSystem fs = new InMemoryFileSystem();
+
+  private static ExtractionPool.Write writeFile(final Path path, final String content) {
+    return new ExtractionPool.Write() {
+      @Override
+      public void run() throws IOException {
+        FileSystemUtils.createDirectoryAndParents(path.getParentDirectory());
+        FileSystemUtils.writeContent(path, StandardCharsets.UTF_8, content);
+      }
+    };
+  }
+
+  @Test
+  public void testWritesAllEntries() throws Exception {
+    try (ExtractionPool pool = new ExtractionPool()) {
+      for (int i = 0; i < 100; i++) {
+        Path path = fs.getPath("/repo/dir" + (i % 7) + "/file" + i);
+        pool.submit(path, writeFile(path, "content" + i));
+      }
+      pool.awaitCompletion();
+    }
+    for (int i = 0; i < 100; i++) {
+      assertThat(FileSystemUtils.readContent(
+          fs.getPath("/repo/dir" + (i % 7) + "/file" + i), StandardCharsets.UTF_8))
+          .isEqualTo("content" + i);
+    }
+  }
+
+  @Test
+  public void testLaterEntryForSamePathWins() throws Exception {
+    Path path = fs.getPath("/repo/file");
+    try (ExtractionPool pool = new ExtractionPool()) {
+      for (int i = 0; i < 50; i++) {
+        pool.submit(path, writeFile(path, "version" + i));
+      }
+      pool.awaitCompletion();
+    }
+    assertThat(FileSystemUtils.readContent(path, StandardCharsets.UTF_8)).isEqualTo("version49");
+  }
+
+  @Test
+  public void testEntryBelowSymbolicLinkWaitsForLink() throws Exception {
+    final Path link = fs.getPath("/repo/link");
+    FileSystemUtils.createDirectoryAndParents(fs.getPath("/repo/target"));
+    Path file = fs.getPath("/repo/link/file");
+    try (ExtractionPool pool = new ExtractionPool()) {
+      pool.submitSymbolicLink(link, new ExtractionPool.Write() {
+        @Override
+        public void run() throws IOException {
+          link.createSymbolicLink(new PathFragment("target"));
+        }
+      });
+      pool.submit(file, writeFile(file, "content"));
+      pool.awaitCompletion();
+    }
+    assertThat(FileSystemUtils.readContent(fs.getPath("/repo/target/file"), StandardCharsets.UTF_8))
+        .isEqualTo("content");
+  }
+
+  @Test
+  public void testFailureIsRethrown() throws Exception {
+    try (ExtractionPool pool = new ExtractionPool()) {
+      pool.submit(fs.getPath("/repo/file"), new ExtractionPool.Write() {
+        @Override
+        public void run() throws IOException {
+          throw new IOException("disk full");
+        }
+      });
+      pool.awaitCompletion();
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessage("disk full");
+    }
+  }
+}
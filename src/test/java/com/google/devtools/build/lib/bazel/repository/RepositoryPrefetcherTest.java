@@ -0,0 +1,215 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.bazel.repository;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.bazel.repository.downloader.HttpDownloader;
+import com.google.devtools.build.lib.bazel.repository.downloader.RepositoryCache;
+import com.google.devtools.build.lib.events.NullEventHandler;
+import com.google.devtools.build.lib.rules.repository.RepositoryFunction.RepositoryFunctionException;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link RepositoryPrefetcher}.
+ */
+@RunWith(JUnit4.class)
+public class RepositoryPrefetcherTest {
+  private static final String HELLO_SHA256 =
+      "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+  private static final String WORLD_SHA256 =
+      "486ea46224d1bb4fb680f34f7c9ad96a8f24ec88be73ea8e5a6c65260e9cb8a7";
+
+  private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+  private final CountDownLatch requested = new CountDownLatch(1);
+  private final CountDownLatch respond = new CountDownLatch(1);
+  private HttpServer server;
+  private FileSystem fs;
+  private RepositoryCache cache;
+  private RepositoryPrefetcher prefetcher;
+
+  @Before
+  public void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        requests.putIfAbsent(path, new AtomicInteger());
+        requests.get(path).incrementAndGet();
+        requested.countDown();
+        try {
+          respond.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        byte[] body;
+        int status = 200;
+        if (path.equals("/hello")) {
+          body = "hello".getBytes(StandardCharsets.UTF_8);
+        } else if (path.equals("/world")) {
+          body = "world".getBytes(StandardCharsets.UTF_8);
+        } else if (path.equals("/corrupt")) {
+          body = "hellp".getBytes(StandardCharsets.UTF_8);
+        } else {
+          body = "not found".getBytes(StandardCharsets.UTF_8);
+          status = 404;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      }
+    });
+    server.start();
+
+    fs = new InMemoryFileSystem();
+    cache = new RepositoryCache(fs.getPath("/cache"));
+    prefetcher = new RepositoryPrefetcher(1, cache, fs.getPath("/output/prefetch"),
+        NullEventHandler.INSTANCE, ImmutableMap.<String, String>of());
+  }
+
+  @After
+  public void tearDown() {
+    respond.countDown();
+    prefetcher.shutdown();
+    server.stop(0);
+  }
+
+  private String url(String path) {
+    return "http://" + server.getAddress().getAddress().getHostAddress() + ":"
+        + server.getAddress().getPort() + path;
+  }
+
+  private int requestCount(String path) {
+    AtomicInteger count = requests.get(path);
+    return count == null ? 0 : count.get();
+  }
+
+  /** Waits until the first request arrived, then lets it and all later ones finish. */
+  private void prefetch(String path, String sha256) throws Exception {
+    prefetcher.start(url(path), sha256);
+    assertThat(requested.await(10, TimeUnit.SECONDS)).isTrue();
+    respond.countDown();
+    // Running downloads are waited for, not cancelled.
+    prefetcher.await(sha256);
+  }
+
+  private Path download(String path, String sha256) throws Exception {
+    Path output = fs.getPath("/output/external/repo");
+    FileSystemUtils.createDirectoryAndParents(output);
+    return HttpDownloader.download(url(path), sha256, "", output, NullEventHandler.INSTANCE,
+        ImmutableMap.<String, String>of(), cache);
+  }
+
+  @Test
+  public void testPrefetchPopulatesCacheWithoutCountingLookups() throws Exception {
+    prefetch("/hello", HELLO_SHA256);
+    assertThat(cache.contains(HELLO_SHA256)).isTrue();
+    assertThat(cache.wasUsed()).isFalse();
+    assertThat(fs.getPath("/output/prefetch").getDirectoryEntries()).isEmpty();
+  }
+
+  @Test
+  public void testLaterDownloadIsACacheHit() throws Exception {
+    prefetch("/hello", HELLO_SHA256);
+    Path file = download("/hello", HELLO_SHA256);
+    assertThat(FileSystemUtils.readContent(file, StandardCharsets.UTF_8)).isEqualTo("hello");
+    assertThat(cache.getStatistics()).isEqualTo("1 hits, 0 misses");
+    assertThat(requestCount("/hello")).isEqualTo(1);
+  }
+
+  @Test
+  public void testCachedFileIsNotPrefetched() throws Exception {
+    Path source = fs.getPath("/source/hello");
+    FileSystemUtils.createDirectoryAndParents(source.getParentDirectory());
+    FileSystemUtils.writeContent(source, StandardCharsets.UTF_8, "hello");
+    cache.put(HELLO_SHA256, source);
+
+    prefetcher.start(url("/hello"), HELLO_SHA256);
+    prefetcher.await(HELLO_SHA256);
+    assertThat(requestCount("/hello")).isEqualTo(0);
+  }
+
+  @Test
+  public void testFileWithoutSha256IsNotPrefetched() throws Exception {
+    prefetcher.start(url("/hello"), "");
+    prefetcher.await("");
+    assertThat(requestCount("/hello")).isEqualTo(0);
+  }
+
+  @Test
+  public void testFailedPrefetchIsLeftToTheRepositoryFunction() throws Exception {
+    prefetch("/missing", HELLO_SHA256);
+    assertThat(cache.contains(HELLO_SHA256)).isFalse();
+    assertThat(fs.getPath("/output/prefetch").getDirectoryEntries()).isEmpty();
+
+    try {
+      download("/missing", HELLO_SHA256);
+      fail();
+    } catch (RepositoryFunctionException expected) {
+      assertThat(expected.getMessage()).contains("404");
+    }
+    assertThat(requestCount("/missing")).isEqualTo(2);
+    assertThat(cache.getStatistics()).isEqualTo("0 hits, 1 misses");
+  }
+
+  @Test
+  public void testCorruptPrefetchIsNotCached() throws Exception {
+    prefetch("/corrupt", HELLO_SHA256);
+    assertThat(cache.contains(HELLO_SHA256)).isFalse();
+    assertThat(fs.getPath("/output/prefetch").getDirectoryEntries()).isEmpty();
+  }
+
+  @Test
+  public void testAwaitCancelsPendingPrefetch() throws Exception {
+    // The only thread is busy with the first file.
+    prefetcher.start(url("/hello"), HELLO_SHA256);
+    assertThat(requested.await(10, TimeUnit.SECONDS)).isTrue();
+    prefetcher.start(url("/world"), WORLD_SHA256);
+    prefetcher.await(WORLD_SHA256);
+
+    respond.countDown();
+    prefetcher.await(HELLO_SHA256);
+    assertThat(cache.contains(HELLO_SHA256)).isTrue();
+    assertThat(cache.contains(WORLD_SHA256)).isFalse();
+    assertThat(requestCount("/world")).isEqualTo(0);
+  }
+}
@@ -0,0 +1,82 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.bazel.repository.downloader;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for {@link RepositoryCache}.
+ */
+@RunWith(JUnit4.class)
+public class RepositoryCacheTest {
+  private static final String SHA256 =
+      "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+
+  private FileSystem fs;
+  private RepositoryCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    fs = new InMemoryFileSystem();
+    cache = new RepositoryCache(fs.getPath("/cache"));
+  }
+
+  @Test
+  public void testMissingEntry() throws Exception {
+    Path destination = fs.getPath("/out/hello");
+    assertThat(cache.get(SHA256, destination)).isFalse();
+    assertThat(destination.exists()).isFalse();
+    assertThat(cache.wasUsed()).isTrue();
+    assertThat(cache.getStatistics()).isEqualTo("0 hits, 1 misses");
+  }
+
+  @Test
+  public void testPutAndGet() throws Exception {
+    Path source = fs.getPath("/download/hello");
+    FileSystemUtils.createDirectoryAndParents(source.getParentDirectory());
+    FileSystemUtils.writeContent(source, StandardCharsets.UTF_8, "hello");
+    cache.put(SHA256, source);
+
+    Path destination = fs.getPath("/out/hello");
+    FileSystemUtils.createDirectoryAndParents(destination.getParentDirectory());
+    FileSystemUtils.writeContent(destination, StandardCharsets.UTF_8, "stale");
+    assertThat(cache.get(SHA256, destination)).isTrue();
+    assertThat(FileSystemUtils.readContent(destination, StandardCharsets.UTF_8))
+        .isEqualTo("hello");
+    assertThat(cache.getStatistics()).isEqualTo("1 hits, 0 misses");
+  }
+
+  @Test
+  public void testInvalidHashIsIgnored() throws Exception {
+    Path source = fs.getPath("/download/hello");
+    FileSystemUtils.createDirectoryAndParents(source.getParentDirectory());
+    FileSystemUtils.writeContent(source, StandardCharsets.UTF_8, "hello");
+    cache.put("../../escape", source);
+    assertThat(cache.get("../../escape", fs.getPath("/out/hello"))).isFalse();
+    assertThat(cache.wasUsed()).isFalse();
+  }
+}
@@ -0,0 +1,89 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Tests for {@link NestedSetFingerprintCache}. */
+@RunWith(JUnit4.class)
+public class NestedSetFingerprintCacheTest {
+
+  private final NestedSetFingerprintCache<Object> cache =
+      new NestedSetFingerprintCache<>(Functions.toStringFunction());
+
+  private static NestedSet<String> set(String... elements) {
+    return NestedSetBuilder.<String>stableOrder().addAll(Arrays.asList(elements)).build();
+  }
+
+  @Test
+  public void digestDependsOnContentsAndOrder() {
+    byte[] digest = cache.getDigest(set("a", "b"));
+    assertThat(cache.getDigest(set("a", "b"))).isEqualTo(digest);
+    assertThat(cache.getDigest(set("b", "a"))).isNotEqualTo(digest);
+    assertThat(cache.getDigest(set("a", "b", "c"))).isNotEqualTo(digest);
+    assertThat(cache.getDigest(set("ab"))).isNotEqualTo(digest);
+  }
+
+  @Test
+  public void digestIsComputedOncePerSet() {
+    final AtomicInteger renderings = new AtomicInteger();
+    NestedSetFingerprintCache<String> countingCache = new NestedSetFingerprintCache<>(
+        new Function<String, String>() {
+          @Override
+          public String apply(String input) {
+            renderings.incrementAndGet();
+            return input;
+          }
+        });
+    NestedSet<String> set = set("a", "b", "c");
+
+    byte[] digest = countingCache.getDigest(set);
+    assertThat(countingCache.getDigest(set)).isEqualTo(digest);
+    assertThat(renderings.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void returnedDigestIsACopy() {
+    NestedSet<String> set = set("a", "b");
+    byte[] digest = cache.getDigest(set);
+    byte[] expected = digest.clone();
+
+    digest[0]++;
+    assertThat(cache.getDigest(set)).isEqualTo(expected);
+  }
+
+  @Test
+  public void nullRenderingsAreSkipped() {
+    NestedSetFingerprintCache<String> skippingCache = new NestedSetFingerprintCache<>(
+        new Function<String, String>() {
+          @Override
+          public String apply(String input) {
+            return input.startsWith("skip") ? null : input;
+          }
+        });
+
+    assertThat(skippingCache.getDigest(set("a", "skip", "b")))
+        .isEqualTo(skippingCache.getDigest(set("a", "b")));
+  }
+}
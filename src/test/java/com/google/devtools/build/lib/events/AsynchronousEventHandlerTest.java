@@ -0,0 +1,122 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.events;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Function;
+import com.google.devtools.build.lib.util.io.OutErr;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link AsynchronousEventHandler}.
+ */
+@RunWith(JUnit4.class)
+public class AsynchronousEventHandlerTest {
+
+  private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+  private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+  /** Writes the message of each event to stdout, and flushes. */
+  private static final Function<OutErr, EventHandler> PRINTING =
+      new Function<OutErr, EventHandler>() {
+        @Override
+        public EventHandler apply(OutErr outErr) {
+          final PrintStream printStream = new PrintStream(outErr.getOutputStream(), true);
+          return new EventHandler() {
+            @Override
+            public void handle(Event event) {
+              printStream.println(event.getMessage());
+            }
+          };
+        }
+      };
+
+  @Test
+  public void testRemovingHandlerWritesAllOutput() {
+    Reporter reporter = new Reporter();
+    AsynchronousEventHandler handler =
+        AsynchronousEventHandler.create(OutErr.create(out, err), PRINTING, 10);
+    reporter.addHandler(handler);
+    for (int i = 0; i < 100; i++) {
+      reporter.handle(Event.info("event" + i));
+    }
+    reporter.removeHandler(handler);
+
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      expected.append("event").append(i).append('\n');
+    }
+    assertThat(out.toString()).isEqualTo(expected.toString());
+    handler.close();
+  }
+
+  @Test
+  public void testEventsOfEachThreadStayInOrder() throws Exception {
+    final AsynchronousEventHandler handler =
+        AsynchronousEventHandler.create(OutErr.create(out, err), PRINTING, 5);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      final int thread = t;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 200; i++) {
+            handler.handle(Event.info(thread + " " + i));
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    handler.close();
+
+    List<List<Integer>> seen = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      seen.add(new ArrayList<Integer>());
+    }
+    for (String line : out.toString().split("\n")) {
+      String[] parts = line.split(" ");
+      seen.get(Integer.parseInt(parts[0])).add(Integer.parseInt(parts[1]));
+    }
+    for (List<Integer> events : seen) {
+      assertThat(events).hasSize(200);
+      List<Integer> sorted = new ArrayList<>(events);
+      Collections.sort(sorted);
+      assertThat(events).isEqualTo(sorted);
+    }
+  }
+
+  @Test
+  public void testEventsAfterCloseArePassedOnDirectly() {
+    AsynchronousEventHandler handler =
+        AsynchronousEventHandler.create(OutErr.create(out, err), PRINTING, 10);
+    handler.close();
+    handler.handle(Event.info("late"));
+    assertThat(out.toString()).isEqualTo("late\n");
+  }
+}
@@ -0,0 +1,136 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+
+/** Tests for {@link RunfilesTreeUpdater}. */
+@RunWith(JUnit4.class)
+public class RunfilesTreeUpdaterTest {
+  private Path inputManifest;
+  private Path treeRoot;
+
+  @Before
+  public final void createPaths() throws Exception {
+    InMemoryFileSystem fs = new InMemoryFileSystem();
+    inputManifest = fs.getPath("/execroot/bin/foo.runfiles_manifest");
+    treeRoot = fs.getPath("/execroot/bin/foo.runfiles");
+    FileSystemUtils.createDirectoryAndParents(inputManifest.getParentDirectory());
+  }
+
+  private void writeManifest(Path manifest, String... lines) throws Exception {
+    StringBuilder content = new StringBuilder();
+    for (String line : lines) {
+      content.append(line).append('\n');
+    }
+    FileSystemUtils.writeContent(manifest, StandardCharsets.ISO_8859_1, content.toString());
+  }
+
+  /** Creates the tree the way build-runfiles would. */
+  private void buildTree(String... lines) throws Exception {
+    for (String line : lines) {
+      int space = line.indexOf(' ');
+      Path path = treeRoot.getRelative(line.substring(0, space));
+      FileSystemUtils.createDirectoryAndParents(path.getParentDirectory());
+      String target = line.substring(space + 1);
+      if (target.isEmpty()) {
+        FileSystemUtils.createEmptyFile(path);
+      } else {
+        path.createSymbolicLink(new PathFragment(target));
+      }
+    }
+    writeManifest(treeRoot.getChild(RunfilesTreeUpdater.OUTPUT_MANIFEST), lines);
+  }
+
+  @Test
+  public void testNoPreviousTree() throws Exception {
+    writeManifest(inputManifest, "ws/a /src/a");
+    assertThat(RunfilesTreeUpdater.update(inputManifest, treeRoot)).isFalse();
+    assertThat(treeRoot.exists()).isFalse();
+  }
+
+  @Test
+  public void testMalformedManifest() throws Exception {
+    buildTree("ws/a /src/a");
+    writeManifest(inputManifest, "ws/a relative/target");
+    assertThat(RunfilesTreeUpdater.update(inputManifest, treeRoot)).isFalse();
+    assertThat(treeRoot.getRelative("ws/a").readSymbolicLink())
+        .isEqualTo(new PathFragment("/src/a"));
+  }
+
+  @Test
+  public void testAppliesDifference() throws Exception {
+    buildTree("ws/a /src/a", "ws/b /src/b", "ws/dir/c /src/c", "ws/empty ");
+    writeManifest(inputManifest, "ws/a /src/a", "ws/b /src/b2", "ws/new/d /src/d", "ws/empty ");
+
+    assertThat(RunfilesTreeUpdater.update(inputManifest, treeRoot)).isTrue();
+
+    assertThat(treeRoot.getRelative("ws/a").readSymbolicLink())
+        .isEqualTo(new PathFragment("/src/a"));
+    assertThat(treeRoot.getRelative("ws/b").readSymbolicLink())
+        .isEqualTo(new PathFragment("/src/b2"));
+    assertThat(treeRoot.getRelative("ws/new/d").readSymbolicLink())
+        .isEqualTo(new PathFragment("/src/d"));
+    assertThat(treeRoot.getRelative("ws/empty").isFile(Symlinks.NOFOLLOW)).isTrue();
+    assertThat(treeRoot.getRelative("ws/dir").exists(Symlinks.NOFOLLOW)).isFalse();
+    assertThat(FileSystemUtils.readContent(
+        treeRoot.getChild(RunfilesTreeUpdater.OUTPUT_MANIFEST), StandardCharsets.ISO_8859_1))
+        .isEqualTo(FileSystemUtils.readContent(inputManifest, StandardCharsets.ISO_8859_1));
+  }
+
+  @Test
+  public void testFileReplacedByDirectory() throws Exception {
+    buildTree("ws/a /src/a", "ws/b/c /src/c");
+    writeManifest(inputManifest, "ws/a/x /src/x", "ws/b /src/b");
+
+    assertThat(RunfilesTreeUpdater.update(inputManifest, treeRoot)).isTrue();
+
+    assertThat(treeRoot.getRelative("ws/a/x").readSymbolicLink())
+        .isEqualTo(new PathFragment("/src/x"));
+    assertThat(treeRoot.getRelative("ws/b").readSymbolicLink())
+        .isEqualTo(new PathFragment("/src/b"));
+  }
+
+  @Test
+  public void testManyChangesInParallel() throws Exception {
+    String[] oldLines = new String[3000];
+    String[] newLines = new String[3000];
+    for (int i = 0; i < oldLines.length; i++) {
+      oldLines[i] = "ws/dir" + (i % 10) + "/f" + i + " /src/old" + i;
+      newLines[i] = "ws/dir" + (i % 10) + "/f" + i + " /src/new" + i;
+    }
+    buildTree(oldLines);
+    writeManifest(inputManifest, newLines);
+
+    assertThat(RunfilesTreeUpdater.update(inputManifest, treeRoot)).isTrue();
+
+    for (int i = 0; i < newLines.length; i++) {
+      assertThat(treeRoot.getRelative("ws/dir" + (i % 10) + "/f" + i).readSymbolicLink())
+          .isEqualTo(new PathFragment("/src/new" + i));
+    }
+  }
+}
@@ -165,6 +165,30 @@ public class PackageFactoryTest extends PackageFactoryTestBase {
     assertTrue(pkg.containsErrors());
   }
 
+  @Test
+  public void testParallelEvaluationKeepsStatementOrder() throws Exception {
+    events.setFailFast(false);
+    packages.factory().setBuildFileEvaluationThreads(4);
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      lines.add("genrule(name = 'gen" + i + "', outs = ['out" + i + "'], cmd = '')");
+    }
+    lines.add(10, "genrule(name = 'gen3', outs = ['dup'], cmd = '')");
+    lines.add("exports_files(glob(['*.txt']))");
+    Path buildFile = scratch.file("/parallel/BUILD", lines.toArray(new String[0]));
+    scratch.file("/parallel/a.txt");
+    Package pkg = packages.createPackage("parallel", buildFile);
+
+    events.assertContainsError(
+        "genrule rule 'gen3' in package 'parallel' conflicts with existing genrule rule");
+    assertTrue(pkg.containsErrors());
+    assertEquals(
+        "//parallel:out3",
+        pkg.getRule("gen3").getOutputFiles().iterator().next().getLabel().toString());
+    assertNotNull(pkg.getRule("gen19"));
+    assertNotNull(pkg.getTarget("a.txt"));
+  }
+
   @Test
   public void testDuplicatedDependencies() throws Exception {
     events.setFailFast(false);
@@ -0,0 +1,273 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimaps;
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.events.EventCollector;
+import com.google.devtools.build.lib.events.EventKind;
+import com.google.devtools.build.lib.packages.Package.NameConflictException;
+import com.google.devtools.build.lib.packages.PackageFactory.PackageContext;
+import com.google.devtools.build.lib.packages.RuleFactory.BuildLangTypedAttributeValuesMap;
+import com.google.devtools.build.lib.packages.RuleFactory.InvalidRuleException;
+import com.google.devtools.build.lib.packages.util.PackageFactoryApparatus;
+import com.google.devtools.build.lib.syntax.BaseFunction;
+import com.google.devtools.build.lib.syntax.Environment;
+import com.google.devtools.build.lib.syntax.Environment.Extension;
+import com.google.devtools.build.lib.syntax.Environment.NoSuchVariableException;
+import com.google.devtools.build.lib.syntax.EvalException;
+import com.google.devtools.build.lib.syntax.FuncallExpression;
+import com.google.devtools.build.lib.syntax.FunctionSignature;
+import com.google.devtools.build.lib.syntax.Mutability;
+import com.google.devtools.build.lib.syntax.Runtime;
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.testutil.TestRuleClassProvider;
+import com.google.devtools.build.lib.vfs.Path;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for {@link ParallelBuildFileEvaluator}. Each BUILD file is evaluated both one statement
+ * after the other and in parallel, and the packages and events must be the same.
+ */
+@RunWith(JUnit4.class)
+public class ParallelBuildFileEvaluatorTest {
+
+  private static final int THREADS = 4;
+
+  // For each name a macro or rule function was called with, whether the calls were evaluated
+  // speculatively.
+  private final ListMultimap<String, Boolean> speculative =
+      Multimaps.synchronizedListMultimap(ArrayListMultimap.<String, Boolean>create());
+
+  private static PackageContext getContext(Environment env) {
+    try {
+      return (PackageContext) env.lookup(PackageFactory.PKG_CONTEXT);
+    } catch (NoSuchVariableException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void record(String name, Environment env) {
+    speculative.put(name, getContext(env).isSpeculative());
+  }
+
+  /** The function "record(name)" of the macros. */
+  private final class Record extends BaseFunction {
+    Record() {
+      super("record", FunctionSignature.of("name"));
+    }
+
+    @Override
+    protected Object call(Object[] args, FuncallExpression ast, Environment env) {
+      record((String) args[0], env);
+      return Runtime.NONE;
+    }
+  }
+
+  /** A rule function that is not native, like those of Skylark rules, for genrules. */
+  private final class TestRuleFunction extends BaseFunction implements RuleFunction {
+    TestRuleFunction() {
+      super("test_rule", FunctionSignature.KWARGS);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Object call(Object[] args, FuncallExpression ast, Environment env)
+        throws EvalException, InterruptedException {
+      Map<String, Object> attributes = (Map<String, Object>) args[0];
+      record((String) attributes.get("name"), env);
+      PackageContext context = getContext(env);
+      RuleClass ruleClass =
+          TestRuleClassProvider.getRuleClassProvider().getRuleClassMap().get("genrule");
+      try {
+        return RuleFactory.createAndAddRule(context, ruleClass,
+            new BuildLangTypedAttributeValuesMap(attributes), ast, env,
+            context.getAttributeContainerFactory().apply(ruleClass));
+      } catch (InvalidRuleException | NameConflictException e) {
+        throw new EvalException(ast.getLocation(), e.getMessage());
+      }
+    }
+  }
+
+  private final Scratch scratch = new Scratch();
+  private final EventCollector events = new EventCollector(EventKind.ALL_EVENTS);
+  private final PackageFactoryApparatus packages = new PackageFactoryApparatus(events);
+  private Map<String, Extension> imports;
+
+  @Before
+  public final void defineMacros() throws Exception {
+    try (Mutability mutability = Mutability.create("test macros")) {
+      Environment env = Environment.builder(mutability)
+          .setSkylark()
+          .setGlobals(Environment.SKYLARK)
+          .setEventHandler(events)
+          .setFileContentHashCode("macros")
+          .build()
+          .setupOverride("native", packages.factory().getNativeModule(false))
+          .setupOverride("record", new Record())
+          .setupOverride("test_rule", new TestRuleFunction());
+      env.eval(
+          "def gen(name):",
+          "  record(name)",
+          "  print('gen ' + name)",
+          "  native.genrule(name = name, outs = [name + '.out'], cmd = '')",
+          "def add(names, name):",
+          "  record(name)",
+          "  names.append(name)",
+          "def check(name):",
+          "  record(name)",
+          "  if name.endswith('5'):",
+          "    fail('no ' + name)",
+          "  native.genrule(name = name, outs = [name + '.out'], cmd = '')");
+      imports = ImmutableMap.of("//ext:macros.bzl", new Extension(env));
+    }
+  }
+
+  private static List<String> calls(String format, int count) {
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      lines.add(String.format(format, i));
+    }
+    return lines;
+  }
+
+  private static List<String> describe(Package pkg, Iterable<Event> events) {
+    List<String> result = new ArrayList<>();
+    result.add("containsErrors: " + pkg.containsErrors());
+    for (Target target : pkg.getTargets()) {
+      result.add(target instanceof Rule
+          ? target + " " + ((Rule) target).getOutputFiles()
+          : target.toString());
+    }
+    for (Event event : events) {
+      result.add(event.toString());
+    }
+    return result;
+  }
+
+  private Package eval(int threads, List<String> lines) throws Exception {
+    events.clear();
+    speculative.clear();
+    packages.factory().setBuildFileEvaluationThreads(threads);
+    Path buildFile = scratch.overwriteFile("/pkg/BUILD", lines.toArray(new String[0]));
+    return packages.eval("pkg", buildFile, imports);
+  }
+
+  /**
+   * Evaluates the BUILD file with {@code lines} in order and in parallel, checks that both give
+   * the same package and events, and returns the package of the parallel evaluation.
+   */
+  private Package assertSameAsSerial(List<String> lines) throws Exception {
+    List<String> serial = describe(eval(1, lines), events);
+    Package pkg = eval(THREADS, lines);
+    assertThat(describe(pkg, events)).containsExactlyElementsIn(serial).inOrder();
+    return pkg;
+  }
+
+  @Test
+  public void testMacroCalls() throws Exception {
+    List<String> lines = new ArrayList<>();
+    lines.add("load('//ext:macros.bzl', 'gen')");
+    lines.addAll(calls("gen('gen%d')", 20));
+    lines.add(10, "genrule(name = 'native', outs = ['native.out'], cmd = '')");
+    Package pkg = assertSameAsSerial(lines);
+
+    assertThat(pkg.containsErrors()).isFalse();
+    assertThat(pkg.getRule("gen19")).isNotNull();
+    assertThat(speculative.keySet()).hasSize(20);
+    assertThat(speculative.values()).containsExactlyElementsIn(Collections.nCopies(20, true));
+  }
+
+  @Test
+  public void testRuleFunctionCalls() throws Exception {
+    List<String> lines = new ArrayList<>();
+    lines.add("load('//ext:macros.bzl', 'test_rule')");
+    lines.addAll(calls("test_rule(name = 'rule%1$d', outs = ['rule%1$d.out'], cmd = '')", 10));
+    Package pkg = assertSameAsSerial(lines);
+
+    assertThat(pkg.containsErrors()).isFalse();
+    assertThat(pkg.getRule("rule9").getOutputFiles().iterator().next().getName())
+        .isEqualTo("rule9.out");
+    assertThat(speculative.values()).containsExactlyElementsIn(Collections.nCopies(10, true));
+  }
+
+  @Test
+  public void testMutatingBuildFileValueFallsBackToSerialEvaluation() throws Exception {
+    List<String> lines = new ArrayList<>();
+    lines.add("load('//ext:macros.bzl', 'add', 'gen')");
+    lines.add("names = []");
+    lines.addAll(calls("add(names, 'add%d')", 10));
+    lines.addAll(calls("gen('gen%d')", 10));
+    lines.add("genrule(name = 'all', outs = names, cmd = '')");
+    Package pkg = assertSameAsSerial(lines);
+
+    assertThat(pkg.containsErrors()).isFalse();
+    List<String> outs = new ArrayList<>();
+    for (OutputFile out : pkg.getRule("all").getOutputFiles()) {
+      outs.add(out.getName());
+    }
+    assertThat(outs).containsExactlyElementsIn(calls("add%d", 10)).inOrder();
+    // The first call fails to append to the list speculatively and is executed again.
+    assertThat(speculative.get("add0")).containsExactly(true, false).inOrder();
+    // As that succeeds, later calls of the macro are executed in order right away, but other
+    // macros are still evaluated speculatively.
+    assertThat(speculative.get("add9")).containsExactly(false);
+    assertThat(speculative.get("gen9")).containsExactly(true);
+  }
+
+  @Test
+  public void testErrorsAreReportedInStatementOrder() throws Exception {
+    List<String> lines = new ArrayList<>();
+    lines.add("load('//ext:macros.bzl', 'check')");
+    lines.addAll(calls("check('check%d')", 20));
+    lines.add(13, "genrule(name = 'bad', outs = 'bad.out', cmd = '')");
+    lines.add(8, "check('check3')");
+    lines.add(3, "exports_files(['check2.txt'])");
+    Package pkg = assertSameAsSerial(lines);
+
+    assertThat(pkg.containsErrors()).isTrue();
+    assertThat(pkg.getRule("check5")).isNull();
+    assertThat(pkg.getRule("check15")).isNull();
+    assertThat(pkg.getRule("bad").containsErrors()).isTrue();
+    assertThat(pkg.getRule("check19")).isNotNull();
+    List<String> errors = new ArrayList<>();
+    for (Event event : events.filtered(EventKind.ERROR)) {
+      errors.add(event.getMessage());
+    }
+    assertThat(errors).hasSize(5);
+    assertThat(errors.get(0)).endsWith("no check5");
+    assertThat(errors.get(1)).contains("'check3' in package 'pkg' conflicts");
+    assertThat(errors.get(2)).contains("//pkg:bad: expected value of type 'list(output)'");
+    assertThat(errors.get(3)).contains("//pkg:bad: missing value for mandatory attribute");
+    assertThat(errors.get(4)).endsWith("no check15");
+    // fail() is an error of the statement itself, so later calls of the macro are still
+    // evaluated speculatively.
+    assertThat(speculative.get("check5")).containsExactly(true, false).inOrder();
+    assertThat(speculative.get("check10")).doesNotContain(false);
+  }
+}
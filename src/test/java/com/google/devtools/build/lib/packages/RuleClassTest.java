@@ -351,6 +351,50 @@ public class RuleClassTest extends PackageLoadingTestCase {
     assertContainsEvent("//visibility:legacy_public only allowed in package declaration");
   }
 
+  @Test
+  public void testEqualAttributeValuesAreSharedWithinPackage() throws Exception {
+    RuleClass ruleClass =
+        newRuleClass(
+            "ruleShared",
+            false,
+            false,
+            false,
+            false,
+            false,
+            false,
+            ImplicitOutputsFunction.NONE,
+            RuleClass.NO_CHANGE,
+            DUMMY_CONFIGURED_TARGET_FACTORY,
+            PredicatesWithMessage.<Rule>alwaysTrue(),
+            PREFERRED_DEPENDENCY_PREDICATE,
+            ImmutableSet.<Class<?>>of(),
+            false,
+            null,
+            NO_EXTERNAL_BINDINGS,
+            null,
+            ImmutableSet.<Class<?>>of(),
+            MissingFragmentPolicy.FAIL_ANALYSIS,
+            true,
+            attr("deps", LABEL_LIST).legacyAllowAnyFileType().build(),
+            attr("copts", STRING_LIST).build());
+
+    Package.Builder pkgBuilder = createDummyPackageBuilder();
+    List<Rule> rules = new ArrayList<>();
+    for (String name : Arrays.asList("a", "b")) {
+      Map<String, Object> attributeValues = new LinkedHashMap<>();
+      attributeValues.put("deps", Lists.newArrayList(":x", ":y"));
+      attributeValues.put("copts", Lists.newArrayList("-Wall", "-O2"));
+      rules.add(createRule(ruleClass, pkgBuilder, name, attributeValues, testRuleLocation));
+    }
+
+    for (String attr : Arrays.asList("deps", "copts")) {
+      Object first = rules.get(0).getAttributeContainer().getAttr(attr);
+      Object second = rules.get(1).getAttributeContainer().getAttr(attr);
+      assertEquals(2, ((List<?>) first).size());
+      assertSame(first, second);
+    }
+  }
+
   @Test
   public void testCreateRule() throws Exception {
     RuleClass ruleClassA = createRuleClassA();
@@ -774,7 +818,13 @@ public class RuleClassTest extends PackageLoadingTestCase {
 
   private Rule createRule(RuleClass ruleClass, String name, Map<String, Object> attributeValues,
       Location location) throws LabelSyntaxException, InterruptedException {
-    Package.Builder pkgBuilder = createDummyPackageBuilder();
+    return createRule(
+        ruleClass, createDummyPackageBuilder(), name, attributeValues, location);
+  }
+
+  private Rule createRule(RuleClass ruleClass, Package.Builder pkgBuilder, String name,
+      Map<String, Object> attributeValues, Location location)
+      throws LabelSyntaxException, InterruptedException {
     Label ruleLabel;
     try {
       ruleLabel = pkgBuilder.createLabel(name);
@@ -38,6 +38,7 @@ import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.vfs.Path;
 
 import java.io.IOException;
+import java.util.Map;
 
 /**
  * An apparatus that creates / maintains a {@link PackageFactory}.
@@ -114,6 +115,16 @@ public class PackageFactoryApparatus {
    */
   public Pair<Package, GlobCache> evalAndReturnGlobCache(String packageName, Path buildFile,
       BuildFileAST buildFileAST) throws InterruptedException {
+    return evalAndReturnGlobCache(
+        packageName, buildFile, buildFileAST, ImmutableMap.<String, Extension>of());
+  }
+
+  /**
+   * Evaluates the {@code buildFileAST} into a {@link Package}, with the extensions that the
+   * BUILD file loads given by {@code imports}.
+   */
+  public Pair<Package, GlobCache> evalAndReturnGlobCache(String packageName, Path buildFile,
+      BuildFileAST buildFileAST, Map<String, Extension> imports) throws InterruptedException {
     PackageIdentifier packageId = PackageIdentifier.createInMainRepo(packageName);
     GlobCache globCache =
         new GlobCache(
@@ -138,7 +149,7 @@ public class PackageFactoryApparatus {
             ConstantRuleVisibility.PUBLIC,
             false,
             new MakeEnvironment.Builder(),
-            ImmutableMap.<String, Extension>of(),
+            imports,
             ImmutableList.<Label>of());
     Package result = resultBuilder.build();
     Event.replayEventsOn(eventHandler, result.getEvents());
@@ -158,6 +169,15 @@ public class PackageFactoryApparatus {
     return eval(packageName, buildFile, ast(buildFile));
   }
 
+  /**
+   * Evaluates the {@code buildFile} into a {@link Package}, with the extensions that it loads
+   * given by {@code imports}.
+   */
+  public Package eval(String packageName, Path buildFile, Map<String, Extension> imports)
+      throws InterruptedException, IOException {
+    return evalAndReturnGlobCache(packageName, buildFile, ast(buildFile), imports).first;
+  }
+
   /**
    * Creates a package locator that finds no packages.
    */
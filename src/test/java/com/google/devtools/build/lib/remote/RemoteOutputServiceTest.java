@@ -0,0 +1,388 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.Artifact.ArtifactExpander;
+import com.google.devtools.build.lib.actions.BaseSpawn;
+import com.google.devtools.build.lib.actions.BuildFailedException;
+import com.google.devtools.build.lib.actions.EmptyRunfilesSupplier;
+import com.google.devtools.build.lib.actions.MapBasedActionGraph;
+import com.google.devtools.build.lib.actions.ResourceSet;
+import com.google.devtools.build.lib.actions.Root;
+import com.google.devtools.build.lib.actions.RunfilesSupplier;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.cache.MetadataHandler;
+import com.google.devtools.build.lib.actions.util.TestAction;
+import com.google.devtools.build.lib.analysis.actions.ExecutionRequirements;
+import com.google.devtools.build.lib.remote.RemoteProtocol.FileEntry;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for {@link RemoteOutputService}.
+ */
+@RunWith(JUnit4.class)
+public class RemoteOutputServiceTest {
+  private static final ArtifactExpander NO_EXPANSION = new ArtifactExpander() {
+    @Override
+    public void expand(Artifact artifact, Collection<? super Artifact> output) {}
+  };
+
+  private Path execRoot;
+  private Root outputRoot;
+  private FakeActionCache actionCache;
+  private RemoteOutputService outputService;
+  private MetadataHandler metadataHandler;
+
+  @Before
+  public final void createOutputService() throws Exception {
+    execRoot = new InMemoryFileSystem(BlazeClock.instance()).getPath("/exec");
+    Path outputPath = execRoot.getRelative("out");
+    FileSystemUtils.createDirectoryAndParents(outputPath);
+    outputRoot = Root.asDerivedRoot(execRoot, outputPath);
+    actionCache = new FakeActionCache();
+    outputService = new RemoteOutputService(execRoot, outputPath, "inmemory", "workspace");
+    outputService.setActionCache(actionCache);
+    metadataHandler = mock(MetadataHandler.class);
+  }
+
+  @Test
+  public void testCacheHitInjectsMetadataWithoutDownloading() throws Exception {
+    Artifact output = createArtifact("lib.o");
+    injectCachedOutputs("key", output);
+
+    assertFalse(output.getPath().exists());
+    assertTrue(outputService.isRemoteFile(output.getPath()));
+    verify(metadataHandler).injectDigest(
+        eq(output), any(FileStatus.class), eq(Hashing.md5().hashString("lib.o", UTF_8).asBytes()));
+    FileStatusWithDigest stat = batchStat(output);
+    assertTrue(stat.isFile());
+    assertEquals("lib.o".length(), stat.getSize());
+  }
+
+  @Test
+  public void testLocalOutputAndOutputsOfUnknownSizeAreWritten() throws Exception {
+    Artifact output = createArtifact("lib.o");
+    Artifact dotdFile = createArtifact("lib.d");
+    Artifact oldOutput = createArtifact("old.o");
+    actionCache.putActionOutput("key", ImmutableList.of(
+        actionCache.putFile(output, false),
+        actionCache.putFile(dotdFile, false),
+        actionCache.putFile(oldOutput, false).toBuilder().clearSize().build()));
+
+    Spawn spawn = createSpawn(
+        ImmutableMap.of(ExecutionRequirements.LOCAL_OUTPUT, dotdFile.getExecPathString()),
+        output, dotdFile, oldOutput);
+    outputService.injectActionOutput("key", spawn, metadataHandler);
+
+    assertFalse(output.getPath().exists());
+    assertEquals("lib.d", FileSystemUtils.readContent(dotdFile.getPath(), UTF_8));
+    assertEquals("old.o", FileSystemUtils.readContent(oldOutput.getPath(), UTF_8));
+    assertFalse(outputService.isRemoteFile(dotdFile.getPath()));
+    assertFalse(outputService.isRemoteFile(oldOutput.getPath()));
+  }
+
+  @Test
+  public void testEvictedContentIsCacheMiss() throws Exception {
+    Artifact output = createArtifact("lib.o");
+    actionCache.putActionOutput("key", ImmutableList.of(actionCache.putFile(output, false)));
+    actionCache.evictAll();
+
+    try {
+      outputService.injectActionOutput("key", createSpawn(output), metadataHandler);
+      fail();
+    } catch (CacheNotFoundException e) {
+      // Expected.
+    }
+    verifyZeroInteractions(metadataHandler);
+    assertFalse(outputService.isRemoteFile(output.getPath()));
+  }
+
+  @Test
+  public void testFetchInputsBeforeLocalExecution() throws Exception {
+    Artifact input = createArtifact("tool");
+    Artifact runfile = createArtifact("data.txt");
+    Artifact unused = createArtifact("unused.o");
+    injectCachedOutputs("key", input, runfile, unused);
+
+    outputService.fetchInputs(ImmutableList.of(input), runfilesSupplier(runfile), NO_EXPANSION);
+
+    assertEquals("tool", FileSystemUtils.readContent(input.getPath(), UTF_8));
+    assertEquals("data.txt", FileSystemUtils.readContent(runfile.getPath(), UTF_8));
+    assertFalse(input.getPath().isWritable());
+    assertFalse(outputService.isRemoteFile(input.getPath()));
+    assertFalse(unused.getPath().exists());
+    assertTrue(outputService.isRemoteFile(unused.getPath()));
+  }
+
+  @Test
+  public void testFetchedFileIsUnchangedUntilModified() throws Exception {
+    Artifact input = createArtifact("lib.o");
+    injectCachedOutputs("key", input);
+    FileStatusWithDigest injected = batchStat(input);
+
+    outputService.fetchRemoteFiles(ImmutableList.of(input));
+    FileStatusWithDigest fetched = batchStat(input);
+    assertEquals(injected.getLastModifiedTime(), fetched.getLastModifiedTime());
+    assertEquals(injected.getNodeId(), fetched.getNodeId());
+
+    input.getPath().setWritable(true);
+    FileSystemUtils.writeContentAsLatin1(input.getPath(), "modified");
+    assertEquals("modified".length(), batchStat(input).getSize());
+  }
+
+  @Test
+  public void testPrepareActionFetchesInputsAndRunfiles() throws Exception {
+    Artifact input = createArtifact("lib.o");
+    Artifact runfile = createArtifact("data.txt");
+    Artifact unused = createArtifact("unused.o");
+    injectCachedOutputs("key", input, runfile, unused);
+    final RunfilesSupplier runfiles = runfilesSupplier(runfile);
+    TestAction testAction = new TestAction(TestAction.NO_EFFECT,
+        ImmutableList.of(input), ImmutableList.of(createArtifact("test.log"))) {
+      @Override
+      public RunfilesSupplier getRunfilesSupplier() {
+        return runfiles;
+      }
+    };
+
+    outputService.prepareAction(testAction, actionExecutionContext());
+
+    assertEquals("lib.o", FileSystemUtils.readContent(input.getPath(), UTF_8));
+    assertEquals("data.txt", FileSystemUtils.readContent(runfile.getPath(), UTF_8));
+    assertTrue(outputService.isRemoteFile(unused.getPath()));
+  }
+
+  @Test
+  public void testPrepareActionForgetsOutputsOfTheAction() throws Exception {
+    Artifact output = createArtifact("lib.o");
+    injectCachedOutputs("key", output);
+
+    outputService.prepareAction(
+        new TestAction(TestAction.NO_EFFECT, ImmutableList.<Artifact>of(), ImmutableList.of(output)),
+        actionExecutionContext());
+
+    assertFalse(outputService.isRemoteFile(output.getPath()));
+    assertNull(batchStat(output));
+  }
+
+  @Test
+  public void testFinalizeBuildFetchesTopLevelOutputs() throws Exception {
+    Artifact topLevel = createArtifact("bin");
+    Artifact runfile = createArtifact("data.txt");
+    Artifact intermediate = createArtifact("lib.o");
+    injectCachedOutputs("key", topLevel, runfile, intermediate);
+    PathFragment middlemanPath = new PathFragment("out/internal/runfiles_middleman");
+    Artifact middleman = new Artifact(execRoot.getRelative(middlemanPath),
+        Root.middlemanRoot(execRoot, execRoot.getRelative("out")), middlemanPath);
+    MapBasedActionGraph actionGraph = new MapBasedActionGraph();
+    actionGraph.registerAction(new TestAction(TestAction.NO_EFFECT,
+        ImmutableList.of(runfile), ImmutableList.of(middleman)));
+
+    outputService.setTopLevelArtifacts(actionGraph, ImmutableList.of(topLevel, middleman));
+    outputService.finalizeBuild(true);
+
+    assertEquals("bin", FileSystemUtils.readContent(topLevel.getPath(), UTF_8));
+    assertEquals("data.txt", FileSystemUtils.readContent(runfile.getPath(), UTF_8));
+    assertFalse(intermediate.getPath().exists());
+    assertTrue(outputService.isRemoteFile(intermediate.getPath()));
+  }
+
+  @Test
+  public void testFinalizeBuildFailsForEvictedTopLevelOutput() throws Exception {
+    Artifact topLevel = createArtifact("bin");
+    injectCachedOutputs("key", topLevel);
+    actionCache.evictAll();
+
+    outputService.setTopLevelArtifacts(new MapBasedActionGraph(), ImmutableList.of(topLevel));
+    try {
+      outputService.finalizeBuild(true);
+      fail();
+    } catch (BuildFailedException e) {
+      assertThat(e.getMessage()).contains("out/bin");
+    }
+    assertFalse(outputService.isRemoteFile(topLevel.getPath()));
+  }
+
+  private Artifact createArtifact(String name) {
+    PathFragment execPath = new PathFragment("out").getRelative(name);
+    return new Artifact(execRoot.getRelative(execPath), outputRoot, execPath);
+  }
+
+  private static Spawn createSpawn(Artifact... outputs) {
+    return createSpawn(ImmutableMap.<String, String>of(), outputs);
+  }
+
+  private static Spawn createSpawn(Map<String, String> executionInfo, Artifact... outputs) {
+    return new BaseSpawn(ImmutableList.of("cc"), ImmutableMap.<String, String>of(), executionInfo,
+        new TestAction(TestAction.NO_EFFECT, ImmutableList.<Artifact>of(),
+            ImmutableList.copyOf(outputs)),
+        ResourceSet.ZERO);
+  }
+
+  /** Stores the outputs in the cache, with their base name as content, and injects them. */
+  private void injectCachedOutputs(String key, Artifact... outputs) throws IOException {
+    List<FileEntry> files = new ArrayList<>();
+    for (Artifact output : outputs) {
+      files.add(actionCache.putFile(output, false));
+    }
+    actionCache.putActionOutput(key, files);
+    outputService.injectActionOutput(key, createSpawn(outputs), metadataHandler);
+  }
+
+  private FileStatusWithDigest batchStat(Artifact artifact) throws Exception {
+    return outputService.getBatchStatter()
+        .batchStat(true, true, ImmutableList.of(artifact.getExecPath()))
+        .get(0);
+  }
+
+  private static ActionExecutionContext actionExecutionContext() {
+    return new ActionExecutionContext(null, null, null, null, NO_EXPANSION);
+  }
+
+  private static RunfilesSupplier runfilesSupplier(final Artifact... artifacts) {
+    return new RunfilesSupplier() {
+      @Override
+      public Iterable<Artifact> getArtifacts() {
+        return ImmutableList.copyOf(artifacts);
+      }
+
+      @Override
+      public ImmutableSet<PathFragment> getRunfilesDirs() {
+        return EmptyRunfilesSupplier.INSTANCE.getRunfilesDirs();
+      }
+
+      @Override
+      public ImmutableMap<PathFragment, Map<PathFragment, Artifact>> getMappings() {
+        return EmptyRunfilesSupplier.INSTANCE.getMappings();
+      }
+    };
+  }
+
+  /** An in-memory {@link RemoteActionCache}. */
+  private static final class FakeActionCache implements RemoteActionCache {
+    private final Map<String, byte[]> contents = new HashMap<>();
+    private final Map<String, List<FileEntry>> actionOutputs = new HashMap<>();
+
+    /** Stores the base name of {@code output} as its content. */
+    FileEntry putFile(Artifact output, boolean executable) {
+      byte[] content = output.getExecPath().getBaseName().getBytes(UTF_8);
+      String contentKey = Hashing.md5().hashBytes(content).toString();
+      contents.put(contentKey, content);
+      return FileEntry.newBuilder()
+          .setPath(output.getExecPathString())
+          .setContentKey(contentKey)
+          .setExecutable(executable)
+          .setSize(content.length)
+          .build();
+    }
+
+    void putActionOutput(String key, List<FileEntry> files) {
+      actionOutputs.put(key, files);
+    }
+
+    void evictAll() {
+      contents.clear();
+    }
+
+    @Override
+    public String putFileIfNotExist(Path file) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String putFileIfNotExist(ActionInputFileCache cache, ActionInput file) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void writeFile(String key, Path dest, boolean executable) throws IOException {
+      byte[] content = contents.get(key);
+      if (content == null) {
+        throw new CacheNotFoundException("File content cannot be found with key: " + key);
+      }
+      FileSystemUtils.writeContent(dest, content);
+      dest.setExecutable(executable);
+    }
+
+    @Override
+    public boolean containsFile(String key) {
+      return contents.containsKey(key);
+    }
+
+    @Override
+    public List<FileEntry> getActionOutput(String key) {
+      List<FileEntry> files = actionOutputs.get(key);
+      if (files == null) {
+        throw new CacheNotFoundException("Action output cannot be found with key: " + key);
+      }
+      return files;
+    }
+
+    @Override
+    public void writeActionOutput(String key, Path execRoot) throws IOException {
+      for (FileEntry file : getActionOutput(key)) {
+        writeFile(file.getContentKey(), execRoot.getRelative(file.getPath()), file.getExecutable());
+      }
+    }
+
+    @Override
+    public void putActionOutput(String key, Collection<? extends ActionInput> outputs) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void putActionOutput(String key, Path execRoot, Collection<Path> files) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,300 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.rules.cpp;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.ArtifactResolver;
+import com.google.devtools.build.lib.actions.Executor;
+import com.google.devtools.build.lib.actions.Root;
+import com.google.devtools.build.lib.collect.nestedset.NestedSet;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
+import com.google.devtools.build.lib.collect.nestedset.Order;
+import com.google.devtools.build.lib.exec.SingleBuildFileCache;
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.protobuf.ByteString;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests for {@link CachingIncludeScanner}.
+ */
+@RunWith(JUnit4.class)
+public class CachingIncludeScannerTest {
+
+  private final Scratch scratch = new Scratch();
+  private Path execRoot;
+  private Root root;
+  private ExecutorService executorService;
+  private Executor executor;
+
+  @Before
+  public final void setUp() throws Exception {
+    execRoot = scratch.dir("/exec");
+    root = Root.asSourceRoot(execRoot);
+    executorService = Executors.newFixedThreadPool(4);
+    ArtifactResolver artifactResolver = mock(ArtifactResolver.class);
+    when(artifactResolver.resolveSourceArtifact(any(PathFragment.class))).thenAnswer(
+        new Answer<Artifact>() {
+          @Override
+          public Artifact answer(InvocationOnMock invocation) {
+            return artifact(invocation.getArguments()[0].toString());
+          }
+        });
+    IncludeScanningContext scanningContext = mock(IncludeScanningContext.class);
+    when(scanningContext.getArtifactResolver()).thenReturn(artifactResolver);
+    executor = mock(Executor.class);
+    when(executor.getContext(IncludeScanningContext.class)).thenReturn(scanningContext);
+  }
+
+  @After
+  public final void shutDown() {
+    executorService.shutdownNow();
+  }
+
+  private Artifact artifact(String execPath) {
+    return new Artifact(new PathFragment(execPath), root);
+  }
+
+  private void file(String execPath, String... lines) throws Exception {
+    scratch.overwriteFile("/exec/" + execPath, lines);
+  }
+
+  private static List<PathFragment> paths(String... paths) {
+    ImmutableList.Builder<PathFragment> result = ImmutableList.builder();
+    for (String path : paths) {
+      result.add(new PathFragment(path));
+    }
+    return result.build();
+  }
+
+  private Set<Artifact> scan(CachingIncludeScanner.Supplier supplier,
+      ActionInputFileCache fileCache, Map<Artifact, Artifact> legalOutputPaths,
+      List<PathFragment> quoteIncludePaths, List<PathFragment> includePaths, String mainSource)
+      throws Exception {
+    Set<Artifact> includes = new HashSet<>();
+    supplier.scannerFor(quoteIncludePaths, includePaths).process(
+        artifact(mainSource), ImmutableList.<Artifact>of(), legalOutputPaths, includePaths, quoteIncludePaths, ImmutableList.<String>of(), includes,
+        new ActionExecutionContext(executor, fileCache, null, null, null));
+    return includes;
+  }
+
+  private Set<Artifact> scan(List<PathFragment> quoteIncludePaths,
+      List<PathFragment> includePaths, String mainSource) throws Exception {
+    return scan(
+        new CachingIncludeScanner.Supplier(
+            execRoot, new CachingIncludeScanner.InclusionCache(), executorService),
+        new SingleBuildFileCache(execRoot.getPathString(), execRoot.getFileSystem()),
+        ImmutableMap.<Artifact, Artifact>of(), quoteIncludePaths, includePaths, mainSource);
+  }
+
+  @Test
+  public void testQuoteIncludeSearchesIncludingDirectoryFirst() throws Exception {
+    file("src/main.cc", "#include \"a.h\"", "#include \"b.h\"", "#include <c.h>");
+    file("src/a.h");
+    file("quote/a.h");
+    file("quote/b.h");
+    file("inc/b.h");
+    file("src/c.h");
+    file("inc/c.h");
+
+    assertThat(scan(paths("quote"), paths("inc"), "src/main.cc")).containsExactly(
+        artifact("src/main.cc"), artifact("src/a.h"), artifact("quote/b.h"), artifact("inc/c.h"));
+  }
+
+  @Test
+  public void testAngleIncludeSkipsQuoteIncludePaths() throws Exception {
+    file("src/main.cc", "#include <a.h>", "#include \"b.h\"");
+    file("quote/a.h");
+    file("inc/a.h");
+    file("inc/b.h");
+
+    assertThat(scan(paths("quote"), paths("inc"), "src/main.cc")).containsExactly(
+        artifact("src/main.cc"), artifact("inc/a.h"), artifact("inc/b.h"));
+  }
+
+  @Test
+  public void testMissingAndAbsoluteIncludesAreIgnored() throws Exception {
+    file("src/main.cc", "#include <missing.h>", "#include \"/usr/include/stdio.h\"");
+
+    assertThat(scan(paths(), paths("inc"), "src/main.cc"))
+        .containsExactly(artifact("src/main.cc"));
+  }
+
+  @Test
+  public void testIncludeNextWithNestedIncludePaths() throws Exception {
+    file("src/main.cc", "#include <limits.h>");
+    file("inc/sub/limits.h", "#include_next <limits.h>");
+    file("sys/limits.h");
+
+    // The including file is below both "inc" and "inc/sub", but was found in "inc/sub".
+    assertThat(scan(paths(), paths("inc", "inc/sub", "sys"), "src/main.cc")).containsExactly(
+        artifact("src/main.cc"), artifact("inc/sub/limits.h"), artifact("sys/limits.h"));
+  }
+
+  @Test
+  public void testQuoteIncludeNextContinuesAfterFoundDirectory() throws Exception {
+    file("src/main.cc", "#include <foo.h>");
+    file("wrap/foo.h", "#include_next \"foo.h\"");
+    file("real/foo.h");
+
+    assertThat(scan(paths(), paths("wrap", "real"), "src/main.cc")).containsExactly(
+        artifact("src/main.cc"), artifact("wrap/foo.h"), artifact("real/foo.h"));
+  }
+
+  @Test
+  public void testIncludeNextInFileFoundInIncludingDirectorySearchesAllPaths() throws Exception {
+    file("src/main.cc", "#include \"foo.h\"");
+    file("src/foo.h", "#include_next <foo.h>");
+    file("quote/foo.h");
+    file("inc/foo.h");
+
+    assertThat(scan(paths("quote"), paths("inc"), "src/main.cc")).containsExactly(
+        artifact("src/main.cc"), artifact("src/foo.h"), artifact("quote/foo.h"));
+  }
+
+  @Test
+  public void testIncludeNextInSourceFileIsPlainInclude() throws Exception {
+    file("src/main.cc", "#include_next <foo.h>");
+    file("inc/foo.h");
+
+    assertThat(scan(paths(), paths("inc"), "src/main.cc"))
+        .containsExactly(artifact("src/main.cc"), artifact("inc/foo.h"));
+  }
+
+  @Test
+  public void testContinuationLines() throws Exception {
+    file("src/main.cc", "#inc\\", "lude \\", "\"a.h\"");
+    file("src/a.h");
+
+    assertThat(scan(paths(), paths(), "src/main.cc"))
+        .containsExactly(artifact("src/main.cc"), artifact("src/a.h"));
+  }
+
+  @Test
+  public void testInclusionsAreCachedByDigest() throws Exception {
+    ActionInputFileCache fileCache = mock(ActionInputFileCache.class);
+    when(fileCache.getDigest(any(ActionInput.class))).thenAnswer(new Answer<ByteString>() {
+      @Override
+      public ByteString answer(InvocationOnMock invocation) {
+        // A digest that does not change with the contents.
+        return ByteString.copyFromUtf8(
+            ((ActionInput) invocation.getArguments()[0]).getExecPathString());
+      }
+    });
+    CachingIncludeScanner.InclusionCache inclusionCache =
+        new CachingIncludeScanner.InclusionCache();
+    file("src/main.cc", "#include \"a.h\"");
+    file("src/a.h");
+    file("src/b.h");
+    assertThat(scan(new CachingIncludeScanner.Supplier(execRoot, inclusionCache, executorService),
+        fileCache, ImmutableMap.<Artifact, Artifact>of(), paths(), paths(), "src/main.cc"))
+        .containsExactly(artifact("src/main.cc"), artifact("src/a.h"));
+
+    file("src/main.cc", "#include \"b.h\"");
+    assertThat(scan(new CachingIncludeScanner.Supplier(execRoot, inclusionCache, executorService),
+        fileCache, ImmutableMap.<Artifact, Artifact>of(), paths(), paths(), "src/main.cc"))
+        .containsExactly(artifact("src/main.cc"), artifact("src/a.h"));
+    assertThat(scan(
+        new CachingIncludeScanner.Supplier(
+            execRoot, new CachingIncludeScanner.InclusionCache(), executorService),
+        fileCache, ImmutableMap.<Artifact, Artifact>of(), paths(), paths(), "src/main.cc"))
+        .containsExactly(artifact("src/main.cc"), artifact("src/b.h"));
+  }
+
+  @Test
+  public void testComputedInclusionIsReported() throws Exception {
+    file("src/main.cc", "#include \"a.h\"");
+    file("src/a.h", "#include HEADER");
+
+    try {
+      scan(paths(), paths(), "src/main.cc");
+      fail();
+    } catch (CachingIncludeScanner.ComputedInclusionException e) {
+      assertThat(e).hasMessage("src/a.h includes a macro, which cannot be followed by the "
+          + "include scanner");
+    }
+  }
+
+  @Test
+  public void testGeneratedHeaderWithChangedInclusions() throws Exception {
+    Root outRoot = Root.asDerivedRoot(execRoot, execRoot.getRelative("out"));
+    Artifact generated = new Artifact(new PathFragment("g.h"), outRoot);
+    Map<Artifact, Artifact> legalOutputPaths = ImmutableMap.of(generated, generated);
+    NestedSet<Artifact> declaredIncludeSrcs = NestedSetBuilder.create(
+        Order.STABLE_ORDER, generated, artifact("src/a.h"), artifact("src/b.h"));
+    CachingIncludeScanner.InclusionCache inclusionCache =
+        new CachingIncludeScanner.InclusionCache();
+    file("src/main.cc", "#include \"g.h\"");
+    file("src/a.h");
+    file("src/b.h");
+
+    // The first build generates the header before the scan.
+    file("out/g.h", "#include \"a.h\"");
+    Set<Artifact> includes = scan(
+        new CachingIncludeScanner.Supplier(execRoot, inclusionCache, executorService),
+        new SingleBuildFileCache(execRoot.getPathString(), execRoot.getFileSystem()),
+        legalOutputPaths, paths("src", "out"), paths(), "src/main.cc");
+    assertThat(includes).containsExactly(artifact("src/main.cc"), generated, artifact("src/a.h"));
+    assertThat(SpawnGccStrategy.selectInputs(
+        includes, ImmutableList.of(generated), declaredIncludeSrcs))
+        .containsExactlyElementsIn(includes);
+
+    // In the second build, the header will include another file, but it is scanned as the first
+    // build left it.
+    includes = scan(
+        new CachingIncludeScanner.Supplier(execRoot, inclusionCache, executorService),
+        new SingleBuildFileCache(execRoot.getPathString(), execRoot.getFileSystem()),
+        legalOutputPaths, paths("src", "out"), paths(), "src/main.cc");
+    assertThat(includes).doesNotContain(artifact("src/b.h"));
+    assertThat(SpawnGccStrategy.selectInputs(
+        includes, ImmutableList.<Artifact>of(), declaredIncludeSrcs))
+        .containsExactlyElementsIn(declaredIncludeSrcs);
+
+    // Once it is generated before the scan, its new inclusions are found.
+    file("out/g.h", "#include \"b.h\"");
+    includes = scan(
+        new CachingIncludeScanner.Supplier(execRoot, inclusionCache, executorService),
+        new SingleBuildFileCache(execRoot.getPathString(), execRoot.getFileSystem()),
+        legalOutputPaths, paths("src", "out"), paths(), "src/main.cc");
+    assertThat(SpawnGccStrategy.selectInputs(
+        includes, ImmutableList.of(generated), declaredIncludeSrcs))
+        .containsExactly(artifact("src/main.cc"), generated, artifact("src/b.h"));
+  }
+}
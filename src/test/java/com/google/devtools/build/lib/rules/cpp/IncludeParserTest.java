@@ -0,0 +1,125 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.rules.cpp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.rules.cpp.IncludeParser.Inclusion;
+import com.google.devtools.build.lib.rules.cpp.IncludeParser.Inclusion.Kind;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Tests for {@link IncludeParser}.
+ */
+@RunWith(JUnit4.class)
+public class IncludeParserTest {
+
+  private static List<Inclusion> parse(String... lines) {
+    StringBuilder content = new StringBuilder();
+    for (String line : lines) {
+      content.append(line).append('\n');
+    }
+    return IncludeParser.extractInclusions(content.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testDirectiveKinds() {
+    assertThat(parse(
+        "#include \"a/b.h\"",
+        "#include <vector>",
+        "#import <Foundation/Foundation.h>",
+        "#include_next <limits.h>",
+        "#include_next \"c.h\""))
+        .containsExactly(
+            new Inclusion("a/b.h", Kind.QUOTE),
+            new Inclusion("vector", Kind.ANGLE),
+            new Inclusion("Foundation/Foundation.h", Kind.ANGLE),
+            new Inclusion("limits.h", Kind.NEXT_ANGLE),
+            new Inclusion("c.h", Kind.NEXT_QUOTE))
+        .inOrder();
+  }
+
+  @Test
+  public void testWhitespace() {
+    assertThat(parse(
+        "  #  include\t\"a.h\"  // comment",
+        "\t#include<b.h>",
+        "#include\"c.h\""))
+        .containsExactly(
+            new Inclusion("a.h", Kind.QUOTE),
+            new Inclusion("b.h", Kind.ANGLE),
+            new Inclusion("c.h", Kind.QUOTE))
+        .inOrder();
+  }
+
+  @Test
+  public void testIgnoredLines() {
+    assertThat(parse(
+        "int x; #include \"not_at_line_start.h\"",
+        "#define FOO \"foo.h\"",
+        "#include",
+        "#include \"unterminated.h",
+        "#include <>",
+        "#includes \"a.h\"",
+        "#pragma once")).isEmpty();
+  }
+
+  @Test
+  public void testComputedInclusions() {
+    assertThat(parse(
+        "#include FOO",
+        "#include_next BAR(a, b)  // comment",
+        "#import \\",
+        "  BAZ /* comment */"))
+        .containsExactly(
+            new Inclusion("FOO", Kind.COMPUTED),
+            new Inclusion("BAR(a, b)", Kind.COMPUTED),
+            new Inclusion("BAZ", Kind.COMPUTED))
+        .inOrder();
+  }
+
+  @Test
+  public void testContinuationLines() {
+    assertThat(parse(
+        "#include \\",
+        "  \"a.h\"",
+        "# \\",
+        "inc\\",
+        "lude_next <b\\",
+        ".h>",
+        "#include <c\\d.h>"))
+        .containsExactly(
+            new Inclusion("a.h", Kind.QUOTE),
+            new Inclusion("b.h", Kind.NEXT_ANGLE),
+            new Inclusion("c\\d.h", Kind.ANGLE))
+        .inOrder();
+    assertThat(IncludeParser.extractInclusions(
+        "#include\\\r\n<a.h>".getBytes(StandardCharsets.UTF_8)))
+        .containsExactly(new Inclusion("a.h", Kind.ANGLE));
+  }
+
+  @Test
+  public void testLastLineWithoutNewline() {
+    assertThat(IncludeParser.extractInclusions(
+        "#include \"a.h\"\r\n#include <b.h>".getBytes(StandardCharsets.UTF_8)))
+        .containsExactly(new Inclusion("a.h", Kind.QUOTE), new Inclusion("b.h", Kind.ANGLE))
+        .inOrder();
+  }
+}
@@ -0,0 +1,148 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.rules.test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.view.test.TestStatus.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for {@link TestCaseDurations}.
+ */
+@RunWith(JUnit4.class)
+public class TestCaseDurationsTest {
+  private static final PathFragment TEST = new PathFragment("bazel-out/local/bin/pkg/test");
+  private static final PathFragment OTHER_TEST = new PathFragment("bazel-out/opt/bin/pkg/test");
+
+  private final Scratch scratch = new Scratch();
+  private TestCaseDurations durations;
+
+  @Before
+  public final void createDurations() throws Exception {
+    durations = new TestCaseDurations(scratch.dir("/durations"));
+  }
+
+  private static TestCase testCase(String className, String name, long millis) {
+    return TestCase.newBuilder()
+        .setType(TestCase.Type.TEST_CASE)
+        .setClassName(className)
+        .setName(name)
+        .setRunDurationMillis(millis)
+        .build();
+  }
+
+  private static TestCase suite(TestCase... children) {
+    TestCase.Builder suite = TestCase.newBuilder().setType(TestCase.Type.TEST_SUITE);
+    for (TestCase child : children) {
+      suite.addChild(child);
+    }
+    return suite.build();
+  }
+
+  private static String read(Path snapshot) throws Exception {
+    return new String(FileSystemUtils.readContent(snapshot), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testFirstSnapshotIsEmpty() throws Exception {
+    assertThat(read(durations.getSnapshot(TEST, "runfiles1"))).isEmpty();
+  }
+
+  @Test
+  public void testRecordedDurationsAreSeenByTheNextRunfiles() throws Exception {
+    durations.record(TEST, suite(
+        suite(testCase("a.ATest", "testOne", 12), testCase("a.ATest", "testTwo", 3)),
+        testCase("b.BTest", "testThree", 40),
+        testCase("b.BTest", "notRun", 5).toBuilder().setRun(false).build(),
+        TestCase.newBuilder().setType(TestCase.Type.TEST_CASE).setName("noClass").build()));
+
+    assertThat(read(durations.getSnapshot(TEST, "runfiles1"))).isEqualTo(
+        "12\ttestOne(a.ATest)\n"
+            + "40\ttestThree(b.BTest)\n"
+            + "3\ttestTwo(a.ATest)\n");
+  }
+
+  @Test
+  public void testRecordingMergesWithEarlierDurations() throws Exception {
+    durations.record(TEST, suite(testCase("A", "a", 1), testCase("A", "b", 2)));
+    // One shard reports "a", another shard "c".
+    durations.record(TEST, suite(testCase("A", "a", 10)));
+    durations.record(TEST, suite(testCase("A", "c", 30)));
+
+    assertThat(read(durations.getSnapshot(TEST, "runfiles1")))
+        .isEqualTo("10\ta(A)\n2\tb(A)\n30\tc(A)\n");
+  }
+
+  @Test
+  public void testSnapshotDoesNotChangeForTheSameRunfiles() throws Exception {
+    durations.record(TEST, suite(testCase("A", "a", 1)));
+    Path snapshot = durations.getSnapshot(TEST, "runfiles1");
+
+    // Shards that run later, while others were cached, must see the same durations.
+    durations.record(TEST, suite(testCase("A", "a", 100)));
+    assertThat(durations.getSnapshot(TEST, "runfiles1")).isEqualTo(snapshot);
+    assertThat(read(snapshot)).isEqualTo("1\ta(A)\n");
+
+    assertThat(read(durations.getSnapshot(TEST, "runfiles2"))).isEqualTo("100\ta(A)\n");
+  }
+
+  @Test
+  public void testTestsAreKeptApart() throws Exception {
+    durations.record(TEST, suite(testCase("A", "a", 1)));
+    durations.record(OTHER_TEST, suite(testCase("A", "a", 2)));
+
+    assertThat(read(durations.getSnapshot(TEST, "runfiles1"))).isEqualTo("1\ta(A)\n");
+    assertThat(read(durations.getSnapshot(OTHER_TEST, "runfiles1"))).isEqualTo("2\ta(A)\n");
+  }
+
+  @Test
+  public void testPrunedSnapshotIsNotReusedWithOtherDurations() throws Exception {
+    durations.record(TEST, suite(testCase("A", "a", 1)));
+    Path first = durations.getSnapshot(TEST, "runfiles0");
+    for (int i = 1; i <= 8; i++) {
+      first.setLastModifiedTime(0L);
+      durations.getSnapshot(TEST, "runfiles" + i);
+    }
+    assertThat(first.exists()).isFalse();
+
+    durations.record(TEST, suite(testCase("A", "a", 2)));
+    Path second = durations.getSnapshot(TEST, "runfiles0");
+    assertThat(read(second)).isEqualTo("2\ta(A)\n");
+    // Test results cached with the first snapshot must not be mixed with runs that see the second.
+    assertThat(second.getPathString()).isNotEqualTo(first.getPathString());
+  }
+
+  @Test
+  public void testRecentlyUsedSnapshotsAreKept() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      durations.getSnapshot(TEST, "runfiles" + i).setLastModifiedTime(i);
+    }
+    for (int i = 12; i < 20; i++) {
+      assertThat(durations.getSnapshot(TEST, "runfiles" + i).getBaseName())
+          .startsWith("runfiles" + i + "-");
+    }
+    assertThat(scratch.resolve("/durations").getDirectoryEntries()).hasSize(1);
+  }
+}
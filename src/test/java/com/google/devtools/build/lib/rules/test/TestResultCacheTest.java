@@ -0,0 +1,206 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.rules.test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.view.test.TestStatus.BlazeTestStatus;
+import com.google.devtools.build.lib.view.test.TestStatus.TestResultData;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for {@link TestResultCache}.
+ */
+@RunWith(JUnit4.class)
+public class TestResultCacheTest {
+  private static final TestResultData PASSED = TestResultData.newBuilder()
+      .setCachable(true)
+      .setTestPassed(true)
+      .setStatus(BlazeTestStatus.PASSED)
+      .build();
+
+  private final Scratch scratch = new Scratch();
+  private Path execRoot;
+  private Path testLog;
+  private Path xmlOutput;
+
+  @Before
+  public final void createFiles() throws Exception {
+    execRoot = scratch.dir("/output/execroot/ws");
+    testLog = scratch.file("/output/execroot/ws/bazel-out/local/testlogs/pkg/t/test.log", "ok");
+    xmlOutput = execRoot.getRelative("bazel-out/local/testlogs/pkg/t/test.xml");
+  }
+
+  private TestResultCache newCache(long maxSizeBytes) throws Exception {
+    return new TestResultCache(scratch.resolve("/output/test_result_cache"), maxSizeBytes);
+  }
+
+  private Map<String, String> env(String outputDir, int tmpIndex) {
+    Map<String, String> env = new HashMap<>();
+    env.put("TZ", "UTC");
+    env.put("TEST_SIZE", "small");
+    env.put("TEST_SRCDIR", execRoot.getPathString() + "/" + outputDir + "/bin/pkg/t.runfiles");
+    env.put("TEST_TMPDIR", "/tmp/bazel/_tmp/t_" + tmpIndex);
+    env.put("XML_OUTPUT_FILE",
+        execRoot.getPathString() + "/" + outputDir + "/testlogs/pkg/t/test.xml");
+    return env;
+  }
+
+  private String key(Map<String, String> env) {
+    return TestResultCache.computeKey("runfiles", "invocation", env, execRoot);
+  }
+
+  private static String read(Path file) throws Exception {
+    return new String(FileSystemUtils.readContent(file), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testKeyIgnoresPerRunPaths() {
+    // --test_tmpdir outside of the execution root, and a new output directory.
+    assertThat(key(env("bazel-out/opt", 2))).isEqualTo(key(env("bazel-out/local", 1)));
+  }
+
+  @Test
+  public void testKeyIgnoresOtherVariablesPointingToTheTemporaryDirectory() {
+    Map<String, String> env1 = env("bazel-out/local", 1);
+    env1.put("HOME", "/tmp/bazel/_tmp/t_1/home");
+    Map<String, String> env2 = env("bazel-out/local", 2);
+    env2.put("HOME", "/tmp/bazel/_tmp/t_2/home");
+    assertThat(key(env2)).isEqualTo(key(env1));
+  }
+
+  @Test
+  public void testKeyChangesWithInputs() {
+    Map<String, String> env = env("bazel-out/local", 1);
+    assertThat(TestResultCache.computeKey("other runfiles", "invocation", env, execRoot))
+        .isNotEqualTo(key(env));
+  }
+
+  @Test
+  public void testKeyChangesWithFlags() {
+    Map<String, String> env = env("bazel-out/local", 1);
+    assertThat(TestResultCache.computeKey("runfiles", "other invocation", env, execRoot))
+        .isNotEqualTo(key(env));
+  }
+
+  @Test
+  public void testKeyChangesWithEnvironment() {
+    Map<String, String> env = env("bazel-out/local", 1);
+    String key = key(env);
+
+    env.put("TEST_SIZE", "large");
+    assertThat(key(env)).isNotEqualTo(key);
+
+    env = env("bazel-out/local", 1);
+    env.put("TEST_DURATIONS_FILE", "/output/test_durations/abc/runfiles-123");
+    assertThat(key(env)).isNotEqualTo(key);
+    String durationsKey = key(env);
+    env.put("TEST_DURATIONS_FILE", "/output/test_durations/abc/runfiles-456");
+    assertThat(key(env)).isNotEqualTo(durationsKey);
+
+    env = env("bazel-out/local", 1);
+    env.remove("TZ");
+    assertThat(key(env)).isNotEqualTo(key);
+  }
+
+  @Test
+  public void testRestoresStoredResult() throws Exception {
+    TestResultCache cache = newCache(1024 * 1024);
+    String key = key(env("bazel-out/local", 1));
+    FileSystemUtils.writeContentAsLatin1(xmlOutput, "<testsuites/>");
+    cache.store(key, PASSED, testLog, xmlOutput);
+
+    testLog.delete();
+    xmlOutput.delete();
+    TestResultData restored = cache.restore(key(env("bazel-out/local", 2)), testLog, xmlOutput);
+    assertThat(restored).isEqualTo(
+        PASSED.toBuilder().setPassedLog(testLog.getPathString()).build());
+    assertThat(read(testLog)).isEqualTo("ok\n");
+    assertThat(read(xmlOutput)).isEqualTo("<testsuites/>");
+    assertThat(cache.getStatistics()).startsWith("1 hits, 0 misses, 1 stored, 0 evicted");
+  }
+
+  @Test
+  public void testEntriesSurviveTheServer() throws Exception {
+    String key = key(env("bazel-out/local", 1));
+    newCache(1024 * 1024).store(key, PASSED, testLog, xmlOutput);
+    assertThat(newCache(1024 * 1024).restore(key, testLog, xmlOutput)).isNotNull();
+  }
+
+  @Test
+  public void testMissForOtherKey() throws Exception {
+    TestResultCache cache = newCache(1024 * 1024);
+    cache.store(key(env("bazel-out/local", 1)), PASSED, testLog, xmlOutput);
+
+    Map<String, String> env = env("bazel-out/local", 1);
+    env.put("TEST_SIZE", "large");
+    assertThat(cache.restore(key(env), testLog, xmlOutput)).isNull();
+    assertThat(cache.getStatistics()).startsWith("0 hits, 1 misses");
+  }
+
+  @Test
+  public void testFailedResultIsNotStored() throws Exception {
+    TestResultCache cache = newCache(1024 * 1024);
+    String key = key(env("bazel-out/local", 1));
+    cache.store(key, PASSED.toBuilder().setTestPassed(false).setStatus(BlazeTestStatus.FAILED)
+        .build(), testLog, xmlOutput);
+    assertThat(cache.restore(key, testLog, xmlOutput)).isNull();
+  }
+
+  @Test
+  public void testNonCachableResultIsNotStored() throws Exception {
+    TestResultCache cache = newCache(1024 * 1024);
+    String key = key(env("bazel-out/local", 1));
+    cache.store(key, PASSED.toBuilder().setCachable(false).build(), testLog, xmlOutput);
+    assertThat(cache.restore(key, testLog, xmlOutput)).isNull();
+    assertThat(cache.getStatistics()).startsWith("0 hits, 1 misses, 0 stored");
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEntriesAreEvicted() throws Exception {
+    // Each entry holds the result and the 3 bytes of the test log.
+    long entrySize = PASSED.getSerializedSize() + 3;
+    TestResultCache cache = newCache(2 * entrySize);
+    cache.store("a", PASSED, testLog, xmlOutput);
+    cache.store("b", PASSED, testLog, xmlOutput);
+    assertThat(cache.restore("a", testLog, xmlOutput)).isNotNull();
+    cache.store("c", PASSED, testLog, xmlOutput);
+
+    assertThat(cache.restore("b", testLog, xmlOutput)).isNull();
+    assertThat(cache.restore("a", testLog, xmlOutput)).isNotNull();
+    assertThat(cache.restore("c", testLog, xmlOutput)).isNotNull();
+    assertThat(cache.getStatistics()).startsWith("3 hits, 1 misses, 3 stored, 1 evicted");
+  }
+
+  @Test
+  public void testOnlyLatestEntryIsKeptWithoutRoom() throws Exception {
+    TestResultCache cache = newCache(0);
+    cache.store("a", PASSED, testLog, xmlOutput);
+    cache.store("b", PASSED, testLog, xmlOutput);
+    // The most recent entry is kept even if it alone exceeds the limit.
+    assertThat(cache.restore("a", testLog, xmlOutput)).isNull();
+    assertThat(cache.restore("b", testLog, xmlOutput)).isNotNull();
+  }
+}
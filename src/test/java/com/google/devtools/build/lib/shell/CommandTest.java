@@ -15,12 +15,14 @@ package com.google.devtools.build.lib.shell;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.devtools.build.lib.shell.TestUtil.assertArrayEquals;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
 import com.google.devtools.build.lib.testutil.BlazeTestUtils;
 import com.google.devtools.build.lib.testutil.TestConstants;
 
@@ -216,6 +218,29 @@ public class CommandTest {
     assertEquals(0, stdErr.toByteArray().length);
   }
 
+  @Test
+  public void testRedirectedOutputIsAppendedToFiles() throws Exception {
+    File stdOut = File.createTempFile("command-test", "out");
+    File stdErr = File.createTempFile("command-test", "err");
+    try {
+      Files.write("before\n", stdOut, UTF_8);
+      final Command command =
+          new Command(new String[] {"/bin/sh", "-c", "echo out; echo err >&2"});
+      CommandResult result =
+          command.execute(Command.NO_INPUT, Command.NO_OBSERVER, stdOut, stdErr, false);
+      assertTrue(result.getTerminationStatus().success());
+      assertEquals("before\nout\n", Files.toString(stdOut, UTF_8));
+      assertEquals("err\n", Files.toString(stdErr, UTF_8));
+
+      // Both streams can go to the same file.
+      command.execute(Command.NO_INPUT, Command.NO_OBSERVER, stdErr, stdErr, false);
+      assertEquals("err\nout\nerr\n", Files.toString(stdErr, UTF_8));
+    } finally {
+      stdOut.delete();
+      stdErr.delete();
+    }
+  }
+
   @Test
   public void testAsynchronous() throws Exception {
     final File tempFile = File.createTempFile("googlecron-test", "tmp");
@@ -17,6 +17,8 @@ package com.google.devtools.build.lib.skyframe;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import com.google.common.collect.ImmutableList;
@@ -25,6 +27,7 @@ import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.packages.NoSuchPackageException;
 import com.google.devtools.build.lib.skyframe.util.SkyframeExecutorTestUtils;
+import com.google.devtools.build.lib.syntax.BuildFileAST;
 import com.google.devtools.build.lib.syntax.SkylarkImport;
 import com.google.devtools.build.lib.testutil.TestConstants;
 import com.google.devtools.build.lib.vfs.FileStatus;
@@ -171,4 +174,29 @@ public class ASTFileLookupFunctionTest extends BuildViewTestCase {
     assertThat(e).isInstanceOf(ErrorReadingSkylarkExtensionException.class);
     assertThat(e.getMessage()).contains("no such package '@a_remote_repo//remote_pkg'");
   }
+
+  @Test
+  public void testUnchangedSkylarkFileIsNotParsedAgain() throws Exception {
+    scratch.file("foo/BUILD");
+    scratch.file("foo/ext.bzl", "CONST = 17");
+    invalidatePackages();
+    SkyKey skyKey = ASTFileLookupValue.key(Label.parseAbsoluteUnchecked("//foo:ext.bzl"));
+    BuildFileAST ast = evaluateAST(skyKey);
+
+    scratch.overwriteFile("foo/ext.bzl", "CONST = 17");
+    invalidatePackages();
+    assertSame(ast, evaluateAST(skyKey));
+
+    scratch.overwriteFile("foo/ext.bzl", "CONST = 18");
+    invalidatePackages();
+    assertNotSame(ast, evaluateAST(skyKey));
+  }
+
+  private BuildFileAST evaluateAST(SkyKey skyKey) throws InterruptedException {
+    EvaluationResult<ASTFileLookupValue> result =
+        SkyframeExecutorTestUtils.evaluate(
+            getSkyframeExecutor(), skyKey, /*keepGoing=*/ false, reporter);
+    assertFalse(result.hasError());
+    return result.get(skyKey).getAST();
+  }
 }
@@ -0,0 +1,109 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.actions.Action;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.Root;
+import com.google.devtools.build.lib.actions.util.TestAction;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.devtools.build.skyframe.SkyFunctionName;
+import com.google.devtools.build.skyframe.SkyKey;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link ArtifactConflictFinder}.
+ */
+@RunWith(JUnit4.class)
+public class ArtifactConflictFinderTest {
+  private static final SkyFunctionName FUNCTION_NAME = SkyFunctionName.create("TEST");
+
+  private final ArtifactConflictFinder finder = new ArtifactConflictFinder();
+  private Path root;
+
+  @Before
+  public final void createRoot() throws Exception {
+    root = new InMemoryFileSystem(BlazeClock.instance()).getPath("/root");
+  }
+
+  @Test
+  public void testActionConflictIsDroppedWithConflictingAction() throws Exception {
+    Artifact out = createArtifact("out");
+    Action action = createAction(out);
+    Action conflictingAction = createAction(out, createArtifact("other"));
+    SkyKey key = key("a");
+    SkyKey conflictingKey = key("b");
+
+    assertThat(finder.findConflicts(ImmutableMap.of(
+        key, new ActionLookupValue(action),
+        conflictingKey, new ActionLookupValue(conflictingAction)))).hasSize(1);
+    assertThat(finder.findConflicts(ImmutableMap.of(key, new ActionLookupValue(action))))
+        .isEmpty();
+  }
+
+  @Test
+  public void testPrefixConflictIsFoundIncrementally() throws Exception {
+    Action action = createAction(createArtifact("dir"));
+    Action nestedAction = createAction(createArtifact("dir/file"));
+    ActionLookupValue value = new ActionLookupValue(action);
+    ActionLookupValue nestedValue = new ActionLookupValue(nestedAction);
+
+    assertThat(finder.findConflicts(ImmutableMap.of(key("a"), value))).isEmpty();
+    assertThat(finder.findConflicts(ImmutableMap.of(key("a"), value, key("b"), nestedValue))
+        .keySet()).containsExactly(action, nestedAction);
+    assertThat(finder.findConflicts(ImmutableMap.of(key("b"), nestedValue))).isEmpty();
+  }
+
+  @Test
+  public void testChangedValueIsIndexedAgain() throws Exception {
+    Action action = createAction(createArtifact("dir/file"));
+    Action prefixAction = createAction(createArtifact("dir"));
+    Action otherAction = createAction(createArtifact("other"));
+    ActionLookupValue value = new ActionLookupValue(action);
+
+    finder.findConflicts(ImmutableMap.of(
+        key("a"), value,
+        key("b"), new ActionLookupValue(otherAction)));
+    assertThat(finder.findConflicts(ImmutableMap.of(
+        key("a"), value,
+        key("b"), new ActionLookupValue(prefixAction))).keySet())
+        .containsExactly(action, prefixAction);
+  }
+
+  private Artifact createArtifact(String path) {
+    PathFragment execPath = new PathFragment("out").getRelative(path);
+    return new Artifact(
+        root.getRelative(execPath), Root.asDerivedRoot(root, root.getRelative("out")), execPath);
+  }
+
+  private static Action createAction(Artifact... outputs) {
+    return new TestAction(TestAction.NO_EFFECT, ImmutableSet.<Artifact>of(),
+        ImmutableSet.copyOf(outputs));
+  }
+
+  private static SkyKey key(String name) {
+    return SkyKey.create(FUNCTION_NAME, name);
+  }
+}
@@ -143,8 +143,43 @@ public class FilesystemValueCheckerTest {
 
   @Test
   public void testSimple() throws Exception {
-    FilesystemValueChecker checker = new FilesystemValueChecker(null, null);
+    checkSimple(new FilesystemValueChecker(null, null));
+  }
+
+  @Test
+  public void testSimpleFileStateBatchStat() throws Exception {
+    checkSimple(new FilesystemValueChecker(null, null,
+        new BatchStat() {
+          @Override
+          public List<FileStatusWithDigest> batchStat(
+              boolean useDigest, boolean includeLinks, Iterable<PathFragment> paths)
+              throws IOException {
+            List<FileStatusWithDigest> stats = new ArrayList<>();
+            for (PathFragment pathFrag : paths) {
+              assertTrue(pathFrag.isAbsolute());
+              stats.add(
+                  FileStatusWithDigestAdapter.adapt(
+                      fs.getPath(pathFrag).statIfFound(Symlinks.NOFOLLOW)));
+            }
+            return stats;
+          }
+        }));
+  }
+
+  @Test
+  public void testSimpleFileStateBatchStatFallback() throws Exception {
+    checkSimple(new FilesystemValueChecker(null, null,
+        new BatchStat() {
+          @Override
+          public List<FileStatusWithDigest> batchStat(
+              boolean useDigest, boolean includeLinks, Iterable<PathFragment> paths)
+              throws IOException {
+            throw new IOException("try again");
+          }
+        }));
+  }
 
+  private void checkSimple(FilesystemValueChecker checker) throws Exception {
     Path path = fs.getPath("/foo");
     FileSystemUtils.createEmptyFile(path);
     assertEmptyDiff(getDirtyFilesystemKeys(evaluator, checker));
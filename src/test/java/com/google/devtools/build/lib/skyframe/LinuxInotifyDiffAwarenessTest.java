@@ -0,0 +1,171 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.devtools.build.lib.skyframe.DiffAwareness.View;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.util.OS;
+import com.google.devtools.build.lib.vfs.ModifiedFileSet;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Tests for {@link LinuxInotifyDiffAwareness}.
+ */
+@RunWith(JUnit4.class)
+public class LinuxInotifyDiffAwarenessTest {
+
+  private File root;
+  private LinuxInotifyDiffAwareness underTest;
+
+  @Before
+  public final void createWatcher() throws Exception {
+    assumeTrue(OS.getCurrent() == OS.LINUX);
+    root = TestUtils.makeTempDir();
+    new File(root, "pkg").mkdir();
+    underTest = new LinuxInotifyDiffAwareness(root.getPath());
+  }
+
+  @After
+  public final void closeWatcher() {
+    if (underTest != null) {
+      underTest.close();
+    }
+  }
+
+  private ModifiedFileSet nextDiff(View oldView) throws Exception {
+    return underTest.getDiff(oldView, underTest.getCurrentView());
+  }
+
+  @Test
+  public void testReportsChangedFiles() throws Exception {
+    View view = underTest.getCurrentView();
+    Files.write(new File(root, "pkg/BUILD").toPath(), new byte[] {'x'});
+    new File(root, "top").createNewFile();
+    View newView = underTest.getCurrentView();
+    assertThat(underTest.getDiff(view, newView).modifiedSourceFiles())
+        .containsExactly(new PathFragment("pkg/BUILD"), new PathFragment("top"));
+    assertThat(nextDiff(newView).modifiedSourceFiles()).isEmpty();
+  }
+
+  @Test
+  public void testReportsContentsOfNewDirectories() throws Exception {
+    View view = underTest.getCurrentView();
+    File dir = new File(root, "new/sub");
+    dir.mkdirs();
+    new File(dir, "file").createNewFile();
+    View newView = underTest.getCurrentView();
+    assertThat(underTest.getDiff(view, newView).modifiedSourceFiles()).containsAllOf(
+        new PathFragment("new"), new PathFragment("new/sub"), new PathFragment("new/sub/file"));
+
+    // The new directories are watched from now on.
+    new File(dir, "other").createNewFile();
+    assertThat(nextDiff(newView).modifiedSourceFiles())
+        .containsExactly(new PathFragment("new/sub/other"));
+  }
+
+  @Test
+  public void testMovedDirectory() throws Exception {
+    new File(root, "pkg/sub").mkdir();
+    View view = underTest.getCurrentView();
+    new File(root, "pkg").renameTo(new File(root, "moved"));
+    View newView = underTest.getCurrentView();
+    assertThat(underTest.getDiff(view, newView).modifiedSourceFiles()).containsAllOf(
+        new PathFragment("pkg"), new PathFragment("moved"), new PathFragment("moved/sub"));
+
+    new File(root, "moved/sub/file").createNewFile();
+    assertThat(nextDiff(newView).modifiedSourceFiles())
+        .containsExactly(new PathFragment("moved/sub/file"));
+  }
+
+  @Test
+  public void testDirectoryRecreatedUnderTheSameName() throws Exception {
+    new File(root, "pkg/sub").mkdir();
+    View view = underTest.getCurrentView();
+    new File(root, "pkg/sub").renameTo(new File(root, "sub"));
+    new File(root, "pkg/sub").mkdir();
+    new File(root, "sub").renameTo(new File(root, "pkg/sub2"));
+    View newView = underTest.getCurrentView();
+    assertThat(underTest.getDiff(view, newView).modifiedSourceFiles()).containsAllOf(
+        new PathFragment("pkg/sub"), new PathFragment("sub"), new PathFragment("pkg/sub2"));
+
+    new File(root, "pkg/sub/file").createNewFile();
+    new File(root, "pkg/sub2/file").createNewFile();
+    assertThat(nextDiff(newView).modifiedSourceFiles()).containsExactly(
+        new PathFragment("pkg/sub/file"), new PathFragment("pkg/sub2/file"));
+  }
+
+  @Test
+  public void testQueueOverflowReportsEverythingModified() throws Exception {
+    int maxQueuedEvents = Integer.parseInt(Files.readAllLines(
+        Paths.get("/proc/sys/fs/inotify/max_queued_events"), StandardCharsets.US_ASCII).get(0));
+    assumeTrue(maxQueuedEvents <= 1 << 20);
+    View view = underTest.getCurrentView();
+    // Consecutive identical events are merged, so alternate between two files.
+    File[] files = {new File(root, "pkg/a"), new File(root, "pkg/b")};
+    for (int i = 0; i <= maxQueuedEvents; i++) {
+      Files.write(files[i % 2].toPath(), new byte[] {'x'});
+    }
+    // The creation of this directory is lost with the other events.
+    File dir = new File(root, "pkg/late");
+    dir.mkdir();
+    View newView = underTest.getCurrentView();
+    assertThat(underTest.getDiff(view, newView).treatEverythingAsModified()).isTrue();
+
+    // The watcher recovers, and watches the directories created in the meantime.
+    new File(dir, "file").createNewFile();
+    assertThat(nextDiff(newView).modifiedSourceFiles())
+        .containsExactly(new PathFragment("pkg/late/file"));
+  }
+
+  @Test
+  public void testDeletedRootBreaksTheWatcher() throws Exception {
+    underTest.getCurrentView();
+    new File(root, "pkg").delete();
+    root.delete();
+    try {
+      underTest.getCurrentView();
+      fail();
+    } catch (BrokenDiffAwarenessException expected) {
+    }
+  }
+
+  @Test
+  public void testMovedRootBreaksTheWatcher() throws Exception {
+    underTest.getCurrentView();
+    File moved = new File(root.getParentFile(), root.getName() + ".moved");
+    root.renameTo(moved);
+    try {
+      underTest.getCurrentView();
+      fail();
+    } catch (BrokenDiffAwarenessException expected) {
+    } finally {
+      moved.renameTo(root);
+    }
+  }
+}
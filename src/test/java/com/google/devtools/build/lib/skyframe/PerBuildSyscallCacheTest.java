@@ -0,0 +1,154 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link PerBuildSyscallCache}.
+ */
+@RunWith(JUnit4.class)
+public class PerBuildSyscallCacheTest {
+
+  private Path root;
+  private PerBuildSyscallCache cache;
+
+  @Before
+  public final void createCache() throws Exception {
+    root = new InMemoryFileSystem().getPath("/workspace");
+    FileSystemUtils.createDirectoryAndParents(root.getRelative("pkg"));
+    FileSystemUtils.createEmptyFile(root.getRelative("pkg/BUILD"));
+    cache = PerBuildSyscallCache.newBuilder().build();
+  }
+
+  /**
+   * Replaces the cache by the one of the next build, with at most the given numbers of entries
+   * carried over.
+   */
+  private void startNextBuild(int maxStats, long maxReaddirEntries, String... modifiedFiles) {
+    ImmutableSet.Builder<PathFragment> modified = ImmutableSet.builder();
+    for (String modifiedFile : modifiedFiles) {
+      modified.add(new PathFragment(modifiedFile));
+    }
+    PerBuildSyscallCache nextCache = PerBuildSyscallCache.newBuilder().build();
+    nextCache.carryOverUnchanged(
+        cache, ImmutableMap.of(root, modified.build()), maxStats, maxReaddirEntries);
+    cache = nextCache;
+  }
+
+  private void retainUnchanged(String... modifiedFiles) {
+    startNextBuild(Integer.MAX_VALUE, Long.MAX_VALUE, modifiedFiles);
+  }
+
+  @Test
+  public void testUnchangedEntriesAreReused() throws Exception {
+    retainUnchanged();
+    assertNotNull(cache.statNullable(root.getRelative("pkg/BUILD"), Symlinks.FOLLOW));
+    assertThat(cache.readdir(root.getRelative("pkg"), Symlinks.FOLLOW)).hasSize(1);
+
+    retainUnchanged();
+    assertNotNull(cache.statNullable(root.getRelative("pkg/BUILD"), Symlinks.FOLLOW));
+    assertThat(cache.readdir(root.getRelative("pkg"), Symlinks.FOLLOW)).hasSize(1);
+    assertEquals(0, cache.getStatStats().missCount());
+    assertEquals(0, cache.getReaddirStats().missCount());
+    assertEquals(1, cache.getReaddirStats().hitCount());
+  }
+
+  @Test
+  public void testModifiedEntriesAreDropped() throws Exception {
+    retainUnchanged();
+    assertNull(cache.statNullable(root.getRelative("pkg/new"), Symlinks.NOFOLLOW));
+    assertThat(cache.readdir(root.getRelative("pkg"), Symlinks.NOFOLLOW)).hasSize(1);
+
+    FileSystemUtils.createEmptyFile(root.getRelative("pkg/new"));
+    retainUnchanged("pkg/new");
+    assertNotNull(cache.statNullable(root.getRelative("pkg/new"), Symlinks.NOFOLLOW));
+    assertThat(cache.readdir(root.getRelative("pkg"), Symlinks.NOFOLLOW)).hasSize(2);
+  }
+
+  @Test
+  public void testEntriesBelowModifiedDirectoryAreDropped() throws Exception {
+    retainUnchanged();
+    assertNotNull(cache.statNullable(root.getRelative("pkg/BUILD"), Symlinks.NOFOLLOW));
+
+    root.getRelative("pkg/BUILD").delete();
+    retainUnchanged("pkg");
+    assertNull(cache.statNullable(root.getRelative("pkg/BUILD"), Symlinks.NOFOLLOW));
+  }
+
+  @Test
+  public void testEntriesOutsideOfRootsAreDropped() throws Exception {
+    Path other = root.getRelative("../other");
+    retainUnchanged();
+    assertNull(cache.statNullable(other, Symlinks.NOFOLLOW));
+
+    FileSystemUtils.createEmptyFile(other);
+    retainUnchanged();
+    assertNotNull(cache.statNullable(other, Symlinks.NOFOLLOW));
+  }
+
+  @Test
+  public void testEntriesThroughSymlinksAreDropped() throws Exception {
+    Path target = root.getRelative("../target");
+    target.createDirectory();
+    root.getRelative("link").createSymbolicLink(target);
+    retainUnchanged();
+    assertTrue(cache.statNullable(root.getRelative("link"), Symlinks.FOLLOW).isDirectory());
+    assertNull(cache.statNullable(root.getRelative("link/file"), Symlinks.FOLLOW));
+    assertThat(cache.readdir(root.getRelative("link"), Symlinks.FOLLOW)).isEmpty();
+
+    // A change of the symlink target is not in the diff of the root.
+    FileSystemUtils.createEmptyFile(target.getRelative("file"));
+    retainUnchanged();
+    assertNotNull(cache.statNullable(root.getRelative("link/file"), Symlinks.FOLLOW));
+    assertThat(cache.readdir(root.getRelative("link"), Symlinks.FOLLOW)).hasSize(1);
+  }
+
+  @Test
+  public void testCarriedOverEntriesAreBounded() throws Exception {
+    retainUnchanged();
+    assertNotNull(cache.statNullable(root.getRelative("pkg/BUILD"), Symlinks.NOFOLLOW));
+    assertThat(cache.readdir(root.getRelative("pkg"), Symlinks.NOFOLLOW)).hasSize(1);
+
+    // The listing weighs one for the directory and one for its entry.
+    startNextBuild(Integer.MAX_VALUE, 1);
+    assertNotNull(cache.statNullable(root.getRelative("pkg/BUILD"), Symlinks.NOFOLLOW));
+    assertThat(cache.readdir(root.getRelative("pkg"), Symlinks.NOFOLLOW)).hasSize(1);
+    assertEquals(0, cache.getStatStats().missCount());
+    assertEquals(1, cache.getReaddirStats().missCount());
+
+    startNextBuild(0, Long.MAX_VALUE);
+    assertNotNull(cache.statNullable(root.getRelative("pkg/BUILD"), Symlinks.NOFOLLOW));
+    assertThat(cache.readdir(root.getRelative("pkg"), Symlinks.NOFOLLOW)).hasSize(1);
+    assertTrue(cache.getStatStats().missCount() > 0);
+    assertEquals(0, cache.getReaddirStats().missCount());
+  }
+}
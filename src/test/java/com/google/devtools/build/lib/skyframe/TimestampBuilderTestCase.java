@@ -227,7 +227,9 @@ public abstract class TimestampBuilderTestCase extends FoundationTestCase {
             executor,
             keepGoing, /*explain=*/
             false,
-            new ActionCacheChecker(actionCache, null, ALWAYS_EXECUTE_FILTER, false), null);
+            new ActionCacheChecker(actionCache, null, ALWAYS_EXECUTE_FILTER, false),
+            null,
+            /*finalizeActions=*/false);
 
         List<SkyKey> keys = new ArrayList<>();
         for (Artifact artifact : artifacts) {
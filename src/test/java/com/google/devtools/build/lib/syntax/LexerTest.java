@@ -15,6 +15,7 @@ package com.google.devtools.build.lib.syntax;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import com.google.devtools.build.lib.events.Event;
@@ -140,6 +141,21 @@ public class LexerTest {
     assertEquals("IDENTIFIER RPAREN NEWLINE EOF", names(tokens("wiz\t)")));
   }
 
+  @Test
+  public void testIdentifiersAreShared() throws Exception {
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      input.append("name").append(i).append(" = name").append(i).append('\n');
+    }
+    Token[] tokens = tokens(input.toString());
+    for (int i = 0; i < 1000; i++) {
+      Token left = tokens[4 * i];
+      Token right = tokens[4 * i + 2];
+      assertEquals("name" + i, left.value);
+      assertSame(left.value, right.value);
+    }
+  }
+
   @Test
   public void testBasics2() throws Exception {
     assertEquals("RPAREN NEWLINE EOF", names(tokens(")")));
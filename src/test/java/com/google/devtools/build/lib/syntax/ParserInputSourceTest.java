@@ -46,6 +46,32 @@ public class ParserInputSourceTest {
     assertEquals("/tmp/my/file.txt", input.getPath().toString());
   }
 
+  @Test
+  public void testCreateFromLargeLatin1File() throws IOException {
+    byte[] content = new byte[100000];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) i;
+    }
+    Path file = scratch.file("/tmp/my/large.txt", content);
+    char[] chars = ParserInputSource.create(file).getContent();
+    assertEquals(content.length, chars.length);
+    for (int i = 0; i < content.length; i++) {
+      assertEquals(i & 0xff, chars[i]);
+    }
+  }
+
+  @Test
+  public void testIOExceptionIfInputFileIsShorterThanExpected() throws IOException {
+    Path file = scratch.file("/tmp/my/short.txt", "short");
+    try {
+      ParserInputSource.create(file, 10);
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessage(
+          "Unexpected short read from file '/tmp/my/short.txt' (expected 10, got 6 bytes)");
+    }
+  }
+
   @Test
   public void testCreateFromString() {
     String content = "Content provided as a string.";
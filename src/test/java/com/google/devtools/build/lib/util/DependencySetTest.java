@@ -99,6 +99,27 @@ public class DependencySetTest {
     assertEquals(depset.getOutputFileName(), filename);
   }
 
+  @Test
+  public void dotDParser_escapesAcrossReadBufferBoundaries() throws Exception {
+    Path file1 = fileSystem.getPath("/usr/local/blah/blah/genhello/hello.cc");
+    Path file2 = fileSystem.getPath("/usr/local/blah/blah/genhello/with space.h");
+    Path file3 = fileSystem.getPath("/usr/local/blah/blah/genhello/c:colon.h");
+    Path file4 = fileSystem.getPath("/usr/local/blah/blah/genhello/other.h");
+    String filename = "hello.o";
+    Path dotd = scratch.file("/tmp/foo.d",
+        filename + ": \\",
+        " " + file1 + " \\\r",
+        " /usr/local/blah/blah/genhello/with\\ space.h " + file3 + "\\",
+        " " + file4);
+    // Small buffers split the escape sequences and the colons between two reads.
+    for (int bufferSize = 1; bufferSize < 16; bufferSize++) {
+      DependencySet depset = newDependencySet().read(dotd, bufferSize);
+      assertThat(depset.getDependencies())
+          .containsExactlyElementsIn(Sets.newHashSet(file1, file2, file3, file4));
+      assertEquals(filename, depset.getOutputFileName());
+    }
+  }
+
   @Test
   public void dotDParser_oddFormatting() throws Exception {
     Path file1 = fileSystem.getPath("/usr/local/blah/blah/genhello/hello.cc");
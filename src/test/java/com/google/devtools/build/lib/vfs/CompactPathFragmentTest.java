@@ -0,0 +1,166 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link CompactPathFragment}.
+ */
+@RunWith(JUnit4.class)
+public class CompactPathFragmentTest {
+
+  @Test
+  public void testInstancesAreCanonical() {
+    CompactPathFragment first = CompactPathFragment.of("bazel-out/k8-fastbuild/bin/foo/a.o");
+    CompactPathFragment second =
+        CompactPathFragment.of(new String("bazel-out/k8-fastbuild/bin/foo/a.o"));
+    assertSame(first, second);
+    assertSame(first.getParentDirectory(),
+        CompactPathFragment.of("bazel-out/k8-fastbuild/bin/foo/b.o").getParentDirectory());
+    assertSame(first, CompactPathFragment.of("bazel-out/k8-fastbuild/bin").getRelative("foo/a.o"));
+    assertSame(first, CompactPathFragment.of("bazel-out/k8-fastbuild/bin/foo").getChild("a.o"));
+  }
+
+  @Test
+  public void testAbsoluteAndRelativeAreDistinct() {
+    CompactPathFragment relative = CompactPathFragment.of("foo/bar");
+    CompactPathFragment absolute = CompactPathFragment.of("/foo/bar");
+    assertFalse(relative.equals(absolute));
+    assertTrue(absolute.isAbsolute());
+    assertFalse(relative.isAbsolute());
+    assertFalse(absolute.startsWith(relative));
+    assertSame(CompactPathFragment.ROOT, CompactPathFragment.of("/"));
+    assertSame(CompactPathFragment.EMPTY_FRAGMENT, CompactPathFragment.of(""));
+  }
+
+  @Test
+  public void testRoundTripAndHashCode() {
+    for (String path : ImmutableList.of("", "/", "a", "/a", "a/b/c", "/a/b/../c", "./a")) {
+      PathFragment fragment = new PathFragment(path);
+      CompactPathFragment compact = CompactPathFragment.of(fragment);
+      assertEquals(fragment, compact.toPathFragment());
+      assertEquals(fragment.hashCode(), compact.hashCode());
+      assertEquals(fragment.getPathString(), compact.getPathString());
+      assertEquals(fragment.segmentCount(), compact.segmentCount());
+      assertEquals(fragment.getBaseName(), compact.getBaseName());
+    }
+  }
+
+  @Test
+  public void testParentDirectory() {
+    CompactPathFragment path = CompactPathFragment.of("/foo/bar");
+    assertSame(CompactPathFragment.of("/foo"), path.getParentDirectory());
+    assertSame(CompactPathFragment.ROOT, path.getParentDirectory().getParentDirectory());
+    assertNull(CompactPathFragment.ROOT.getParentDirectory());
+    assertNull(CompactPathFragment.EMPTY_FRAGMENT.getParentDirectory());
+  }
+
+  @Test
+  public void testGetRelativeWithAbsoluteFragment() {
+    assertSame(CompactPathFragment.of("/x/y"),
+        CompactPathFragment.of("a/b").getRelative(new PathFragment("/x/y")));
+  }
+
+  @Test
+  public void testGetChildRejectsInvalidBaseNames() {
+    for (String baseName : ImmutableList.of("", ".", "..", "a/b")) {
+      try {
+        CompactPathFragment.of("foo").getChild(baseName);
+        fail(baseName);
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+  }
+
+  @Test
+  public void testStartsWithAndRelativeTo() {
+    CompactPathFragment path = CompactPathFragment.of("foo/bar/baz");
+    assertTrue(path.startsWith(CompactPathFragment.of("foo/bar")));
+    assertTrue(path.startsWith(path));
+    assertTrue(path.startsWith(CompactPathFragment.EMPTY_FRAGMENT));
+    assertFalse(path.startsWith(CompactPathFragment.of("foo/ba")));
+    assertFalse(path.startsWith(CompactPathFragment.of("foo/bar/baz/qux")));
+    assertSame(CompactPathFragment.of("bar/baz"),
+        path.relativeTo(CompactPathFragment.of("foo")));
+    assertSame(CompactPathFragment.EMPTY_FRAGMENT, path.relativeTo(path));
+    try {
+      path.relativeTo(CompactPathFragment.of("bar"));
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void testCompareToMatchesPathFragment() {
+    List<String> paths = ImmutableList.of("/", "", "a", "a/b", "a/c", "/a", "/a/b", "b", "ab",
+        "a/b/c", "/z", "a/b/a");
+    List<PathFragment> fragments = new ArrayList<>();
+    List<CompactPathFragment> compacts = new ArrayList<>();
+    for (String path : paths) {
+      fragments.add(new PathFragment(path));
+      compacts.add(CompactPathFragment.of(path));
+    }
+    Collections.sort(fragments);
+    Collections.sort(compacts);
+    List<PathFragment> converted = new ArrayList<>();
+    for (CompactPathFragment compact : compacts) {
+      converted.add(compact.toPathFragment());
+    }
+    assertEquals(fragments, converted);
+    assertTrue(Ordering.natural().isStrictlyOrdered(compacts));
+  }
+
+  @Test
+  public void testCompareToIgnoresDriveLettersLikePathFragment() {
+    PathFragment cA = new PathFragment('C', true, new String[] {"b"});
+    PathFragment dA = new PathFragment('D', true, new String[] {"a", "c"});
+    PathFragment root = new PathFragment("/a");
+    for (PathFragment f1 : ImmutableList.of(cA, dA, root)) {
+      for (PathFragment f2 : ImmutableList.of(cA, dA, root)) {
+        assertEquals(Integer.signum(f1.compareTo(f2)),
+            Integer.signum(CompactPathFragment.of(f1).compareTo(CompactPathFragment.of(f2))));
+      }
+    }
+  }
+
+  @Test
+  public void testUnreferencedNodesCanBeCollected() throws Exception {
+    CompactPathFragment parent = CompactPathFragment.of("collectable/parent");
+    String name = parent.getChild("child").getPathString();
+    assertThat(name).isEqualTo("collectable/parent/child");
+    // The child is only weakly reachable from its parent; recreating it must always work.
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      assertSame(parent.getChild("child"), parent.getChild("child"));
+    }
+  }
+}
@@ -13,11 +13,13 @@
 // limitations under the License.
 package com.google.devtools.build.lib.vfs;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.unix.NativePosixFiles;
 
 import org.junit.Test;
@@ -25,6 +27,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Tests for the {@link UnixFileSystem} class.
@@ -79,4 +82,56 @@ public class UnixFileSystemTest extends SymlinkAwareFileSystemTest {
     assertTrue(fifo.stat().isFile());
     assertTrue(fifo.stat().isSpecialFile());
   }
+
+  @Test
+  public void testBatchStat() throws Exception {
+    Path dir = absolutize("batch");
+    FileSystemUtils.createDirectoryAndParents(dir.getRelative("a/b"));
+    FileSystemUtils.writeContentAsLatin1(dir.getRelative("a/b/file1"), "12345");
+    FileSystemUtils.createEmptyFile(dir.getRelative("a/b/file2"));
+    FileSystemUtils.createEmptyFile(dir.getRelative("top"));
+    dir.getRelative("a/link").createSymbolicLink(new PathFragment("b/file1"));
+
+    BatchStat batchStat = UnixBatchStat.createIfSupported(dir);
+    if (batchStat == null) {
+      return;  // Not supported on this platform.
+    }
+    List<FileStatusWithDigest> stats = batchStat.batchStat(/*includeDigest=*/false,
+        /*includeLinks=*/true, ImmutableList.of(
+            new PathFragment("a/b/file2"),
+            new PathFragment("a/b/file1"),
+            new PathFragment("missing"),
+            new PathFragment("top/notadir"),
+            new PathFragment("a/link"),
+            new PathFragment("top"),
+            dir.getRelative("a/b").asFragment()));
+    assertEquals(7, stats.size());
+    assertEquals(0, stats.get(0).getSize());
+    assertEquals(5, stats.get(1).getSize());
+    assertTrue(stats.get(1).isFile());
+    assertNull(stats.get(1).getDigest());
+    assertNull(stats.get(2));
+    assertNull(stats.get(3));
+    assertTrue(stats.get(4).isSymbolicLink());
+    assertTrue(stats.get(5).isFile());
+    assertTrue(stats.get(6).isDirectory());
+
+    stats = batchStat.batchStat(/*includeDigest=*/false, /*includeLinks=*/false,
+        ImmutableList.of(new PathFragment("a/link")));
+    assertFalse(stats.get(0).isSymbolicLink());
+    assertEquals(5, stats.get(0).getSize());
+  }
+
+  @Test
+  public void testBatchStatWithMissingRootThrows() throws Exception {
+    BatchStat batchStat = UnixBatchStat.createIfSupported(absolutize("nonexistent"));
+    if (batchStat == null) {
+      return;  // Not supported on this platform.
+    }
+    try {
+      batchStat.batchStat(false, true, ImmutableList.of(new PathFragment("a")));
+      fail();
+    } catch (IOException expected) {
+    }
+  }
 }